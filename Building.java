@@ -0,0 +1,402 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// A building: floors of rooms and furniture stacked in one container file, plus the stairwells and shafts
+// that run through several of them
+//
+// Header:    int magic, short version, short flags, int floorCount, int shaftCount
+// Directory: per floor: long offset, long length of its plan image
+// Shaft:     int x, int y, int width, int height, short kind, short lowestFloor, short highestFloor, short unused
+// Floors:    one complete plan image each (see PlanFile), at the offset given in the directory
+//
+// Opening a building reads the header, directory and shafts only. A floor is decoded into a PlanStore the
+// first time it is asked for and stays in memory while the decoded floors fit in the budget; past that,
+// the least recently used floors without unsaved changes are dropped and decoded again when needed.
+// The floor on the canvas lives in the canvas's elements; the canvas hands a copy back with markChanged
+// when it edited them, and a saved copy of that floor is not kept meanwhile.
+final class Building implements Closeable {
+    static final int MAGIC = 0x46504C42; // "FPLB"
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int FLOOR_ENTRY_BYTES = 16;
+    static final int SHAFT_BYTES = 24;
+    static final int STAIRWELL = 0;
+    static final int SHAFT = 1;
+    // Memory for decoded floors, set with -Dfloorplanner.floorBudgetMB
+    static final long DEFAULT_BUDGET = Long.getLong("floorplanner.floorBudgetMB", 256) << 20;
+
+    // A stairwell or shaft taking up the same area on every floor from lowestFloor to highestFloor
+    record Shaft(int x, int y, int width, int height, int kind, int lowestFloor, int highestFloor) {
+        boolean spans(int floor) {
+            return lowestFloor <= floor && floor <= highestFloor;
+        }
+
+        // Same as Furniture.intersects
+        boolean intersects(int otherX, int otherY, int otherWidth, int otherHeight) {
+            if (width <= 0 || height <= 0 || otherWidth <= 0 || otherHeight <= 0) {
+                return false;
+            }
+            return otherX < (long) x + width && x < (long) otherX + otherWidth
+                    && otherY < (long) y + height && y < (long) otherY + otherHeight;
+        }
+    }
+
+    private static final class Floor {
+        long offset = -1; // Plan image in the file, -1 for a floor that was never saved
+        long length;
+        PlanStore store; // Decoded plan, null while the floor is not in memory
+        boolean dirty; // Changed since the last save, so it cannot be dropped
+        int version; // Bumped by every markChanged, so a save knows what it covered
+        long lastUsed;
+    }
+
+    // What a save writes: changed floors as copies of their plans, the others as byte ranges of the file
+    static final class Snapshot {
+        private final File source;
+        private final PlanStore[] stores; // null where the floor is copied from the source file
+        private final long[] offsets, lengths;
+        private final int[] versions;
+        private final Shaft[] shafts;
+        private final long[] savedOffsets, savedLengths; // Where the floors went in the new file
+
+        private Snapshot(File source, int floorCount, Shaft[] shafts) {
+            this.source = source;
+            this.stores = new PlanStore[floorCount];
+            this.offsets = new long[floorCount];
+            this.lengths = new long[floorCount];
+            this.versions = new int[floorCount];
+            this.shafts = shafts;
+            this.savedOffsets = new long[floorCount];
+            this.savedLengths = new long[floorCount];
+        }
+    }
+
+    private final ArrayList<Floor> floors = new ArrayList<>();
+    private final ArrayList<Shaft> shafts = new ArrayList<>();
+    private final long budget;
+    private FileChannel channel; // Open on the building's file, null until the building is saved
+    private File file;
+    private int current = -1; // Floor on the canvas, never dropped while it has unsaved changes
+    private long useClock;
+
+    // New building whose ground floor is the given plan
+    public Building(PlanStore groundFloor, long budget) {
+        this(budget);
+        Floor floor = new Floor();
+        floor.store = groundFloor;
+        floor.dirty = true;
+        floors.add(floor);
+        current = 0;
+    }
+
+    private Building(long budget) {
+        this.budget = budget;
+    }
+
+    // Every floor of a building file read into memory, with no file behind the result. Used to bring back
+    // an autosave, whose file is overwritten by later autosaves.
+    public static Building read(File file, long budget) throws IOException {
+        try (Building source = open(file, budget)) {
+            Building copy = new Building(budget);
+            for (int i = 0; i < source.floorCount(); i++) {
+                Floor floor = new Floor();
+                floor.store = source.floor(i);
+                floor.dirty = true;
+                copy.floors.add(floor);
+            }
+            copy.shafts.addAll(source.shafts);
+            return copy;
+        }
+    }
+
+    // Read the directory of a building file; no floor is decoded until it is asked for
+    public static Building open(File file, long budget) throws IOException {
+        Building building = new Building(budget);
+        building.file = file;
+        building.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            building.readDirectory();
+        } catch (IOException | RuntimeException e) {
+            building.channel.close();
+            throw e;
+        }
+        return building;
+    }
+
+    private void readDirectory() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = read(0, HEADER_BYTES);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a building file");
+        }
+        short version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported building version " + version);
+        }
+        header.getShort(); // flags, unused
+        int floorCount = header.getInt();
+        int shaftCount = header.getInt();
+        long directoryBytes = (long) floorCount * FLOOR_ENTRY_BYTES + (long) shaftCount * SHAFT_BYTES;
+        if (floorCount < 1 || shaftCount < 0 || HEADER_BYTES + directoryBytes > size) {
+            throw new IOException("Corrupt building header");
+        }
+        ByteBuffer directory = read(HEADER_BYTES, (int) directoryBytes);
+        for (int i = 0; i < floorCount; i++) {
+            Floor floor = new Floor();
+            floor.offset = directory.getLong();
+            floor.length = directory.getLong();
+            if (floor.offset < HEADER_BYTES || floor.length < PlanFile.HEADER_BYTES || floor.offset + floor.length > size) {
+                throw new IOException("Corrupt building directory");
+            }
+            floors.add(floor);
+        }
+        for (int i = 0; i < shaftCount; i++) {
+            int x = directory.getInt();
+            int y = directory.getInt();
+            int width = directory.getInt();
+            int height = directory.getInt();
+            int kind = directory.getShort();
+            int lowest = directory.getShort();
+            int highest = directory.getShort();
+            directory.getShort(); // unused
+            shafts.add(new Shaft(x, y, width, height, kind, lowest, highest));
+        }
+    }
+
+    private ByteBuffer read(long position, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Building file is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    public synchronized int floorCount() {
+        return floors.size();
+    }
+
+    public synchronized File file() {
+        return file;
+    }
+
+    public synchronized boolean isLoaded(int floor) {
+        return floors.get(floor).store != null;
+    }
+
+    public synchronized int loadedFloors() {
+        int loaded = 0;
+        for (Floor floor : floors) {
+            if (floor.store != null) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    public synchronized long loadedBytes() {
+        long bytes = 0;
+        for (Floor floor : floors) {
+            if (floor.store != null) {
+                bytes += floor.store.memoryBytes();
+            }
+        }
+        return bytes;
+    }
+
+    // Mark the floor the canvas shows. Its plan is in the canvas now, so a copy that can be decoded again
+    // from the file is dropped; one with unsaved changes stays until markChanged replaces it.
+    public synchronized void setCurrent(int floor) {
+        current = floor;
+        releaseCurrent();
+    }
+
+    private void releaseCurrent() {
+        Floor floor = floors.get(current);
+        if (!floor.dirty && floor.offset >= 0) {
+            floor.store = null;
+        }
+    }
+
+    // A floor's plan, decoded from the file if it is not in memory. Other floors may be dropped to stay in budget.
+    public synchronized PlanStore floor(int index) throws IOException {
+        Floor floor = floors.get(index);
+        if (floor.store == null) {
+            floor.store = PlanFile.readStore(channel, floor.offset);
+            PlanMetrics.floorLoads.increment();
+        }
+        floor.lastUsed = ++useClock;
+        PlanStore store = floor.store;
+        trim();
+        return store;
+    }
+
+    // Edits were made to a floor's plan; the canvas passes a copy of it, which is kept in memory until it is
+    // saved
+    public synchronized void markChanged(int index, PlanStore store) {
+        Floor floor = floors.get(index);
+        floor.store = store;
+        floor.dirty = true;
+        floor.version++;
+        floor.lastUsed = ++useClock;
+    }
+
+    // Add an empty floor on top; returns its index
+    public synchronized int addFloor() {
+        Floor floor = new Floor();
+        floor.store = new PlanStore();
+        floor.dirty = true;
+        floors.add(floor);
+        return floors.size() - 1;
+    }
+
+    public synchronized void addShaft(Shaft shaft) {
+        shafts.add(shaft);
+    }
+
+    // Stairwells and shafts passing through a floor
+    public synchronized List<Shaft> shaftsOn(int floor) {
+        List<Shaft> on = new ArrayList<>();
+        for (Shaft shaft : shafts) {
+            if (shaft.spans(floor)) {
+                on.add(shaft);
+            }
+        }
+        return on;
+    }
+
+    // Drop the least recently used saved floors until the rest fit in the budget
+    private void trim() {
+        long used = loadedBytes();
+        while (used > budget) {
+            Floor victim = null;
+            for (int i = 0; i < floors.size(); i++) {
+                Floor floor = floors.get(i);
+                if (floor.store != null && !floor.dirty && i != current
+                        && (victim == null || floor.lastUsed < victim.lastUsed)) {
+                    victim = floor;
+                }
+            }
+            if (victim == null) {
+                return; // Everything left is unsaved or on the canvas
+            }
+            used -= victim.store.memoryBytes();
+            victim.store = null;
+            PlanMetrics.floorEvictions.increment();
+        }
+    }
+
+    // Taken on the Event Dispatch Thread. Floor stores are never changed in place, only replaced by
+    // markChanged, so the snapshot shares them and editing can go on while the save runs.
+    public synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(file, floors.size(), shafts.toArray(new Shaft[0]));
+        for (int i = 0; i < floors.size(); i++) {
+            Floor floor = floors.get(i);
+            if (floor.dirty || floor.offset < 0) {
+                snapshot.stores[i] = floor.store;
+            }
+            snapshot.offsets[i] = floor.offset;
+            snapshot.lengths[i] = floor.length;
+            snapshot.versions[i] = floor.version;
+        }
+        return snapshot;
+    }
+
+    // Write a snapshot, replacing the target atomically; interrupting the thread aborts the save and leaves
+    // any existing file untouched. Floors without changes are copied byte for byte, without decoding them.
+    public static void write(Snapshot snapshot, File target, PlanFile.Progress progress) throws IOException {
+        Path path = target.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            int floorCount = snapshot.stores.length;
+            int directoryBytes = HEADER_BYTES + floorCount * FLOOR_ENTRY_BYTES + snapshot.shafts.length * SHAFT_BYTES;
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 FileChannel source = snapshot.source != null
+                         ? FileChannel.open(snapshot.source.toPath(), StandardOpenOption.READ) : null) {
+                out.position(directoryBytes);
+                for (int i = 0; i < floorCount; i++) {
+                    long start = out.position();
+                    if (snapshot.stores[i] != null) {
+                        PlanFile.write(out, snapshot.stores[i], PlanFile.Progress.NONE);
+                    } else {
+                        copy(source, snapshot.offsets[i], snapshot.lengths[i], out);
+                    }
+                    snapshot.savedOffsets[i] = start;
+                    snapshot.savedLengths[i] = out.position() - start;
+                    progress.update(i + 1, floorCount);
+                }
+                ByteBuffer directory = ByteBuffer.allocate(directoryBytes);
+                directory.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                        .putInt(floorCount).putInt(snapshot.shafts.length);
+                for (int i = 0; i < floorCount; i++) {
+                    directory.putLong(snapshot.savedOffsets[i]).putLong(snapshot.savedLengths[i]);
+                }
+                for (Shaft shaft : snapshot.shafts) {
+                    directory.putInt(shaft.x()).putInt(shaft.y()).putInt(shaft.width()).putInt(shaft.height())
+                            .putShort((short) shaft.kind()).putShort((short) shaft.lowestFloor())
+                            .putShort((short) shaft.highestFloor()).putShort((short) 0);
+                }
+                directory.flip();
+                while (directory.hasRemaining()) {
+                    out.write(directory, directory.position());
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void copy(FileChannel source, long offset, long length, FileChannel out) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long count = source.transferTo(offset + copied, length - copied, out);
+            if (count <= 0) {
+                throw new EOFException("Building file is truncated");
+            }
+            copied += count;
+        }
+    }
+
+    // The snapshot is now in the target file: read floors from there from now on, and forget the changes
+    // the save covered. Floors changed after the snapshot was taken stay unsaved.
+    public synchronized void saved(Snapshot snapshot, File target) throws IOException {
+        FileChannel reopened = FileChannel.open(target.toPath(), StandardOpenOption.READ);
+        if (channel != null) {
+            channel.close();
+        }
+        channel = reopened;
+        file = target;
+        for (int i = 0; i < snapshot.savedOffsets.length; i++) {
+            Floor floor = floors.get(i);
+            floor.offset = snapshot.savedOffsets[i];
+            floor.length = snapshot.savedLengths[i];
+            if (floor.version == snapshot.versions[i]) {
+                floor.dirty = false;
+            }
+        }
+        if (current >= 0) {
+            releaseCurrent();
+        }
+        trim();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
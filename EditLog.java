@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+// Undo/redo history of edits as compact delta records
+//
+// Each record holds the element it touched and its state before and after the edit: whether it was on
+// the plan, its store id, position, size and rotation. Adds and deletes are records where one side is
+// absent. Records made by one user action share a gesture number and are undone and redone together.
+// The history is capped: once it is full the oldest gestures are compacted away. A single gesture
+// larger than the cap, such as a bulk import, is kept whole until the next gesture needs the room.
+final class EditLog {
+    static final byte ADD_ROOM = 1;
+    static final byte DELETE_ROOM = 2;
+    static final byte ADD_FURNITURE = 3;
+    static final byte DELETE_FURNITURE = 4;
+    static final byte MOVE = 5;
+    static final byte RESIZE = 6;
+    static final byte ROTATE = 7;
+
+    static final int MAX_RECORDS = 4096;
+    private static final int STATE_INTS = 6; // id, x, y, width, height, rotation; id is -1 when absent
+
+    // Applies a recorded state to an element; present is false when the element must be taken off the plan
+    interface Target {
+        void applyState(Object element, boolean present, int id, int x, int y, int width, int height, int rotation);
+    }
+
+    private final int capacity;
+    private byte[] ops = new byte[64];
+    private int[] gestures = new int[64];
+    private Object[] elements = new Object[64];
+    private int[] before = new int[64 * STATE_INTS];
+    private int[] after = new int[64 * STATE_INTS];
+    private int count; // Records in the log, including undone ones that can be redone
+    private int cursor; // Records before the cursor are applied
+    private int gesture;
+    private boolean gestureOpen;
+    private int gestureStart; // First record of the open gesture
+
+    public EditLog() {
+        this(MAX_RECORDS);
+    }
+
+    public EditLog(int capacity) {
+        this.capacity = Math.max(capacity, 2);
+    }
+
+    // Record one edit. Pass -1 as an id for the side where the element is not on the plan.
+    public void record(byte op, Object element, int beforeId, int beforeX, int beforeY, int beforeWidth, int beforeHeight,
+                       int beforeRotation, int afterId, int afterX, int afterY, int afterWidth, int afterHeight, int afterRotation) {
+        // A new edit discards anything that was undone
+        for (int i = cursor; i < count; i++) {
+            elements[i] = null;
+        }
+        count = cursor;
+        if (!gestureOpen) {
+            gesture++;
+            gestureOpen = true;
+            gestureStart = count;
+        }
+        if (count >= capacity) {
+            compact();
+        }
+        if (count == ops.length) {
+            grow();
+        }
+        ops[count] = op;
+        gestures[count] = gesture;
+        elements[count] = element;
+        putState(before, count, beforeId, beforeX, beforeY, beforeWidth, beforeHeight, beforeRotation);
+        putState(after, count, afterId, afterX, afterY, afterWidth, afterHeight, afterRotation);
+        count++;
+        cursor = count;
+    }
+
+    // Close the current gesture; the next record starts a new undo step
+    public void endGesture() {
+        gestureOpen = false;
+    }
+
+    public boolean canUndo() {
+        return cursor > 0;
+    }
+
+    public boolean canRedo() {
+        return cursor < count;
+    }
+
+    // Revert the last gesture, newest record first
+    public boolean undo(Target target) {
+        endGesture();
+        if (cursor == 0) {
+            return false;
+        }
+        int undone = gestures[cursor - 1];
+        while (cursor > 0 && gestures[cursor - 1] == undone) {
+            cursor--;
+            applyState(target, before, cursor);
+        }
+        return true;
+    }
+
+    // Re-apply the next undone gesture, oldest record first
+    public boolean redo(Target target) {
+        endGesture();
+        if (cursor == count) {
+            return false;
+        }
+        int redone = gestures[cursor];
+        while (cursor < count && gestures[cursor] == redone) {
+            applyState(target, after, cursor);
+            cursor++;
+        }
+        return true;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public byte op(int record) {
+        return ops[record];
+    }
+
+    public void clear() {
+        Arrays.fill(elements, 0, count, null);
+        count = 0;
+        cursor = 0;
+        gestureOpen = false;
+    }
+
+    private void applyState(Target target, int[] states, int record) {
+        int base = record * STATE_INTS;
+        target.applyState(elements[record], states[base] >= 0, states[base], states[base + 1], states[base + 2],
+                states[base + 3], states[base + 4], states[base + 5]);
+    }
+
+    private static void putState(int[] states, int record, int id, int x, int y, int width, int height, int rotation) {
+        int base = record * STATE_INTS;
+        states[base] = id;
+        states[base + 1] = x;
+        states[base + 2] = y;
+        states[base + 3] = width;
+        states[base + 4] = height;
+        states[base + 5] = rotation;
+    }
+
+    // Drop the oldest quarter of the history, rounded up to a whole gesture, so compaction stays amortized O(1).
+    // Records of the gesture being recorded are never dropped.
+    private void compact() {
+        int limit = gestureOpen ? gestureStart : count;
+        if (limit == 0) {
+            return;
+        }
+        int drop = Math.min(Math.max(1, capacity / 4), limit);
+        while (drop < limit && gestures[drop] == gestures[drop - 1]) {
+            drop++;
+        }
+        int kept = count - drop;
+        System.arraycopy(ops, drop, ops, 0, kept);
+        System.arraycopy(gestures, drop, gestures, 0, kept);
+        System.arraycopy(elements, drop, elements, 0, kept);
+        System.arraycopy(before, drop * STATE_INTS, before, 0, kept * STATE_INTS);
+        System.arraycopy(after, drop * STATE_INTS, after, 0, kept * STATE_INTS);
+        Arrays.fill(elements, kept, count, null);
+        count = kept;
+        cursor = Math.max(0, cursor - drop);
+        gestureStart = Math.max(0, gestureStart - drop);
+    }
+
+    private void grow() {
+        int size = ops.length * 2;
+        ops = Arrays.copyOf(ops, size);
+        gestures = Arrays.copyOf(gestures, size);
+        elements = Arrays.copyOf(elements, size);
+        before = Arrays.copyOf(before, size * STATE_INTS);
+        after = Arrays.copyOf(after, size * STATE_INTS);
+    }
+}
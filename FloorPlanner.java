@@ -1,9 +1,28 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 import javax.swing.*;
-import javax.swing.ImageIcon;
 import java.awt.Image;
 import java.awt.Color;
 // Enum for Room Types
@@ -16,6 +35,8 @@ class Room implements Serializable {
     int x, y, width, height;
     RoomType type;
     Color color;
+    transient int storeId = -1; // Id on the canvas (see PlanIds) or slot in a PlanStore, -1 while on neither
+    transient ArrayList<Furniture> children = new ArrayList<>(0); // Furniture enclosed by the room, kept by the canvas
     static final int wallThickness = 2; // Default wall thickness
     public Room(int x, int y, int width, int height, RoomType type) {
         this.x = x;
@@ -26,7 +47,7 @@ class Room implements Serializable {
         this.color = getColorForType(type);
     }
     
-    private Color getColorForType(RoomType type) {
+    static Color getColorForType(RoomType type) {
         return switch (type) {
             case BEDROOM -> Color.GREEN;
             case BATHROOM -> Color.BLUE;
@@ -39,26 +60,58 @@ class Room implements Serializable {
                 width + 2 * wallThickness, height + 2 * wallThickness);
     }
     public boolean overlaps(Rectangle other) {
-        return getBounds().intersects(other);
+        return intersects(other.x, other.y, other.width, other.height);
     }
-    public void keepWithinBounds(int canvasWidth, int canvasHeight, ArrayList<Room> existingRooms) {
+    public boolean overlaps(Room other) {
+        return intersects(other.x - wallThickness, other.y - wallThickness,
+                other.width + 2 * wallThickness, other.height + 2 * wallThickness);
+    }
+    // Same as getBounds().intersects(...) on the wall-inclusive bounds, without allocating
+    public boolean intersects(int otherX, int otherY, int otherWidth, int otherHeight) {
+        int outerWidth = width + 2 * wallThickness;
+        int outerHeight = height + 2 * wallThickness;
+        if (outerWidth <= 0 || outerHeight <= 0 || otherWidth <= 0 || otherHeight <= 0) {
+            return false;
+        }
+        long outerX = (long) x - wallThickness;
+        long outerY = (long) y - wallThickness;
+        return otherX < outerX + outerWidth && outerX < (long) otherX + otherWidth
+                && otherY < outerY + outerHeight && outerY < (long) otherY + otherHeight;
+    }
+    // Same as getBounds().contains(px, py)
+    public boolean contains(int px, int py) {
+        return intersects(px, py, 1, 1);
+    }
+    // True if the area lies entirely inside the room, within its walls
+    public boolean encloses(int otherX, int otherY, int otherWidth, int otherHeight) {
+        return x <= otherX && y <= otherY && (long) otherX + otherWidth <= (long) x + width
+                && (long) otherY + otherHeight <= (long) y + height;
+    }
+    public void keepWithinBounds(int canvasWidth, int canvasHeight, SpatialGrid<Room> existingRooms) {
         x = Math.max(wallThickness, Math.min(x, canvasWidth - width - wallThickness));
         y = Math.max(wallThickness, Math.min(y, canvasHeight - height - wallThickness));
-        for (Room existingRoom : existingRooms) {
-            if (existingRoom != this && existingRoom.overlaps(getBounds())) {
-                // If there's an overlap, push the room back inside the canvas bounds
-                x = Math.max(Room.wallThickness, Math.min(x, canvasWidth - width - Room.wallThickness));
-                y = Math.max(Room.wallThickness, Math.min(y, canvasHeight - height - Room.wallThickness));
-            }
+        // Only rooms sharing grid cells with this one can overlap it
+        if (existingRooms.findFirst(x - wallThickness, y - wallThickness, width + 2 * wallThickness,
+                height + 2 * wallThickness, this, Room::intersects) != null) {
+            // If there's an overlap, push the room back inside the canvas bounds
+            x = Math.max(Room.wallThickness, Math.min(x, canvasWidth - width - Room.wallThickness));
+            y = Math.max(Room.wallThickness, Math.min(y, canvasHeight - height - Room.wallThickness));
         }
     }
 }
 // Furniture Class with rotation (used for both Door and Window)
 class Furniture implements Serializable {
+    // Furniture/fixture types in the order offered by the control panel (index is the saved type ordinal)
+    static final String[] TYPES = {
+        "Sofa", "Table", "Chair", "Bed", "Dining_Set", "Door", "Window", "Commode", "Wash_Basin", "Shower", "Sink", "Stove"
+    };
     int x, y, width, height;
+    int rotation; // Number of quarter turns applied by rotate()
+    transient int storeId = -1; // Id on the canvas (see PlanIds) or slot in a PlanStore, -1 while on neither
+    transient Room parent; // Room enclosing this piece, null if it stands outside every room
     String type;
-    ImageIcon icon;
     String iconPath;
+    private transient IconCache.Key iconKey; // Shared scaled icon lookup, refreshed when the size changes
      private static final int RESIZE_HANDLE_SIZE = 8;  // Size of the resize handle (in pixels)
 
     public Furniture(int x, int y, int width, int height, String type) {
@@ -68,7 +121,12 @@ class Furniture implements Serializable {
         this.height = height;
         this.type = type;
         
-        String iconPath = switch (type)
+        this.iconPath = iconPathFor(type);
+    }
+
+    // Icon resource for a furniture type
+    static String iconPathFor(String type) {
+        return switch (type)
          {
             case "Sofa" -> "/sofa.png";
             case "Table" -> "/table.png";
@@ -87,15 +145,56 @@ class Furniture implements Serializable {
 
             default -> "/default.png";
         };
-        this.icon = new ImageIcon(getClass().getResource(iconPath)); // Using the set iconPath here
-
-        Image img = icon.getImage();
-        Image scaledImage = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-        icon = new ImageIcon(scaledImage);
+    }
+    // Icon scaled to the current size, shared with every furniture of the same type and size
+    public Image getIcon() {
+        if (iconKey == null || iconKey.width() != width || iconKey.height() != height) {
+            iconKey = new IconCache.Key(iconPath, width, height);
+        }
+        return IconCache.get(iconKey);
+    }
+    // Create the right Furniture subclass for a type name
+    public static Furniture create(int x, int y, int width, int height, String type) {
+        return switch (type) {
+            case "Door" -> new Door(x, y, width, height);
+            case "Window" -> new Window(x, y, width, height);
+            default -> new Furniture(x, y, width, height, type);
+        };
+    }
+    // A new piece of a type at the position and size the control panel adds it with
+    public static Furniture createDefault(String type) {
+        return switch (type) {
+            case "Door" -> new Door(50, 50, 50, 20);
+            case "Window" -> new Window(100, 50, 60, 20);
+            default -> new Furniture(50, 50, 50, 30, type);
+        };
+    }
+    public static int typeOrdinal(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
     }
     public Rectangle getBounds() {
         return new Rectangle(x, y, width, height);
     }
+    // Same as getBounds().intersects(...), without allocating
+    public boolean intersects(int otherX, int otherY, int otherWidth, int otherHeight) {
+        if (width <= 0 || height <= 0 || otherWidth <= 0 || otherHeight <= 0) {
+            return false;
+        }
+        return otherX < (long) x + width && x < (long) otherX + otherWidth
+                && otherY < (long) y + height && y < (long) otherY + otherHeight;
+    }
+    public boolean overlaps(Furniture other) {
+        return intersects(other.x, other.y, other.width, other.height);
+    }
+    // Same as getBounds().contains(px, py)
+    public boolean contains(int px, int py) {
+        return intersects(px, py, 1, 1);
+    }
     public void resize(int dx, int dy) {
         this.width += dx;
         this.height += dy;
@@ -125,6 +224,7 @@ class Furniture implements Serializable {
         int temp = width;
         width = height;
         height = temp;
+        rotation = (rotation + 1) % 4;
     }
 }
 // Door class (a type of Furniture)
@@ -152,12 +252,98 @@ class Window extends Furniture {
 class CanvasPanel extends JPanel {
     private ArrayList<Room> rooms = new ArrayList<>();
     private ArrayList<Furniture> furnitureList = new ArrayList<>();
+    private final SpatialGrid<Room> roomIndex = new SpatialGrid<>(INDEX_CELL_SIZE);
+    private final SpatialGrid<Furniture> furnitureIndex = new SpatialGrid<>(INDEX_CELL_SIZE);
+    // Furniture outside every room. Pieces inside a room are kept in its children instead, so checking or
+    // hit-testing them only involves their siblings and the few free pieces around.
+    private final SpatialGrid<Furniture> looseIndex = new SpatialGrid<>(INDEX_CELL_SIZE);
+    private final ArrayList<Furniture> rehomed = new ArrayList<>(); // Reused by settleFurniture
+    private final PlanIds ids = new PlanIds(); // Id of every room and furniture on the canvas
     private Room selectedRoom = null;
     private Furniture selectedFurniture = null;
-    private Point initialClick;
+    private final Point initialClick = new Point(); // Reused across drag events
     private Furniture resizingFurniture = null;
-    private Point resizingInitialClick;
+    private final Point resizingInitialClick = new Point();
     private boolean isResizing = false;
+    // Large plans opened with openPagedPlan: only tiles near the visible area are materialized
+    private MappedPlan pagedPlan = null;
+    private final HashMap<Integer, PlanPage> loadedPages = new HashMap<>();
+    private final IdentityHashMap<Object, PlanPage> pageOfElement = new IdentityHashMap<>();
+    private Rectangle pagedView = null;
+    private final HashSet<Integer> requestedPages = new HashSet<>(); // Tiles being read on the plan-io thread
+    // Cached renderings of everything except the items being edited, drawn under and over the selected room
+    private BufferedImage roomLayer = null;
+    private BufferedImage furnitureLayer = null;
+    private boolean layersValid = false;
+    private boolean overviewLayers = false; // Layers hold a zoomed-out overview, see PlanRenderer.Overview
+    private Room layerSkippedRoom = null;
+    private Furniture layerSkippedFurniture = null;
+    private Furniture layerSkippedResizing = null;
+    // Area touched by the current drag event, in canvas pixels
+    private int damageMinX, damageMinY, damageMaxX, damageMaxY;
+    // Background saving, loading and autosave
+    private final PlanPersistence persistence = new PlanPersistence();
+    private PlanPersistence.LoadTask loadTask = null;
+    private int changes; // Bumped by every change recorded for undo, journal and autosave
+    private int buildingEdits; // Floors and shafts added; autosaved like changes, but not part of the plan
+    private int autosavedChanges; // changes + buildingEdits at the last autosave
+    // Where this canvas autosaves a building, or a plan without a journal; named after the process, so a
+    // later planner can tell that it was left behind
+    private final File autosaveFile = new File(AUTOSAVE_DIR,
+            AUTOSAVE_PREFIX + ProcessHandle.current().pid() + "-" + ++canvasCount + AUTOSAVE_SUFFIX);
+    private final Timer autosaveTimer = new Timer(AUTOSAVE_INTERVAL_MS, e -> autosave());
+    private int planGeneration; // Bumped whenever the whole plan is replaced
+    // Undo/redo history, and the journal of unsaved changes once the plan has a file
+    private final EditLog editLog = new EditLog();
+    private PlanJournal journal = null;
+    // State of the items under the mouse when it was pressed ({x, y, width, height, rotation}),
+    // so a whole drag or resize is recorded as one edit on release
+    private Room pressedRoom = null;
+    private Furniture pressedFurniture = null;
+    private boolean pressedOnHandle = false;
+    private final int[] pressedRoomState = new int[5];
+    private final int[] pressedFurnitureState = new int[5];
+    private final int[] editState = new int[5];
+    // Drags are coalesced: mouse events only store the latest position, which a timer running at the
+    // display refresh rate applies once per frame
+    private final Timer dragTimer = new Timer(frameDelayMillis(), e -> dragFrame());
+    private int pendingDragX, pendingDragY;
+    private long pendingSince; // When the oldest drag event not yet applied arrived
+    private int pendingEvents; // Drag events coalesced into the pending position
+    private boolean dragPending = false;
+    // Snapping of dragged elements to other elements' edges and centers, or else to the grid. The offset the
+    // last snap added is taken back before the next position is applied, so the element still follows the mouse.
+    private final SnapIndex<Object> snapIndex = new SnapIndex<>();
+    private boolean snapping = true;
+    private boolean pendingSnap; // Snapping for the pending drag position; Alt turns it off while held
+    private int snapShiftX, snapShiftY;
+    private int guideX = SnapIndex.NONE, guideY = SnapIndex.NONE; // Alignment guides shown during a drag
+    private final Predicate<Object> snapSkip = this::movesWithDrag;
+    // Live figures for the analytics panel, fed by the same index updates as the spatial indexes
+    private final PlanAnalytics analytics = new PlanAnalytics();
+    // Element blocking the current drag, highlighted until the drag moves clear of it or ends
+    private boolean hasConflict = false;
+    private int conflictX, conflictY, conflictWidth, conflictHeight;
+    // Viewport: the plan point shown at the top-left pixel and the zoom, as a plan-to-screen transform.
+    // Mouse positions are mapped back to plan coordinates before any hit test or edit.
+    private double zoom = 1;
+    private double viewX = 0, viewY = 0;
+    private final AffineTransform viewTransform = new AffineTransform();
+    private boolean panning = false;
+    private int panStartX, panStartY;
+    private double panOriginX, panOriginY;
+    // Multi-floor building: the canvas shows one floor at a time as its plan, see Building
+    private Building building = null;
+    private int floor; // Floor shown while a building is open
+    private int floorChanges; // Value of changes when the floor's edits were last handed to the building
+    private List<Building.Shaft> shafts = List.of(); // Stairwells and shafts through the floor shown
+    private boolean buildingBusy = false; // A floor switch or building save is running
+    // Shared editing session, see SyncClient; edits that came from it are applied without being sent back
+    private SyncClient sync = null;
+    private SyncServer syncServer = null; // Running in this process when the session is hosted here
+    private boolean applyingRemote = false;
+    // Repaints the stats overlay while it is shown
+    private final Timer statsTimer = new Timer(STATS_REFRESH_MS, e -> repaint());
 
 
     private static final int ROOM_SPACING = 20; // Space between rooms horizontally
@@ -166,133 +352,505 @@ class CanvasPanel extends JPanel {
     private static final int CANVAS_HEIGHT = 600; // Canvas height
     private static final int MAX_ROOMS_IN_ROW = 1000; // Maximum rooms per row
     public static final int GRID_SIZE = 20; // Grid size
+    private static final int INDEX_CELL_SIZE = GRID_SIZE * 5; // Spatial index cell size
+    private static final int PAGE_MARGIN = 256; // Extra area around the view kept materialized when paging
+    private static final int DAMAGE_PADDING = 2; // Covers borders and dashed window strokes drawn outside the bounds
+    private static final int AUTOSAVE_INTERVAL_MS = 30_000;
+    private static final double MIN_ZOOM = 1.0 / 64;
+    private static final double MAX_ZOOM = 8;
+    private static final double ZOOM_STEP = 1.25; // Zoom factor per mouse wheel notch or key press
+    private static final int STATS_REFRESH_MS = 500;
+    private static final int SNAP_DISTANCE = 8; // In screen pixels
+    private static final int MIN_GRID_SPACING = 8; // The grid is not drawn when its lines are closer, in screen pixels
+    private static final int STATS_MARGIN = 4;
+    private static final Color STATS_BACKGROUND = new Color(0, 0, 0, 160);
+    static final File AUTOSAVE_DIR = new File(System.getProperty("java.io.tmpdir"));
+    private static final String AUTOSAVE_PREFIX = "floorplanner-autosave-";
+    private static final String AUTOSAVE_SUFFIX = ".autosave";
+    private static int canvasCount; // Numbers the autosave files of the canvases in this process
+
+    // Elements materialized from one tile of a paged plan
+    private static final class PlanPage {
+        final ArrayList<Room> rooms = new ArrayList<>();
+        final ArrayList<Furniture> furniture = new ArrayList<>();
+        // Set once an element in it is selected, moved or changed: the mapped file does not have its edits,
+        // so the page is never dropped
+        boolean pinned;
+    }
     public CanvasPanel() {
         setBackground(Color.LIGHT_GRAY);
         setPreferredSize(new Dimension(CANVAS_WIDTH/4, CANVAS_HEIGHT));
+        // Undo and redo shortcuts work wherever the focus is in the window
+        InputMap keys = getInputMap(WHEN_IN_FOCUSED_WINDOW);
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "redo");
+        getActionMap().put("undo", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                undo();
+            }
+        });
+        getActionMap().put("redo", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
+        // Zoom about the middle of the view, and back to 100%
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK), "zoomIn");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_ADD, InputEvent.CTRL_DOWN_MASK), "zoomIn");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK), "zoomOut");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_SUBTRACT, InputEvent.CTRL_DOWN_MASK), "zoomOut");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_0, InputEvent.CTRL_DOWN_MASK), "resetView");
+        getActionMap().put("zoomIn", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                zoomIn();
+            }
+        });
+        getActionMap().put("zoomOut", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                zoomOut();
+            }
+        });
+        getActionMap().put("resetView", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                resetView();
+            }
+        });
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "toggleStats");
+        getActionMap().put("toggleStats", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                toggleStats();
+            }
+        });
+        // Paged plans follow the view, so a resize can bring new tiles into it
+        addComponentListener(new ComponentAdapter() {
+            public void componentResized(ComponentEvent e) {
+                pageInView();
+            }
+        });
+        // The wheel zooms about the mouse pointer
+        addMouseWheelListener(e -> zoomAt(e.getX(), e.getY(), Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation())));
+        dragTimer.setInitialDelay(0);
         // Mouse listeners for rooms and furniture
         addMouseListener(new MouseAdapter() {
             public void mousePressed(MouseEvent e) {
-                for (Furniture furniture : furnitureList) {
-                    if (furniture.isNearResizeHandle(e.getPoint())) {
-                        resizingFurniture = furniture;
-                        resizingInitialClick = e.getPoint();
-                        isResizing = true;
-                        return;
-                    }
-                }
-                selectRoom(e.getPoint());
-                selectFurniture(e.getPoint());
-                initialClick = e.getPoint();
+                long start = System.nanoTime();
+                pressed(e);
+                PlanMetrics.MOUSE.record(System.nanoTime() - start);
             }
             public void mouseReleased(MouseEvent e) {
-                isResizing = false;
-                if (resizingFurniture != null) {
-                    resizingFurniture.keepWithinBounds(getWidth(), getHeight());
-                    repaint();
-                }
-                if (selectedRoom != null) {
-                    selectedRoom.keepWithinBounds(getWidth(), getHeight(), rooms);
-                    repaint();
+                long start = System.nanoTime();
+                released(e);
+                PlanMetrics.MOUSE.record(System.nanoTime() - start);
+            }
+        });
+        addMouseMotionListener(new MouseAdapter() {
+            public void mouseDragged(MouseEvent e) {
+                // Only remember the latest position; the frame timer applies it at most once per display refresh.
+                // The position stays in screen pixels, so a pan in progress is applied the same way.
+                PlanMetrics.dragEvents.increment();
+                if (!dragPending) {
+                    pendingSince = System.nanoTime();
+                    pendingEvents = 0;
                 }
-                if (selectedFurniture != null) {
-                    selectedFurniture.keepWithinBounds(getWidth(), getHeight());
-                    repaint();
+                pendingEvents++;
+                pendingDragX = e.getX();
+                pendingDragY = e.getY();
+                pendingSnap = snapping && !e.isAltDown();
+                dragPending = true;
+                if (!dragTimer.isRunning()) {
+                    dragTimer.start();
                 }
             }
         });
-        addMouseMotionListener(new MouseAdapter() {
-    public void mouseDragged(MouseEvent e) {
+    }
+    private void pressed(MouseEvent e) {
+        // The middle or right button pans the view
+        if (SwingUtilities.isMiddleMouseButton(e) || SwingUtilities.isRightMouseButton(e)) {
+            panning = true;
+            panStartX = e.getX();
+            panStartY = e.getY();
+            panOriginX = viewX;
+            panOriginY = viewY;
+            return;
+        }
+        Point point = toPlan(e.getX(), e.getY());
+        // The handle sits on the bottom-right edge, so look one pixel around the point
+        Furniture furniture = furnitureIndex.findFirst(point.x - 1, point.y - 1, 2, 2,
+                candidate -> candidate.isNearResizeHandle(point));
+        pressedRoom = null;
+        pressedFurniture = null;
+        pressedOnHandle = furniture != null;
+        if (furniture != null) {
+            pinPageOf(furniture);
+            resizingFurniture = furniture;
+            resizingInitialClick.setLocation(point);
+            isResizing = true;
+            pressedFurniture = captureState(furniture, pressedFurnitureState);
+            return;
+        }
+        selectRoom(point);
+        selectFurniture(point);
+        initialClick.setLocation(point);
+        snapShiftX = 0;
+        snapShiftY = 0;
+        if (selectedRoom != null) {
+            pressedRoom = captureState(selectedRoom, pressedRoomState);
+        }
+        if (selectedFurniture != null) {
+            pressedFurniture = captureState(selectedFurniture, pressedFurnitureState);
+        }
+    }
+    private void released(MouseEvent e) {
+        flushDrag();
+        if (panning) {
+            panning = false;
+            return;
+        }
+        clearConflict();
+        clearGuides();
+        isResizing = false;
+        if (resizingFurniture != null) {
+            resizingFurniture.keepWithinBounds(boundsWidth(), boundsHeight());
+            indexFurniture(resizingFurniture);
+            repaint();
+        }
+        if (selectedRoom != null) {
+            keepWithinBounds(selectedRoom);
+            repaint();
+        }
+        if (selectedFurniture != null) {
+            selectedFurniture.keepWithinBounds(boundsWidth(), boundsHeight());
+            indexFurniture(selectedFurniture);
+            repaint();
+        }
+        // One undo step for everything the press-drag-release changed
+        if (pressedRoom != null) {
+            recordChange(EditLog.MOVE, pressedRoom, pressedRoomState);
+            recordChildMoves(pressedRoom, pressedRoom.x - pressedRoomState[0], pressedRoom.y - pressedRoomState[1]);
+        }
+        if (pressedFurniture != null) {
+            recordChange(pressedOnHandle ? EditLog.RESIZE : EditLog.MOVE, pressedFurniture, pressedFurnitureState);
+        }
+        editLog.endGesture();
+        pressedRoom = null;
+        pressedFurniture = null;
+    }
+    // Frame timer tick: apply the newest drag position, or stop once the mouse has gone quiet
+    private void dragFrame() {
+        if (!dragPending) {
+            dragTimer.stop();
+            return;
+        }
+        dragPending = false;
+        applyPending();
+    }
+    // Apply a drag position that has not been processed yet, e.g. right before the mouse is released
+    private void flushDrag() {
+        dragTimer.stop();
+        if (dragPending) {
+            dragPending = false;
+            applyPending();
+        }
+    }
+    private void applyPending() {
+        PlanMetrics.DragFrameEvent event = new PlanMetrics.DragFrameEvent();
+        event.begin();
+        long start = System.nanoTime();
+        if (panning) {
+            viewX = panOriginX - (pendingDragX - panStartX) / zoom;
+            viewY = panOriginY - (pendingDragY - panStartY) / zoom;
+            updateView();
+        } else {
+            applyDrag(planX(pendingDragX), planY(pendingDragY));
+        }
+        long end = System.nanoTime();
+        PlanMetrics.dragFrame(event, pendingEvents, end - start, end - pendingSince);
+    }
+    // Plan coordinates of a pixel of the canvas
+    Point toPlan(int screenX, int screenY) {
+        return new Point(planX(screenX), planY(screenY));
+    }
+    private int planX(int screenX) {
+        return (int) Math.floor(screenX / zoom + viewX);
+    }
+    private int planY(int screenY) {
+        return (int) Math.floor(screenY / zoom + viewY);
+    }
+    // Zoom by a factor, keeping the plan point under the given pixel in place
+    public void zoomAt(int screenX, int screenY, double factor) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        viewX += screenX / zoom - screenX / newZoom;
+        viewY += screenY / zoom - screenY / newZoom;
+        zoom = newZoom;
+        updateView();
+    }
+    public void zoomIn() {
+        zoomAt(getWidth() / 2, getHeight() / 2, ZOOM_STEP);
+    }
+    public void zoomOut() {
+        zoomAt(getWidth() / 2, getHeight() / 2, 1 / ZOOM_STEP);
+    }
+    // Back to 100% with the plan origin at the top-left corner
+    public void resetView() {
+        zoom = 1;
+        viewX = 0;
+        viewY = 0;
+        updateView();
+    }
+    double getZoom() {
+        return zoom;
+    }
+    private void updateView() {
+        viewTransform.setTransform(zoom, 0, 0, zoom, -viewX * zoom, -viewY * zoom);
+        invalidateLayers();
+        pageInView();
+        repaint();
+    }
+    // Plan area shown by the visible part of the canvas
+    private Rectangle viewBounds() {
+        Rectangle visible = getVisibleRect();
+        int left = (int) Math.floor(visible.x / zoom + viewX);
+        int top = (int) Math.floor(visible.y / zoom + viewY);
+        int right = (int) Math.ceil((visible.x + visible.width) / zoom + viewX);
+        int bottom = (int) Math.ceil((visible.y + visible.height) / zoom + viewY);
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+    // Elements are kept between the plan origin and the far edge of the view, or the canvas size if that is larger
+    private int boundsWidth() {
+        return (int) Math.max(getWidth(), Math.ceil(viewX + getWidth() / zoom));
+    }
+    private int boundsHeight() {
+        return (int) Math.max(getHeight(), Math.ceil(viewY + getHeight() / zoom));
+    }
+    // Repaint the pixels showing a plan rectangle, with room for borders and strokes drawn outside it
+    private void repaintPlanArea(int x, int y, int width, int height) {
+        int padding = (int) Math.ceil(DAMAGE_PADDING * Math.max(zoom, 1)) + 1;
+        int left = (int) Math.floor((x - viewX) * zoom) - padding;
+        int top = (int) Math.floor((y - viewY) * zoom) - padding;
+        int right = (int) Math.ceil(((long) x + width - viewX) * zoom) + padding;
+        int bottom = (int) Math.ceil(((long) y + height - viewY) * zoom) + padding;
+        repaint(left, top, right - left, bottom - top);
+    }
+    // Timer period matching the screen's refresh rate, 60 Hz when it is unknown
+    private static int frameDelayMillis() {
+        int hz = 60;
+        if (!GraphicsEnvironment.isHeadless()) {
+            int rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDisplayMode().getRefreshRate();
+            if (rate != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                hz = rate;
+            }
+        }
+        return Math.max(1, 1000 / hz);
+    }
+    private void showConflict(Room blocker) {
+        showConflict(blocker.x - Room.wallThickness, blocker.y - Room.wallThickness,
+                blocker.width + 2 * Room.wallThickness, blocker.height + 2 * Room.wallThickness);
+    }
+    private void showConflict(Furniture blocker) {
+        showConflict(blocker.x, blocker.y, blocker.width, blocker.height);
+    }
+    private void showConflict(Building.Shaft blocker) {
+        showConflict(blocker.x(), blocker.y(), blocker.width(), blocker.height());
+    }
+    // Move the conflict highlight; both the old and new highlight areas are repainted
+    private void showConflict(int x, int y, int width, int height) {
+        clearConflict();
+        hasConflict = true;
+        conflictX = x;
+        conflictY = y;
+        conflictWidth = width;
+        conflictHeight = height;
+        repaintPlanArea(x, y, width, height);
+    }
+    private void clearConflict() {
+        if (hasConflict) {
+            hasConflict = false;
+            repaintPlanArea(conflictX, conflictY, conflictWidth, conflictHeight);
+        }
+    }
+    private void applyDrag(int mouseX, int mouseY) {
+        // Only the old and new bounds of the dragged items are repainted
+        resetDamage();
         // Handle resizing of furniture
         if (isResizing && resizingFurniture != null) {
             // Calculate the change in mouse position for resizing
-            int dx = e.getX() - resizingInitialClick.x;
-            int dy = e.getY() - resizingInitialClick.y;
+            int dx = mouseX - resizingInitialClick.x;
+            int dy = mouseY - resizingInitialClick.y;
 
-            // Resize the furniture based on the mouse movement
+            // Resize the furniture based on the mouse movement, without growing past the walls of its room
+            addDamage(resizingFurniture);
             resizingFurniture.resize(dx, dy);
-            resizingInitialClick = e.getPoint(); // Update the initial click position for next drag
-            repaint();
+            Room parent = resizingFurniture.parent;
+            if (parent != null) {
+                resizingFurniture.width = Math.min(resizingFurniture.width, parent.x + parent.width - resizingFurniture.x);
+                resizingFurniture.height = Math.min(resizingFurniture.height, parent.y + parent.height - resizingFurniture.y);
+            }
+            indexFurniture(resizingFurniture);
+            addDamage(resizingFurniture);
+            resizingInitialClick.setLocation(mouseX, mouseY); // Update the initial click position for next drag
+            repaintDamage();
             return; // Stop further processing as resizing is happening
         }
+        int dx = mouseX - initialClick.x;
+        int dy = mouseY - initialClick.y;
+        initialClick.setLocation(mouseX, mouseY);
 
-        // Handle furniture dragging (when no resizing)
-        if (selectedFurniture != null && selectedRoom != null) {
-            // Calculate the new position for the furniture
-            int dx = e.getX() - initialClick.x;
-            int dy = e.getY() - initialClick.y;
-
-            // Move the furniture inside the selected room, if applicable
-            selectedFurniture.x += dx;
-            selectedFurniture.y += dy;
-
-            if (selectedRoom != null) {
-                moveFurnitureInsideRoom(selectedFurniture, selectedRoom);
+        if (selectedFurniture != null) {
+            // Furniture moves on its own; picked up inside a room, it stays inside that room
+            Furniture furniture = selectedFurniture;
+            addDamage(furniture);
+            int oldX = furniture.x;
+            int oldY = furniture.y;
+            int oldShiftX = snapShiftX;
+            int oldShiftY = snapShiftY;
+            furniture.x += dx - snapShiftX;
+            furniture.y += dy - snapShiftY;
+            snap(furniture.x, furniture.y, furniture.width, furniture.height);
+            furniture.x += snapShiftX;
+            furniture.y += snapShiftY;
+            if (selectedRoom != null && furniture.parent == selectedRoom) {
+                moveFurnitureInsideRoom(furniture, selectedRoom);
             }
 
-            // Update the initial position for next drag event
-            initialClick = e.getPoint();
-            repaint();
-        }
-
-        // Handle room dragging
-        if (selectedRoom != null) {
-            // Calculate the new position for the room itself
-            int dx = e.getX() - initialClick.x;
-            int dy = e.getY() - initialClick.y;
-            selectedRoom.x += dx;
-            selectedRoom.y += dy;
-            initialClick = e.getPoint();
-
-            // Check if the room overlaps with other rooms
-            boolean overlapDetected = false;
-            for (Room room : rooms) {
-                if (room != selectedRoom && room.overlaps(selectedRoom.getBounds())) {
-                    overlapDetected = true;
-                    break; // If overlap is detected, stop checking further
+            // If it would overlap other furniture or a shaft, revert the position and highlight what is in the way
+            Furniture blocker = findFurnitureConflict(furniture);
+            Building.Shaft shaft = blocker == null
+                    ? findShaft(furniture.x, furniture.y, furniture.width, furniture.height) : null;
+            if (blocker != null || shaft != null) {
+                furniture.x = oldX;
+                furniture.y = oldY;
+                snapShiftX = oldShiftX;
+                snapShiftY = oldShiftY;
+                if (blocker != null) {
+                    showConflict(blocker);
+                } else {
+                    showConflict(shaft);
                 }
+            } else {
+                clearConflict();
             }
+            indexFurniture(furniture);
+            addDamage(furniture);
+        } else if (selectedRoom != null) {
+            // A room carries its furniture along, all of it within the room's own bounds
+            Room room = selectedRoom;
+            addDamage(room);
+            int oldX = room.x;
+            int oldY = room.y;
+            int oldShiftX = snapShiftX;
+            int oldShiftY = snapShiftY;
+            room.x += dx - snapShiftX;
+            room.y += dy - snapShiftY;
+            snap(room.x, room.y, room.width, room.height);
+            room.x += snapShiftX;
+            room.y += snapShiftY;
 
-            // If overlap is detected, revert position and show error message
-            if (overlapDetected) {
-                selectedRoom.x -= dx;
-                selectedRoom.y -= dy;
-                JOptionPane.showMessageDialog(CanvasPanel.this, "Cannot move the room: Overlap detected!");
+            // If it would overlap nearby rooms or a shaft, revert the position and highlight what is in the way
+            Room blocker = findRoomConflict(room);
+            Building.Shaft shaft = blocker == null ? findShaft(room.x - Room.wallThickness, room.y - Room.wallThickness,
+                    room.width + 2 * Room.wallThickness, room.height + 2 * Room.wallThickness) : null;
+            if (blocker != null || shaft != null) {
+                room.x = oldX;
+                room.y = oldY;
+                snapShiftX = oldShiftX;
+                snapShiftY = oldShiftY;
+                if (blocker != null) {
+                    showConflict(blocker);
+                } else {
+                    showConflict(shaft);
+                }
             } else {
+                clearConflict();
                 // Ensure the room stays within canvas bounds
-                selectedRoom.keepWithinBounds(getWidth(), getHeight(), rooms);
-                repaint();
+                room.keepWithinBounds(boundsWidth(), boundsHeight(), roomIndex);
+                indexRoom(room);
+                moveChildren(room, room.x - oldX, room.y - oldY);
             }
+            addDamage(room);
         }
-
-        // Handle furniture dragging freely on the canvas
-        if (selectedFurniture != null) {
-            // Calculate the new position for the selected furniture
-            int dx = e.getX() - initialClick.x;
-            int dy = e.getY() - initialClick.y;
-            selectedFurniture.x += dx;
-            selectedFurniture.y += dy;
-            initialClick = e.getPoint();
-
-            // Check if the furniture overlaps with other furniture
-            boolean overlapDetected = false;
-            for (Furniture furniture : furnitureList) {
-                if (furniture != selectedFurniture && furniture.getBounds().intersects(selectedFurniture.getBounds())) {
-                    overlapDetected = true;
-                    break; // If overlap is detected, stop checking further
-                }
+        repaintDamage();
+    }
+    // Work out the snap for an element at an unsnapped position: each axis lines up one of its edges or its
+    // center with the nearest edge or center of another element within SNAP_DISTANCE, else its left or top
+    // edge with the grid. Sets snapShiftX and snapShiftY and moves the alignment guides.
+    private void snap(int x, int y, int width, int height) {
+        int newGuideX = SnapIndex.NONE;
+        int newGuideY = SnapIndex.NONE;
+        snapShiftX = 0;
+        snapShiftY = 0;
+        if (pendingSnap) {
+            int reach = (int) Math.ceil(SNAP_DISTANCE / zoom);
+            int shift = alignShift(false, x, width, reach);
+            if (shift != SnapIndex.NONE) {
+                snapShiftX = shift;
+                newGuideX = alignedTo;
+            } else {
+                snapShiftX = gridShift(x, reach);
             }
-
-            // If overlap is detected, revert position and show error message
-            if (overlapDetected) {
-                selectedFurniture.x -= dx;
-                selectedFurniture.y -= dy;
-                JOptionPane.showMessageDialog(CanvasPanel.this, "No overlap between furniture!");
+            shift = alignShift(true, y, height, reach);
+            if (shift != SnapIndex.NONE) {
+                snapShiftY = shift;
+                newGuideY = alignedTo;
+            } else {
+                snapShiftY = gridShift(y, reach);
             }
-
-            repaint();
+        }
+        showGuides(newGuideX, newGuideY);
+    }
+    private int alignedTo; // Line the last alignShift lined up with
+    // Shift that lines up the start, center or end of a span with the nearest edge or center of another
+    // element; NONE when none is within reach
+    private int alignShift(boolean vertical, int start, int size, int reach) {
+        int shift = SnapIndex.NONE;
+        for (int i = 0; i <= 2; i++) {
+            int position = start + size * i / 2;
+            int found = snapIndex.nearest(vertical, position, reach, snapSkip);
+            if (found != SnapIndex.NONE && (shift == SnapIndex.NONE || Math.abs(found - position) < Math.abs(shift))) {
+                shift = found - position;
+                alignedTo = found;
+            }
+        }
+        return shift;
+    }
+    private static int gridShift(int position, int reach) {
+        int shift = Math.floorDiv(position + GRID_SIZE / 2, GRID_SIZE) * GRID_SIZE - position;
+        return Math.abs(shift) <= reach ? shift : 0;
+    }
+    // The dragged element and anything carried along with it are not snap targets
+    private boolean movesWithDrag(Object element) {
+        if (selectedFurniture != null) {
+            return element == selectedFurniture;
+        }
+        return element == selectedRoom || (element instanceof Furniture furniture && furniture.parent == selectedRoom);
+    }
+    // Move the alignment guides; lines run across the whole view, so their old and new columns are repainted
+    private void showGuides(int x, int y) {
+        if (x == guideX && y == guideY) {
+            return;
+        }
+        repaintGuides();
+        guideX = x;
+        guideY = y;
+        repaintGuides();
+    }
+    private void clearGuides() {
+        showGuides(SnapIndex.NONE, SnapIndex.NONE);
+    }
+    private void repaintGuides() {
+        Rectangle view = viewBounds();
+        if (guideX != SnapIndex.NONE) {
+            repaintPlanArea(guideX, view.y, 1, view.height);
+        }
+        if (guideY != SnapIndex.NONE) {
+            repaintPlanArea(view.x, guideY, view.width, 1);
         }
     }
-});
+    public void toggleSnapping() {
+        snapping = !snapping;
+        invalidateLayers();
+        repaint();
     }
     public void moveFurnitureInsideRoom(Furniture furniture, Room room) {
         // Check if the furniture is moving within the bounds of the room
@@ -303,45 +861,208 @@ class CanvasPanel extends JPanel {
         furniture.x = Math.max(room.x, Math.min(furniture.x, maxX));
         furniture.y = Math.max(room.y, Math.min(furniture.y, maxY));
     }
+    // Pack all rooms into the canvas width, keeping ROOM_SPACING between them and clear of shafts.
+    // Furniture inside a room moves with it, furniture outside any room that a room lands on is moved
+    // below the rooms, and the whole arrangement is one undo step.
+    public void arrangeRooms() {
+        if (pagedPlan != null || loadTask != null) {
+            JOptionPane.showMessageDialog(this, "Rooms can only be arranged when the whole plan is loaded.");
+            return;
+        }
+        if (rooms.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No rooms to arrange.");
+            return;
+        }
+        int count = rooms.size();
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = rooms.get(i).width;
+            heights[i] = rooms.get(i).height;
+        }
+        // A row never holds more than MAX_ROOMS_IN_ROW rooms of the nominal ROOM_HEIGHT size
+        int stripWidth = (int) Math.min(Math.max(boundsWidth(), 1), (long) MAX_ROOMS_IN_ROW * (ROOM_HEIGHT + ROOM_SPACING));
+        List<Rectangle> obstacles = new ArrayList<>(shafts.size());
+        for (Building.Shaft shaft : shafts) {
+            obstacles.add(new Rectangle(shaft.x(), shaft.y(), shaft.width(), shaft.height()));
+        }
+        RoomPacker.Layout layout = RoomPacker.pack(widths, heights, stripWidth, ROOM_SPACING, Room.wallThickness, obstacles);
+        for (int i = 0; i < count; i++) {
+            Room room = rooms.get(i);
+            int dx = layout.xs()[i] - room.x;
+            int dy = layout.ys()[i] - room.y;
+            if (dx == 0 && dy == 0) {
+                continue;
+            }
+            captureState(room, editState);
+            room.x += dx;
+            room.y += dy;
+            indexRoom(room);
+            recordChange(EditLog.MOVE, room, editState);
+            moveChildren(room, dx, dy);
+            recordChildMoves(room, dx, dy);
+        }
+        // Moving a room does not take in the loose furniture it lands on; move those pieces out instead
+        List<Furniture> covered = new ArrayList<>();
+        for (Furniture furniture : furnitureList) {
+            if (furniture.parent == null && roomIndex.findFirst(furniture.x, furniture.y, furniture.width,
+                    furniture.height, null, Room::intersects) != null) {
+                covered.add(furniture);
+            }
+        }
+        moveBelow(covered, layout.height() + ROOM_SPACING, stripWidth);
+        editLog.endGesture();
+        invalidateLayers();
+        repaint();
+    }
+    // Put loose furniture in rows from the given top, each piece at the first spot along the row that is
+    // clear of rooms, shafts and other furniture; records the moves in the current undo step
+    private void moveBelow(List<Furniture> pieces, int top, int rowWidth) {
+        int x = 0;
+        int y = top;
+        int rowHeight = 0;
+        for (Furniture furniture : pieces) {
+            captureState(furniture, editState);
+            while (true) {
+                if (x > 0 && x + furniture.width > rowWidth) {
+                    x = 0;
+                    y += rowHeight + ROOM_SPACING;
+                    rowHeight = 0;
+                }
+                furniture.x = x;
+                furniture.y = y;
+                if (roomIndex.findFirst(x, y, furniture.width, furniture.height, null, Room::intersects) == null
+                        && canPlaceFurniture(furniture)) {
+                    break;
+                }
+                x += GRID_SIZE;
+            }
+            indexFurniture(furniture);
+            recordChange(EditLog.MOVE, furniture, editState);
+            x += furniture.width + ROOM_SPACING;
+            rowHeight = Math.max(rowHeight, furniture.height);
+        }
+    }
     // Add rotation functionality
     public void rotateSelectedFurniture() {
         if (selectedFurniture != null) {
+            captureState(selectedFurniture, editState);
             selectedFurniture.rotate();
-            selectedFurniture.keepWithinBounds(getWidth(), getHeight());
+            selectedFurniture.keepWithinBounds(boundsWidth(), boundsHeight());
+            indexFurniture(selectedFurniture);
+            recordChange(EditLog.ROTATE, selectedFurniture, editState);
+            editLog.endGesture();
             repaint();
         } else {
             JOptionPane.showMessageDialog(this, "No furniture selected to rotate.");
         }
     }
     public void addRoom(Room room) {
-        room.keepWithinBounds(getWidth(), getHeight(), rooms); // Make sure it's within bounds and not overlapping   
-        // Check for overlap with existing rooms
-        for (Room existingRoom : rooms) {
-            if (existingRoom.overlaps(room.getBounds())) {
-                JOptionPane.showMessageDialog(this, "Rooms cannot overlap!");
-                return; // Prevent adding the room
-            }
+        PlanMetrics.PlacementEvent event = new PlanMetrics.PlacementEvent();
+        event.begin();
+        long start = System.nanoTime();
+        room.keepWithinBounds(boundsWidth(), boundsHeight(), roomIndex); // Make sure it's within bounds and not overlapping   
+        if (!canPlaceRoom(room)) {
+            PlanMetrics.placement(event, true, false, System.nanoTime() - start);
+            JOptionPane.showMessageDialog(this, "Rooms cannot overlap!");
+            return; // Prevent adding the room
         }
         rooms.add(room);
+        indexRoom(room);
+        recordAdded(room);
+        invalidateLayers();
         repaint();
+        PlanMetrics.placement(event, true, true, System.nanoTime() - start);
     }
     public void addFurniture(Furniture furniture) {
-        // Check for overlap with existing furniture before adding
-        for (Furniture existingFurniture : furnitureList) {
-            if (existingFurniture.getBounds().intersects(furniture.getBounds())) {
-                JOptionPane.showMessageDialog(this, "Furniture cannot overlap!");
-                return;
-            }
+        PlanMetrics.PlacementEvent event = new PlanMetrics.PlacementEvent();
+        event.begin();
+        long start = System.nanoTime();
+        // Check for overlap with nearby furniture before adding
+        if (!canPlaceFurniture(furniture)) {
+            PlanMetrics.placement(event, false, false, System.nanoTime() - start);
+            JOptionPane.showMessageDialog(this, "Furniture cannot overlap!");
+            return;
         }
         // Keep the furniture within bounds and snap to grid
-        furniture.keepWithinBounds(getWidth(), getHeight());
+        furniture.keepWithinBounds(boundsWidth(), boundsHeight());
         furnitureList.add(furniture);
+        indexFurniture(furniture);
+        recordAdded(furniture);
+        invalidateLayers();
         repaint();
+        PlanMetrics.placement(event, false, true, System.nanoTime() - start);
+    }
+    // True if the room does not overlap any room or shaft already on the canvas
+    boolean canPlaceRoom(Room room) {
+        return findRoomConflict(room) == null && findShaft(room.x - Room.wallThickness, room.y - Room.wallThickness,
+                room.width + 2 * Room.wallThickness, room.height + 2 * Room.wallThickness) == null;
+    }
+    // True if the furniture does not overlap any furniture or shaft already on the canvas
+    boolean canPlaceFurniture(Furniture furniture) {
+        return findFurnitureConflict(furniture) == null
+                && findShaft(furniture.x, furniture.y, furniture.width, furniture.height) == null;
+    }
+    // A stairwell or shaft through the floor shown that overlaps the area, or null; there are only a few
+    private Building.Shaft findShaft(int x, int y, int width, int height) {
+        for (Building.Shaft shaft : shafts) {
+            if (shaft.intersects(x, y, width, height)) {
+                return shaft;
+            }
+        }
+        return null;
     }
+    // A room on the canvas that the given room would overlap, or null
+    private Room findRoomConflict(Room room) {
+        PlanMetrics.overlapChecks.increment();
+        return roomIndex.findFirst(room.x - Room.wallThickness, room.y - Room.wallThickness,
+                room.width + 2 * Room.wallThickness, room.height + 2 * Room.wallThickness, room, Room::intersects);
+    }
+    // A piece of furniture on the canvas that the given one would overlap, or null. Furniture inside a room
+    // can only meet its siblings and free pieces, so the rest of the plan is not searched.
+    private Furniture findFurnitureConflict(Furniture furniture) {
+        PlanMetrics.overlapChecks.increment();
+        Room room = furniture.parent;
+        if (room == null) {
+            return furnitureIndex.findFirst(furniture.x, furniture.y, furniture.width, furniture.height,
+                    furniture, Furniture::intersects);
+        }
+        for (Furniture sibling : room.children) {
+            if (sibling != furniture && sibling.overlaps(furniture)) {
+                return sibling;
+            }
+        }
+        return looseIndex.findFirst(furniture.x, furniture.y, furniture.width, furniture.height,
+                furniture, Furniture::intersects);
+    }
+    // The room's furniture is deleted along with it, in the same undo step
     public void deleteSelectedRoom() {
         if (selectedRoom != null) {
-            rooms.remove(selectedRoom);
+            Room room = selectedRoom;
+            if (!room.children.isEmpty()) {
+                // The room's own children, dropped from the list in one pass by identity
+                Set<Furniture> children = Collections.newSetFromMap(new IdentityHashMap<>());
+                children.addAll(room.children);
+                furnitureList.removeIf(children::contains);
+                for (Furniture child : new ArrayList<>(room.children)) {
+                    int childId = child.storeId;
+                    unindexFurniture(child);
+                    recordRemoved(child, childId);
+                    if (selectedFurniture == child) {
+                        selectedFurniture = null;
+                    }
+                    if (resizingFurniture == child) {
+                        resizingFurniture = null;
+                    }
+                }
+            }
+            int id = room.storeId;
+            rooms.remove(room);
+            unindexRoom(room);
+            recordRemoved(room, id);
+            editLog.endGesture();
             selectedRoom = null;
+            invalidateLayers();
             repaint();
         } else {
             JOptionPane.showMessageDialog(this, "No room selected to delete.");
@@ -349,105 +1070,1502 @@ class CanvasPanel extends JPanel {
     }
     public void deleteSelectedFurniture() {
         if (selectedFurniture != null) {
+            int id = selectedFurniture.storeId;
             furnitureList.remove(selectedFurniture);
+            unindexFurniture(selectedFurniture);
+            recordRemoved(selectedFurniture, id);
+            editLog.endGesture();
+            if (resizingFurniture == selectedFurniture) {
+                resizingFurniture = null;
+            }
             selectedFurniture = null;
+            invalidateLayers();
             repaint();
         } else {
             JOptionPane.showMessageDialog(this, "No furniture selected to delete.");
         }
     }
+    // Save in the background from a snapshot of the plan, so editing can go on meanwhile
     public void savePlan(File file) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(rooms);
-            oos.writeObject(furnitureList); // Save furniture as well
-            JOptionPane.showMessageDialog(this, "Plan saved successfully!");
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to save the plan.");
+        if (loadTask != null) {
+            JOptionPane.showMessageDialog(this, "Wait for the plan to finish loading.");
+            return;
         }
+        PlanStore snapshot = snapshot();
+        int[] tiles = pagedPlan != null ? unloadedTiles() : null;
+        int generation = planGeneration;
+        int savedChanges = changes;
+        persistence.run(new PlanPersistence.SaveTask(file, snapshot, pagedPlan, tiles) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Save cancelled.");
+                    return;
+                }
+                try {
+                    get();
+                    if (generation == planGeneration) {
+                        startJournal(file, changes != savedChanges);
+                        if (building == null) {
+                            discardAutosave(); // The journal keeps what changes from here on
+                        }
+                    }
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Plan saved successfully!");
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Failed to save the plan.");
+                }
+            }
+        }, this, "Saving " + file.getName());
     }
-    @SuppressWarnings("unchecked")
+    // Load in the background; elements show up on the canvas in batches as they are read
     public void loadPlan(File file) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            rooms = (ArrayList<Room>) ois.readObject();
-            furnitureList = (ArrayList<Furniture>) ois.readObject();
-            repaint();
-            JOptionPane.showMessageDialog(this, "Plan loaded successfully!");
-        } catch (IOException | ClassNotFoundException e) {
-            JOptionPane.showMessageDialog(this, "Failed to load the plan.");
+        closeBuilding();
+        setPlan(new PlanStore());
+        loadTask = new PlanPersistence.LoadTask(file) {
+            @Override
+            protected void loaded(ArrayList<Room> newRooms, ArrayList<Furniture> newFurniture) {
+                if (loadTask == this) {
+                    appendElements(newRooms, newFurniture);
+                }
+            }
+            @Override
+            protected void done() {
+                if (loadTask != this) {
+                    return; // Replaced by another plan
+                }
+                loadTask = null;
+                if (isCancelled()) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Loading cancelled; only part of the plan was loaded.");
+                    return;
+                }
+                try {
+                    boolean recovered = get();
+                    journal = new PlanJournal(PlanJournal.journalFor(file));
+                    JOptionPane.showMessageDialog(CanvasPanel.this, recovered
+                            ? "Plan loaded with unsaved changes recovered from its journal." : "Plan loaded successfully!");
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Failed to load the plan.");
+                }
+            }
+        };
+        persistence.run(loadTask, this, "Loading " + file.getName());
+    }
+    // Bulk import from CSV or JSON. Parsing and the batch's own overlap check run in the background; then
+    // everything that fits is added in one go and a single report lists what was rejected.
+    public void importPlan(File file) {
+        if (pagedPlan != null || loadTask != null) {
+            JOptionPane.showMessageDialog(this, "Elements can only be imported when the whole plan is loaded.");
+            return;
         }
+        persistence.run(new SwingWorker<PlanImporter.Batch, Void>() {
+            @Override
+            protected PlanImporter.Batch doInBackground() throws IOException {
+                return PlanImporter.read(file);
+            }
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                if (pagedPlan != null || loadTask != null) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "The plan was replaced; nothing was imported.");
+                    return;
+                }
+                try {
+                    JTextArea report = new JTextArea(importElements(get()), 20, 60);
+                    report.setEditable(false);
+                    JOptionPane.showMessageDialog(CanvasPanel.this, new JScrollPane(report), "Import",
+                            JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Failed to import the file: " + e.getCause().getMessage());
+                }
+            }
+        }, this, "Importing " + file.getName());
     }
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        // Draw rooms with walls
-        for (Room room : rooms) {
-            // Draw wall (thick outline)
-            g.setColor(Color.DARK_GRAY); // Wall color
-            g.fillRect(room.x - Room.wallThickness, room.y - Room.wallThickness,
-                    room.width + 2 * Room.wallThickness, room.height + 2 * Room.wallThickness);
-            // Draw room interior
-            g.setColor(room.color);
-            g.fillRect(room.x, room.y, room.width, room.height);
-
-            // Draw room border
-            g.setColor(Color.BLACK);
-            g.drawRect(room.x, room.y, room.width, room.height);
+    // Check a batch against the canvas and add what fits as one undo step, with one journal snapshot and
+    // one repaint; returns the report
+    String importElements(PlanImporter.Batch batch) {
+        String report = batch.accept(this::canPlaceRoom, this::canPlaceFurniture);
+        for (Room room : batch.rooms) {
+            rooms.add(room);
+            indexRoom(room);
+            editLog.record(EditLog.ADD_ROOM, room, -1, 0, 0, 0, 0, 0,
+                    room.storeId, room.x, room.y, room.width, room.height, 0);
+            if (sync != null) {
+                sync.changed(PlanJournal.PUT, room.storeId, room);
+            }
         }
-        // Draw furniture (including doors and windows)
-        for (Furniture furniture : furnitureList) {
-            if (furniture instanceof Window) {
-                g.setColor(Color.CYAN); // Color for windows
-                Graphics2D g2d = (Graphics2D) g;
-                g2d.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 10.0f, new float[]{10.0f}, 0.0f));
-                g2d.drawRect(furniture.x, furniture.y, furniture.width, furniture.height); // Dashed line for window
-            } else if (furniture instanceof Door) {
-                g.setColor(Color.YELLOW); // Color for doors (opening in wall)
-                g.fillRect(furniture.x, furniture.y, furniture.width, furniture.height); // Door as opening
-            } else {
-                g.setColor(Color.GRAY); // Default color for other furniture
-                g.fillRect(furniture.x, furniture.y, furniture.width, furniture.height);
+        for (Furniture furniture : batch.furniture) {
+            furnitureList.add(furniture);
+            indexFurniture(furniture);
+            editLog.record(EditLog.ADD_FURNITURE, furniture, -1, 0, 0, 0, 0, 0, furniture.storeId,
+                    furniture.x, furniture.y, furniture.width, furniture.height, furniture.rotation);
+            if (sync != null) {
+                sync.changed(PlanJournal.PUT, furniture.storeId, furniture);
             }
         }
-        for (Furniture furniture : furnitureList) {
-            g.drawImage(furniture.icon.getImage(), furniture.x, furniture.y, furniture.width, furniture.height, this);
+        editLog.endGesture();
+        changes++;
+        if (journal != null && pagedPlan == null) {
+            snapshotJournal();
         }
+        invalidateLayers();
+        repaint();
+        return report;
     }
-    // Method to select a room when clicked
-    private void selectRoom(Point point) {
-        selectedRoom = null;
-        for (Room room : rooms) {
-            if (room.getBounds().contains(point)) {
-                selectedRoom = room;
-                repaint();
-                return;
+    void writePlan(File file) throws IOException {
+        PlanStore snapshot = snapshot();
+        if (pagedPlan != null) {
+            pagedPlan.readTiles(unloadedTiles(), snapshot);
+        }
+        PlanFile.write(file, snapshot);
+    }
+    // Tiles of a paged plan that are not materialized. Saving copies their records from the file, off the
+    // EDT; only the materialized tiles can hold edits, and those are in the snapshot of the canvas.
+    private int[] unloadedTiles() {
+        int[] tiles = new int[pagedPlan.tileCount() - loadedPages.size()];
+        int count = 0;
+        for (int tile = 0; tile < pagedPlan.tileCount(); tile++) {
+            if (!loadedPages.containsKey(tile)) {
+                tiles[count++] = tile;
             }
         }
+        return tiles;
     }
-    // Method to select a piece of furniture when clicked
-    private void selectFurniture(Point point) {
+    // Add a batch of loaded elements; they are part of the plan, not edits
+    private void appendElements(ArrayList<Room> newRooms, ArrayList<Furniture> newFurniture) {
+        for (Room room : newRooms) {
+            rooms.add(room);
+            indexRoom(room);
+        }
+        for (Furniture furniture : newFurniture) {
+            furnitureList.add(furniture);
+            indexFurniture(furniture);
+        }
+        invalidateLayers();
+        repaint();
+    }
+    // Make recent changes durable without blocking input. A building is written in full, every floor, to
+    // the canvas's autosave file. For a plan the journal already holds them and only needs flushing; a plan
+    // that was never saved is written to the autosave file from a snapshot.
+    private void autosave() {
+        int edits = changes + buildingEdits;
+        if (edits == autosavedChanges || loadTask != null || pagedPlan != null || buildingBusy) {
+            return; // Paged plans are never journaled and are too large to copy
+        }
+        autosavedChanges = edits;
+        if (building != null) {
+            syncFloor();
+            Building.Snapshot snapshot = building.snapshot();
+            persistence.execute(() -> {
+                try {
+                    Building.write(snapshot, autosaveFile, PlanFile.Progress.NONE);
+                } catch (IOException e) {
+                    // Tried again after the next change
+                }
+            });
+        } else if (journal != null) {
+            PlanJournal target = journal;
+            persistence.execute(() -> {
+                try {
+                    target.force();
+                } catch (IOException e) {
+                    // Closed or compacted meanwhile, which already flushed it
+                }
+            });
+        } else {
+            PlanStore snapshot = snapshot();
+            persistence.execute(() -> {
+                try {
+                    PlanFile.write(autosaveFile, snapshot);
+                } catch (IOException e) {
+                    // Tried again after the next change
+                }
+            });
+        }
+    }
+    // Everything autosaved is in a saved file now; removed after any autosave still queued
+    private void discardAutosave() {
+        autosavedChanges = changes + buildingEdits;
+        persistence.execute(autosaveFile::delete);
+    }
+    // Offer to bring back what a planner that is no longer running autosaved but never saved, newest first.
+    // The recovered file becomes this canvas's autosave, so it stays until the plan is saved.
+    void offerRecovery() {
+        File[] found = AUTOSAVE_DIR.listFiles((dir, name) -> name.startsWith(AUTOSAVE_PREFIX) && name.endsWith(AUTOSAVE_SUFFIX));
+        if (found == null) {
+            return;
+        }
+        Arrays.sort(found, Comparator.comparingLong(File::lastModified).reversed());
+        for (File file : found) {
+            if (isRunning(file)) {
+                continue;
+            }
+            String when = DateFormat.getDateTimeInstance().format(new Date(file.lastModified()));
+            int answer = JOptionPane.showConfirmDialog(this, "A plan autosaved on " + when + " was never saved. Recover it?",
+                    "Recover plan", JOptionPane.YES_NO_OPTION);
+            if (answer == JOptionPane.NO_OPTION) {
+                file.delete();
+            } else if (answer == JOptionPane.YES_OPTION) {
+                try {
+                    recover(file);
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(this, "Failed to recover the plan.");
+                }
+                return; // Any others are offered next time
+            }
+        }
+    }
+    // Whether the planner that wrote an autosave file is still running
+    private static boolean isRunning(File autosave) {
+        String name = autosave.getName();
+        int end = name.indexOf('-', AUTOSAVE_PREFIX.length());
+        try {
+            long pid = Long.parseLong(name.substring(AUTOSAVE_PREFIX.length(), end));
+            return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+    // Load an autosave, of a plan or of a building, as unsaved work
+    void recover(File file) throws IOException {
+        int magic;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            magic = in.readInt();
+        }
+        if (magic == Building.MAGIC) {
+            Building recovered = Building.read(file, Building.DEFAULT_BUDGET);
+            closeBuilding();
+            building = recovered;
+            floorChanges = changes;
+            showFloor(0);
+        } else {
+            readPlan(file);
+        }
+        Files.move(file.toPath(), autosaveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        autosavedChanges = changes + buildingEdits;
+    }
+    // Autosave only while the canvas is in a window
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        autosaveTimer.start();
+    }
+    @Override
+    public void removeNotify() {
+        autosaveTimer.stop();
+        super.removeNotify();
+    }
+    void readPlan(File file) throws IOException {
+        closeBuilding();
+        setPlan(PlanFile.readStore(file));
+    }
+    // Replace the whole plan with the contents of a store; elements keep the ids they have there
+    void setPlan(PlanStore newStore) {
+        closePagedPlan();
+        resetHistory();
+        rooms = newStore.createRooms();
+        furnitureList = newStore.createFurniture();
+        selectedRoom = null;
         selectedFurniture = null;
+        resizingFurniture = null;
+        clearIndexes();
+        for (Room room : rooms) {
+            indexRoom(room);
+        }
         for (Furniture furniture : furnitureList) {
-            if (furniture.getBounds().contains(point)) {
-                selectedFurniture = furniture;
-                repaint();
-                return;
+            indexFurniture(furniture);
+        }
+        invalidateLayers();
+        repaint();
+    }
+    // Copy of the plan with every element under its id, for saves, the journal and the building; nothing
+    // changes it afterwards, so it can be handed to another thread
+    PlanStore snapshot() {
+        PlanStore snapshot = new PlanStore(ids.limit());
+        for (int id = 0; id < ids.limit(); id++) {
+            Object element = ids.get(id);
+            if (element instanceof Room room) {
+                snapshot.put(room);
+            } else if (element instanceof Furniture furniture) {
+                snapshot.put(furniture);
             }
         }
+        return snapshot;
     }
-}
-// Control Panel
-class ControlPanel extends JPanel {
-    private CanvasPanel canvas;
-    public ControlPanel(CanvasPanel canvas) {
-        this.canvas = canvas;
-        setLayout(new GridLayout(0, 2, 5, 5));
-        JLabel widthLabel = new JLabel("Width:");
-        JTextField widthField = new JTextField(6);
-        JLabel heightLabel = new JLabel("Height:");
-        JTextField heightField = new JTextField(6);
-        JComboBox<RoomType> roomTypeCombo = new JComboBox<>(RoomType.values());
-        JButton addRoomButton = new JButton("Add Room");
-        addRoomButton.addActionListener(e -> {
-            try {
+    // Replace the whole plan, e.g. after loading it from a file
+    void setPlan(ArrayList<Room> newRooms, ArrayList<Furniture> newFurniture) {
+        closeBuilding();
+        closePagedPlan();
+        resetHistory();
+        rooms = newRooms;
+        furnitureList = newFurniture;
+        selectedRoom = null;
+        selectedFurniture = null;
+        resizingFurniture = null;
+        rebuildIndexes();
+        invalidateLayers();
+        repaint();
+    }
+    // Open a plan without loading it: elements are decoded from the mapped file as they come into view
+    public void openPagedPlan(File file) {
+        try {
+            MappedPlan plan = new MappedPlan(file);
+            closeBuilding();
+            closePagedPlan();
+            resetHistory();
+            pagedPlan = plan;
+            rooms = new ArrayList<>();
+            furnitureList = new ArrayList<>();
+            selectedRoom = null;
+            selectedFurniture = null;
+            resizingFurniture = null;
+            rebuildIndexes();
+            invalidateLayers();
+            pageInView();
+            repaint();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Failed to open the plan.");
+        }
+    }
+    // Open a building on its ground floor; only the file's directory is read until a floor is shown
+    public void openBuilding(File file) {
+        if (buildingBusy) {
+            JOptionPane.showMessageDialog(this, "Wait for the building to finish saving or loading.");
+            return;
+        }
+        if (sessionBlocksFloorChange()) {
+            return;
+        }
+        Building opened;
+        try {
+            opened = Building.open(file, Building.DEFAULT_BUDGET);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Failed to open the building.");
+            return;
+        }
+        closeBuilding();
+        building = opened;
+        floorChanges = changes;
+        showFloor(0);
+    }
+    // Save every floor of the building, or the plan as a one-floor building. Floors that were not changed
+    // are copied from the building's file without being decoded.
+    public void saveBuilding(File file) {
+        if (buildingBusy) {
+            JOptionPane.showMessageDialog(this, "Wait for the building to finish saving or loading.");
+            return;
+        }
+        if (!ensureBuilding()) {
+            return;
+        }
+        syncFloor();
+        Building saving = building;
+        Building.Snapshot snapshot = saving.snapshot();
+        int savedEdits = changes + buildingEdits;
+        buildingBusy = true;
+        persistence.run(new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                Building.write(snapshot, file, (done, total) -> setProgress(PlanPersistence.percent(done, total)));
+                return null;
+            }
+            @Override
+            protected void done() {
+                buildingBusy = false;
+                if (isCancelled()) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Save cancelled.");
+                    return;
+                }
+                try {
+                    get();
+                    if (building == saving) {
+                        saving.saved(snapshot, file);
+                        if (changes + buildingEdits == savedEdits) {
+                            discardAutosave();
+                        }
+                    }
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Building saved successfully!");
+                } catch (InterruptedException | ExecutionException | IOException e) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Failed to save the building.");
+                }
+            }
+        }, this, "Saving " + file.getName());
+    }
+    // Add an empty floor on top of the building and show it; a plain plan becomes the ground floor
+    public void addFloor() {
+        if (buildingBusy) {
+            JOptionPane.showMessageDialog(this, "Wait for the building to finish saving or loading.");
+            return;
+        }
+        if (sessionBlocksFloorChange()) {
+            return;
+        }
+        if (ensureBuilding()) {
+            buildingEdits++;
+            showFloor(building.addFloor());
+        }
+    }
+    public void floorUp() {
+        changeFloor(1);
+    }
+    public void floorDown() {
+        changeFloor(-1);
+    }
+    private void changeFloor(int step) {
+        if (building == null) {
+            JOptionPane.showMessageDialog(this, "No building is open.");
+        } else if (buildingBusy) {
+            JOptionPane.showMessageDialog(this, "Wait for the building to finish saving or loading.");
+        } else if (floor + step < 0 || floor + step >= building.floorCount()) {
+            getToolkit().beep();
+        } else if (!sessionBlocksFloorChange()) {
+            showFloor(floor + step);
+        }
+    }
+    // A shared session edits the floor on screen; replacing it would end the session for this client, so
+    // floors only change once the session is left
+    private boolean sessionBlocksFloorChange() {
+        if (sync == null) {
+            return false;
+        }
+        JOptionPane.showMessageDialog(this, "Leave the shared session before changing floors.");
+        return true;
+    }
+    // Switch to another floor; a floor that is not in memory is decoded in the background. Undo history
+    // does not carry over between floors.
+    private void showFloor(int index) {
+        Building shown = building;
+        buildingBusy = true;
+        persistence.run(new SwingWorker<PlanStore, Void>() {
+            @Override
+            protected PlanStore doInBackground() throws IOException {
+                return shown.floor(index);
+            }
+            @Override
+            protected void done() {
+                buildingBusy = false;
+                if (building != shown) {
+                    return; // Closed meanwhile
+                }
+                try {
+                    PlanStore plan = get();
+                    syncFloor();
+                    setPlan(plan);
+                    floor = index;
+                    floorChanges = changes;
+                    shown.setCurrent(index);
+                    shafts = shown.shaftsOn(index);
+                    repaint();
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(CanvasPanel.this, "Failed to load floor " + (index + 1) + ".");
+                }
+            }
+        }, this, "Loading floor " + (index + 1));
+    }
+    // Add a stairwell or shaft where the plan was last clicked, through this floor and the floors above up to
+    // topFloor. Each of those floors must be clear there; floors not in memory are decoded for the check.
+    public void addShaft(int kind, int width, int height, int topFloor) {
+        if (buildingBusy) {
+            JOptionPane.showMessageDialog(this, "Wait for the building to finish saving or loading.");
+            return;
+        }
+        if (!ensureBuilding()) {
+            return;
+        }
+        if (topFloor < floor || topFloor >= building.floorCount()) {
+            JOptionPane.showMessageDialog(this, "Choose a top floor from " + (floor + 1) + " to " + building.floorCount() + ".");
+            return;
+        }
+        Building.Shaft shaft = new Building.Shaft(initialClick.x, initialClick.y, width, height, kind, floor, topFloor);
+        syncFloor();
+        try {
+            for (int i = floor; i <= topFloor; i++) {
+                boolean blocked;
+                if (i == floor) {
+                    blocked = roomIndex.findFirst(shaft.x(), shaft.y(), width, height, null, Room::intersects) != null
+                            || furnitureIndex.findFirst(shaft.x(), shaft.y(), width, height, null, Furniture::intersects) != null;
+                } else {
+                    PlanStore plan = building.floor(i);
+                    blocked = plan.findIntersecting(PlanStore.ROOM, shaft.x() - Room.wallThickness,
+                            shaft.y() - Room.wallThickness, width + 2 * Room.wallThickness, height + 2 * Room.wallThickness, -1) >= 0
+                            || plan.findIntersecting(PlanStore.FURNITURE, shaft.x(), shaft.y(), width, height, -1) >= 0;
+                }
+                for (Building.Shaft other : building.shaftsOn(i)) {
+                    blocked |= other.intersects(shaft.x(), shaft.y(), width, height);
+                }
+                if (blocked) {
+                    JOptionPane.showMessageDialog(this, "Something is in the way on floor " + (i + 1) + ".");
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Failed to load the floors above.");
+            return;
+        }
+        building.addShaft(shaft);
+        buildingEdits++;
+        shafts = building.shaftsOn(floor);
+        repaintPlanArea(shaft.x(), shaft.y(), width, height);
+    }
+    int currentFloor() {
+        return building != null ? floor : 0;
+    }
+    // Make the plan the ground floor of a new building if no building is open
+    private boolean ensureBuilding() {
+        if (building != null) {
+            return true;
+        }
+        if (pagedPlan != null || loadTask != null) {
+            JOptionPane.showMessageDialog(this, "Only a fully loaded plan can become a building.");
+            return false;
+        }
+        building = new Building(snapshot(), Building.DEFAULT_BUDGET);
+        floor = 0;
+        floorChanges = changes;
+        return true;
+    }
+    // Share the plan: run a sync server in this process and join it, so others can join with joinSession
+    public void hostSession(int port) {
+        if (pagedPlan != null || loadTask != null) {
+            JOptionPane.showMessageDialog(this, "Only a plan that is fully loaded can be shared.");
+            return;
+        }
+        if (buildingBusy) {
+            // A floor still loading would replace the shared plan when it arrives
+            JOptionPane.showMessageDialog(this, "Wait for the building to finish saving or loading.");
+            return;
+        }
+        closeSession();
+        try {
+            syncServer = SyncServer.start(port);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Failed to start the session: " + e.getMessage());
+            return;
+        }
+        connectSession("localhost", syncServer.port());
+    }
+    // Replace the plan with the one shared at host:port and keep editing it together
+    public void joinSession(String host, int port) {
+        closeBuilding();
+        setPlan(new PlanStore());
+        connectSession(host, port);
+    }
+    public void leaveSession() {
+        closeSession();
+        repaint();
+    }
+    private void connectSession(String host, int port) {
+        try {
+            sync = SyncClient.start(host, port, new SyncClient.Listener() {
+                public void joined(SyncClient client, SyncProtocol.Batch plan) {
+                    if (client == sync) {
+                        // What is here already goes to the session, then what the session has comes here
+                        for (Room room : rooms) {
+                            sync.changed(PlanJournal.PUT, room.storeId, room);
+                        }
+                        for (Furniture furniture : furnitureList) {
+                            sync.changed(PlanJournal.PUT, furniture.storeId, furniture);
+                        }
+                        applyRemote(plan);
+                    }
+                }
+                public void received(SyncClient client, SyncProtocol.Batch batch) {
+                    if (client == sync) {
+                        applyRemote(batch);
+                    }
+                }
+                public void disconnected(SyncClient client, IOException cause) {
+                    if (client == sync) {
+                        closeSession();
+                        JOptionPane.showMessageDialog(CanvasPanel.this, "Left the shared session: " + cause.getMessage());
+                    }
+                }
+            });
+        } catch (IOException e) {
+            closeSession();
+            JOptionPane.showMessageDialog(this, "Failed to join the session: " + e.getMessage());
+        }
+    }
+    private void closeSession() {
+        if (sync != null) {
+            sync.close();
+            sync = null;
+        }
+        if (syncServer != null) {
+            syncServer.close();
+            syncServer = null;
+        }
+    }
+    // Apply edits made elsewhere in the session, element by element, like undo does. They are not undoable
+    // and not checked for overlaps: the server's order decides, the same way for every client.
+    private void applyRemote(SyncProtocol.Batch batch) {
+        applyingRemote = true;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                long uid = batch.uid(i);
+                byte op = batch.op(i);
+                if (!sync.accepts(op, uid)) {
+                    continue;
+                }
+                Object element = sync.element(uid);
+                if (op == PlanJournal.REMOVE) {
+                    if (element != null) {
+                        int id = element instanceof Room room ? room.storeId : ((Furniture) element).storeId;
+                        applyState(element, false, id, 0, 0, 0, 0, 0);
+                        sync.forget(uid, id);
+                    }
+                    continue;
+                }
+                if (element == null) {
+                    if (op != PlanJournal.PUT) {
+                        continue;
+                    }
+                    element = batch.kind(i) == PlanStore.ROOM
+                            ? new Room(batch.x(i), batch.y(i), batch.width(i), batch.height(i), RoomType.values()[batch.type(i)])
+                            : Furniture.create(batch.x(i), batch.y(i), batch.width(i), batch.height(i),
+                                    Furniture.TYPES[Math.floorMod(batch.type(i), Furniture.TYPES.length)]);
+                }
+                applyState(element, true, -1, batch.x(i), batch.y(i), batch.width(i), batch.height(i), batch.rotation(i));
+                sync.bind(uid, element instanceof Room room ? room.storeId : ((Furniture) element).storeId, element);
+            }
+        } finally {
+            applyingRemote = false;
+        }
+        invalidateLayers();
+        repaint();
+    }
+    // Hand the edits made on the floor shown to the building, so they are kept and saved
+    private void syncFloor() {
+        if (building != null && changes != floorChanges) {
+            building.markChanged(floor, snapshot());
+            floorChanges = changes;
+        }
+    }
+    private void closeBuilding() {
+        if (building == null) {
+            return;
+        }
+        Building closed = building;
+        building = null;
+        shafts = List.of();
+        // Closed after any save or floor load still queued for it
+        persistence.execute(() -> {
+            try {
+                closed.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        });
+        repaint();
+    }
+    private void closePagedPlan() {
+        if (pagedPlan != null) {
+            try {
+                pagedPlan.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+            pagedPlan = null;
+        }
+        loadedPages.clear();
+        pageOfElement.clear();
+        pagedView = null;
+        requestedPages.clear();
+    }
+    // Plan area whose tiles are kept materialized around a view
+    private static Rectangle pagedArea(Rectangle view) {
+        return new Rectangle(view.x - PAGE_MARGIN, view.y - PAGE_MARGIN,
+                view.width + 2 * PAGE_MARGIN, view.height + 2 * PAGE_MARGIN);
+    }
+    // Called whenever the view moves or resizes: drop unpinned tiles that scrolled away, and queue the
+    // tiles coming near the visible area to be read on the plan-io thread, so painting never reads the
+    // file for them. Zoomed out past the level-of-detail scale nothing new is materialized: the overview
+    // is drawn straight from the file.
+    private void pageInView() {
+        Rectangle visible = viewBounds();
+        if (pagedPlan == null || visible.equals(pagedView)) {
+            return;
+        }
+        pagedView = visible;
+        Rectangle wanted = pagedArea(visible);
+        Set<Object> evicted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Iterator<Map.Entry<Integer, PlanPage>> it = loadedPages.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, PlanPage> entry = it.next();
+            PlanPage page = entry.getValue();
+            if (page.pinned || pagedPlan.tileTouches(entry.getKey(), wanted)) {
+                continue;
+            }
+            it.remove();
+            for (Room room : page.rooms) {
+                unindexRoom(room);
+                pageOfElement.remove(room);
+                evicted.add(room);
+            }
+            for (Furniture furniture : page.furniture) {
+                unindexFurniture(furniture);
+                pageOfElement.remove(furniture);
+                evicted.add(furniture);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            rooms.removeIf(evicted::contains);
+            furnitureList.removeIf(evicted::contains);
+            invalidateLayers();
+        }
+        if (zoom < PlanRenderer.LOD_SCALE) {
+            return;
+        }
+        int[] touching = pagedPlan.tilesTouching(wanted);
+        int[] missing = new int[touching.length];
+        int missingCount = 0;
+        for (int tile : touching) {
+            if (!loadedPages.containsKey(tile) && requestedPages.add(tile)) {
+                missing[missingCount++] = tile;
+            }
+        }
+        if (missingCount == 0) {
+            return;
+        }
+        // The mapping stays readable after the canvas closes the plan, so the read never races the close
+        MappedPlan plan = pagedPlan;
+        int[] tiles = Arrays.copyOf(missing, missingCount);
+        persistence.execute(() -> {
+            PlanPage[] pages = new PlanPage[tiles.length];
+            try {
+                for (int i = 0; i < tiles.length; i++) {
+                    pages[i] = new PlanPage();
+                    plan.readTile(tiles[i], pages[i].rooms, pages[i].furniture);
+                }
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (pagedPlan == plan) {
+                        closePagedPlan();
+                        JOptionPane.showMessageDialog(this, "Failed to read the plan.");
+                    }
+                });
+                return;
+            }
+            SwingUtilities.invokeLater(() -> addPages(plan, tiles, pages));
+        });
+    }
+    // Put tiles read on the plan-io thread on the canvas, unless the plan was closed or the view moved
+    // away from them in the meantime
+    private void addPages(MappedPlan plan, int[] tiles, PlanPage[] pages) {
+        if (pagedPlan != plan) {
+            return;
+        }
+        Rectangle wanted = pagedArea(pagedView);
+        for (int i = 0; i < tiles.length; i++) {
+            requestedPages.remove(tiles[i]);
+            if (zoom < PlanRenderer.LOD_SCALE || !plan.tileTouches(tiles[i], wanted)) {
+                continue;
+            }
+            PlanPage page = pages[i];
+            loadedPages.put(tiles[i], page);
+            for (Room room : page.rooms) {
+                rooms.add(room);
+                indexRoom(room);
+                pageOfElement.put(room, page);
+            }
+            for (Furniture furniture : page.furniture) {
+                furnitureList.add(furniture);
+                indexFurniture(furniture);
+                pageOfElement.put(furniture, page);
+            }
+        }
+        invalidateLayers();
+        repaint();
+    }
+    // Keep the page of an element that is about to be edited, or was, in memory
+    private void pinPageOf(Object element) {
+        PlanPage page = pageOfElement.get(element);
+        if (page != null) {
+            page.pinned = true;
+        }
+    }
+    protected void paintComponent(Graphics g) {
+        PlanMetrics.PaintEvent event = new PlanMetrics.PaintEvent();
+        event.begin();
+        long start = System.nanoTime();
+        super.paintComponent(g);
+        boolean layersRebuilt = updateLayers();
+        // Static content comes from the cached layers, already in screen pixels; only the items being
+        // edited are drawn live, through the view transform
+        Graphics2D plan = (Graphics2D) g.create();
+        plan.transform(viewTransform);
+        g.drawImage(roomLayer, 0, 0, null);
+        for (Building.Shaft shaft : shafts) {
+            PlanRenderer.drawShaft(plan, shaft);
+        }
+        if (selectedRoom != null) {
+            PlanRenderer.drawRoom(plan, selectedRoom);
+        }
+        g.drawImage(furnitureLayer, 0, 0, null);
+        if (selectedRoom != null) {
+            // The selected room's furniture is drawn with it, as it moves when the room does
+            for (Furniture child : selectedRoom.children) {
+                if (child != selectedFurniture && child != resizingFurniture) {
+                    PlanRenderer.drawFurniture(plan, child);
+                }
+            }
+        }
+        if (selectedFurniture != null) {
+            PlanRenderer.drawFurniture(plan, selectedFurniture);
+        }
+        if (resizingFurniture != null && resizingFurniture != selectedFurniture) {
+            PlanRenderer.drawFurniture(plan, resizingFurniture);
+        }
+        if (hasConflict) {
+            PlanRenderer.drawConflict(plan, conflictX, conflictY, conflictWidth, conflictHeight);
+        }
+        if (guideX != SnapIndex.NONE || guideY != SnapIndex.NONE) {
+            Rectangle view = viewBounds();
+            if (guideX != SnapIndex.NONE) {
+                PlanRenderer.drawGuide(plan, guideX, view.y, guideX, view.y + view.height);
+            }
+            if (guideY != SnapIndex.NONE) {
+                PlanRenderer.drawGuide(plan, view.x, guideY, view.x + view.width, guideY);
+            }
+        }
+        plan.dispose();
+        if (building != null) {
+            drawFloorLabel(g);
+        }
+        PlanMetrics.painted(event, layersRebuilt, zoom, System.nanoTime() - start);
+        PlanMetrics.framePainted();
+        if (statsTimer.isRunning()) {
+            drawStats(g);
+        }
+    }
+    // Stats overlay in the top-left corner, in screen pixels whatever the zoom
+    private void drawStats(Graphics g) {
+        List<String> lines = PlanMetrics.report();
+        FontMetrics metrics = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        int lineHeight = metrics.getHeight();
+        g.setColor(STATS_BACKGROUND);
+        g.fillRect(STATS_MARGIN, STATS_MARGIN, width + 2 * STATS_MARGIN, lines.size() * lineHeight + 2 * STATS_MARGIN);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.size(); i++) {
+            g.drawString(lines.get(i), 2 * STATS_MARGIN, 2 * STATS_MARGIN + i * lineHeight + metrics.getAscent());
+        }
+    }
+    // Floor number in the top-right corner while a building is open
+    private void drawFloorLabel(Graphics g) {
+        String label = "Floor " + (floor + 1) + " of " + building.floorCount();
+        FontMetrics metrics = g.getFontMetrics();
+        int width = metrics.stringWidth(label) + 2 * STATS_MARGIN;
+        int x = getWidth() - width - STATS_MARGIN;
+        g.setColor(STATS_BACKGROUND);
+        g.fillRect(x, STATS_MARGIN, width, metrics.getHeight() + 2 * STATS_MARGIN);
+        g.setColor(Color.WHITE);
+        g.drawString(label, x + STATS_MARGIN, 2 * STATS_MARGIN + metrics.getAscent());
+    }
+    // Show or hide the stats overlay; while shown it is refreshed a few times a second
+    public void toggleStats() {
+        if (statsTimer.isRunning()) {
+            statsTimer.stop();
+        } else {
+            statsTimer.start();
+        }
+        repaint();
+    }
+    // Re-render the static layers if the plan changed or a different item is being edited; true if they were
+    private boolean updateLayers() {
+        int width = Math.max(getWidth(), 1);
+        int height = Math.max(getHeight(), 1);
+        boolean overview = zoom < PlanRenderer.LOD_SCALE;
+        if (roomLayer == null || roomLayer.getWidth() != width || roomLayer.getHeight() != height
+                || overviewLayers != overview) {
+            roomLayer = createLayer(width, height, overview);
+            furnitureLayer = createLayer(width, height, overview);
+            overviewLayers = overview;
+            layersValid = false;
+        }
+        if (layersValid && layerSkippedRoom == selectedRoom && layerSkippedFurniture == selectedFurniture
+                && layerSkippedResizing == resizingFurniture) {
+            return false;
+        }
+        long start = System.nanoTime();
+        layerSkippedRoom = selectedRoom;
+        layerSkippedFurniture = selectedFurniture;
+        layerSkippedResizing = resizingFurniture;
+
+        // Only elements in view are drawn; strokes reach a little outside element bounds
+        Rectangle view = viewBounds();
+        view.grow(DAMAGE_PADDING, DAMAGE_PADDING);
+        Graphics2D roomGraphics = clearLayer(roomLayer);
+        Graphics2D furnitureGraphics = clearLayer(furnitureLayer);
+        if (overview) {
+            drawOverview(view);
+        } else {
+            roomGraphics.transform(viewTransform);
+            furnitureGraphics.transform(viewTransform);
+            if (snapping && GRID_SIZE * zoom >= MIN_GRID_SPACING) {
+                PlanRenderer.drawGrid(roomGraphics, view, GRID_SIZE);
+            }
+            roomIndex.forEach(view.x, view.y, view.width, view.height, room -> {
+                if (room != selectedRoom) {
+                    PlanRenderer.drawRoom(roomGraphics, room);
+                }
+            });
+            furnitureIndex.forEach(view.x, view.y, view.width, view.height, furniture -> {
+                if (furniture != selectedFurniture && furniture != resizingFurniture
+                        && (selectedRoom == null || furniture.parent != selectedRoom)) {
+                    PlanRenderer.drawFurniture(furnitureGraphics, furniture);
+                }
+            });
+        }
+        roomGraphics.dispose();
+        furnitureGraphics.dispose();
+        layersValid = true;
+        PlanMetrics.LAYERS.record(System.nanoTime() - start);
+        return true;
+    }
+    // Zoomed-out layers: plain blocks for the elements in view, plus the tiles of a paged plan that are not
+    // materialized, decoded from the mapped file without creating elements
+    private void drawOverview(Rectangle view) {
+        PlanRenderer.Overview rooms = new PlanRenderer.Overview(roomLayer, zoom, viewX, viewY);
+        PlanRenderer.Overview furniture = new PlanRenderer.Overview(furnitureLayer, zoom, viewX, viewY);
+        roomIndex.forEach(view.x, view.y, view.width, view.height, room -> {
+            if (room != selectedRoom) {
+                rooms.wall(room.x, room.y, room.width, room.height);
+            }
+        });
+        drawUnloadedTiles(view, new PlanFile.RecordSink() {
+            public void begin(int roomCount, int furnitureCount) {
+            }
+            public void room(int x, int y, int width, int height, RoomType type) {
+                rooms.wall(x, y, width, height);
+            }
+            public void furniture(int x, int y, int width, int height, int type, int rotation) {
+                furniture.furniture(x, y, width, height,
+                        type >= 0 && type < Furniture.TYPES.length ? Furniture.TYPES[type] : "Unknown");
+            }
+        });
+        roomIndex.forEach(view.x, view.y, view.width, view.height, room -> {
+            if (room != selectedRoom) {
+                rooms.interior(room.x, room.y, room.width, room.height, Room.getColorForType(room.type));
+            }
+        });
+        drawUnloadedTiles(view, new PlanFile.RecordSink() {
+            public void begin(int roomCount, int furnitureCount) {
+            }
+            public void room(int x, int y, int width, int height, RoomType type) {
+                rooms.interior(x, y, width, height, Room.getColorForType(type));
+            }
+            public void furniture(int x, int y, int width, int height, int type, int rotation) {
+            }
+        });
+        furnitureIndex.forEach(view.x, view.y, view.width, view.height, piece -> {
+            if (piece != selectedFurniture && piece != resizingFurniture
+                    && (selectedRoom == null || piece.parent != selectedRoom)) {
+                furniture.furniture(piece.x, piece.y, piece.width, piece.height, piece.type);
+            }
+        });
+    }
+    private void drawUnloadedTiles(Rectangle view, PlanFile.RecordSink sink) {
+        if (pagedPlan == null) {
+            return;
+        }
+        for (int tile : pagedPlan.tilesTouching(view)) {
+            if (loadedPages.containsKey(tile)) {
+                continue;
+            }
+            try {
+                pagedPlan.readTile(tile, sink);
+            } catch (IOException e) {
+                closePagedPlan();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Failed to read the plan."));
+                return;
+            }
+        }
+    }
+    // Overview layers are written pixel by pixel, so they are plain ARGB images rather than compatible ones
+    private BufferedImage createLayer(int width, int height, boolean overview) {
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        if (config != null && !overview) {
+            return config.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+    private static Graphics2D clearLayer(BufferedImage layer) {
+        Graphics2D g2d = layer.createGraphics();
+        g2d.setComposite(AlphaComposite.Clear);
+        g2d.fillRect(0, 0, layer.getWidth(), layer.getHeight());
+        g2d.setComposite(AlphaComposite.SrcOver);
+        return g2d;
+    }
+    // Call after rooms or furniture are added, removed or replaced
+    private void invalidateLayers() {
+        layersValid = false;
+    }
+    private void resetDamage() {
+        damageMinX = Integer.MAX_VALUE;
+        damageMinY = Integer.MAX_VALUE;
+        damageMaxX = Integer.MIN_VALUE;
+        damageMaxY = Integer.MIN_VALUE;
+    }
+    private void addDamage(int x, int y, int width, int height) {
+        damageMinX = Math.min(damageMinX, x);
+        damageMinY = Math.min(damageMinY, y);
+        damageMaxX = Math.max(damageMaxX, x + width);
+        damageMaxY = Math.max(damageMaxY, y + height);
+    }
+    private void addDamage(Room room) {
+        addDamage(room.x - Room.wallThickness, room.y - Room.wallThickness,
+                room.width + 2 * Room.wallThickness, room.height + 2 * Room.wallThickness);
+    }
+    private void addDamage(Furniture furniture) {
+        addDamage(furniture.x, furniture.y, furniture.width, furniture.height);
+    }
+    private void repaintDamage() {
+        if (damageMinX <= damageMaxX) {
+            repaintPlanArea(damageMinX, damageMinY, damageMaxX - damageMinX, damageMaxY - damageMinY);
+        }
+    }
+    public void undo() {
+        if (editLog.undo(this::applyState)) {
+            invalidateLayers();
+            repaint();
+        } else {
+            getToolkit().beep();
+        }
+    }
+    public void redo() {
+        if (editLog.redo(this::applyState)) {
+            invalidateLayers();
+            repaint();
+        } else {
+            getToolkit().beep();
+        }
+    }
+    // Bring an element to a state recorded in the edit log; present is false when it must leave the plan
+    private void applyState(Object element, boolean present, int id, int x, int y, int width, int height, int rotation) {
+        if (element instanceof Room room) {
+            boolean wasPresent = room.storeId >= 0;
+            if (!present) {
+                if (wasPresent) {
+                    int removed = room.storeId;
+                    rooms.remove(room);
+                    unindexRoom(room);
+                    planChanged(PlanJournal.REMOVE, removed, room);
+                }
+                if (selectedRoom == room) {
+                    selectedRoom = null;
+                }
+                return;
+            }
+            room.x = x;
+            room.y = y;
+            room.width = width;
+            room.height = height;
+            if (!wasPresent) {
+                // Take back the recorded id if it is still free, so later records and the journal match
+                room.storeId = ids.add(id, room);
+                rooms.add(room);
+            }
+            indexRoom(room);
+            settleFurniture(room);
+            planChanged(wasPresent ? PlanJournal.SET : PlanJournal.PUT, room.storeId, room);
+        } else if (element instanceof Furniture furniture) {
+            boolean wasPresent = furniture.storeId >= 0;
+            if (!present) {
+                if (wasPresent) {
+                    int removed = furniture.storeId;
+                    furnitureList.remove(furniture);
+                    unindexFurniture(furniture);
+                    planChanged(PlanJournal.REMOVE, removed, furniture);
+                }
+                if (selectedFurniture == furniture) {
+                    selectedFurniture = null;
+                }
+                if (resizingFurniture == furniture) {
+                    resizingFurniture = null;
+                }
+                return;
+            }
+            furniture.x = x;
+            furniture.y = y;
+            furniture.width = width;
+            furniture.height = height;
+            furniture.rotation = rotation;
+            if (!wasPresent) {
+                furniture.storeId = ids.add(id, furniture);
+                furnitureList.add(furniture);
+            }
+            indexFurniture(furniture);
+            planChanged(wasPresent ? PlanJournal.SET : PlanJournal.PUT, furniture.storeId, furniture);
+        }
+    }
+    private static Room captureState(Room room, int[] state) {
+        state[0] = room.x;
+        state[1] = room.y;
+        state[2] = room.width;
+        state[3] = room.height;
+        state[4] = 0;
+        return room;
+    }
+    private static Furniture captureState(Furniture furniture, int[] state) {
+        state[0] = furniture.x;
+        state[1] = furniture.y;
+        state[2] = furniture.width;
+        state[3] = furniture.height;
+        state[4] = furniture.rotation;
+        return furniture;
+    }
+    // Record an element's change since its state was captured, if it changed at all
+    private void recordChange(byte op, Room room, int[] was) {
+        if (room.storeId < 0 || (room.x == was[0] && room.y == was[1] && room.width == was[2] && room.height == was[3])) {
+            return;
+        }
+        editLog.record(op, room, room.storeId, was[0], was[1], was[2], was[3], 0,
+                room.storeId, room.x, room.y, room.width, room.height, 0);
+        planChanged(PlanJournal.SET, room.storeId, room);
+    }
+    private void recordChange(byte op, Furniture furniture, int[] was) {
+        if (furniture.storeId < 0 || (furniture.x == was[0] && furniture.y == was[1] && furniture.width == was[2]
+                && furniture.height == was[3] && furniture.rotation == was[4])) {
+            return;
+        }
+        editLog.record(op, furniture, furniture.storeId, was[0], was[1], was[2], was[3], was[4],
+                furniture.storeId, furniture.x, furniture.y, furniture.width, furniture.height, furniture.rotation);
+        planChanged(PlanJournal.SET, furniture.storeId, furniture);
+    }
+    // Record the moves of a room's furniture that went along with the room
+    private void recordChildMoves(Room room, int dx, int dy) {
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+        for (Furniture child : room.children) {
+            captureState(child, editState);
+            editState[0] -= dx;
+            editState[1] -= dy;
+            recordChange(EditLog.MOVE, child, editState);
+        }
+    }
+    private void recordAdded(Room room) {
+        editLog.record(EditLog.ADD_ROOM, room, -1, 0, 0, 0, 0, 0,
+                room.storeId, room.x, room.y, room.width, room.height, 0);
+        editLog.endGesture();
+        planChanged(PlanJournal.PUT, room.storeId, room);
+    }
+    private void recordAdded(Furniture furniture) {
+        editLog.record(EditLog.ADD_FURNITURE, furniture, -1, 0, 0, 0, 0, 0,
+                furniture.storeId, furniture.x, furniture.y, furniture.width, furniture.height, furniture.rotation);
+        editLog.endGesture();
+        planChanged(PlanJournal.PUT, furniture.storeId, furniture);
+    }
+    // Called once the element has left the plan; id is the one it had. The caller ends the gesture.
+    private void recordRemoved(Room room, int id) {
+        editLog.record(EditLog.DELETE_ROOM, room, id, room.x, room.y, room.width, room.height, 0,
+                -1, 0, 0, 0, 0, 0);
+        planChanged(PlanJournal.REMOVE, id, room);
+    }
+    private void recordRemoved(Furniture furniture, int id) {
+        editLog.record(EditLog.DELETE_FURNITURE, furniture, id, furniture.x, furniture.y, furniture.width,
+                furniture.height, furniture.rotation, -1, 0, 0, 0, 0, 0);
+        planChanged(PlanJournal.REMOVE, id, furniture);
+    }
+    // Count a recorded change, send it to a shared session and append it to the journal; paged plans are
+    // not journaled because only part of them is on the canvas
+    private void planChanged(byte op, int id, Object element) {
+        changes++;
+        pinPageOf(element);
+        if (sync != null && !applyingRemote) {
+            sync.changed(op, id, element);
+        }
+        if (journal == null || pagedPlan != null) {
+            return;
+        }
+        if (journal.needsSnapshot(ids.size())) {
+            snapshotJournal(); // The snapshot already holds this change
+            return;
+        }
+        try {
+            journal.append(op, id, element);
+        } catch (IOException e) {
+            journalFailed();
+        }
+    }
+    // Rewrite the journal as a snapshot of the plan on the plan-io thread, like a save; changes made
+    // meanwhile are appended after it
+    private void snapshotJournal() {
+        PlanJournal target = journal;
+        PlanStore snapshot = snapshot();
+        int idLimit = ids.limit();
+        int ticket = target.startSnapshot();
+        persistence.execute(() -> {
+            try {
+                target.writeSnapshot(snapshot, idLimit, ticket);
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (journal == target) {
+                        journalFailed();
+                    }
+                });
+            }
+        });
+    }
+    private void journalFailed() {
+        closeJournal();
+        JOptionPane.showMessageDialog(this, "Failed to write the journal; unsaved changes cannot be recovered.");
+    }
+    // The saved file now holds everything, so later edits are journaled against it from a fresh snapshot.
+    // Edits made while the save ran are not in the file, so they are snapshotted into the journal right away.
+    private void startJournal(File file, boolean changedSinceSnapshot) {
+        try {
+            if (journal != null) {
+                journal.delete();
+            }
+            journal = new PlanJournal(PlanJournal.journalFor(file));
+            journal.delete();
+            if (changedSinceSnapshot && pagedPlan == null) {
+                snapshotJournal();
+            }
+        } catch (IOException e) {
+            journal = null;
+        }
+    }
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+            journal = null;
+        }
+    }
+    // Forget undo history and stop journaling when the whole plan is replaced
+    private void resetHistory() {
+        if (loadTask != null) {
+            loadTask.cancel(true);
+            loadTask = null;
+        }
+        planGeneration++;
+        editLog.clear();
+        closeJournal();
+        closeSession();
+        pressedRoom = null;
+        pressedFurniture = null;
+        dragTimer.stop();
+        dragPending = false;
+        hasConflict = false;
+    }
+    // Method to select a room when clicked
+    void selectRoom(Point point) {
+        selectedRoom = roomIndex.findFirst(point.x, point.y, 1, 1, null, Room::intersects);
+        if (selectedRoom != null) {
+            pinPageOf(selectedRoom);
+            repaint();
+        }
+    }
+    // Method to select a piece of furniture when clicked
+    void selectFurniture(Point point) {
+        // Free pieces first, then only the furniture of the room under the point
+        selectedFurniture = looseIndex.findFirst(point.x, point.y, 1, 1, null, Furniture::intersects);
+        if (selectedFurniture == null) {
+            Room room = selectedRoom != null && selectedRoom.contains(point.x, point.y) ? selectedRoom
+                    : roomIndex.findFirst(point.x, point.y, 1, 1, null, Room::intersects);
+            if (room != null) {
+                for (Furniture child : room.children) {
+                    if (child.contains(point.x, point.y)) {
+                        selectedFurniture = child;
+                        break;
+                    }
+                }
+            }
+        }
+        if (selectedFurniture != null) {
+            pinPageOf(selectedFurniture);
+            repaint();
+        }
+    }
+    Room getSelectedRoom() {
+        return selectedRoom;
+    }
+    PlanAnalytics getAnalytics() {
+        return analytics;
+    }
+    // Paged plans only have the tiles near the view on the canvas, so the figures cover just those
+    boolean isPaged() {
+        return pagedPlan != null;
+    }
+    // Write the analytics figures as CSV, with the rooms in plan order
+    public void exportAnalytics(File file) {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            analytics.writeCsv(out, rooms);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Failed to export the figures: " + e.getMessage());
+        }
+    }
+    Furniture getSelectedFurniture() {
+        return selectedFurniture;
+    }
+    // Keep the spatial indexes and ids in sync after a room or furniture is added, moved or resized
+    // Furniture belongs to the room that encloses it: a room placed over free furniture takes it in, and a
+    // piece that leaves its room, or enters one, changes parent when it is indexed.
+    private void indexRoom(Room room) {
+        boolean added = !roomIndex.contains(room);
+        roomIndex.update(room, room.x - Room.wallThickness, room.y - Room.wallThickness,
+                room.width + 2 * Room.wallThickness, room.height + 2 * Room.wallThickness);
+        snapIndex.update(room, room.x, room.y, room.width, room.height);
+        analytics.roomChanged(room);
+        if (ids.get(room.storeId) != room) {
+            room.storeId = ids.add(room.storeId, room);
+        }
+        if (added) {
+            adoptFurniture(room);
+        }
+    }
+    private void indexFurniture(Furniture furniture) {
+        furnitureIndex.update(furniture, furniture.x, furniture.y, furniture.width, furniture.height);
+        snapIndex.update(furniture, furniture.x, furniture.y, furniture.width, furniture.height);
+        Room parent = furniture.parent;
+        if (parent == null || !parent.encloses(furniture.x, furniture.y, furniture.width, furniture.height)) {
+            Room room = roomIndex.findFirst(furniture.x, furniture.y, furniture.width, furniture.height, null,
+                    Room::encloses);
+            if (room != parent) {
+                detach(furniture);
+                if (room != null) {
+                    furniture.parent = room;
+                    room.children.add(furniture);
+                }
+            }
+        }
+        if (furniture.parent == null) {
+            looseIndex.update(furniture, furniture.x, furniture.y, furniture.width, furniture.height);
+        }
+        if (ids.get(furniture.storeId) != furniture) {
+            furniture.storeId = ids.add(furniture.storeId, furniture);
+        }
+        analytics.furnitureChanged(furniture);
+    }
+    private void unindexRoom(Room room) {
+        roomIndex.remove(room);
+        snapIndex.remove(room);
+        // Its furniture stays where it is, now outside any room
+        for (Furniture child : room.children) {
+            child.parent = null;
+            looseIndex.update(child, child.x, child.y, child.width, child.height);
+            analytics.furnitureChanged(child);
+        }
+        room.children.clear();
+        analytics.roomRemoved(room);
+        if (room.storeId >= 0) {
+            ids.remove(room.storeId);
+            room.storeId = -1;
+        }
+    }
+    private void unindexFurniture(Furniture furniture) {
+        furnitureIndex.remove(furniture);
+        snapIndex.remove(furniture);
+        analytics.furnitureRemoved(furniture);
+        detach(furniture);
+        if (furniture.storeId >= 0) {
+            ids.remove(furniture.storeId);
+            furniture.storeId = -1;
+        }
+    }
+    private void detach(Furniture furniture) {
+        if (furniture.parent != null) {
+            furniture.parent.children.remove(furniture);
+            furniture.parent = null;
+        } else {
+            looseIndex.remove(furniture);
+        }
+    }
+    // Take in the free furniture that lies inside a room
+    private void adoptFurniture(Room room) {
+        looseIndex.forEach(room.x, room.y, room.width, room.height, furniture -> {
+            if (room.encloses(furniture.x, furniture.y, furniture.width, furniture.height)) {
+                rehomed.add(furniture);
+            }
+        });
+        for (Furniture furniture : rehomed) {
+            looseIndex.remove(furniture);
+            furniture.parent = room;
+            room.children.add(furniture);
+            analytics.furnitureChanged(furniture);
+        }
+        rehomed.clear();
+    }
+    // After undo or redo put a room back, give it what it encloses now. Its furniture is restored by records
+    // of its own, before or after the room's, so pieces may have been left behind or arrived early.
+    private void settleFurniture(Room room) {
+        for (Furniture child : room.children) {
+            if (!room.encloses(child.x, child.y, child.width, child.height)) {
+                rehomed.add(child);
+            }
+        }
+        for (Furniture child : rehomed) {
+            indexFurniture(child);
+        }
+        rehomed.clear();
+        adoptFurniture(room);
+    }
+    // Move a room's furniture along with the room
+    private void moveChildren(Room room, int dx, int dy) {
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+        for (Furniture child : room.children) {
+            pinPageOf(child); // Its tile may be another than the room's
+            child.x += dx;
+            child.y += dy;
+            indexFurniture(child);
+        }
+    }
+    // Keep a room within the canvas, taking its furniture along if it has to move
+    private void keepWithinBounds(Room room) {
+        int oldX = room.x;
+        int oldY = room.y;
+        room.keepWithinBounds(boundsWidth(), boundsHeight(), roomIndex);
+        indexRoom(room);
+        moveChildren(room, room.x - oldX, room.y - oldY);
+    }
+    private void clearIndexes() {
+        ids.clear();
+        roomIndex.clear();
+        furnitureIndex.clear();
+        looseIndex.clear();
+        snapIndex.clear();
+        analytics.clear();
+    }
+    // Re-add every room and furniture to the indexes under fresh ids
+    private void rebuildIndexes() {
+        clearIndexes();
+        for (Room room : rooms) {
+            room.storeId = -1;
+            room.children.clear();
+            indexRoom(room);
+        }
+        for (Furniture furniture : furnitureList) {
+            furniture.storeId = -1;
+            furniture.parent = null;
+            indexFurniture(furniture);
+        }
+    }
+}
+// Control Panel
+class ControlPanel extends JPanel {
+    private CanvasPanel canvas;
+    public ControlPanel(CanvasPanel canvas) {
+        this.canvas = canvas;
+        setLayout(new GridLayout(0, 2, 5, 5));
+        JLabel widthLabel = new JLabel("Width:");
+        JTextField widthField = new JTextField(6);
+        JLabel heightLabel = new JLabel("Height:");
+        JTextField heightField = new JTextField(6);
+        JComboBox<RoomType> roomTypeCombo = new JComboBox<>(RoomType.values());
+        JButton addRoomButton = new JButton("Add Room");
+        addRoomButton.addActionListener(e -> {
+            try {
                 int width = Integer.parseInt(widthField.getText());
                 int height = Integer.parseInt(heightField.getText());
                 RoomType type = (RoomType) roomTypeCombo.getSelectedItem();
@@ -461,42 +2579,10 @@ class ControlPanel extends JPanel {
         deleteRoomButton.addActionListener(e -> canvas.deleteSelectedRoom());
         // Add new furniture items here
         JLabel furnitureLabel = new JLabel("Furniture/Fixture Options:");
-        JComboBox<String> furnitureCombo = new JComboBox<>(new String[]{
-            "Sofa", "Table", "Chair", "Bed", "Dining_Set", "Door", "Window","Commode", "Wash_Basin", "Shower", "Sink","Stove"
-        });
+        JComboBox<String> furnitureCombo = new JComboBox<>(Furniture.TYPES);
         JButton addFurnitureButton = new JButton("Add Furniture/Fixture");
         addFurnitureButton.addActionListener(e -> {
-            String selectedFurniture = (String) furnitureCombo.getSelectedItem();
-            Furniture furniture;
-            String iconPath = "";  // Declare iconPath
-            switch (selectedFurniture) {
-                case "Sofa" -> iconPath = "/sofa.png";
-                case "Table" -> iconPath = "/table.png";
-                case "Chair" -> iconPath = "/chair.png";
-                case "Bed" -> iconPath = "/bed.png";
-                case "Dining_Set" -> iconPath = "/diningset.png"; 
-                case "Door" -> iconPath = "/door.png";
-                case "Window" ->  iconPath = "/window.png";
-                 case "Stove" -> iconPath = "/stove.png";
-                case "Shower" -> iconPath ="/shower.png";
-                case "Commode" -> iconPath ="/commode.png";
-                case "Wash_Basin" ->iconPath = "/washbasin.png";
-                case "Sink" ->iconPath = "/sink.png";
-
-
-                default -> iconPath = "/default.png";  // Default for unknown furniture
-            }
-            if ("Door".equals(selectedFurniture)) {
-                furniture = new Door(50, 50, 50, 20); // Example dimensions for door
-            } else if ("Window".equals(selectedFurniture)) {
-                furniture = new Window(100, 50, 60, 20); // Example dimensions for window
-            } else {
-                furniture = new Furniture(50, 50, 50, 30, selectedFurniture);
-            }
-
-            furniture.iconPath = iconPath;  // Make sure to set iconPath after construction
-
-            canvas.addFurniture(furniture);              
+            canvas.addFurniture(Furniture.createDefault((String) furnitureCombo.getSelectedItem()));
         });
         JButton deleteFurnitureButton = new JButton("Delete Furniture/Fixture");
         deleteFurnitureButton.addActionListener(e -> canvas.deleteSelectedFurniture());
@@ -515,9 +2601,93 @@ class ControlPanel extends JPanel {
                 canvas.loadPlan(fileChooser.getSelectedFile());
             }
         });
+        JButton openLargePlanButton = new JButton("Open Large Plan");
+        openLargePlanButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                canvas.openPagedPlan(fileChooser.getSelectedFile());
+            }
+        });
         // Add Rotate button for furniture
         JButton rotateButton = new JButton("Rotate Furniture");
         rotateButton.addActionListener(e -> canvas.rotateSelectedFurniture());
+        JButton arrangeButton = new JButton("Arrange Rooms");
+        arrangeButton.addActionListener(e -> canvas.arrangeRooms());
+        JButton importButton = new JButton("Import CSV/JSON");
+        importButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                canvas.importPlan(fileChooser.getSelectedFile());
+            }
+        });
+        JButton undoButton = new JButton("Undo");
+        undoButton.addActionListener(e -> canvas.undo());
+        JButton redoButton = new JButton("Redo");
+        redoButton.addActionListener(e -> canvas.redo());
+        JButton zoomInButton = new JButton("Zoom In");
+        zoomInButton.addActionListener(e -> canvas.zoomIn());
+        JButton zoomOutButton = new JButton("Zoom Out");
+        zoomOutButton.addActionListener(e -> canvas.zoomOut());
+        JButton resetViewButton = new JButton("Reset View");
+        resetViewButton.addActionListener(e -> canvas.resetView());
+        JButton statsButton = new JButton("Stats Overlay");
+        statsButton.addActionListener(e -> canvas.toggleStats());
+        JButton snapButton = new JButton("Snapping On/Off");
+        snapButton.addActionListener(e -> canvas.toggleSnapping());
+        JButton openBuildingButton = new JButton("Open Building");
+        openBuildingButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                canvas.openBuilding(fileChooser.getSelectedFile());
+            }
+        });
+        JButton saveBuildingButton = new JButton("Save Building");
+        saveBuildingButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                canvas.saveBuilding(fileChooser.getSelectedFile());
+            }
+        });
+        JButton addFloorButton = new JButton("Add Floor");
+        addFloorButton.addActionListener(e -> canvas.addFloor());
+        JButton floorUpButton = new JButton("Floor Up");
+        floorUpButton.addActionListener(e -> canvas.floorUp());
+        JButton floorDownButton = new JButton("Floor Down");
+        floorDownButton.addActionListener(e -> canvas.floorDown());
+        // Stairwells and shafts use the width and height fields and go where the plan was last clicked
+        JButton addStairwellButton = new JButton("Add Stairwell");
+        addStairwellButton.addActionListener(e -> addShaft(Building.STAIRWELL, widthField, heightField));
+        JButton addShaftButton = new JButton("Add Shaft");
+        addShaftButton.addActionListener(e -> addShaft(Building.SHAFT, widthField, heightField));
+        JButton hostSessionButton = new JButton("Host Session");
+        hostSessionButton.addActionListener(e -> {
+            String port = JOptionPane.showInputDialog(this, "Port:", SyncServer.DEFAULT_PORT);
+            if (port != null) {
+                try {
+                    canvas.hostSession(Integer.parseInt(port.trim()));
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(this, "Enter a valid port.");
+                }
+            }
+        });
+        JButton joinSessionButton = new JButton("Join Session");
+        joinSessionButton.addActionListener(e -> {
+            String address = JOptionPane.showInputDialog(this, "Host:port", "localhost:" + SyncServer.DEFAULT_PORT);
+            if (address != null) {
+                int colon = address.lastIndexOf(':');
+                try {
+                    if (colon < 0) {
+                        canvas.joinSession(address.trim(), SyncServer.DEFAULT_PORT);
+                    } else {
+                        canvas.joinSession(address.substring(0, colon).trim(), Integer.parseInt(address.substring(colon + 1).trim()));
+                    }
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(this, "Enter a valid port.");
+                }
+            }
+        });
+        JButton leaveSessionButton = new JButton("Leave Session");
+        leaveSessionButton.addActionListener(e -> canvas.leaveSession());
         add(widthLabel);
         add(widthField);
         add(heightLabel);
@@ -532,20 +2702,161 @@ class ControlPanel extends JPanel {
         add(deleteFurnitureButton);  // Add delete furniture button
         add(savePlanButton);
         add(loadPlanButton);
+        add(openLargePlanButton);
         add(rotateButton);  // Add rotate button
+        add(arrangeButton);
+        add(importButton);
+        add(undoButton);
+        add(redoButton);
+        add(zoomInButton);
+        add(zoomOutButton);
+        add(resetViewButton);
+        add(statsButton);
+        add(snapButton);
+        add(openBuildingButton);
+        add(saveBuildingButton);
+        add(addFloorButton);
+        add(floorUpButton);
+        add(floorDownButton);
+        add(addStairwellButton);
+        add(addShaftButton);
+        add(hostSessionButton);
+        add(joinSessionButton);
+        add(leaveSessionButton);
+    }
+    private void addShaft(int kind, JTextField widthField, JTextField heightField) {
+        try {
+            int width = Integer.parseInt(widthField.getText());
+            int height = Integer.parseInt(heightField.getText());
+            String top = JOptionPane.showInputDialog(this, "Up to floor:", canvas.currentFloor() + 1);
+            if (top != null) {
+                canvas.addShaft(kind, width, height, Integer.parseInt(top.trim()) - 1);
+            }
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Enter valid dimensions and floor.");
+        }
+    }
+}
+// Side panel with the plan's live figures, see PlanAnalytics
+class AnalyticsPanel extends JPanel {
+    private static final int REFRESH_MS = 250;
+    private final CanvasPanel canvas;
+    private final JTextArea text = new JTextArea(24, 30);
+    private int shownVersion = -1;
+    private Room shownRoom = null;
+    private boolean shownPaged = false;
+    public AnalyticsPanel(CanvasPanel canvas) {
+        this.canvas = canvas;
+        setLayout(new BorderLayout(5, 5));
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        add(new JLabel("Plan Figures"), BorderLayout.NORTH);
+        add(new JScrollPane(text), BorderLayout.CENTER);
+        JButton exportButton = new JButton("Export Figures");
+        exportButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setSelectedFile(new File("plan-figures.csv"));
+            if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                canvas.exportAnalytics(fileChooser.getSelectedFile());
+            }
+        });
+        add(exportButton, BorderLayout.SOUTH);
+        // Cheap to poll: the text is only rebuilt when the figures or the selected room changed
+        new Timer(REFRESH_MS, e -> refresh()).start();
+        refresh();
+    }
+    private void refresh() {
+        PlanAnalytics analytics = canvas.getAnalytics();
+        Room room = canvas.getSelectedRoom();
+        if (analytics.version() == shownVersion && room == shownRoom && canvas.isPaged() == shownPaged) {
+            return;
+        }
+        shownVersion = analytics.version();
+        shownRoom = room;
+        shownPaged = canvas.isPaged();
+        StringBuilder builder = new StringBuilder();
+        if (shownPaged) {
+            builder.append("Loaded tiles only\n\n");
+        }
+        for (String line : analytics.report(room)) {
+            builder.append(line).append('\n');
+        }
+        text.setText(builder.toString());
+        text.setCaretPosition(0);
     }
 }
 // Main Frame
 public class FloorPlanner {
+    static final String EXIT_AFTER_STARTUP = "--exit-after-startup";
+
+    // Cold start: the furniture icons are decoded on a background pool and the MBean is registered off to the
+    // side while the window is built on the Event Dispatch Thread, as Swing requires.
+    // With --exit-after-startup the planner prints its startup figures and quits once the first frame is painted
+    // and the icons are ready; the appcds Maven profile uses it as the training run for the class-data-sharing
+    // archive. Without a display, that run paints the window's contents off screen instead.
     public static void main(String[] args) {
-        JFrame frame = new JFrame("2D Floor Planner");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setSize(1200, 800);
-        CanvasPanel canvas = new CanvasPanel();
-        ControlPanel controls = new ControlPanel(canvas);
-        frame.setLayout(new BorderLayout());
-        frame.add(controls, BorderLayout.WEST);
-        frame.add(canvas, BorderLayout.CENTER);
-        frame.setVisible(true);
+        PlanMetrics.launched();
+        CompletableFuture<Void> icons = prefetchIcons();
+        CompletableFuture.runAsync(PlanMetrics::registerMBean);
+        boolean exitAfterStartup = Arrays.asList(args).contains(EXIT_AFTER_STARTUP);
+        if (exitAfterStartup) {
+            PlanMetrics.firstFrame().runAfterBothAsync(icons, () -> {
+                System.out.println(PlanMetrics.startupReport());
+                System.exit(0);
+            });
+        }
+        SwingUtilities.invokeLater(() -> {
+            CanvasPanel canvas = new CanvasPanel();
+            JPanel content = createContent(canvas);
+            if (exitAfterStartup && GraphicsEnvironment.isHeadless()) {
+                paintOffScreen(content, 1200, 800);
+                return;
+            }
+            JFrame frame = new JFrame("2D Floor Planner");
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.setSize(1200, 800);
+            frame.setContentPane(content);
+            frame.setVisible(true);
+            canvas.offerRecovery();
+        });
+    }
+
+    // Controls, canvas and analytics, as laid out in the window
+    private static JPanel createContent(CanvasPanel canvas) {
+        JPanel content = new JPanel(new BorderLayout());
+        content.add(new ControlPanel(canvas), BorderLayout.WEST);
+        content.add(canvas, BorderLayout.CENTER);
+        content.add(new AnalyticsPanel(canvas), BorderLayout.EAST);
+        return content;
+    }
+
+    // Every furniture type's icon at the size the control panel adds it with
+    private static CompletableFuture<Void> prefetchIcons() {
+        List<IconCache.Key> keys = new ArrayList<>();
+        for (String type : Furniture.TYPES) {
+            Furniture furniture = Furniture.createDefault(type);
+            keys.add(new IconCache.Key(furniture.iconPath, furniture.width, furniture.height));
+        }
+        return IconCache.prefetch(keys).thenRun(PlanMetrics::iconsReady);
+    }
+
+    // Lay out and paint components that have no window, the way a frame would show them
+    private static void paintOffScreen(JComponent content, int width, int height) {
+        content.setSize(width, height);
+        layOut(content);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        content.paint(g2d);
+        g2d.dispose();
+    }
+
+    // validate() does nothing without a window, so lay out each container in turn
+    private static void layOut(Container container) {
+        container.doLayout();
+        for (Component child : container.getComponents()) {
+            if (child instanceof Container nested) {
+                layOut(nested);
+            }
+        }
     }
 }
\ No newline at end of file
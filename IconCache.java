@@ -0,0 +1,160 @@
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+// Process-wide cache of pre-scaled furniture icons, shared by every Furniture instance
+//
+// Decoding a PNG takes far longer than a cache lookup, so it is done outside the cache's lock: icons can be
+// decoded in parallel, and prefetch does it on a background pool at startup so the first furniture of a
+// type is not held up by it. A key being loaded is loaded once: later prefetches and gets of it wait for
+// that load instead of starting their own. The pool's threads are daemons and end once it has been idle
+// for a while, so it never keeps the process alive.
+//
+// Icons are classpath resources named by Furniture.iconPathFor, such as /sofa.png, and this repository
+// ships none of them. An icon that is missing or cannot be decoded is cached as MISSING, so it is looked
+// up once rather than on every paint; get returns null for it and PlanRenderer draws the furniture as
+// its plain filled rectangle. PNGs with those names in the repository root are copied onto the
+// classpath by the build, and show up without any code change.
+final class IconCache {
+    static final int MAX_SCALED_ENTRIES = 512; // Distinct (icon, width, height) images kept at once
+
+    // Cache key: which icon and the size it is drawn at
+    record Key(String iconPath, int width, int height) {}
+
+    private static final BufferedImage MISSING = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    private static final ThreadPoolExecutor pool = createPool();
+    // Decoded source images, one per icon path; each is decoded once, however many threads ask for it
+    private static final ConcurrentHashMap<String, BufferedImage> sources = new ConcurrentHashMap<>();
+    // Scaled images in least-recently-used order, guarded by the class lock
+    private static final LinkedHashMap<Key, BufferedImage> scaled = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest) {
+            return size() > MAX_SCALED_ENTRIES;
+        }
+    };
+    // Keys being scaled right now, so concurrent requests for one key share a single load
+    private static final ConcurrentHashMap<Key, CompletableFuture<BufferedImage>> loading = new ConcurrentHashMap<>();
+
+    private IconCache() {
+    }
+
+    // Return the icon scaled to the key's size, or null if it cannot be drawn
+    public static BufferedImage get(Key key) {
+        if (key.width() <= 0 || key.height() <= 0) {
+            return null;
+        }
+        BufferedImage image = cached(key);
+        if (image == null) {
+            PlanMetrics.iconMisses.increment();
+            image = load(key);
+        } else {
+            PlanMetrics.iconHits.increment();
+        }
+        return image == MISSING ? null : image;
+    }
+
+    // Decode and scale icons on the background pool, one thread per core; completes once all are cached
+    public static CompletableFuture<Void> prefetch(Collection<Key> keys) {
+        CompletableFuture<?>[] loads = keys.stream()
+                .filter(key -> key.width() > 0 && key.height() > 0)
+                .distinct()
+                .map(key -> CompletableFuture.runAsync(() -> {
+                    if (cached(key) == null) {
+                        load(key);
+                    }
+                }, pool))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(loads);
+    }
+
+    public static synchronized void clear() {
+        sources.clear();
+        scaled.clear();
+    }
+
+    private static synchronized BufferedImage cached(Key key) {
+        return scaled.get(key);
+    }
+
+    // Scale a key that was not cached, or wait for the thread already scaling it. The cache is checked
+    // again once this thread owns the load, as another one may have finished it in between.
+    private static BufferedImage load(Key key) {
+        CompletableFuture<BufferedImage> mine = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            BufferedImage image = cached(key);
+            if (image == null) {
+                image = scale(sources.computeIfAbsent(key.iconPath(), IconCache::decode), key.width(), key.height());
+                PlanMetrics.iconLoads.increment();
+                synchronized (IconCache.class) {
+                    scaled.put(key, image);
+                }
+            }
+            mine.complete(image);
+            return image;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    private static ThreadPoolExecutor createPool() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "icon-prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static BufferedImage decode(String iconPath) {
+        URL url = IconCache.class.getResource(iconPath);
+        if (url != null) {
+            // Read through memory: ImageIO would otherwise copy a stream to a temporary file first
+            try (InputStream in = url.openStream()) {
+                BufferedImage decoded = ImageIO.read(new MemoryCacheImageInputStream(in));
+                if (decoded != null) {
+                    return decoded;
+                }
+            } catch (IOException e) {
+                // Leave the icon missing; furniture is still drawn as a plain shape
+            }
+        }
+        return MISSING;
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width, int height) {
+        if (source == MISSING) {
+            return MISSING;
+        }
+        Image smooth = source.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2d.drawImage(smooth, 0, 0, width, height, null);
+        g2d.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,204 @@
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Read-only, memory-mapped view of a tiled plan file that decodes one tile at a time
+final class MappedPlan implements Closeable {
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int tileSize;
+    private final int maxExtent; // Largest element size, so neighbouring tiles reaching into a view are found
+    private final int roomCount;
+    private final int furnitureCount;
+    private final int[] tileX, tileY, firstRoom, roomCounts, firstFurniture, furnitureCounts;
+    private final long roomBase, furnitureBase;
+    private final HashMap<Long, Integer> tileAt = new HashMap<>(); // Packed tile coordinates to tile
+
+    public MappedPlan(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Plan file is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < PlanFile.TILED_HEADER_BYTES || buffer.getInt(0) != PlanFile.MAGIC) {
+                throw new IOException("Not a floor plan file");
+            }
+            if (buffer.getShort(4) != PlanFile.VERSION) {
+                throw new IOException("Plan file has no tile directory; save it again to page it");
+            }
+            roomCount = buffer.getInt(8);
+            furnitureCount = buffer.getInt(12);
+            tileSize = buffer.getInt(16);
+            maxExtent = buffer.getInt(20);
+            int tileCount = buffer.getInt(24);
+            roomBase = PlanFile.TILED_HEADER_BYTES + (long) tileCount * PlanFile.TILE_ENTRY_BYTES;
+            furnitureBase = roomBase + (long) roomCount * PlanFile.RECORD_BYTES;
+            if (roomCount < 0 || furnitureCount < 0 || tileCount < 0 || tileSize <= 0 || maxExtent < 0
+                    || furnitureBase + (long) furnitureCount * PlanFile.RECORD_BYTES != size) {
+                throw new IOException("Corrupt plan header");
+            }
+            tileX = new int[tileCount];
+            tileY = new int[tileCount];
+            firstRoom = new int[tileCount];
+            roomCounts = new int[tileCount];
+            firstFurniture = new int[tileCount];
+            furnitureCounts = new int[tileCount];
+            int entry = PlanFile.TILED_HEADER_BYTES;
+            long rooms = 0;
+            long furniture = 0;
+            for (int tile = 0; tile < tileCount; tile++, entry += PlanFile.TILE_ENTRY_BYTES) {
+                tileX[tile] = buffer.getInt(entry);
+                tileY[tile] = buffer.getInt(entry + 4);
+                firstRoom[tile] = buffer.getInt(entry + 8);
+                roomCounts[tile] = buffer.getInt(entry + 12);
+                firstFurniture[tile] = buffer.getInt(entry + 16);
+                furnitureCounts[tile] = buffer.getInt(entry + 20);
+                // Tiles are read straight from the mapping later, so a bad entry must not point outside the records
+                if (!within(firstRoom[tile], roomCounts[tile], roomCount)
+                        || !within(firstFurniture[tile], furnitureCounts[tile], furnitureCount)) {
+                    throw new IOException("Corrupt tile directory");
+                }
+                if (tileAt.put(key(tileX[tile], tileY[tile]), tile) != null) {
+                    throw new IOException("Corrupt tile directory");
+                }
+                rooms += roomCounts[tile];
+                furniture += furnitureCounts[tile];
+            }
+            if (rooms != roomCount || furniture != furnitureCount) {
+                throw new IOException("Corrupt tile directory");
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int tileCount() {
+        return tileX.length;
+    }
+
+    public int elementCount() {
+        return roomCount + furnitureCount;
+    }
+
+    // Tiles that may hold elements reaching into the given area, found by tile coordinates rather than
+    // by testing every tile, so paging a small view of a large plan does not scan the whole directory
+    public int[] tilesTouching(Rectangle area) {
+        long reach = (long) tileSize + maxExtent;
+        long minTx = Math.floorDiv(area.x - reach, tileSize);
+        long minTy = Math.floorDiv(area.y - reach, tileSize);
+        long maxTx = Math.floorDiv((long) area.x + area.width - 1, tileSize);
+        long maxTy = Math.floorDiv((long) area.y + area.height - 1, tileSize);
+        if (maxTx < minTx || maxTy < minTy) {
+            return new int[0];
+        }
+        int[] tiles = new int[16];
+        int count = 0;
+        if ((maxTx - minTx + 1) * (maxTy - minTy + 1) > tileX.length) {
+            // Zoomed far out the area covers more tile positions than the plan has tiles
+            for (int tile = 0; tile < tileX.length; tile++) {
+                if (tileTouches(tile, area)) {
+                    if (count == tiles.length) {
+                        tiles = Arrays.copyOf(tiles, count * 2);
+                    }
+                    tiles[count++] = tile;
+                }
+            }
+            return Arrays.copyOf(tiles, count);
+        }
+        for (long tx = Math.max(minTx, Integer.MIN_VALUE); tx <= Math.min(maxTx, Integer.MAX_VALUE); tx++) {
+            for (long ty = Math.max(minTy, Integer.MIN_VALUE); ty <= Math.min(maxTy, Integer.MAX_VALUE); ty++) {
+                Integer tile = tileAt.get(key((int) tx, (int) ty));
+                if (tile != null && tileTouches(tile, area)) {
+                    if (count == tiles.length) {
+                        tiles = Arrays.copyOf(tiles, count * 2);
+                    }
+                    tiles[count++] = tile;
+                }
+            }
+        }
+        return Arrays.copyOf(tiles, count);
+    }
+
+    // True if a tile may hold elements that reach into the given area
+    public boolean tileTouches(int tile, Rectangle area) {
+        // Elements belong to the tile of their top-left corner and reach at most maxExtent beyond it
+        long left = (long) tileX[tile] * tileSize;
+        long top = (long) tileY[tile] * tileSize;
+        return left < (long) area.x + area.width && left + tileSize + maxExtent > area.x
+                && top < (long) area.y + area.height && top + tileSize + maxExtent > area.y;
+    }
+
+    // Decode every room and furniture record stored in one tile
+    public void readTile(int tile, List<Room> rooms, List<Furniture> furniture) throws IOException {
+        ByteBuffer records = buffer.duplicate();
+        records.position((int) (roomBase + (long) firstRoom[tile] * PlanFile.RECORD_BYTES));
+        for (int i = 0; i < roomCounts[tile]; i++) {
+            rooms.add(PlanFile.getRoom(records));
+        }
+        records.position((int) (furnitureBase + (long) firstFurniture[tile] * PlanFile.RECORD_BYTES));
+        for (int i = 0; i < furnitureCounts[tile]; i++) {
+            furniture.add(PlanFile.getFurniture(records));
+        }
+    }
+
+    // Decode one tile into a sink without creating Room or Furniture objects, e.g. to draw an overview
+    public void readTile(int tile, PlanFile.RecordSink sink) throws IOException {
+        sink.begin(roomCounts[tile], furnitureCounts[tile]);
+        RoomType[] roomTypes = RoomType.values();
+        int position = (int) (roomBase + (long) firstRoom[tile] * PlanFile.RECORD_BYTES);
+        for (int i = 0; i < roomCounts[tile]; i++, position += PlanFile.RECORD_BYTES) {
+            int type = buffer.getShort(position + 16);
+            if (type < 0 || type >= roomTypes.length) {
+                throw new IOException("Unknown room type " + type);
+            }
+            sink.room(buffer.getInt(position), buffer.getInt(position + 4), buffer.getInt(position + 8),
+                    buffer.getInt(position + 12), roomTypes[type]);
+        }
+        position = (int) (furnitureBase + (long) firstFurniture[tile] * PlanFile.RECORD_BYTES);
+        for (int i = 0; i < furnitureCounts[tile]; i++, position += PlanFile.RECORD_BYTES) {
+            sink.furniture(buffer.getInt(position), buffer.getInt(position + 4), buffer.getInt(position + 8),
+                    buffer.getInt(position + 12), buffer.getShort(position + 16), buffer.getShort(position + 18));
+        }
+    }
+
+    // Add the records of some tiles to a store, straight from the file
+    public void readTiles(int[] tiles, PlanStore store) throws IOException {
+        PlanFile.RecordSink sink = new PlanFile.RecordSink() {
+            public void begin(int roomCount, int furnitureCount) {
+            }
+            public void room(int x, int y, int width, int height, RoomType type) {
+                store.addRoom(x, y, width, height, type);
+            }
+            public void furniture(int x, int y, int width, int height, int type, int rotation) {
+                store.addFurniture(x, y, width, height, type, rotation & 3);
+            }
+        };
+        for (int tile : tiles) {
+            readTile(tile, sink);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static boolean within(int first, int count, int total) {
+        return first >= 0 && count >= 0 && (long) first + count <= total;
+    }
+
+    private static long key(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xffffffffL);
+    }
+}
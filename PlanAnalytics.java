@@ -0,0 +1,371 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+// Live plan figures: floor area by room type, furniture counts by type, free floor area and the clearance
+// between pieces of furniture, kept up to date from the canvas's change events instead of rescanning the plan
+//
+// Areas and counts are running sums; each event takes the element's previous contribution out and puts the
+// new one in. Clearance is the gap between a piece and its nearest neighbour in the same room, or among the
+// free pieces. Each piece remembers that neighbour, found with a local search of a spatial grid, and the
+// pieces that named it as theirs, so a move only revisits pieces around its old and new position. Gaps of
+// CLEARANCE_RANGE or more count as clear and are not tracked; smaller ones are counted by their squared
+// length, which is a whole number, so the smallest is found without sorting.
+final class PlanAnalytics {
+    static final int CLEARANCE_RANGE = 200;
+    static final double CLEAR = Double.POSITIVE_INFINITY; // Clearance reported when nothing is within range
+    private static final int UNTRACKED = Integer.MAX_VALUE; // Squared gap of a piece with nothing within range
+
+    private static final class RoomEntry {
+        RoomType type;
+        long area;
+        long furnitureArea;
+        int furnitureCount;
+    }
+
+    private static final class Piece {
+        int x, y, width, height;
+        int type; // Furniture.TYPES index, or TYPES.length for other types
+        Room parent;
+        int squaredGap = UNTRACKED; // To the nearest piece
+        Piece nearest;
+        final ArrayList<Piece> nearestOf = new ArrayList<>(0);
+    }
+
+    private final IdentityHashMap<Room, RoomEntry> rooms = new IdentityHashMap<>();
+    private final IdentityHashMap<Furniture, Piece> pieces = new IdentityHashMap<>();
+    private final SpatialGrid<Piece> grid = new SpatialGrid<>(CLEARANCE_RANGE);
+    private final long[] areaByType = new long[RoomType.values().length];
+    private final int[] roomsByType = new int[RoomType.values().length];
+    private final int[] furnitureByType = new int[Furniture.TYPES.length + 1];
+    private long roomArea;
+    private long furnishedArea; // Footprint of the furniture standing in rooms
+    private final int[] piecesBySquaredGap = new int[CLEARANCE_RANGE * CLEARANCE_RANGE];
+    private int smallestSquaredGap = UNTRACKED; // Lower bound, raised to the true value when the minimum is asked for
+    private final ArrayList<Piece> rescan = new ArrayList<>();
+    private Piece scanned; // Piece being scanned by visitNeighbour, and the nearest found so far
+    private Piece bestPiece;
+    private int bestGap;
+    private final Consumer<Piece> visitNeighbour = this::visitNeighbour;
+    private int version; // Bumped by every event, so a view can tell when to refresh
+
+    public int version() {
+        return version;
+    }
+
+    public void clear() {
+        rooms.clear();
+        pieces.clear();
+        grid.clear();
+        Arrays.fill(areaByType, 0);
+        Arrays.fill(roomsByType, 0);
+        Arrays.fill(furnitureByType, 0);
+        roomArea = 0;
+        furnishedArea = 0;
+        Arrays.fill(piecesBySquaredGap, 0);
+        smallestSquaredGap = UNTRACKED;
+        version++;
+    }
+
+    // A room was added, moved or resized
+    public void roomChanged(Room room) {
+        RoomEntry entry = rooms.get(room);
+        if (entry == null) {
+            entry = new RoomEntry();
+            entry.type = room.type;
+            rooms.put(room, entry);
+            roomsByType[entry.type.ordinal()]++;
+        } else {
+            areaByType[entry.type.ordinal()] -= entry.area;
+            roomArea -= entry.area;
+        }
+        entry.area = (long) room.width * room.height;
+        areaByType[entry.type.ordinal()] += entry.area;
+        roomArea += entry.area;
+        version++;
+    }
+
+    // A room left the plan; its furniture is reported separately
+    public void roomRemoved(Room room) {
+        RoomEntry entry = rooms.remove(room);
+        if (entry != null) {
+            roomsByType[entry.type.ordinal()]--;
+            areaByType[entry.type.ordinal()] -= entry.area;
+            roomArea -= entry.area;
+            version++;
+        }
+    }
+
+    // A piece was added, moved, resized or rotated, or changed room
+    public void furnitureChanged(Furniture furniture) {
+        Piece piece = pieces.get(furniture);
+        if (piece == null) {
+            piece = new Piece();
+            int type = Furniture.typeOrdinal(furniture.type);
+            piece.type = type < 0 ? Furniture.TYPES.length : type;
+            pieces.put(furniture, piece);
+            furnitureByType[piece.type]++;
+        } else {
+            leaveRoom(piece);
+            forgetNeighbours(piece);
+        }
+        piece.x = furniture.x;
+        piece.y = furniture.y;
+        piece.width = furniture.width;
+        piece.height = furniture.height;
+        piece.parent = furniture.parent;
+        enterRoom(piece);
+        grid.update(piece, piece.x, piece.y, piece.width, piece.height);
+        scan(piece);
+        rescanNeighbours();
+        version++;
+    }
+
+    public void furnitureRemoved(Furniture furniture) {
+        Piece piece = pieces.remove(furniture);
+        if (piece == null) {
+            return;
+        }
+        furnitureByType[piece.type]--;
+        leaveRoom(piece);
+        grid.remove(piece);
+        forgetNeighbours(piece);
+        rescanNeighbours();
+        version++;
+    }
+
+    private void enterRoom(Piece piece) {
+        RoomEntry entry = piece.parent != null ? rooms.get(piece.parent) : null;
+        if (entry != null) {
+            long area = (long) piece.width * piece.height;
+            entry.furnitureArea += area;
+            entry.furnitureCount++;
+            furnishedArea += area;
+        }
+    }
+
+    private void leaveRoom(Piece piece) {
+        RoomEntry entry = piece.parent != null ? rooms.get(piece.parent) : null;
+        if (entry != null) {
+            long area = (long) piece.width * piece.height;
+            entry.furnitureArea -= area;
+            entry.furnitureCount--;
+            furnishedArea -= area;
+        }
+    }
+
+    // Drop a piece's own neighbour, and queue the pieces that had it as theirs to look again
+    private void forgetNeighbours(Piece piece) {
+        for (Piece other : piece.nearestOf) {
+            other.nearest = null;
+            setSquaredGap(other, UNTRACKED);
+            rescan.add(other);
+        }
+        piece.nearestOf.clear();
+        setNearest(piece, null, UNTRACKED);
+    }
+
+    private void rescanNeighbours() {
+        // Every one is scanned, even if the piece that moved became its neighbour, as another may be nearer
+        for (Piece piece : rescan) {
+            scan(piece);
+        }
+        rescan.clear();
+    }
+
+    // Find a piece's nearest neighbour within range; neighbours for which it is now the nearest take it too
+    private void scan(Piece piece) {
+        scanned = piece;
+        bestGap = piece.squaredGap;
+        bestPiece = null;
+        grid.forEach(piece.x - CLEARANCE_RANGE, piece.y - CLEARANCE_RANGE, piece.width + 2 * CLEARANCE_RANGE,
+                piece.height + 2 * CLEARANCE_RANGE, visitNeighbour);
+        if (bestPiece != null) {
+            setNearest(piece, bestPiece, bestGap);
+        }
+        scanned = null;
+        bestPiece = null;
+    }
+
+    private void visitNeighbour(Piece other) {
+        Piece piece = scanned;
+        if (other == piece || other.parent != piece.parent) {
+            return;
+        }
+        int gap = squaredGap(piece, other);
+        if (gap < bestGap) {
+            bestGap = gap;
+            bestPiece = other;
+        }
+        if (gap < other.squaredGap) {
+            setNearest(other, piece, gap);
+        }
+    }
+
+    private void setNearest(Piece piece, Piece nearest, int squaredGap) {
+        if (piece.nearest != null) {
+            piece.nearest.nearestOf.remove(piece);
+        }
+        piece.nearest = nearest;
+        if (nearest != null) {
+            nearest.nearestOf.add(piece);
+        }
+        setSquaredGap(piece, squaredGap);
+    }
+
+    private void setSquaredGap(Piece piece, int squaredGap) {
+        if (piece.squaredGap != UNTRACKED) {
+            piecesBySquaredGap[piece.squaredGap]--;
+        }
+        piece.squaredGap = squaredGap;
+        if (squaredGap != UNTRACKED) {
+            piecesBySquaredGap[squaredGap]++;
+            smallestSquaredGap = Math.min(smallestSquaredGap, squaredGap);
+        }
+    }
+
+    // Squared distance between the nearest points of two footprints, 0 when they touch; UNTRACKED when it
+    // is CLEARANCE_RANGE or more
+    private static int squaredGap(Piece a, Piece b) {
+        long dx = Math.max(0, Math.max((long) b.x - (a.x + a.width), (long) a.x - (b.x + b.width)));
+        long dy = Math.max(0, Math.max((long) b.y - (a.y + a.height), (long) a.y - (b.y + b.height)));
+        long squared = dx * dx + dy * dy;
+        return squared < (long) CLEARANCE_RANGE * CLEARANCE_RANGE ? (int) squared : UNTRACKED;
+    }
+
+    private static double clearance(int squaredGap) {
+        return squaredGap == UNTRACKED ? CLEAR : Math.sqrt(squaredGap);
+    }
+
+    public int roomCount() {
+        return rooms.size();
+    }
+
+    public int furnitureCount() {
+        return pieces.size();
+    }
+
+    public long roomArea() {
+        return roomArea;
+    }
+
+    public long freeArea() {
+        return roomArea - furnishedArea;
+    }
+
+    public long area(RoomType type) {
+        return areaByType[type.ordinal()];
+    }
+
+    public int rooms(RoomType type) {
+        return roomsByType[type.ordinal()];
+    }
+
+    // Count for a Furniture.TYPES index, or TYPES.length for pieces of any other type
+    public int furniture(int type) {
+        return furnitureByType[type];
+    }
+
+    // Smallest gap between two pieces in the same room or both outside rooms, CLEAR if none are within range
+    public double minClearance() {
+        while (smallestSquaredGap < piecesBySquaredGap.length && piecesBySquaredGap[smallestSquaredGap] == 0) {
+            smallestSquaredGap++;
+        }
+        if (smallestSquaredGap >= piecesBySquaredGap.length) {
+            smallestSquaredGap = UNTRACKED;
+        }
+        return clearance(smallestSquaredGap);
+    }
+
+    // Smallest gap between two of a room's pieces, from what each of them tracks
+    public double minClearance(Room room) {
+        int min = UNTRACKED;
+        for (Furniture child : room.children) {
+            Piece piece = pieces.get(child);
+            if (piece != null) {
+                min = Math.min(min, piece.squaredGap);
+            }
+        }
+        return clearance(min);
+    }
+
+    public long freeArea(Room room) {
+        RoomEntry entry = rooms.get(room);
+        return entry == null ? 0 : entry.area - entry.furnitureArea;
+    }
+
+    public int furnitureCount(Room room) {
+        RoomEntry entry = rooms.get(room);
+        return entry == null ? 0 : entry.furnitureCount;
+    }
+
+    // Human-readable summary of the plan, and of one room if given
+    public List<String> report(Room room) {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Rooms: %d, %,d sq units", rooms.size(), roomArea));
+        for (RoomType type : RoomType.values()) {
+            lines.add(String.format("  %-12s %4d  %,d", type, rooms(type), area(type)));
+        }
+        lines.add(String.format("Free floor: %,d sq units (%.1f%%)", freeArea(),
+                roomArea == 0 ? 0.0 : 100.0 * freeArea() / roomArea));
+        lines.add(String.format("Furniture: %d", pieces.size()));
+        for (int type = 0; type <= Furniture.TYPES.length; type++) {
+            if (furnitureByType[type] > 0) {
+                lines.add(String.format("  %-12s %4d", typeName(type), furnitureByType[type]));
+            }
+        }
+        lines.add("Min clearance: " + format(minClearance()));
+        if (room != null && rooms.containsKey(room)) {
+            lines.add("");
+            lines.add(String.format("Selected %s: %,d sq units", room.type, rooms.get(room).area));
+            lines.add(String.format("  Furniture %d, free %,d sq units", furnitureCount(room), freeArea(room)));
+            lines.add("  Min clearance: " + format(minClearance(room)));
+        }
+        return lines;
+    }
+
+    // The figures as CSV: one table for the plan and one row per room in the order given
+    public void writeCsv(Writer out, List<Room> roomOrder) throws IOException {
+        out.write("figure,value\n");
+        out.write("rooms," + rooms.size() + "\n");
+        out.write("room_area," + roomArea + "\n");
+        out.write("free_area," + freeArea() + "\n");
+        out.write("furniture," + pieces.size() + "\n");
+        out.write("min_clearance," + csvClearance(minClearance()) + "\n");
+        for (RoomType type : RoomType.values()) {
+            out.write("rooms:" + type + "," + rooms(type) + "\n");
+            out.write("area:" + type + "," + area(type) + "\n");
+        }
+        for (int type = 0; type <= Furniture.TYPES.length; type++) {
+            out.write("furniture:" + typeName(type) + "," + furnitureByType[type] + "\n");
+        }
+        out.write("\nroom,type,x,y,width,height,area,furniture,free_area,min_clearance\n");
+        int index = 0;
+        for (Room room : roomOrder) {
+            RoomEntry entry = rooms.get(room);
+            if (entry == null) {
+                continue;
+            }
+            out.write(index++ + "," + room.type + "," + room.x + "," + room.y + "," + room.width + "," + room.height
+                    + "," + entry.area + "," + entry.furnitureCount + "," + (entry.area - entry.furnitureArea)
+                    + "," + csvClearance(minClearance(room)) + "\n");
+        }
+    }
+
+    private static String typeName(int type) {
+        return type < Furniture.TYPES.length ? Furniture.TYPES[type] : "Other";
+    }
+
+    private static String format(double gap) {
+        return gap == CLEAR ? "clear (" + CLEARANCE_RANGE + "+)" : String.format("%.1f", gap);
+    }
+
+    private static String csvClearance(double gap) {
+        return gap == CLEAR ? "" : String.format(Locale.ROOT, "%.2f", gap);
+    }
+}
@@ -0,0 +1,191 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+// Command-line batch export of saved plans to PNG or SVG, rendered headless on a fork-join pool
+//
+// Usage: java -cp . PlanExporter [--format png|svg] [--scale 0.25] [--tile 512] [--threads N] [--out dir] plan-or-dir...
+public class PlanExporter {
+    private final String format;
+    private final double scale;
+    private final int tileSize;
+    private final File outputDir;
+    private final AtomicInteger exported = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public PlanExporter(String format, double scale, int tileSize, File outputDir) {
+        this.format = format;
+        this.scale = scale;
+        this.tileSize = tileSize;
+        this.outputDir = outputDir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        String format = "png";
+        double scale = 1.0;
+        int tileSize = 512;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outputDir = new File(".");
+        List<File> plans = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format" -> format = args[++i].toLowerCase();
+                    case "--scale" -> scale = Double.parseDouble(args[++i]);
+                    case "--tile" -> tileSize = Integer.parseInt(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--out" -> outputDir = new File(args[++i]);
+                    default -> addPlans(new File(args[i]), plans);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage();
+            return;
+        }
+        if (plans.isEmpty() || !(format.equals("png") || format.equals("svg")) || scale <= 0 || tileSize <= 0 || threads <= 0) {
+            usage();
+            return;
+        }
+        Files.createDirectories(outputDir.toPath());
+        PlanExporter exporter = new PlanExporter(format, scale, tileSize, outputDir);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            exporter.exportAll(plans, pool);
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("Exported %d of %d plans in %.1f s%n", exporter.exported.get(), plans.size(),
+                (System.nanoTime() - start) / 1e9);
+        if (exporter.failed.get() > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: PlanExporter [--format png|svg] [--scale s] [--tile px] [--threads n] [--out dir] plan-or-dir...");
+        System.exit(2);
+    }
+
+    private static void addPlans(File file, List<File> plans) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles(File::isFile);
+            if (children != null) {
+                for (File child : children) {
+                    plans.add(child);
+                }
+            }
+        } else {
+            plans.add(file);
+        }
+    }
+
+    // Export every plan, one task per plan; large PNGs are further split into tiles
+    public void exportAll(List<File> plans, ForkJoinPool pool) {
+        List<RecursiveAction> tasks = new ArrayList<>(plans.size());
+        for (File plan : plans) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        export(plan);
+                        exported.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.err.println("Failed to export " + plan + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    public void export(File plan) throws IOException {
+        // The plan is only read, so it stays in compact primitive form
+        PlanStore contents = PlanFile.readStore(plan);
+        String name = plan.getName();
+        int dot = name.lastIndexOf('.');
+        File target = new File(outputDir, (dot > 0 ? name.substring(0, dot) : name) + "." + format);
+        if (format.equals("svg")) {
+            try (Writer out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+                PlanRenderer.writeSvg(out, contents, scale);
+            }
+        } else {
+            ImageIO.write(renderImage(contents), "png", target);
+        }
+    }
+
+    // Render a plan at the configured scale, drawing tiles of the image in parallel
+    public BufferedImage renderImage(PlanStore store) {
+        Rectangle bounds = PlanRenderer.planBounds(store);
+        int width = Math.max(1, (int) Math.ceil(bounds.width * scale));
+        int height = Math.max(1, (int) Math.ceil(bounds.height * scale));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        List<RecursiveAction> tiles = new ArrayList<>();
+        for (int ty = 0; ty < height; ty += tileSize) {
+            for (int tx = 0; tx < width; tx += tileSize) {
+                int tileX = tx;
+                int tileY = ty;
+                tiles.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        renderTile(image, tileX, tileY, store);
+                    }
+                });
+            }
+        }
+        if (RecursiveAction.inForkJoinPool()) {
+            RecursiveAction.invokeAll(tiles);
+        } else {
+            tiles.forEach(RecursiveAction::invoke);
+        }
+        return image;
+    }
+
+    private void renderTile(BufferedImage image, int tileX, int tileY, PlanStore store) {
+        int width = Math.min(tileSize, image.getWidth() - tileX);
+        int height = Math.min(tileSize, image.getHeight() - tileY);
+        // Tiles write disjoint regions of the shared raster
+        Graphics2D g2d = image.getSubimage(tileX, tileY, width, height).createGraphics();
+        try {
+            g2d.setColor(PlanRenderer.BACKGROUND_COLOR);
+            g2d.fillRect(0, 0, width, height);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.translate(-tileX, -tileY);
+            g2d.scale(scale, scale);
+            // Pad the area so window strokes drawn just outside an element are not cut off
+            int pad = (int) PlanRenderer.WINDOW_STROKE_WIDTH;
+            int worldX = (int) Math.floor(tileX / scale) - pad;
+            int worldY = (int) Math.floor(tileY / scale) - pad;
+            int worldWidth = (int) Math.ceil(width / scale) + 2 * pad + 1;
+            int worldHeight = (int) Math.ceil(height / scale) + 2 * pad + 1;
+            // Sequential scans over the store's primitive columns: rooms first, furniture on top
+            store.forEachIntersecting(PlanStore.ROOM, worldX, worldY, worldWidth, worldHeight,
+                    id -> PlanRenderer.drawElement(g2d, store, id));
+            store.forEachIntersecting(PlanStore.FURNITURE, worldX, worldY, worldWidth, worldHeight,
+                    id -> PlanRenderer.drawElement(g2d, store, id));
+        } finally {
+            g2d.dispose();
+        }
+    }
+}
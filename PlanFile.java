@@ -0,0 +1,374 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Versioned binary plan format: a small header followed by fixed-width room and furniture records
+//
+// Header:    int magic, short version, short flags, int roomCount, int furnitureCount
+//            (version 2) int tileSize, int maxExtent, int tileCount
+// Directory: (version 2) per tile: int tileX, int tileY, int firstRoom, int roomCount, int firstFurniture, int furnitureCount
+// Record:    int x, int y, int width, int height, short type ordinal, short rotation
+//
+// Version 2 groups the records by the TILE_SIZE tile holding their top-left corner, so a
+// viewport can be read as a few contiguous ranges (see MappedPlan). The same image can also be
+// embedded in a larger file at any offset, as the floors of a Building are.
+final class PlanFile {
+    static final int MAGIC = 0x46504C4E; // "FPLN"
+    static final short VERSION = 2;
+    static final int HEADER_BYTES = 16;
+    static final int TILED_HEADER_BYTES = HEADER_BYTES + 12;
+    static final int TILE_ENTRY_BYTES = 24;
+    static final int RECORD_BYTES = 20;
+    static final int TILE_SIZE = 512; // Tile edge in canvas pixels
+    private static final int BUFFER_BYTES = RECORD_BYTES * 4096;
+
+    // Told how many records have been written or read so far; called from the I/O thread
+    interface Progress {
+        Progress NONE = (done, total) -> { };
+
+        void update(long done, long total);
+    }
+
+    // Receives the records of a plan in file order as they are read
+    interface RecordSink {
+        void begin(int roomCount, int furnitureCount);
+
+        void room(int x, int y, int width, int height, RoomType type);
+
+        void furniture(int x, int y, int width, int height, int type, int rotation);
+    }
+
+    private PlanFile() {
+    }
+
+    public static void write(File file, List<Room> rooms, List<Furniture> furniture) throws IOException {
+        write(file, PlanStore.of(rooms, furniture));
+    }
+
+    public static void write(File file, PlanStore store) throws IOException {
+        write(file, store, Progress.NONE);
+    }
+
+    // Interrupting the writing thread aborts the save and leaves any existing file untouched
+    public static void write(File file, PlanStore store, Progress progress) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        // Write next to the target and swap it in, so a failed save never leaves a truncated plan behind
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(channel, store, progress);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Write a whole plan image at the channel's position
+    static void write(FileChannel channel, PlanStore store, Progress progress) throws IOException {
+        TileLayout layout = new TileLayout(store);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                .putInt(store.roomCount()).putInt(store.furnitureCount())
+                .putInt(TILE_SIZE).putInt(layout.maxExtent).putInt(layout.tileCount());
+        long total = store.roomCount() + store.furnitureCount();
+        long written = 0;
+        int firstRoom = 0;
+        int firstFurniture = 0;
+        for (int tile = 0; tile < layout.tileCount(); tile++) {
+            if (buffer.remaining() < TILE_ENTRY_BYTES) {
+                flush(channel, buffer);
+            }
+            buffer.putInt(layout.tileX.get(tile)).putInt(layout.tileY.get(tile))
+                    .putInt(firstRoom).putInt(layout.roomCounts[tile])
+                    .putInt(firstFurniture).putInt(layout.furnitureCounts[tile]);
+            firstRoom += layout.roomCounts[tile];
+            firstFurniture += layout.furnitureCounts[tile];
+        }
+        for (int id : layout.roomOrder) {
+            if (buffer.remaining() < RECORD_BYTES) {
+                flush(channel, buffer);
+                progress.update(written, total);
+            }
+            putRecord(buffer, store, id);
+            written++;
+        }
+        for (int id : layout.furnitureOrder) {
+            if (buffer.remaining() < RECORD_BYTES) {
+                flush(channel, buffer);
+                progress.update(written, total);
+            }
+            putRecord(buffer, store, id);
+            written++;
+        }
+        flush(channel, buffer);
+        progress.update(written, total);
+    }
+
+    // Read a whole plan into a new store without creating Room or Furniture objects
+    public static PlanStore readStore(File file) throws IOException {
+        StoreSink sink = new StoreSink();
+        read(file, sink);
+        return sink.store;
+    }
+
+    // Same for a plan image that starts at the given offset of an open file
+    static PlanStore readStore(FileChannel channel, long start) throws IOException {
+        StoreSink sink = new StoreSink();
+        read(channel, start, sink);
+        return sink.store;
+    }
+
+    // Stream every record of a plan to a sink; interrupting the reading thread aborts the read
+    public static void read(File file, RecordSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            read(channel, 0, sink);
+        }
+    }
+
+    // Same for a plan image starting at the given offset of an open file; moves the channel's position
+    static void read(FileChannel channel, long start, RecordSink sink) throws IOException {
+        channel.position(start);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        buffer.limit(HEADER_BYTES);
+        fill(channel, buffer);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a floor plan file");
+        }
+        short version = buffer.getShort();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported plan version " + version);
+        }
+        buffer.getShort(); // flags, unused
+        int roomCount = buffer.getInt();
+        int furnitureCount = buffer.getInt();
+        long records = start + HEADER_BYTES;
+        if (version == VERSION) {
+            // A full load reads the records in file order, so the tile directory is skipped
+            buffer.clear().limit(TILED_HEADER_BYTES - HEADER_BYTES);
+            fill(channel, buffer);
+            buffer.getInt(); // tile size
+            buffer.getInt(); // max extent
+            int tileCount = buffer.getInt();
+            records = tileCount < 0 ? -1 : start + TILED_HEADER_BYTES + (long) tileCount * TILE_ENTRY_BYTES;
+        }
+        // The counts size what the sink allocates, so they must fit in the file before anything is allocated.
+        // The plan may be followed by more data, as in a building, so the file can be longer.
+        if (roomCount < 0 || furnitureCount < 0 || records < 0
+                || records + ((long) roomCount + furnitureCount) * RECORD_BYTES > channel.size()) {
+            throw new IOException("Corrupt plan header");
+        }
+        channel.position(records);
+        sink.begin(roomCount, furnitureCount);
+        RoomType[] roomTypes = RoomType.values();
+        buffer.clear().limit(0);
+        for (int i = 0; i < roomCount; i++) {
+            ensureRecord(channel, buffer);
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int type = buffer.getShort();
+            buffer.getShort(); // rotation, rooms are never rotated
+            if (type < 0 || type >= roomTypes.length) {
+                throw new IOException("Unknown room type " + type);
+            }
+            sink.room(x, y, width, height, roomTypes[type]);
+        }
+        for (int i = 0; i < furnitureCount; i++) {
+            ensureRecord(channel, buffer);
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int type = buffer.getShort();
+            int rotation = buffer.getShort();
+            sink.furniture(x, y, width, height, type, rotation & 3);
+        }
+    }
+
+    private static final class StoreSink implements RecordSink {
+        PlanStore store;
+
+        @Override
+        public void begin(int roomCount, int furnitureCount) {
+            store = new PlanStore(roomCount + furnitureCount);
+        }
+
+        @Override
+        public void room(int x, int y, int width, int height, RoomType type) {
+            store.addRoom(x, y, width, height, type);
+        }
+
+        @Override
+        public void furniture(int x, int y, int width, int height, int type, int rotation) {
+            store.addFurniture(x, y, width, height, type, rotation);
+        }
+    }
+
+    static void putRecord(ByteBuffer buffer, PlanStore store, int id) {
+        buffer.putInt(store.x(id)).putInt(store.y(id)).putInt(store.width(id)).putInt(store.height(id))
+                .putShort((short) store.type(id)).putShort((short) store.rotation(id));
+    }
+
+    static Room getRoom(ByteBuffer buffer) throws IOException {
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int type = buffer.getShort();
+        buffer.getShort(); // rotation, rooms are never rotated
+        RoomType[] types = RoomType.values();
+        if (type < 0 || type >= types.length) {
+            throw new IOException("Unknown room type " + type);
+        }
+        return new Room(x, y, width, height, types[type]);
+    }
+
+    static Furniture getFurniture(ByteBuffer buffer) {
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int type = buffer.getShort();
+        int rotation = buffer.getShort();
+        String typeName = type >= 0 && type < Furniture.TYPES.length ? Furniture.TYPES[type] : "Unknown";
+        Furniture furniture = Furniture.create(x, y, width, height, typeName);
+        furniture.rotation = rotation & 3;
+        return furniture;
+    }
+
+    static int tileOf(int coordinate) {
+        return Math.floorDiv(coordinate, TILE_SIZE);
+    }
+
+    // Groups store ids by tile with a counting sort, keeping tiles in first-seen order
+    private static final class TileLayout {
+        final IntList tileX = new IntList();
+        final IntList tileY = new IntList();
+        int[] roomCounts;
+        int[] furnitureCounts;
+        final int[] roomOrder;
+        final int[] furnitureOrder;
+        int maxExtent;
+
+        TileLayout(PlanStore store) {
+            HashMap<Long, Integer> tileIds = new HashMap<>();
+            int[] roomIds = new int[store.roomCount()];
+            int[] roomTiles = new int[roomIds.length];
+            int[] furnitureIds = new int[store.furnitureCount()];
+            int[] furnitureTiles = new int[furnitureIds.length];
+            int rooms = 0;
+            int furniture = 0;
+            for (int id = 0; id < store.idLimit(); id++) {
+                byte kind = store.kind(id);
+                if (kind == PlanStore.FREE) {
+                    continue;
+                }
+                int wall = kind == PlanStore.ROOM ? Room.wallThickness : 0;
+                maxExtent = Math.max(maxExtent, Math.max(store.width(id), store.height(id)) + 2 * wall);
+                int tile = tileId(tileIds, store.x(id), store.y(id));
+                if (kind == PlanStore.ROOM) {
+                    roomIds[rooms] = id;
+                    roomTiles[rooms++] = tile;
+                } else {
+                    furnitureIds[furniture] = id;
+                    furnitureTiles[furniture++] = tile;
+                }
+            }
+            roomCounts = new int[tileIds.size()];
+            furnitureCounts = new int[tileIds.size()];
+            roomOrder = order(roomIds, roomTiles, roomCounts);
+            furnitureOrder = order(furnitureIds, furnitureTiles, furnitureCounts);
+        }
+
+        int tileCount() {
+            return roomCounts.length;
+        }
+
+        private int tileId(HashMap<Long, Integer> tileIds, int x, int y) {
+            int tx = tileOf(x);
+            int ty = tileOf(y);
+            Integer id = tileIds.get(((long) tx << 32) | (ty & 0xffffffffL));
+            if (id == null) {
+                id = tileIds.size();
+                tileIds.put(((long) tx << 32) | (ty & 0xffffffffL), id);
+                tileX.add(tx);
+                tileY.add(ty);
+            }
+            return id;
+        }
+
+        private static int[] order(int[] ids, int[] tiles, int[] counts) {
+            for (int tile : tiles) {
+                counts[tile]++;
+            }
+            int[] next = new int[counts.length];
+            for (int tile = 1; tile < counts.length; tile++) {
+                next[tile] = next[tile - 1] + counts[tile - 1];
+            }
+            int[] order = new int[tiles.length];
+            for (int i = 0; i < tiles.length; i++) {
+                order[next[tiles[i]]++] = ids[i];
+            }
+            return order;
+        }
+    }
+
+    // Minimal growable int array
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Make sure at least one whole record is buffered, refilling from the channel if needed
+    private static void ensureRecord(FileChannel channel, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() >= RECORD_BYTES) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < RECORD_BYTES) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Plan file is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Plan file is truncated");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+// Stable ids of the elements on a canvas, as used by undo, the journal, shared sessions and plan snapshots
+//
+// The canvas's Room and Furniture objects are the plan; this only maps each id to its element, so a
+// snapshot can list them in id order. An id is handed out again once its element has left the plan.
+final class PlanIds {
+    private static final Object KEPT = new Object(); // Marks ids already kept while the free list is pruned
+
+    private Object[] elements = new Object[64]; // null for a free id
+    private int limit; // One past the highest id handed out
+    // Free ids below limit; may also hold ids taken back by add(id, ...), which are skipped when popped
+    private int[] free = new int[16];
+    private int freeCount;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    // Element with an id, or null if the id is free
+    public Object get(int id) {
+        return id >= 0 && id < limit ? elements[id] : null;
+    }
+
+    public int add(Object element) {
+        while (freeCount > 0) {
+            int id = free[--freeCount];
+            if (elements[id] == null) {
+                return take(id, element);
+            }
+        }
+        if (limit == elements.length) {
+            elements = Arrays.copyOf(elements, limit * 2);
+        }
+        return take(limit++, element);
+    }
+
+    // Add an element under a given id if it is free, otherwise under a fresh one; returns the id used.
+    // Lets undo and plan snapshots bring elements back under the ids they were recorded with.
+    public int add(int id, Object element) {
+        if (id < 0 || (id < limit && elements[id] != null)) {
+            return add(element);
+        }
+        if (id >= limit) {
+            if (id >= elements.length) {
+                elements = Arrays.copyOf(elements, Math.max(id + 1, elements.length * 2));
+            }
+            // Ids skipped over become free
+            for (int skipped = limit; skipped < id; skipped++) {
+                pushFree(skipped);
+            }
+            limit = id + 1;
+        }
+        return take(id, element);
+    }
+
+    public void remove(int id) {
+        if (id >= 0 && id < limit && elements[id] != null) {
+            elements[id] = null;
+            size--;
+            pushFree(id);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(elements, 0, limit, null);
+        limit = 0;
+        freeCount = 0;
+        size = 0;
+    }
+
+    private int take(int id, Object element) {
+        elements[id] = element;
+        size++;
+        return id;
+    }
+
+    private void pushFree(int id) {
+        if (freeCount == free.length) {
+            if (freeCount > limit - size) {
+                // Holds ids that were taken back, or the same id twice; keep each free id once
+                int kept = 0;
+                for (int i = 0; i < freeCount; i++) {
+                    if (elements[free[i]] == null) {
+                        elements[free[i]] = KEPT;
+                        free[kept++] = free[i];
+                    }
+                }
+                for (int i = 0; i < kept; i++) {
+                    elements[free[i]] = null;
+                }
+                freeCount = kept;
+            }
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+        }
+        free[freeCount++] = id;
+    }
+}
@@ -0,0 +1,541 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// Bulk import of rooms and furniture from CSV or JSON, validated as a whole batch
+//
+// CSV:  one element per line, "kind,type,x,y,width,height[,rotation]"; blank lines, lines starting
+//       with '#' and a header line starting with "kind" are skipped
+// JSON: an array of flat objects with the same fields, e.g.
+//       [{"kind": "room", "type": "BEDROOM", "x": 0, "y": 0, "width": 200, "height": 150}, ...]
+//
+// kind is "room" or "furniture"; type is a RoomType name or one of Furniture.TYPES; fractional
+// coordinates are rounded. Overlaps inside the batch are found with one sweep-line pass per kind,
+// O((n + k) log n) for k overlapping pairs, instead of checking each element against all others.
+final class PlanImporter {
+    private static final int MAX_REPORT_LINES = 200;
+
+    private PlanImporter() {
+    }
+
+    // Parsed and self-checked elements, in record order, waiting to be checked against the canvas
+    static final class Batch {
+        final ArrayList<Room> rooms = new ArrayList<>();
+        final ArrayList<Furniture> furniture = new ArrayList<>();
+        private final IntList roomRecords = new IntList();
+        private final IntList furnitureRecords = new IntList();
+        private final ArrayList<String> problems = new ArrayList<>();
+        private final String recordName; // "Line" for CSV, "Element" for JSON
+        private int records;
+        private int[][] roomPartners; // For each room, the earlier rooms of the batch it overlaps
+        private int[][] furniturePartners;
+
+        Batch(String recordName) {
+            this.recordName = recordName;
+        }
+
+        int records() {
+            return records;
+        }
+
+        // Keep the elements that fit: an element is rejected if it overlaps something already on the
+        // canvas (the fits tests) or an earlier accepted element of the batch. Returns the report text.
+        String accept(Predicate<Room> roomFits, Predicate<Furniture> furnitureFits) {
+            int roomsRead = rooms.size();
+            int furnitureRead = furniture.size();
+            ArrayList<String> conflicts = new ArrayList<>();
+            acceptKind(rooms, roomRecords, roomPartners, roomFits, "room", conflicts);
+            acceptKind(furniture, furnitureRecords, furniturePartners, furnitureFits, "furniture", conflicts);
+            StringBuilder report = new StringBuilder();
+            report.append("Imported ").append(rooms.size()).append(" of ").append(roomsRead).append(" rooms and ")
+                    .append(furniture.size()).append(" of ").append(furnitureRead).append(" furniture from ")
+                    .append(records).append(" records.\n");
+            if (!problems.isEmpty()) {
+                report.append('\n').append(problems.size()).append(" records could not be read:\n");
+                appendLines(report, problems);
+            }
+            if (!conflicts.isEmpty()) {
+                report.append('\n').append(conflicts.size()).append(" elements were rejected for overlapping:\n");
+                appendLines(report, conflicts);
+            }
+            return report.toString();
+        }
+
+        private <T> void acceptKind(ArrayList<T> elements, IntList records, int[][] partners, Predicate<T> fits,
+                                    String kind, ArrayList<String> conflicts) {
+            boolean[] accepted = new boolean[elements.size()];
+            int[] numbers = records.toArray(); // Record numbers by batch index, before compaction
+            int kept = 0;
+            for (int i = 0; i < elements.size(); i++) {
+                T element = elements.get(i);
+                String conflict = null;
+                if (!fits.test(element)) {
+                    conflict = "an existing " + kind;
+                } else {
+                    for (int partner : partners[i]) {
+                        if (accepted[partner]) {
+                            conflict = recordName.toLowerCase() + " " + numbers[partner];
+                            break;
+                        }
+                    }
+                }
+                if (conflict == null) {
+                    accepted[i] = true;
+                    records.set(kept, numbers[i]);
+                    elements.set(kept++, element);
+                } else {
+                    conflicts.add(recordName + " " + numbers[i] + ": " + kind + " overlaps " + conflict);
+                }
+            }
+            elements.subList(kept, elements.size()).clear();
+        }
+
+        private static void appendLines(StringBuilder report, ArrayList<String> lines) {
+            for (int i = 0; i < Math.min(lines.size(), MAX_REPORT_LINES); i++) {
+                report.append("  ").append(lines.get(i)).append('\n');
+            }
+            if (lines.size() > MAX_REPORT_LINES) {
+                report.append("  ... and ").append(lines.size() - MAX_REPORT_LINES).append(" more\n");
+            }
+        }
+
+        void add(int record, String kind, String type, double x, double y, double width, double height, double rotation) {
+            int left = (int) Math.round(x);
+            int top = (int) Math.round(y);
+            int w = (int) Math.round(width);
+            int h = (int) Math.round(height);
+            if (w <= 0 || h <= 0) {
+                problem(record, "width and height must be positive");
+                return;
+            }
+            if (kind.equalsIgnoreCase("room")) {
+                RoomType roomType;
+                try {
+                    roomType = RoomType.valueOf(type.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    problem(record, "unknown room type '" + type + "'");
+                    return;
+                }
+                rooms.add(new Room(left, top, w, h, roomType));
+                roomRecords.add(record);
+            } else if (kind.equalsIgnoreCase("furniture")) {
+                int ordinal = -1;
+                for (int i = 0; i < Furniture.TYPES.length; i++) {
+                    if (Furniture.TYPES[i].equalsIgnoreCase(type)) {
+                        ordinal = i;
+                    }
+                }
+                if (ordinal < 0) {
+                    problem(record, "unknown furniture type '" + type + "'");
+                    return;
+                }
+                Furniture piece = Furniture.create(left, top, w, h, Furniture.TYPES[ordinal]);
+                piece.rotation = Math.floorMod((int) Math.round(rotation), 4);
+                furniture.add(piece);
+                furnitureRecords.add(record);
+            } else {
+                problem(record, "unknown kind '" + kind + "'");
+            }
+        }
+
+        void problem(int record, String message) {
+            problems.add(recordName + " " + record + ": " + message);
+        }
+
+        // Find overlapping pairs inside the batch
+        void sweep() {
+            int wall = Room.wallThickness;
+            int count = rooms.size();
+            int[] lefts = new int[count];
+            int[] tops = new int[count];
+            int[] rights = new int[count];
+            int[] bottoms = new int[count];
+            for (int i = 0; i < count; i++) {
+                Room room = rooms.get(i);
+                lefts[i] = room.x - wall;
+                tops[i] = room.y - wall;
+                rights[i] = room.x + room.width + wall;
+                bottoms[i] = room.y + room.height + wall;
+            }
+            roomPartners = overlaps(lefts, tops, rights, bottoms);
+            count = furniture.size();
+            lefts = new int[count];
+            tops = new int[count];
+            rights = new int[count];
+            bottoms = new int[count];
+            for (int i = 0; i < count; i++) {
+                Furniture piece = furniture.get(i);
+                lefts[i] = piece.x;
+                tops[i] = piece.y;
+                rights[i] = piece.x + piece.width;
+                bottoms[i] = piece.y + piece.height;
+            }
+            furniturePartners = overlaps(lefts, tops, rights, bottoms);
+        }
+    }
+
+    // Read and self-check a CSV or JSON file (chosen by extension); meant to run off the EDT
+    static Batch read(File file) throws IOException {
+        boolean json = file.getName().toLowerCase().endsWith(".json");
+        Batch batch = new Batch(json ? "Element" : "Line");
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (json) {
+                readJson(reader, batch);
+            } else {
+                readCsv(reader, batch);
+            }
+        }
+        batch.sweep();
+        return batch;
+    }
+
+    private static void readCsv(BufferedReader reader, Batch batch) throws IOException {
+        int lineNumber = 0;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.regionMatches(true, 0, "kind", 0, 4)) {
+                continue;
+            }
+            batch.records++;
+            String[] fields = trimmed.split(",", -1);
+            if (fields.length < 6 || fields.length > 7) {
+                batch.problem(lineNumber, "expected kind,type,x,y,width,height[,rotation]");
+                continue;
+            }
+            try {
+                batch.add(lineNumber, fields[0].trim(), fields[1].trim(), number(fields[2]), number(fields[3]),
+                        number(fields[4]), number(fields[5]), fields.length == 7 ? number(fields[6]) : 0);
+            } catch (NumberFormatException e) {
+                batch.problem(lineNumber, "bad number");
+            }
+        }
+    }
+
+    private static double number(String field) {
+        return Double.parseDouble(field.trim());
+    }
+
+    // Streaming reader for an array of flat objects with string and number values
+    private static void readJson(Reader reader, Batch batch) throws IOException {
+        JsonScanner in = new JsonScanner(reader);
+        int c = in.skipSpace();
+        if (c != '[') {
+            throw new IOException("Expected a JSON array of elements");
+        }
+        c = in.skipSpace();
+        if (c == ']') {
+            return;
+        }
+        Map<String, String> fields = new HashMap<>();
+        while (true) {
+            if (c != '{') {
+                throw new IOException("Expected an object at element " + (batch.records + 1));
+            }
+            fields.clear();
+            in.readObject(fields);
+            batch.records++;
+            int element = batch.records;
+            try {
+                batch.add(element, fields.getOrDefault("kind", ""), fields.getOrDefault("type", ""),
+                        required(fields, "x"), required(fields, "y"), required(fields, "width"), required(fields, "height"),
+                        fields.containsKey("rotation") ? number(fields.get("rotation")) : 0);
+            } catch (NumberFormatException e) {
+                batch.problem(element, e.getMessage());
+            }
+            c = in.skipSpace();
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw new IOException("Expected ',' or ']' after element " + element);
+            }
+            c = in.skipSpace();
+        }
+    }
+
+    private static double required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null) {
+            throw new NumberFormatException("missing " + name);
+        }
+        try {
+            return number(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("bad number for " + name);
+        }
+    }
+
+    private static final class JsonScanner {
+        private final Reader reader;
+        private final StringBuilder token = new StringBuilder();
+
+        JsonScanner(Reader reader) {
+            this.reader = reader;
+        }
+
+        int skipSpace() throws IOException {
+            int c = reader.read();
+            while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                c = reader.read();
+            }
+            return c;
+        }
+
+        // Read the members of an object whose '{' was just consumed; values are kept as text
+        void readObject(Map<String, String> fields) throws IOException {
+            int c = skipSpace();
+            if (c == '}') {
+                return;
+            }
+            while (true) {
+                if (c != '"') {
+                    throw new IOException("Expected a field name");
+                }
+                String name = readString();
+                if (skipSpace() != ':') {
+                    throw new IOException("Expected ':' after \"" + name + "\"");
+                }
+                c = skipSpace();
+                String value;
+                if (c == '"') {
+                    value = readString();
+                    c = skipSpace();
+                } else {
+                    token.setLength(0);
+                    while (c != ',' && c != '}' && c != -1 && !Character.isWhitespace(c)) {
+                        if (c == '{' || c == '[') {
+                            throw new IOException("Nested values are not supported (field \"" + name + "\")");
+                        }
+                        token.append((char) c);
+                        c = reader.read();
+                    }
+                    value = token.toString();
+                    if (Character.isWhitespace(c)) {
+                        c = skipSpace();
+                    }
+                }
+                fields.put(name, value);
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw new IOException("Expected ',' or '}' after field \"" + name + "\"");
+                }
+                c = skipSpace();
+            }
+        }
+
+        private String readString() throws IOException {
+            token.setLength(0);
+            for (int c = reader.read(); c != '"'; c = reader.read()) {
+                if (c == -1) {
+                    throw new IOException("Unterminated string");
+                }
+                if (c == '\\') {
+                    c = reader.read();
+                    if (c == 'u') {
+                        char[] hex = new char[4];
+                        for (int i = 0; i < 4; i++) {
+                            hex[i] = (char) reader.read();
+                        }
+                        try {
+                            c = Integer.parseInt(new String(hex), 16);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Bad \\u escape in string");
+                        }
+                    } else if (c == 'n') {
+                        c = '\n';
+                    } else if (c == 't') {
+                        c = '\t';
+                    } else if (c == 'r') {
+                        c = '\r';
+                    } else if (c == 'b') {
+                        c = '\b';
+                    } else if (c == 'f') {
+                        c = '\f';
+                    } else if (c != '"' && c != '\\' && c != '/') {
+                        throw new IOException("Bad escape in string");
+                    }
+                }
+                token.append((char) c);
+            }
+            return token.toString();
+        }
+    }
+
+    // Sweep a vertical line from left to right over the rectangles, keeping those it currently crosses
+    // in an interval structure on y; each rectangle only meets the active ones whose vertical span
+    // overlaps its own. Returns, for each rectangle, the lower-indexed rectangles it overlaps
+    // (touching edges do not count).
+    static int[][] overlaps(int[] lefts, int[] tops, int[] rights, int[] bottoms) {
+        int count = lefts.length;
+        long[] byLeft = new long[count];
+        long[] byRight = new long[count];
+        for (int i = 0; i < count; i++) {
+            byLeft[i] = ((long) lefts[i] << 32) | i;
+            byRight[i] = ((long) rights[i] << 32) | i;
+        }
+        Arrays.sort(byLeft);
+        Arrays.sort(byRight);
+        ActiveSpans active = new ActiveSpans(tops);
+        IntList found = new IntList();
+        IntList pairLow = new IntList();
+        IntList pairHigh = new IntList();
+        int[] partnerCounts = new int[count];
+        int passed = 0;
+        for (long key : byLeft) {
+            int i = (int) key;
+            int left = lefts[i];
+            // Widths are positive, so everything the sweep line has passed was added before
+            while (passed < count && (int) (byRight[passed] >> 32) <= left) {
+                active.remove((int) byRight[passed++]);
+            }
+            found.clear();
+            active.overlapping(tops[i], bottoms[i], found);
+            for (int f = 0; f < found.size(); f++) {
+                int j = found.get(f);
+                pairLow.add(Math.min(i, j));
+                pairHigh.add(Math.max(i, j));
+                partnerCounts[Math.max(i, j)]++;
+            }
+            active.add(i, bottoms[i]);
+        }
+        int[][] partners = new int[count][];
+        for (int i = 0; i < count; i++) {
+            partners[i] = new int[partnerCounts[i]];
+            partnerCounts[i] = 0;
+        }
+        for (int p = 0; p < pairLow.size(); p++) {
+            int high = pairHigh.get(p);
+            partners[high][partnerCounts[high]++] = pairLow.get(p);
+        }
+        return partners;
+    }
+
+    // The rectangles the sweep line crosses, by vertical span: a max tree whose leaves are all the
+    // rectangles in order of top edge, each holding its bottom edge while it is active. The active
+    // rectangles overlapping a span are those left of the first top at or below its bottom whose
+    // bottom is below its top; subtrees with no such bottom are skipped, so a query costs
+    // O((1 + found) log n) rather than a look at every active rectangle.
+    private static final class ActiveSpans {
+        private static final int INACTIVE = Integer.MIN_VALUE;
+
+        private final int leaves;
+        private final int[] sortedTops; // Top edge at each leaf
+        private final int[] rectangleAt; // Rectangle at each leaf
+        private final int[] leafOf;
+        private final int[] maxBottom; // Heap-ordered tree, leaves from index leaves on
+
+        ActiveSpans(int[] tops) {
+            int count = tops.length;
+            long[] byTop = new long[count];
+            for (int i = 0; i < count; i++) {
+                byTop[i] = ((long) tops[i] << 32) | i;
+            }
+            Arrays.sort(byTop);
+            int size = 1;
+            while (size < count) {
+                size <<= 1;
+            }
+            leaves = size;
+            sortedTops = new int[count];
+            rectangleAt = new int[count];
+            leafOf = new int[count];
+            for (int leaf = 0; leaf < count; leaf++) {
+                int i = (int) byTop[leaf];
+                sortedTops[leaf] = tops[i];
+                rectangleAt[leaf] = i;
+                leafOf[i] = leaf;
+            }
+            maxBottom = new int[2 * size];
+            Arrays.fill(maxBottom, INACTIVE);
+        }
+
+        void add(int rectangle, int bottom) {
+            set(leafOf[rectangle], bottom);
+        }
+
+        void remove(int rectangle) {
+            set(leafOf[rectangle], INACTIVE);
+        }
+
+        // Add the active rectangles with top < bottom and bottom > top to found
+        void overlapping(int top, int bottom, IntList found) {
+            // First leaf whose top is at or below the span's bottom
+            int low = 0;
+            int high = sortedTops.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sortedTops[mid] < bottom) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            collect(1, 0, leaves, low, top, found);
+        }
+
+        private void collect(int node, int from, int to, int end, int top, IntList found) {
+            if (from >= end || maxBottom[node] <= top) {
+                return;
+            }
+            if (node >= leaves) {
+                found.add(rectangleAt[from]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            collect(2 * node, from, mid, end, top, found);
+            collect(2 * node + 1, mid, to, end, top, found);
+        }
+
+        private void set(int leaf, int bottom) {
+            int node = leaves + leaf;
+            maxBottom[node] = bottom;
+            for (node >>= 1; node > 0; node >>= 1) {
+                maxBottom[node] = Math.max(maxBottom[2 * node], maxBottom[2 * node + 1]);
+            }
+        }
+    }
+
+    // Minimal growable int array
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        void set(int index, int value) {
+            values[index] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
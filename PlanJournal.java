@@ -0,0 +1,269 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Append-only journal of plan changes, kept next to a saved plan so unsaved edits survive a crash
+//
+// Header: int magic, short version, short flags, int id limit (version 2)
+// Record: byte op, byte kind, byte rotation, byte unused, int id, int x, int y, int width, int height,
+//         short type ordinal, short unused
+//
+// The file starts with a snapshot written as one PUT per element, followed by the PUT, SET and REMOVE
+// records of each later change, so an edit costs one record instead of a whole save. Elements are named by
+// their canvas ids (storeId). Once the records after the snapshot outnumber the elements, needsSnapshot
+// asks for the file to be rewritten as a fresh snapshot: startSnapshot on the EDT, then writeSnapshot on
+// the plan-io thread, with the records appended meanwhile held in memory until the new file is in place.
+//
+// Replaying the file onto an empty store rebuilds the plan with the same ids. Each record can add at most
+// one id above the limit in the header, so a record with an id past the limit plus the record count, or
+// that is otherwise malformed, was never written whole: replay stops there as it does at a torn record.
+final class PlanJournal implements AutoCloseable {
+    static final int MAGIC = 0x46504A4C; // "FPJL"
+    static final short VERSION = 2;
+    static final int HEADER_BYTES = 12;
+    private static final int V1_HEADER_BYTES = 8; // Without the id limit
+    static final int RECORD_BYTES = 28;
+    static final byte PUT = 1;
+    static final byte SET = 2;
+    static final byte REMOVE = 3;
+    private static final int MIN_COMPACT_RECORDS = 4096;
+    private static final int BUFFER_BYTES = RECORD_BYTES * 4096;
+
+    private final Path path;
+    // Shared by the EDT and the plan-io thread, guarded by this
+    private FileChannel channel; // Opened by the first snapshot, so plans that are only viewed get no journal
+    private ByteBuffer held; // Records appended while a snapshot is written, null when none is
+    private int generation; // Bumped by each snapshot started and by close, so an outdated one is dropped
+    // Used on the EDT only
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_BYTES);
+    private boolean started;
+    private int recordsSinceSnapshot;
+
+    public PlanJournal(File file) {
+        this.path = file.toPath().toAbsolutePath();
+    }
+
+    // Journal kept alongside a saved plan
+    static File journalFor(File plan) {
+        return new File(plan.getPath() + ".journal");
+    }
+
+    // True when the next change should be written as a snapshot of the whole plan, which then contains it:
+    // the journal has none yet, or the records since the last one outnumber the plan's elements
+    public boolean needsSnapshot(int elements) {
+        return !started || recordsSinceSnapshot >= Math.max(MIN_COMPACT_RECORDS, elements);
+    }
+
+    // Log a change to one element, a Room or Furniture: PUT after it was added, SET after it moved, was
+    // resized or rotated, REMOVE after it left the plan; id is its storeId, or the one it had
+    public void append(byte op, int id, Object element) throws IOException {
+        record.clear();
+        if (op == REMOVE) {
+            record.put(REMOVE).put(PlanStore.FREE).put((byte) 0).put((byte) 0).putInt(id)
+                    .putInt(0).putInt(0).putInt(0).putInt(0).putShort((short) 0).putShort((short) 0);
+        } else if (element instanceof Room room) {
+            putRecord(record, op, PlanStore.ROOM, 0, id, room.x, room.y, room.width, room.height, room.type.ordinal());
+        } else {
+            Furniture furniture = (Furniture) element;
+            putRecord(record, op, PlanStore.FURNITURE, furniture.rotation, id, furniture.x, furniture.y,
+                    furniture.width, furniture.height, Furniture.typeOrdinal(furniture.type));
+        }
+        record.flip();
+        synchronized (this) {
+            if (held != null) {
+                if (held.remaining() < RECORD_BYTES) {
+                    held = ByteBuffer.allocate(held.capacity() * 2).put(held.flip());
+                }
+                held.put(record);
+            } else {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+        }
+        recordsSinceSnapshot++;
+    }
+
+    // Flush appended records to the device; safe to call from a background thread while the EDT appends
+    public void force() throws IOException {
+        FileChannel current;
+        synchronized (this) {
+            current = channel;
+        }
+        if (current != null) {
+            current.force(false);
+        }
+    }
+
+    // Begin replacing the journal with a snapshot of the plan taken now, on the EDT. Later records are held
+    // in memory until writeSnapshot, called with the returned ticket, has written it.
+    public synchronized int startSnapshot() {
+        started = true;
+        recordsSinceSnapshot = 0;
+        if (held == null) {
+            held = ByteBuffer.allocate(RECORD_BYTES * 256);
+        } else {
+            held.clear(); // Already in this snapshot
+        }
+        return ++generation;
+    }
+
+    // Write the snapshot begun with a ticket, followed by the records held since; for the plan-io thread.
+    // idLimit is one past the highest id the canvas had handed out. Does nothing once a later snapshot
+    // was begun or the journal was closed.
+    public void writeSnapshot(PlanStore store, int idLimit, int ticket) throws IOException {
+        synchronized (this) {
+            if (ticket != generation) {
+                return;
+            }
+        }
+        // Same temp file and atomic swap as PlanFile, so a crash mid-snapshot keeps the old journal
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+                buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(idLimit);
+                for (int id = 0; id < store.idLimit(); id++) {
+                    if (store.kind(id) == PlanStore.FREE) {
+                        continue;
+                    }
+                    if (buffer.remaining() < RECORD_BYTES) {
+                        flush(out, buffer);
+                    }
+                    putRecord(buffer, PUT, store.kind(id), store.rotation(id), id, store.x(id), store.y(id),
+                            store.width(id), store.height(id), store.type(id));
+                }
+                flush(out, buffer);
+            }
+            // Swapped in under the lock, so appends wait for it and delete cannot run in between
+            synchronized (this) {
+                if (ticket != generation) {
+                    return;
+                }
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                held.flip();
+                while (held.hasRemaining()) {
+                    channel.write(held);
+                }
+                held = null;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Stop journaling and remove the file, e.g. once the plan has been saved in full
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    // Stop journaling; a snapshot still being written is dropped
+    @Override
+    public synchronized void close() throws IOException {
+        generation++;
+        held = null;
+        started = false;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Rebuild a plan from a journal file, up to its first torn or malformed record
+    public static PlanStore replay(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.limit(V1_HEADER_BYTES);
+            readHeader(in, buffer);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a plan journal");
+            }
+            short version = buffer.getShort();
+            long records = in.size() / RECORD_BYTES;
+            long idBound = records; // Version 1 has no id limit; its snapshot adds at most one id per record too
+            if (version == VERSION) {
+                buffer.clear().limit(HEADER_BYTES - V1_HEADER_BYTES);
+                readHeader(in, buffer);
+                int idLimit = buffer.getInt();
+                if (idLimit < 0) {
+                    throw new IOException("Corrupt journal header");
+                }
+                idBound += idLimit;
+            } else if (version != 1) {
+                throw new IOException("Unsupported journal version " + version);
+            }
+            PlanStore store = new PlanStore((int) Math.min(Integer.MAX_VALUE, records));
+            RoomType[] roomTypes = RoomType.values();
+            buffer.clear();
+            boolean end = false;
+            replay:
+            while (!end) {
+                end = in.read(buffer) < 0; // Bytes of a torn final record are left in the buffer
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    byte op = buffer.get();
+                    byte kind = buffer.get();
+                    int rotation = buffer.get() & 3;
+                    buffer.get();
+                    int id = buffer.getInt();
+                    int x = buffer.getInt();
+                    int y = buffer.getInt();
+                    int width = buffer.getInt();
+                    int height = buffer.getInt();
+                    int type = buffer.getShort();
+                    buffer.getShort();
+                    if (id < 0 || id >= idBound || (op != PUT && op != SET && op != REMOVE)
+                            || (op != REMOVE && kind != PlanStore.ROOM && kind != PlanStore.FURNITURE)
+                            || (op == PUT && kind == PlanStore.ROOM && (type < 0 || type >= roomTypes.length))) {
+                        break replay;
+                    }
+                    if (op == PUT) {
+                        store.put(id, kind, x, y, width, height, type, rotation);
+                    } else if (op == SET) {
+                        if (id < store.idLimit() && store.kind(id) == kind) {
+                            store.update(id, x, y, width, height, rotation);
+                        }
+                    } else if (id < store.idLimit()) {
+                        store.remove(id);
+                    }
+                }
+                buffer.compact();
+            }
+            return store;
+        }
+    }
+
+    private static void readHeader(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new IOException("Journal is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte op, byte kind, int rotation, int id, int x, int y,
+                                  int width, int height, int type) {
+        buffer.put(op).put(kind).put((byte) rotation).put((byte) 0).putInt(id)
+                .putInt(x).putInt(y).putInt(width).putInt(height).putShort((short) type).putShort((short) 0);
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
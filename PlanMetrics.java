@@ -0,0 +1,458 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Process-wide performance counters and latency histograms for the planner
+//
+// Everything here is cheap enough to stay on in production: a counter is a LongAdder increment and a
+// timing is two System.nanoTime() calls and an array increment. The same operations are also emitted
+// as JFR events (category "Floor Planner"), which cost nothing unless a recording enables them.
+// The numbers are shown by the canvas's stats overlay and published as the floorplanner:type=PlanMetrics MXBean.
+final class PlanMetrics {
+    static final Histogram PAINT = new Histogram();
+    static final Histogram LAYERS = new Histogram(); // Re-rendering of the cached layers, part of a paint
+    static final Histogram MOUSE = new Histogram(); // Mouse press and release handlers
+    static final Histogram DRAG_FRAME = new Histogram(); // Applying one coalesced drag position
+    static final Histogram DRAG_LATENCY = new Histogram(); // From the oldest unapplied drag event until it is applied
+    static final Histogram PLACE = new Histogram(); // addRoom and addFurniture
+    static final Histogram SAVE = new Histogram();
+    static final Histogram LOAD = new Histogram();
+
+    static final LongAdder dragEvents = new LongAdder();
+    static final LongAdder overlapChecks = new LongAdder();
+    static final LongAdder roomsAdded = new LongAdder();
+    static final LongAdder furnitureAdded = new LongAdder();
+    static final LongAdder placementsRejected = new LongAdder();
+    static final LongAdder iconHits = new LongAdder();
+    static final LongAdder iconMisses = new LongAdder();
+    static final LongAdder iconLoads = new LongAdder(); // Icons scaled to a size that was not cached
+    static final LongAdder floorLoads = new LongAdder(); // Building floors decoded from their file
+    static final LongAdder floorEvictions = new LongAdder(); // Floors dropped to stay within the memory budget
+    private static volatile double lastSaveRate; // Elements per second of the last save
+    private static volatile double lastLoadRate;
+
+    // Cold start, as System.nanoTime() values; 0 until it happens. Set once per process and not reset.
+    private static volatile long launchNanos; // Entry to main
+    private static volatile long launchWallMillis;
+    private static volatile long iconsReadyNanos; // Every furniture icon decoded and cached
+    private static volatile long firstFrameNanos; // The canvas painted for the first time
+    private static volatile long firstPlacedNanos; // The first furniture added, from the start of addFurniture
+    private static volatile long firstPlacementNanos; // The frame showing that furniture painted
+    private static volatile long jvmStartOffsetMillis = -1; // From JVM start to main, looked up once
+    private static final CompletableFuture<Void> firstFrame = new CompletableFuture<>();
+
+    private PlanMetrics() {
+    }
+
+    @Name("floorplanner.Paint")
+    @Label("Canvas Paint")
+    @Category("Floor Planner")
+    @StackTrace(false)
+    static final class PaintEvent extends Event {
+        @Label("Layers Rebuilt")
+        boolean layersRebuilt;
+        @Label("Zoom")
+        double zoom;
+    }
+
+    @Name("floorplanner.DragFrame")
+    @Label("Drag Frame")
+    @Category("Floor Planner")
+    @StackTrace(false)
+    static final class DragFrameEvent extends Event {
+        @Label("Coalesced Mouse Events")
+        int events;
+    }
+
+    @Name("floorplanner.Placement")
+    @Label("Element Placement")
+    @Category("Floor Planner")
+    @StackTrace(false)
+    static final class PlacementEvent extends Event {
+        @Label("Kind")
+        String kind;
+        @Label("Accepted")
+        boolean accepted;
+    }
+
+    @Name("floorplanner.PlanIO")
+    @Label("Plan Save or Load")
+    @Category("Floor Planner")
+    @StackTrace(false)
+    static final class PlanIoEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Path")
+        String path;
+        @Label("Elements")
+        long elements;
+        @Label("File Size")
+        @DataAmount
+        long bytes;
+    }
+
+    // The helpers below take a JFR event begun when the operation started, and its duration in nanoseconds
+
+    static void painted(PaintEvent event, boolean layersRebuilt, double zoom, long nanos) {
+        PAINT.record(nanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.layersRebuilt = layersRebuilt;
+            event.zoom = zoom;
+            event.commit();
+        }
+    }
+
+    // One coalesced drag position applied; latency runs from the oldest of the coalesced events
+    static void dragFrame(DragFrameEvent event, int events, long nanos, long latencyNanos) {
+        DRAG_FRAME.record(nanos);
+        DRAG_LATENCY.record(latencyNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.events = events;
+            event.commit();
+        }
+    }
+
+    static void placement(PlacementEvent event, boolean room, boolean accepted, long nanos) {
+        PLACE.record(nanos);
+        if (!accepted) {
+            placementsRejected.increment();
+        } else if (room) {
+            roomsAdded.increment();
+        } else {
+            furnitureAdded.increment();
+            if (firstPlacedNanos == 0) {
+                firstPlacedNanos = System.nanoTime() - nanos;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = room ? "room" : "furniture";
+            event.accepted = accepted;
+            event.commit();
+        }
+    }
+
+    // Record a finished save or load of a plan file; the event was begun when the operation started
+    static void planIo(PlanIoEvent event, boolean save, File file, long elements, long nanos) {
+        (save ? SAVE : LOAD).record(nanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = save ? "save" : "load";
+            event.path = file.getPath();
+            event.elements = elements;
+            event.bytes = file.length();
+            event.commit();
+        }
+        double rate = elements * 1e9 / Math.max(nanos, 1);
+        if (save) {
+            lastSaveRate = rate;
+        } else {
+            lastLoadRate = rate;
+        }
+    }
+
+    static void launched() {
+        launchWallMillis = System.currentTimeMillis();
+        launchNanos = System.nanoTime();
+    }
+
+    static void iconsReady() {
+        if (iconsReadyNanos == 0) {
+            iconsReadyNanos = System.nanoTime();
+        }
+    }
+
+    // Called at the end of every canvas paint; only the first frame and the first one after a placement count
+    static void framePainted() {
+        if (firstFrameNanos == 0) {
+            firstFrameNanos = System.nanoTime();
+            firstFrame.complete(null);
+        }
+        if (firstPlacedNanos != 0 && firstPlacementNanos == 0) {
+            firstPlacementNanos = System.nanoTime();
+        }
+    }
+
+    // Completes when the canvas has been painted once
+    static CompletableFuture<Void> firstFrame() {
+        return firstFrame;
+    }
+
+    // Milliseconds from JVM start, so class loading before main counts as well; -1 if it has not happened,
+    // or if the planner was not started through main
+    static double sinceStart(long nanos) {
+        if (nanos == 0 || launchNanos == 0) {
+            return -1;
+        }
+        if (jvmStartOffsetMillis < 0) {
+            jvmStartOffsetMillis = Math.max(0, launchWallMillis - ManagementFactory.getRuntimeMXBean().getStartTime());
+        }
+        return jvmStartOffsetMillis + millis(nanos - launchNanos);
+    }
+
+    static double timeToFirstFrame() {
+        return sinceStart(firstFrameNanos);
+    }
+
+    static double timeToFirstPlacement() {
+        return sinceStart(firstPlacementNanos);
+    }
+
+    static double timeToIconsReady() {
+        return sinceStart(iconsReadyNanos);
+    }
+
+    // From the start of the first addFurniture until it is on screen, the part of the first placement that is
+    // the planner's rather than the user's; -1 until then
+    static double firstPlacementLatency() {
+        return firstPlacementNanos == 0 ? -1 : millis(firstPlacementNanos - firstPlacedNanos);
+    }
+
+    static String startupReport() {
+        return String.format("Startup: first frame %s, icons ready %s, first furniture on screen %s (%s after the click)",
+                startupMillis(timeToFirstFrame()), startupMillis(timeToIconsReady()),
+                startupMillis(timeToFirstPlacement()), startupMillis(firstPlacementLatency()));
+    }
+
+    private static String startupMillis(double millis) {
+        return millis < 0 ? "-" : String.format("%.0f ms", millis);
+    }
+
+    // Human-readable summary, one line per area
+    static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Paint: %d, p50 %.2f ms, p99 %.2f ms, max %.2f ms; layers rebuilt %d, p99 %.2f ms",
+                PAINT.count(), millis(PAINT.percentile(50)), millis(PAINT.percentile(99)), millis(PAINT.max()),
+                LAYERS.count(), millis(LAYERS.percentile(99))));
+        lines.add(String.format("Drag: %d events in %d frames, latency p50 %.2f ms, p99 %.2f ms; frame p99 %.2f ms",
+                dragEvents.sum(), DRAG_FRAME.count(), millis(DRAG_LATENCY.percentile(50)),
+                millis(DRAG_LATENCY.percentile(99)), millis(DRAG_FRAME.percentile(99))));
+        lines.add(String.format("Mouse handlers: %d, p99 %.2f ms; overlap checks %d",
+                MOUSE.count(), millis(MOUSE.percentile(99)), overlapChecks.sum()));
+        lines.add(String.format("Placed %d rooms and %d furniture, %d rejected; p99 %.2f ms",
+                roomsAdded.sum(), furnitureAdded.sum(), placementsRejected.sum(), millis(PLACE.percentile(99))));
+        lines.add(String.format("Save: %d, p50 %.0f ms, last %.0f elements/s; load: %d, p50 %.0f ms, last %.0f elements/s",
+                SAVE.count(), millis(SAVE.percentile(50)), lastSaveRate,
+                LOAD.count(), millis(LOAD.percentile(50)), lastLoadRate));
+        lines.add(String.format("Icon cache: %.1f%% hits (%d of %d), %d scaled",
+                iconHitRate() * 100, iconHits.sum(), iconHits.sum() + iconMisses.sum(), iconLoads.sum()));
+        lines.add(String.format("Building floors: %d decoded, %d dropped", floorLoads.sum(), floorEvictions.sum()));
+        if (launchNanos != 0) {
+            lines.add(startupReport());
+        }
+        return lines;
+    }
+
+    static double iconHitRate() {
+        long hits = iconHits.sum();
+        long total = hits + iconMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    static void reset() {
+        for (Histogram histogram : new Histogram[]{PAINT, LAYERS, MOUSE, DRAG_FRAME, DRAG_LATENCY, PLACE, SAVE, LOAD}) {
+            histogram.reset();
+        }
+        for (LongAdder counter : new LongAdder[]{dragEvents, overlapChecks, roomsAdded, furnitureAdded,
+                placementsRejected, iconHits, iconMisses, iconLoads, floorLoads, floorEvictions}) {
+            counter.reset();
+        }
+        lastSaveRate = 0;
+        lastLoadRate = 0;
+    }
+
+    // Publish the metrics to JMX, e.g. for JConsole or VisualVM; a second call does nothing
+    static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("floorplanner:type=PlanMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+            }
+        } catch (JMException e) {
+            // Metrics stay available in the overlay
+        }
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static final class Bean implements PlanMetricsMXBean {
+        public long getPaintCount() {
+            return PAINT.count();
+        }
+
+        public double getPaintP50Millis() {
+            return millis(PAINT.percentile(50));
+        }
+
+        public double getPaintP99Millis() {
+            return millis(PAINT.percentile(99));
+        }
+
+        public double getPaintMaxMillis() {
+            return millis(PAINT.max());
+        }
+
+        public long getDragEvents() {
+            return dragEvents.sum();
+        }
+
+        public long getDragFrames() {
+            return DRAG_FRAME.count();
+        }
+
+        public double getDragLatencyP99Millis() {
+            return millis(DRAG_LATENCY.percentile(99));
+        }
+
+        public double getMouseHandlerP99Millis() {
+            return millis(MOUSE.percentile(99));
+        }
+
+        public long getOverlapChecks() {
+            return overlapChecks.sum();
+        }
+
+        public long getRoomsAdded() {
+            return roomsAdded.sum();
+        }
+
+        public long getFurnitureAdded() {
+            return furnitureAdded.sum();
+        }
+
+        public long getPlacementsRejected() {
+            return placementsRejected.sum();
+        }
+
+        public long getSaveCount() {
+            return SAVE.count();
+        }
+
+        public double getLastSaveElementsPerSecond() {
+            return lastSaveRate;
+        }
+
+        public long getLoadCount() {
+            return LOAD.count();
+        }
+
+        public double getLastLoadElementsPerSecond() {
+            return lastLoadRate;
+        }
+
+        public double getIconCacheHitRate() {
+            return iconHitRate();
+        }
+
+        public double getTimeToFirstFrameMillis() {
+            return timeToFirstFrame();
+        }
+
+        public double getTimeToFirstFurnitureMillis() {
+            return timeToFirstPlacement();
+        }
+
+        public double getFirstFurnitureLatencyMillis() {
+            return firstPlacementLatency();
+        }
+
+        public double getIconWarmUpMillis() {
+            return timeToIconsReady();
+        }
+
+        public String[] getReport() {
+            return report().toArray(new String[0]);
+        }
+
+        public void reset() {
+            PlanMetrics.reset();
+        }
+    }
+
+    // Latency histogram in the style of HdrHistogram: each power of two of nanoseconds is split into
+    // linear buckets, so any value is stored within about 3% using a fixed array of under two thousand
+    // counters, however large the range of values
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int HALF = SUB_BUCKETS / 2;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 2) * HALF);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            if (value > max.get()) {
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Smallest recorded value that the given percentage of values do not exceed, at bucket resolution
+        long percentile(double percent) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestEquivalent(i), max());
+                }
+            }
+            return max();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            max.set(0);
+        }
+
+        // Values below SUB_BUCKETS get a bucket each; above that, the top SUB_BUCKET_BITS bits pick the bucket
+        private static int index(long value) {
+            int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+            return magnitude * HALF + (int) (value >>> magnitude);
+        }
+
+        private static long highestEquivalent(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int magnitude = index / HALF - 1;
+            long lowest = (long) (index - magnitude * HALF) << magnitude;
+            return lowest + (1L << magnitude) - 1;
+        }
+    }
+}
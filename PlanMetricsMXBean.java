@@ -0,0 +1,51 @@
+// Management interface of PlanMetrics, registered as floorplanner:type=PlanMetrics.
+// JMX only accepts public interfaces, unlike the rest of the planner's package-private types.
+public interface PlanMetricsMXBean {
+    long getPaintCount();
+
+    double getPaintP50Millis();
+
+    double getPaintP99Millis();
+
+    double getPaintMaxMillis();
+
+    long getDragEvents();
+
+    long getDragFrames();
+
+    double getDragLatencyP99Millis();
+
+    double getMouseHandlerP99Millis();
+
+    long getOverlapChecks();
+
+    long getRoomsAdded();
+
+    long getFurnitureAdded();
+
+    long getPlacementsRejected();
+
+    long getSaveCount();
+
+    double getLastSaveElementsPerSecond();
+
+    long getLoadCount();
+
+    double getLastLoadElementsPerSecond();
+
+    double getIconCacheHitRate();
+
+    // Startup figures in milliseconds, -1 until they happen
+
+    double getTimeToFirstFrameMillis();
+
+    double getTimeToFirstFurnitureMillis();
+
+    double getFirstFurnitureLatencyMillis();
+
+    double getIconWarmUpMillis();
+
+    String[] getReport();
+
+    void reset();
+}
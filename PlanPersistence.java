@@ -0,0 +1,185 @@
+import java.awt.Component;
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+// Runs plan saves, loads and autosaves on one background thread, so the Event Dispatch Thread never waits on disk I/O
+//
+// A single thread keeps saves, loads and autosaves in submission order. Tasks are SwingWorkers, so
+// their done() runs on the EDT; progress is shown in a ProgressMonitor whose Cancel button interrupts
+// the task, which makes PlanFile abort without touching the target file.
+final class PlanPersistence {
+    static final int LOAD_BATCH = 4096; // Elements handed to the canvas per EDT update while loading
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "plan-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Run a task, with a progress dialog that pops up if it takes a while
+    public void run(SwingWorker<?, ?> task, Component parent, String message) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            ProgressMonitor monitor = new ProgressMonitor(parent, message, null, 0, 100);
+            task.addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    monitor.setProgress((Integer) event.getNewValue());
+                    if (monitor.isCanceled()) {
+                        task.cancel(true);
+                    }
+                } else if (task.isDone()) {
+                    monitor.close();
+                }
+            });
+        }
+        io.execute(task);
+    }
+
+    // Run plain background work, such as an autosave, after anything already queued
+    public void execute(Runnable work) {
+        io.execute(work);
+    }
+
+    // Writes a snapshot of the plan; the snapshot belongs to the task, so the canvas can keep changing.
+    // For a paged plan the snapshot holds the materialized elements, and the records of the other tiles
+    // are copied into it from the mapped file here, before writing.
+    static class SaveTask extends SwingWorker<Void, Void> {
+        final File file;
+        private final PlanStore snapshot;
+        private final MappedPlan pagedPlan;
+        private final int[] unloadedTiles;
+
+        SaveTask(File file, PlanStore snapshot) {
+            this(file, snapshot, null, null);
+        }
+
+        // The mapping stays readable after the canvas closes the plan, as long as the task holds it
+        SaveTask(File file, PlanStore snapshot, MappedPlan pagedPlan, int[] unloadedTiles) {
+            this.file = file;
+            this.snapshot = snapshot;
+            this.pagedPlan = pagedPlan;
+            this.unloadedTiles = unloadedTiles;
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            PlanMetrics.PlanIoEvent event = new PlanMetrics.PlanIoEvent();
+            event.begin();
+            long start = System.nanoTime();
+            if (pagedPlan != null) {
+                pagedPlan.readTiles(unloadedTiles, snapshot);
+            }
+            PlanFile.write(file, snapshot, (done, total) -> setProgress(percent(done, total)));
+            PlanMetrics.planIo(event, true, file, (long) snapshot.roomCount() + snapshot.furnitureCount(),
+                    System.nanoTime() - start);
+            return null;
+        }
+    }
+
+    // Streams a plan in, handing batches of new Room/Furniture objects to loaded() on the EDT.
+    // The result is true if unsaved changes were recovered from the plan's journal.
+    abstract static class LoadTask extends SwingWorker<Boolean, Void> implements PlanFile.RecordSink {
+        final File file;
+        private ArrayList<Room> rooms = new ArrayList<>();
+        private ArrayList<Furniture> furniture = new ArrayList<>();
+        private long total;
+        private long read;
+
+        LoadTask(File file) {
+            this.file = file;
+        }
+
+        // Called on the EDT, in file order, before done()
+        protected abstract void loaded(ArrayList<Room> rooms, ArrayList<Furniture> furniture);
+
+        @Override
+        protected Boolean doInBackground() throws IOException {
+            PlanMetrics.PlanIoEvent event = new PlanMetrics.PlanIoEvent();
+            event.begin();
+            long start = System.nanoTime();
+            boolean recovered = read();
+            PlanMetrics.planIo(event, false, file, read, System.nanoTime() - start);
+            return recovered;
+        }
+
+        private boolean read() throws IOException {
+            // A journal newer than the plan holds edits made after the last save
+            File journal = PlanJournal.journalFor(file);
+            if (journal.isFile() && journal.lastModified() >= file.lastModified()) {
+                try {
+                    PlanStore store = PlanJournal.replay(journal);
+                    begin(store.roomCount(), store.furnitureCount());
+                    for (int id = 0; id < store.idLimit(); id++) {
+                        if (store.kind(id) == PlanStore.ROOM) {
+                            room(store.x(id), store.y(id), store.width(id), store.height(id), store.roomType(id));
+                        } else if (store.kind(id) == PlanStore.FURNITURE) {
+                            furniture(store.x(id), store.y(id), store.width(id), store.height(id),
+                                    store.type(id), store.rotation(id));
+                        }
+                    }
+                    deliver();
+                    return true;
+                } catch (IOException e) {
+                    // Unreadable journal, fall back to the saved plan
+                }
+            }
+            PlanFile.read(file, this);
+            deliver();
+            return false;
+        }
+
+        @Override
+        public void begin(int roomCount, int furnitureCount) {
+            total = (long) roomCount + furnitureCount;
+        }
+
+        @Override
+        public void room(int x, int y, int width, int height, RoomType type) {
+            rooms.add(new Room(x, y, width, height, type));
+            added();
+        }
+
+        @Override
+        public void furniture(int x, int y, int width, int height, int type, int rotation) {
+            String typeName = type >= 0 && type < Furniture.TYPES.length ? Furniture.TYPES[type] : "Unknown";
+            Furniture piece = Furniture.create(x, y, width, height, typeName);
+            piece.rotation = rotation;
+            furniture.add(piece);
+            added();
+        }
+
+        private void added() {
+            read++;
+            if (rooms.size() + furniture.size() >= LOAD_BATCH) {
+                if (isCancelled()) {
+                    throw new CancellationException(); // Replaying a journal does no interruptible I/O
+                }
+                deliver();
+                setProgress(percent(read, total));
+            }
+        }
+
+        // invokeLater keeps batches in order and ahead of done(), which SwingWorker also posts to the EDT
+        private void deliver() {
+            if (rooms.isEmpty() && furniture.isEmpty()) {
+                return;
+            }
+            ArrayList<Room> roomBatch = rooms;
+            ArrayList<Furniture> furnitureBatch = furniture;
+            rooms = new ArrayList<>();
+            furniture = new ArrayList<>();
+            SwingUtilities.invokeLater(() -> loaded(roomBatch, furnitureBatch));
+        }
+    }
+
+    static int percent(long done, long total) {
+        return total <= 0 ? 100 : (int) Math.min(100, done * 100 / total);
+    }
+}
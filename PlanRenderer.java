@@ -0,0 +1,283 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+// Draws rooms and furniture onto any Graphics; has no Swing dependency so it also works headless
+final class PlanRenderer {
+    static final Color WALL_COLOR = Color.DARK_GRAY;
+    static final Color WINDOW_COLOR = Color.CYAN;
+    static final Color DOOR_COLOR = Color.YELLOW;
+    static final Color FURNITURE_COLOR = Color.GRAY;
+    static final Color BACKGROUND_COLOR = Color.LIGHT_GRAY;
+    static final Color CONFLICT_COLOR = new Color(255, 0, 0, 96);
+    static final Color SHAFT_COLOR = new Color(0x808080);
+    static final Color GRID_COLOR = new Color(0, 0, 0, 24);
+    static final Color GUIDE_COLOR = Color.MAGENTA;
+    static final int STAIR_TREAD = 10; // Spacing of the lines drawn across a stairwell
+    static final float WINDOW_STROKE_WIDTH = 2f;
+    static final double LOD_SCALE = 0.5; // Below this zoom, plans are drawn as plain blocks by Overview
+    private static final Stroke WINDOW_STROKE = new BasicStroke(WINDOW_STROKE_WIDTH, BasicStroke.CAP_BUTT,
+            BasicStroke.JOIN_BEVEL, 10.0f, new float[]{10.0f}, 0.0f);
+
+    private PlanRenderer() {
+    }
+
+    public static void drawRoom(Graphics g, Room room) {
+        drawRoom(g, room.x, room.y, room.width, room.height, room.color);
+    }
+
+    public static void drawRoom(Graphics g, int x, int y, int width, int height, Color color) {
+        // Draw wall (thick outline)
+        g.setColor(WALL_COLOR);
+        g.fillRect(x - Room.wallThickness, y - Room.wallThickness,
+                width + 2 * Room.wallThickness, height + 2 * Room.wallThickness);
+        // Draw room interior
+        g.setColor(color);
+        g.fillRect(x, y, width, height);
+
+        // Draw room border
+        g.setColor(Color.BLACK);
+        g.drawRect(x, y, width, height);
+    }
+
+    // Draw furniture (including doors and windows) and its icon
+    public static void drawFurniture(Graphics g, Furniture furniture) {
+        drawFurniture(g, furniture.x, furniture.y, furniture.width, furniture.height, furniture.type, furniture.getIcon());
+    }
+
+    public static void drawFurniture(Graphics g, int x, int y, int width, int height, String type, Image icon) {
+        if (type.equals("Window")) {
+            g.setColor(WINDOW_COLOR);
+            Graphics2D g2d = (Graphics2D) g;
+            Stroke stroke = g2d.getStroke();
+            g2d.setStroke(WINDOW_STROKE);
+            g2d.drawRect(x, y, width, height); // Dashed line for window
+            g2d.setStroke(stroke);
+        } else if (type.equals("Door")) {
+            g.setColor(DOOR_COLOR); // Door as opening in the wall
+            g.fillRect(x, y, width, height);
+        } else {
+            g.setColor(FURNITURE_COLOR);
+            g.fillRect(x, y, width, height);
+        }
+        if (icon != null) {
+            g.drawImage(icon, x, y, null);
+        }
+    }
+
+    // Translucent highlight over an element that blocks a move, drawn over the plan instead of a dialog
+    public static void drawConflict(Graphics g, int x, int y, int width, int height) {
+        g.setColor(CONFLICT_COLOR);
+        g.fillRect(x, y, width, height);
+        g.setColor(Color.RED);
+        g.drawRect(x, y, width, height);
+    }
+
+    // Snapping grid lines over an area of the plan
+    public static void drawGrid(Graphics g, Rectangle area, int spacing) {
+        g.setColor(GRID_COLOR);
+        int right = area.x + area.width;
+        int bottom = area.y + area.height;
+        for (int x = Math.floorDiv(area.x, spacing) * spacing; x <= right; x += spacing) {
+            g.drawLine(x, area.y, x, bottom);
+        }
+        for (int y = Math.floorDiv(area.y, spacing) * spacing; y <= bottom; y += spacing) {
+            g.drawLine(area.x, y, right, y);
+        }
+    }
+
+    // Alignment guide shown while a dragged element is snapped to another one's edge or center
+    public static void drawGuide(Graphics g, int x1, int y1, int x2, int y2) {
+        g.setColor(GUIDE_COLOR);
+        g.drawLine(x1, y1, x2, y2);
+    }
+
+    // Stairwell or shaft: a dark block marked with treads for stairs or a cross for a shaft
+    public static void drawShaft(Graphics g, Building.Shaft shaft) {
+        int x = shaft.x();
+        int y = shaft.y();
+        int width = shaft.width();
+        int height = shaft.height();
+        g.setColor(SHAFT_COLOR);
+        g.fillRect(x, y, width, height);
+        g.setColor(Color.BLACK);
+        g.drawRect(x, y, width, height);
+        if (shaft.kind() == Building.STAIRWELL) {
+            for (int tread = y + STAIR_TREAD; tread < y + height; tread += STAIR_TREAD) {
+                g.drawLine(x, tread, x + width, tread);
+            }
+        } else {
+            g.drawLine(x, y, x + width, y + height);
+            g.drawLine(x, y + height, x + width, y);
+        }
+    }
+
+    // Level-of-detail drawing for zoomed-out views, written straight into the pixels of an ARGB image: no
+    // icons, dashed strokes or borders, and no Graphics call per element, which would cost more than the
+    // few pixels each element covers. Walls of every room are filled in a first pass and interiors in a
+    // second, so the walls of neighbouring rooms merge into one outline.
+    static final class Overview {
+        private final int[] pixels;
+        private final int imageWidth, imageHeight;
+        private final double scale, originX, originY; // Zoom, and the plan point drawn at the top-left pixel
+        private int left, top, right, bottom;
+
+        // The image must be of TYPE_INT_ARGB
+        Overview(BufferedImage image, double scale, double originX, double originY) {
+            this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            this.imageWidth = image.getWidth();
+            this.imageHeight = image.getHeight();
+            this.scale = scale;
+            this.originX = originX;
+            this.originY = originY;
+        }
+
+        // First pass: the area of a room including its walls
+        void wall(int x, int y, int width, int height) {
+            toScreen(x - Room.wallThickness, y - Room.wallThickness,
+                    width + 2 * Room.wallThickness, height + 2 * Room.wallThickness);
+            fill(left, top, right, bottom, WALL_COLOR.getRGB());
+        }
+
+        // Second pass: the interior, inset by a one-pixel wall where the room is large enough to show one
+        void interior(int x, int y, int width, int height, Color color) {
+            toScreen(x - Room.wallThickness, y - Room.wallThickness,
+                    width + 2 * Room.wallThickness, height + 2 * Room.wallThickness);
+            if (right - left > 2 && bottom - top > 2) {
+                fill(left + 1, top + 1, right - 1, bottom - 1, color.getRGB());
+            } else {
+                fill(left, top, right, bottom, color.getRGB());
+            }
+        }
+
+        // Furniture, doors and windows as filled blocks; pieces smaller than half a pixel are left out
+        void furniture(int x, int y, int width, int height, String type) {
+            if (width * scale < 0.5 && height * scale < 0.5) {
+                return;
+            }
+            toScreen(x, y, width, height);
+            Color color = switch (type) {
+                case "Door" -> DOOR_COLOR;
+                case "Window" -> WINDOW_COLOR;
+                default -> FURNITURE_COLOR;
+            };
+            fill(left, top, right, bottom, color.getRGB());
+        }
+
+        // Pixel bounds of a plan rectangle, at least one pixel in each direction
+        private void toScreen(int x, int y, int width, int height) {
+            left = (int) Math.floor((x - originX) * scale);
+            top = (int) Math.floor((y - originY) * scale);
+            right = Math.max(left + 1, (int) Math.floor(((long) x + width - originX) * scale));
+            bottom = Math.max(top + 1, (int) Math.floor(((long) y + height - originY) * scale));
+        }
+
+        private void fill(int fromX, int fromY, int toX, int toY, int argb) {
+            fromX = Math.max(fromX, 0);
+            fromY = Math.max(fromY, 0);
+            toX = Math.min(toX, imageWidth);
+            toY = Math.min(toY, imageHeight);
+            for (int row = fromY; row < toY; row++) {
+                int offset = row * imageWidth;
+                Arrays.fill(pixels, offset + fromX, offset + Math.max(fromX, toX), argb);
+            }
+        }
+    }
+
+    // Draw one element of a plan store
+    public static void drawElement(Graphics g, PlanStore store, int id) {
+        int x = store.x(id);
+        int y = store.y(id);
+        int width = store.width(id);
+        int height = store.height(id);
+        if (store.kind(id) == PlanStore.ROOM) {
+            drawRoom(g, x, y, width, height, Room.getColorForType(store.roomType(id)));
+        } else if (store.kind(id) == PlanStore.FURNITURE) {
+            String type = store.furnitureType(id);
+            drawFurniture(g, x, y, width, height, type, IconCache.get(new IconCache.Key(Furniture.iconPathFor(type), width, height)));
+        }
+    }
+
+    // Draw a whole plan: every room first, then every piece of furniture on top
+    public static void drawPlan(Graphics g, List<Room> rooms, List<Furniture> furniture) {
+        for (Room room : rooms) {
+            drawRoom(g, room);
+        }
+        for (Furniture piece : furniture) {
+            drawFurniture(g, piece);
+        }
+    }
+
+    // Area covered by the plan, always including the canvas origin
+    public static Rectangle planBounds(PlanStore store) {
+        int maxX = 1;
+        int maxY = 1;
+        for (int id = 0; id < store.idLimit(); id++) {
+            byte kind = store.kind(id);
+            if (kind == PlanStore.ROOM) {
+                maxX = Math.max(maxX, store.x(id) + store.width(id) + Room.wallThickness + 1);
+                maxY = Math.max(maxY, store.y(id) + store.height(id) + Room.wallThickness + 1);
+            } else if (kind == PlanStore.FURNITURE) {
+                maxX = Math.max(maxX, store.x(id) + store.width(id) + (int) WINDOW_STROKE_WIDTH);
+                maxY = Math.max(maxY, store.y(id) + store.height(id) + (int) WINDOW_STROKE_WIDTH);
+            }
+        }
+        return new Rectangle(0, 0, maxX, maxY);
+    }
+
+    // Write the plan as SVG shapes in canvas units; icons are not embedded
+    public static void writeSvg(Appendable out, PlanStore store, double scale) throws IOException {
+        Rectangle bounds = planBounds(store);
+        out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(Long.toString(Math.round(bounds.width * scale)))
+                .append("\" height=\"").append(Long.toString(Math.round(bounds.height * scale)))
+                .append("\" viewBox=\"0 0 ").append(Integer.toString(bounds.width)).append(' ')
+                .append(Integer.toString(bounds.height)).append("\">\n");
+        svgRect(out, 0, 0, bounds.width, bounds.height, "fill=\"" + hex(BACKGROUND_COLOR) + "\"");
+        for (int id = 0; id < store.idLimit(); id++) {
+            if (store.kind(id) != PlanStore.ROOM) {
+                continue;
+            }
+            int x = store.x(id);
+            int y = store.y(id);
+            int width = store.width(id);
+            int height = store.height(id);
+            svgRect(out, x - Room.wallThickness, y - Room.wallThickness,
+                    width + 2 * Room.wallThickness, height + 2 * Room.wallThickness, "fill=\"" + hex(WALL_COLOR) + "\"");
+            svgRect(out, x, y, width, height,
+                    "fill=\"" + hex(Room.getColorForType(store.roomType(id))) + "\" stroke=\"#000000\" stroke-width=\"1\"");
+        }
+        for (int id = 0; id < store.idLimit(); id++) {
+            if (store.kind(id) != PlanStore.FURNITURE) {
+                continue;
+            }
+            String type = store.furnitureType(id);
+            if (type.equals("Window")) {
+                svgRect(out, store.x(id), store.y(id), store.width(id), store.height(id), "fill=\"none\" stroke=\""
+                        + hex(WINDOW_COLOR) + "\" stroke-width=\"" + WINDOW_STROKE_WIDTH + "\" stroke-dasharray=\"10\"");
+            } else {
+                Color color = type.equals("Door") ? DOOR_COLOR : FURNITURE_COLOR;
+                svgRect(out, store.x(id), store.y(id), store.width(id), store.height(id), "fill=\"" + hex(color) + "\"");
+            }
+        }
+        out.append("</svg>\n");
+    }
+
+    private static void svgRect(Appendable out, int x, int y, int width, int height, String style) throws IOException {
+        out.append("  <rect x=\"").append(Integer.toString(x)).append("\" y=\"").append(Integer.toString(y))
+                .append("\" width=\"").append(Integer.toString(width)).append("\" height=\"").append(Integer.toString(height))
+                .append("\" ").append(style).append("/>\n");
+    }
+
+    private static String hex(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xffffff);
+    }
+}
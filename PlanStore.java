@@ -0,0 +1,338 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// Compact structure-of-arrays copy of a plan: one slot per room or furniture, addressed by a stable int id
+//
+// Rooms and furniture share the id space and are told apart by kind(id). This is the form a plan takes
+// when it is not being edited: plan files are read into and written from it, snapshots for background
+// saves and the journal are taken in it, and a building keeps the floors that are not shown in it. The
+// canvas edits Room and Furniture objects instead; room(id)/furniture(id) create those from a slot, with
+// the slot's id in storeId, and put() writes them back under their ids.
+final class PlanStore {
+    static final byte FREE = 0;
+    static final byte ROOM = 1;
+    static final byte FURNITURE = 2;
+    private static final RoomType[] ROOM_TYPES = RoomType.values(); // values() clones the array on every call
+
+    private int[] xs, ys, widths, heights;
+    private short[] types; // RoomType ordinal for rooms, Furniture.TYPES index for furniture
+    private byte[] rotations;
+    private byte[] kinds;
+    private int idLimit; // One past the highest id ever handed out
+    // Free ids below idLimit as set bits, so put can take back any one of them in constant time
+    private long[] freeIds;
+    private int freeCount;
+    private int freeHint; // No free id in the words of freeIds below this one
+    private int roomCount, furnitureCount;
+
+    public PlanStore() {
+        this(64);
+    }
+
+    public PlanStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        widths = new int[capacity];
+        heights = new int[capacity];
+        types = new short[capacity];
+        rotations = new byte[capacity];
+        kinds = new byte[capacity];
+        freeIds = new long[(capacity + 63) >>> 6];
+    }
+
+    // Copy rooms and furniture into a new store; the objects themselves are left untouched
+    public static PlanStore of(List<Room> rooms, List<Furniture> furniture) {
+        PlanStore store = new PlanStore(rooms.size() + furniture.size());
+        for (Room room : rooms) {
+            store.addRoom(room);
+        }
+        for (Furniture piece : furniture) {
+            store.addFurniture(piece);
+        }
+        return store;
+    }
+
+    // Independent copy of every column, cheap enough to take on the Event Dispatch Thread before a background save
+    public PlanStore copy() {
+        PlanStore copy = new PlanStore(0);
+        copy.xs = xs.clone();
+        copy.ys = ys.clone();
+        copy.widths = widths.clone();
+        copy.heights = heights.clone();
+        copy.types = types.clone();
+        copy.rotations = rotations.clone();
+        copy.kinds = kinds.clone();
+        copy.idLimit = idLimit;
+        copy.freeIds = freeIds.clone();
+        copy.freeCount = freeCount;
+        copy.freeHint = freeHint;
+        copy.roomCount = roomCount;
+        copy.furnitureCount = furnitureCount;
+        return copy;
+    }
+
+    public int addRoom(int x, int y, int width, int height, RoomType type) {
+        roomCount++;
+        return add(ROOM, x, y, width, height, type.ordinal(), 0);
+    }
+
+    public int addRoom(Room room) {
+        return addRoom(room.x, room.y, room.width, room.height, room.type);
+    }
+
+    public int addFurniture(int x, int y, int width, int height, int typeOrdinal, int rotation) {
+        furnitureCount++;
+        return add(FURNITURE, x, y, width, height, typeOrdinal, rotation);
+    }
+
+    public int addFurniture(Furniture furniture) {
+        return addFurniture(furniture.x, furniture.y, furniture.width, furniture.height,
+                Furniture.typeOrdinal(furniture.type), furniture.rotation);
+    }
+
+    // Add an element at a given id if that slot is free, otherwise at a fresh id; returns the id used.
+    // Lets undo and journal replay bring elements back under the ids they were recorded with.
+    public int put(int id, byte kind, int x, int y, int width, int height, int type, int rotation) {
+        if (id < 0 || (id < idLimit && kinds[id] != FREE)) {
+            return kind == ROOM ? addRoom(x, y, width, height, ROOM_TYPES[type])
+                    : addFurniture(x, y, width, height, type, rotation);
+        }
+        if (id >= idLimit) {
+            while (id >= kinds.length) {
+                grow();
+            }
+            // Slots skipped over become free
+            for (int skipped = idLimit; skipped < id; skipped++) {
+                kinds[skipped] = FREE;
+                pushFree(skipped);
+            }
+            idLimit = id + 1;
+        } else {
+            takeFree(id);
+        }
+        if (kind == ROOM) {
+            roomCount++;
+        } else {
+            furnitureCount++;
+        }
+        kinds[id] = kind;
+        types[id] = (short) type;
+        rotations[id] = (byte) rotation;
+        set(id, x, y, width, height);
+        return id;
+    }
+
+    // Add a room or piece of furniture under its storeId, as put does
+    public int put(Room room) {
+        return put(room.storeId, ROOM, room.x, room.y, room.width, room.height, room.type.ordinal(), 0);
+    }
+
+    public int put(Furniture furniture) {
+        return put(furniture.storeId, FURNITURE, furniture.x, furniture.y, furniture.width, furniture.height,
+                Furniture.typeOrdinal(furniture.type), furniture.rotation);
+    }
+
+    public void update(int id, int x, int y, int width, int height, int rotation) {
+        set(id, x, y, width, height);
+        rotations[id] = (byte) rotation;
+    }
+
+    public void remove(int id) {
+        if (kinds[id] == ROOM) {
+            roomCount--;
+        } else if (kinds[id] == FURNITURE) {
+            furnitureCount--;
+        } else {
+            return;
+        }
+        kinds[id] = FREE;
+        pushFree(id);
+    }
+
+    public void clear() {
+        Arrays.fill(kinds, 0, idLimit, FREE);
+        Arrays.fill(freeIds, 0);
+        idLimit = 0;
+        freeCount = 0;
+        freeHint = 0;
+        roomCount = 0;
+        furnitureCount = 0;
+    }
+
+    public int idLimit() {
+        return idLimit;
+    }
+
+    public int roomCount() {
+        return roomCount;
+    }
+
+    public int furnitureCount() {
+        return furnitureCount;
+    }
+
+    // Approximate heap taken by the columns, for memory budgets
+    public long memoryBytes() {
+        // Four int columns, a short column and two byte columns per slot
+        return (long) kinds.length * (4 * Integer.BYTES + Short.BYTES + 2) + (long) freeIds.length * Long.BYTES;
+    }
+
+    public byte kind(int id) {
+        return kinds[id];
+    }
+
+    public int x(int id) {
+        return xs[id];
+    }
+
+    public int y(int id) {
+        return ys[id];
+    }
+
+    public int width(int id) {
+        return widths[id];
+    }
+
+    public int height(int id) {
+        return heights[id];
+    }
+
+    public int type(int id) {
+        return types[id];
+    }
+
+    public int rotation(int id) {
+        return rotations[id];
+    }
+
+    public RoomType roomType(int id) {
+        return ROOM_TYPES[types[id]];
+    }
+
+    public String furnitureType(int id) {
+        int type = types[id];
+        return type >= 0 && type < Furniture.TYPES.length ? Furniture.TYPES[type] : "Unknown";
+    }
+
+    // New Room or Furniture with the contents of a slot; later changes to it are not written back
+    public Room room(int id) {
+        Room room = new Room(xs[id], ys[id], widths[id], heights[id], roomType(id));
+        room.storeId = id;
+        return room;
+    }
+
+    public Furniture furniture(int id) {
+        Furniture furniture = Furniture.create(xs[id], ys[id], widths[id], heights[id], furnitureType(id));
+        furniture.rotation = rotations[id] & 3;
+        furniture.storeId = id;
+        return furniture;
+    }
+
+    public ArrayList<Room> createRooms() {
+        ArrayList<Room> rooms = new ArrayList<>(roomCount);
+        for (int id = 0; id < idLimit; id++) {
+            if (kinds[id] == ROOM) {
+                rooms.add(room(id));
+            }
+        }
+        return rooms;
+    }
+
+    public ArrayList<Furniture> createFurniture() {
+        ArrayList<Furniture> furniture = new ArrayList<>(furnitureCount);
+        for (int id = 0; id < idLimit; id++) {
+            if (kinds[id] == FURNITURE) {
+                furniture.add(furniture(id));
+            }
+        }
+        return furniture;
+    }
+
+    // Linear scan for the first element of a kind whose bounds (walls included for rooms) intersect the area
+    public int findIntersecting(byte kind, int x, int y, int width, int height, int excludeId) {
+        for (int id = 0; id < idLimit; id++) {
+            if (kinds[id] == kind && id != excludeId && intersects(id, x, y, width, height)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    public void forEachIntersecting(byte kind, int x, int y, int width, int height, IntConsumer action) {
+        for (int id = 0; id < idLimit; id++) {
+            if (kinds[id] == kind && intersects(id, x, y, width, height)) {
+                action.accept(id);
+            }
+        }
+    }
+
+    public boolean intersects(int id, int x, int y, int width, int height) {
+        int wall = kinds[id] == ROOM ? Room.wallThickness : 0;
+        long left = (long) xs[id] - wall;
+        long top = (long) ys[id] - wall;
+        long right = (long) xs[id] + widths[id] + wall;
+        long bottom = (long) ys[id] + heights[id] + wall;
+        if (right <= left || bottom <= top || width <= 0 || height <= 0) {
+            return false;
+        }
+        return x < right && left < (long) x + width && y < bottom && top < (long) y + height;
+    }
+
+    private int add(byte kind, int x, int y, int width, int height, int type, int rotation) {
+        int id;
+        if (freeCount > 0) {
+            // The lowest free id; the hint only moves past words that hold none
+            while (freeIds[freeHint] == 0) {
+                freeHint++;
+            }
+            id = (freeHint << 6) + Long.numberOfTrailingZeros(freeIds[freeHint]);
+            takeFree(id);
+        } else {
+            if (idLimit == kinds.length) {
+                grow();
+            }
+            id = idLimit++;
+        }
+        kinds[id] = kind;
+        types[id] = (short) type;
+        rotations[id] = (byte) rotation;
+        set(id, x, y, width, height);
+        return id;
+    }
+
+    private void pushFree(int id) {
+        freeIds[id >>> 6] |= 1L << id;
+        freeCount++;
+        freeHint = Math.min(freeHint, id >>> 6);
+    }
+
+    private void takeFree(int id) {
+        long bit = 1L << id;
+        if ((freeIds[id >>> 6] & bit) != 0) {
+            freeIds[id >>> 6] &= ~bit;
+            freeCount--;
+        }
+    }
+
+    private void set(int id, int x, int y, int width, int height) {
+        xs[id] = x;
+        ys[id] = y;
+        widths[id] = width;
+        heights[id] = height;
+    }
+
+    private void grow() {
+        int capacity = kinds.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        types = Arrays.copyOf(types, capacity);
+        rotations = Arrays.copyOf(rotations, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        freeIds = Arrays.copyOf(freeIds, (capacity + 63) >>> 6);
+    }
+}
@@ -0,0 +1,282 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Packs rooms into a strip of fixed width with a skyline bin-packing heuristic
+//
+// Each room takes up its size plus walls and spacing. Several candidate orders (tallest first, widest
+// first, largest first, ...) and two placement rules are packed in parallel on a fork-join pool, and
+// the layout with the lowest total height, i.e. the densest one, wins. Each candidate costs
+// O(rooms x (skyline segments + obstacles)), which stays in the milliseconds for thousands of rooms.
+// Obstacles are fixed areas such as shafts: a room that would rest on one drops to just below it.
+final class RoomPacker {
+    // Room positions in input order, and the height of the packed strip
+    record Layout(int[] xs, int[] ys, int height) {
+    }
+
+    private static final int ORDERINGS = 6;
+
+    private RoomPacker() {
+    }
+
+    // Pack rooms of the given sizes; spacing is kept between neighbours and wall is added around each room.
+    // Rooms also keep spacing from the obstacles, which are given in the same coordinates as the layout.
+    public static Layout pack(int[] widths, int[] heights, int stripWidth, int spacing, int wall, List<Rectangle> obstacles) {
+        int count = widths.length;
+        int[] footprintWidths = new int[count];
+        int[] footprintHeights = new int[count];
+        int widest = 1;
+        for (int i = 0; i < count; i++) {
+            footprintWidths[i] = widths[i] + 2 * wall + spacing;
+            footprintHeights[i] = heights[i] + 2 * wall + spacing;
+            widest = Math.max(widest, footprintWidths[i]);
+        }
+        int width = Math.max(stripWidth, widest); // A room wider than the strip still gets a row of its own
+        int narrowest = Integer.MAX_VALUE;
+        for (int footprintWidth : footprintWidths) {
+            narrowest = Math.min(narrowest, footprintWidth);
+        }
+        int minWidth = narrowest;
+        // A footprint already ends in spacing to its right and below; grow the obstacles by the same on
+        // their own right and bottom so the space is kept on every side
+        Rectangle[] blocked = new Rectangle[obstacles.size()];
+        for (int i = 0; i < blocked.length; i++) {
+            Rectangle obstacle = obstacles.get(i);
+            blocked[i] = new Rectangle(obstacle.x, obstacle.y, obstacle.width + spacing, obstacle.height + spacing);
+        }
+        List<RecursiveTask<Layout>> candidates = new ArrayList<>();
+        for (int ordering = 0; ordering < ORDERINGS; ordering++) {
+            for (boolean minWaste : new boolean[]{false, true}) {
+                int order = ordering;
+                candidates.add(new RecursiveTask<>() {
+                    @Override
+                    protected Layout compute() {
+                        return packSkyline(order(order, footprintWidths, footprintHeights), footprintWidths,
+                                footprintHeights, width, minWidth, minWaste, blocked);
+                    }
+                });
+            }
+        }
+        if (RecursiveAction.inForkJoinPool()) {
+            RecursiveTask.invokeAll(candidates);
+        } else {
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(candidates);
+                }
+            });
+        }
+        Layout best = null;
+        for (RecursiveTask<Layout> candidate : candidates) {
+            Layout layout = candidate.join();
+            if (best == null || layout.height() < best.height()) {
+                best = layout;
+            }
+        }
+        // The footprint's top-left corner is the outside of the wall
+        for (int i = 0; i < count; i++) {
+            best.xs()[i] += wall;
+            best.ys()[i] += wall;
+        }
+        return best;
+    }
+
+    // Room indexes in one of the candidate orders; ties keep the input order
+    private static int[] order(int ordering, int[] widths, int[] heights) {
+        int count = widths.length;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            long w = widths[i];
+            long h = heights[i];
+            long metric = switch (ordering) {
+                case 0 -> h;
+                case 1 -> w;
+                case 2 -> w * h;
+                case 3 -> w + h;
+                case 4 -> Math.max(w, h);
+                default -> 0;
+            };
+            // Largest metric first: sort ascending on the negated metric, with the index in the low bits
+            keys[i] = (-Math.min(metric, Integer.MAX_VALUE) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    // Skyline packing: the top edge of everything placed so far is a list of horizontal segments, and
+    // each room goes where it rests lowest (or, with minWaste, where it leaves the least space under it)
+    private static Layout packSkyline(int[] order, int[] widths, int[] heights, int stripWidth, int minWidth,
+                                      boolean minWaste, Rectangle[] obstacles) {
+        int count = order.length;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        Skyline skyline = new Skyline(stripWidth, count);
+        int height = 0;
+        for (int room : order) {
+            int w = widths[room];
+            int h = heights[room];
+            int bestSegment = -1;
+            long bestScore = Long.MAX_VALUE;
+            int bestY = 0;
+            for (int segment = 0; segment < skyline.size; segment++) {
+                if (!minWaste && (long) skyline.ys[segment] + h >= bestScore) {
+                    continue; // Would rest at least this high, so it cannot beat the best spot
+                }
+                int y = skyline.restingY(segment, w);
+                if (y < 0) {
+                    break; // Segments further right cannot fit the room either
+                }
+                y = clearOf(obstacles, skyline.xs[segment], y, w, h);
+                long score = minWaste ? ((long) skyline.wasteUnder(segment, w, y) << 32) | (y + h) : y + h;
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestSegment = segment;
+                    bestY = y;
+                }
+            }
+            xs[room] = skyline.xs[bestSegment];
+            ys[room] = bestY;
+            skyline.place(bestSegment, w, bestY + h);
+            skyline.fillPits(minWidth);
+            height = Math.max(height, bestY + h);
+        }
+        return new Layout(xs, ys, height);
+    }
+
+    // Lowest y, at or below the given one, where a footprint misses every obstacle. Each obstacle it is
+    // moved below stays above it, so this ends after at most one pass per obstacle.
+    private static int clearOf(Rectangle[] obstacles, int x, int y, int width, int height) {
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            for (Rectangle obstacle : obstacles) {
+                if (x < obstacle.x + obstacle.width && obstacle.x < x + width
+                        && y < obstacle.y + obstacle.height && obstacle.y < y + height) {
+                    y = obstacle.y + obstacle.height;
+                    moved = true;
+                }
+            }
+        }
+        return y;
+    }
+
+    // Segments sorted by x that together cover the strip width
+    private static final class Skyline {
+        int[] xs;
+        int[] ys;
+        int[] widths;
+        int size;
+
+        Skyline(int width, int rooms) {
+            int capacity = rooms + 2;
+            xs = new int[capacity];
+            ys = new int[capacity];
+            widths = new int[capacity];
+            widths[0] = width;
+            size = 1;
+        }
+
+        // Lowest y at which a room of the given width rests when its left edge is at the segment, or -1 if it sticks out
+        int restingY(int segment, int width) {
+            int left = xs[segment];
+            if (left + width > xs[size - 1] + widths[size - 1]) {
+                return -1;
+            }
+            int y = 0;
+            for (int i = segment; i < size && xs[i] < left + width; i++) {
+                y = Math.max(y, ys[i]);
+            }
+            return y;
+        }
+
+        // Area left empty under a room resting at y
+        int wasteUnder(int segment, int width, int y) {
+            int left = xs[segment];
+            int right = left + width;
+            long waste = 0;
+            for (int i = segment; i < size && xs[i] < right; i++) {
+                int covered = Math.min(right, xs[i] + widths[i]) - xs[i];
+                waste += (long) covered * (y - ys[i]);
+            }
+            return (int) Math.min(waste, Integer.MAX_VALUE);
+        }
+
+        // Raise the skyline under a room placed at the segment's x with the given top
+        void place(int segment, int width, int top) {
+            int left = xs[segment];
+            int right = left + width;
+            // Find the first segment that extends past the room, trimming it
+            int end = segment;
+            while (end < size && xs[end] + widths[end] <= right) {
+                end++;
+            }
+            if (end < size && xs[end] < right) {
+                widths[end] -= right - xs[end];
+                xs[end] = right;
+            }
+            // Segments segment..end-1 are fully covered and replaced by the new one
+            int removed = end - segment;
+            int shift = 1 - removed;
+            if (shift != 0) {
+                System.arraycopy(xs, end, xs, end + shift, size - end);
+                System.arraycopy(ys, end, ys, end + shift, size - end);
+                System.arraycopy(widths, end, widths, end + shift, size - end);
+                size += shift;
+            }
+            xs[segment] = left;
+            ys[segment] = top;
+            widths[segment] = width;
+            // Join neighbours at the same height so the skyline stays short
+            if (segment + 1 < size && ys[segment + 1] == top) {
+                widths[segment] += widths[segment + 1];
+                removeAt(segment + 1);
+            }
+            if (segment > 0 && ys[segment - 1] == top) {
+                widths[segment - 1] += widths[segment];
+                removeAt(segment);
+            }
+        }
+
+        // Raise dips narrower than any room to their lower neighbour; nothing can ever be placed in them,
+        // and without this the skyline fills up with slivers and every placement gets slower
+        void fillPits(int minWidth) {
+            for (int i = 0; i < size; i++) {
+                if (widths[i] >= minWidth || size == 1) {
+                    continue;
+                }
+                int leftY = i > 0 ? ys[i - 1] : Integer.MAX_VALUE;
+                int rightY = i + 1 < size ? ys[i + 1] : Integer.MAX_VALUE;
+                if (ys[i] >= leftY || ys[i] >= rightY) {
+                    continue; // Not a dip: a room resting on the lower neighbour can span it
+                }
+                if (leftY <= rightY) {
+                    widths[i - 1] += widths[i];
+                    removeAt(i);
+                    i -= 2; // The widened neighbour may now be a dip itself
+                } else {
+                    ys[i] = rightY;
+                    widths[i] += widths[i + 1];
+                    removeAt(i + 1);
+                    i--;
+                }
+                i = Math.max(i, -1);
+            }
+        }
+
+        private void removeAt(int index) {
+            System.arraycopy(xs, index + 1, xs, index, size - index - 1);
+            System.arraycopy(ys, index + 1, ys, index, size - index - 1);
+            System.arraycopy(widths, index + 1, widths, index, size - index - 1);
+            size--;
+        }
+    }
+}
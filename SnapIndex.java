@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.function.Predicate;
+
+// Sorted edge index for snapping: the left edge, center and right edge of every item on the x axis, and
+// the same on the y axis, so the nearest edge to a position is found with a binary search
+//
+// Each axis is a sorted array of coordinates packed with the item's slot. An item gets its slot on its
+// first update, and the edges of its latest update live in a per-slot array, so moving an item never
+// allocates. Slots changed since the arrays were built are listed as pending and checked one by one;
+// once more than MERGE_THRESHOLD are pending they are merged in on the next query, in linear time plus
+// the sort of the pending items, so a drag never pays for re-sorting the whole plan.
+class SnapIndex<T> {
+    static final int NONE = Integer.MIN_VALUE; // Returned by nearest when nothing is in range
+    private static final int MERGE_THRESHOLD = 64;
+    private static final byte PENDING = 1; // Changed since the arrays were built
+    private static final byte REMOVED = 2; // Removed since the arrays were built; its slot frees on merge
+
+    private long[] xs = new long[0]; // Coordinate in the high half, slot in the low half
+    private long[] ys = new long[0];
+    private int keyCount; // Used length of xs and ys
+    private long[] spareXs = new long[0]; // The arrays of the previous merge, reused by the next one
+    private long[] spareYs = new long[0];
+    private long[] addedXs = new long[0]; // Scratch for the sorted keys of the pending slots
+    private long[] addedYs = new long[0];
+    private final ArrayList<T> owners = new ArrayList<>(); // Slot to item, null for a free slot
+    private final IdentityHashMap<T, Integer> slots = new IdentityHashMap<>();
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int[] edges = new int[16 * 6]; // Per slot: {left, centerX, right, top, centerY, bottom}
+    private byte[] flags = new byte[16]; // Per slot: PENDING and REMOVED
+    private int[] pending = new int[16]; // Slots flagged PENDING
+    private int pendingCount;
+    private int removedCount; // Pending slots flagged REMOVED
+
+    public int size() {
+        return slots.size() - removedCount;
+    }
+
+    public void clear() {
+        xs = new long[0];
+        ys = new long[0];
+        keyCount = 0;
+        spareXs = new long[0];
+        spareYs = new long[0];
+        addedXs = new long[0];
+        addedYs = new long[0];
+        owners.clear();
+        slots.clear();
+        freeCount = 0;
+        Arrays.fill(flags, (byte) 0);
+        pendingCount = 0;
+        removedCount = 0;
+    }
+
+    // Add an item, or move it if it is already indexed
+    public void update(T item, int x, int y, int width, int height) {
+        Integer known = slots.get(item);
+        int slot = known != null ? known : claimSlot(item);
+        int at = slot * 6;
+        edges[at] = x;
+        edges[at + 1] = x + width / 2;
+        edges[at + 2] = x + width;
+        edges[at + 3] = y;
+        edges[at + 4] = y + height / 2;
+        edges[at + 5] = y + height;
+        if ((flags[slot] & REMOVED) != 0) {
+            flags[slot] &= ~REMOVED;
+            removedCount--;
+        }
+        markPending(slot);
+    }
+
+    public void remove(T item) {
+        Integer slot = slots.get(item);
+        if (slot != null && (flags[slot] & REMOVED) == 0) {
+            flags[slot] |= REMOVED;
+            removedCount++;
+            markPending(slot);
+        }
+    }
+
+    private int claimSlot(T item) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+            owners.set(slot, item);
+        } else {
+            slot = owners.size();
+            owners.add(item);
+            if (slot == flags.length) {
+                flags = Arrays.copyOf(flags, slot * 2);
+                edges = Arrays.copyOf(edges, slot * 2 * 6);
+            }
+        }
+        slots.put(item, slot);
+        return slot;
+    }
+
+    private void markPending(int slot) {
+        if ((flags[slot] & PENDING) == 0) {
+            flags[slot] |= PENDING;
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = slot;
+        }
+    }
+
+    // Indexed edge or center nearest to a position on one axis, at most maxDistance away, ignoring the
+    // items skip accepts; NONE when there is none
+    public int nearest(boolean vertical, int position, int maxDistance, Predicate<T> skip) {
+        if (pendingCount > MERGE_THRESHOLD) {
+            merge();
+        }
+        long[] keys = vertical ? ys : xs;
+        long best = (long) maxDistance + 1;
+        int found = NONE;
+        // Entries are ordered by coordinate, so the first usable one on each side is the nearest there
+        int index = Arrays.binarySearch(keys, 0, keyCount, (long) position << 32);
+        index = index < 0 ? -index - 1 : index;
+        for (int i = index; i < keyCount; i++) {
+            int coordinate = (int) (keys[i] >> 32);
+            if ((long) coordinate - position >= best) {
+                break;
+            }
+            int slot = (int) keys[i];
+            if ((flags[slot] & PENDING) == 0 && !skip.test(owners.get(slot))) {
+                best = (long) coordinate - position;
+                found = coordinate;
+                break;
+            }
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            int coordinate = (int) (keys[i] >> 32);
+            if ((long) position - coordinate >= best) {
+                break;
+            }
+            int slot = (int) keys[i];
+            if ((flags[slot] & PENDING) == 0 && !skip.test(owners.get(slot))) {
+                best = (long) position - coordinate;
+                found = coordinate;
+                break;
+            }
+        }
+        int first = vertical ? 3 : 0;
+        for (int p = 0; p < pendingCount; p++) {
+            int slot = pending[p];
+            if ((flags[slot] & REMOVED) != 0 || skip.test(owners.get(slot))) {
+                continue;
+            }
+            for (int i = slot * 6 + first, end = i + 3; i < end; i++) {
+                long distance = Math.abs((long) edges[i] - position);
+                if (distance < best) {
+                    best = distance;
+                    found = edges[i];
+                }
+            }
+        }
+        return found;
+    }
+
+    // Fold the pending slots into the sorted arrays: their old entries are dropped in one pass, and their
+    // new ones are sorted on their own and merged in. Removed items give up their slot here.
+    private void merge() {
+        if (addedXs.length < pendingCount * 3) {
+            addedXs = new long[pendingCount * 3];
+            addedYs = new long[addedXs.length];
+        }
+        int added = 0;
+        for (int p = 0; p < pendingCount; p++) {
+            int slot = pending[p];
+            if ((flags[slot] & REMOVED) != 0) {
+                continue;
+            }
+            for (int i = slot * 6, end = i + 3; i < end; i++) {
+                addedXs[added] = (long) edges[i] << 32 | slot;
+                addedYs[added] = (long) edges[i + 3] << 32 | slot;
+                added++;
+            }
+        }
+        Arrays.sort(addedXs, 0, added);
+        Arrays.sort(addedYs, 0, added);
+        if (spareXs.length < keyCount + added) {
+            spareXs = new long[(keyCount + added) * 3 / 2];
+            spareYs = new long[spareXs.length];
+        }
+        merge(xs, keyCount, addedXs, added, spareXs);
+        int count = merge(ys, keyCount, addedYs, added, spareYs);
+        long[] previous = xs;
+        xs = spareXs;
+        spareXs = previous;
+        previous = ys;
+        ys = spareYs;
+        spareYs = previous;
+        keyCount = count;
+
+        for (int p = 0; p < pendingCount; p++) {
+            int slot = pending[p];
+            if ((flags[slot] & REMOVED) != 0) {
+                slots.remove(owners.get(slot));
+                owners.set(slot, null);
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                }
+                freeSlots[freeCount++] = slot;
+            }
+            flags[slot] = 0;
+        }
+        pendingCount = 0;
+        removedCount = 0;
+    }
+
+    // Merge the keys of slots that are not pending with the sorted added keys into merged; returns the count
+    private int merge(long[] keys, int keyCount, long[] added, int addedCount, long[] merged) {
+        int count = 0;
+        int next = 0;
+        for (int k = 0; k < keyCount; k++) {
+            long key = keys[k];
+            if ((flags[(int) key] & PENDING) != 0) {
+                continue;
+            }
+            while (next < addedCount && added[next] < key) {
+                merged[count++] = added[next++];
+            }
+            merged[count++] = key;
+        }
+        while (next < addedCount) {
+            merged[count++] = added[next++];
+        }
+        return count;
+    }
+}
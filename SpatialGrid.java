@@ -0,0 +1,304 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Uniform grid spatial index (used for hit-testing and overlap checks)
+class SpatialGrid<T> {
+    // Test of an item against a query area; pass a method reference such as Room::intersects so queries allocate nothing
+    interface AreaTest<T> {
+        boolean test(T item, int x, int y, int width, int height);
+    }
+
+    private static final int EMPTY_SLOT = -1;
+    private static final int MIN_TABLE = 64;
+    private static final int POOL_LIMIT = 64; // Emptied buckets kept for reuse
+
+    private final int cellSize;
+    // Open-addressing table (linear probing) from packed cell coordinates to a slot in buckets.
+    // A cell that empties leaves the table, so the table tracks the occupied cells only.
+    private long[] cellKeys = new long[MIN_TABLE];
+    private int[] cellSlots = new int[MIN_TABLE];
+    private final ArrayList<ArrayList<T>> buckets = new ArrayList<>();
+    private long[] bucketKeys = new long[MIN_TABLE]; // Cell key of each bucket, by slot
+    // Emptied buckets, so items moving back and forth between cells do not allocate
+    private final ArrayList<ArrayList<T>> pool = new ArrayList<>();
+    // Cell range currently occupied by each item: {minCellX, minCellY, maxCellX, maxCellY}
+    private final IdentityHashMap<T, int[]> extents = new IdentityHashMap<>();
+
+    public SpatialGrid(int cellSize) {
+        this.cellSize = cellSize;
+        Arrays.fill(cellSlots, EMPTY_SLOT);
+    }
+
+    public int size() {
+        return extents.size();
+    }
+
+    public boolean contains(T item) {
+        return extents.containsKey(item);
+    }
+
+    // Number of cells holding at least one item
+    int cellCount() {
+        return buckets.size();
+    }
+
+    int tableCapacity() {
+        return cellKeys.length;
+    }
+
+    public void clear() {
+        cellKeys = new long[MIN_TABLE];
+        cellSlots = new int[MIN_TABLE];
+        Arrays.fill(cellSlots, EMPTY_SLOT);
+        bucketKeys = new long[MIN_TABLE];
+        buckets.clear();
+        pool.clear();
+        extents.clear();
+    }
+
+    // Add an item, or move it if it is already indexed
+    public void update(T item, int x, int y, int width, int height) {
+        int minCx = cell(x);
+        int minCy = cell(y);
+        int maxCx = cell(x + Math.max(width, 1) - 1);
+        int maxCy = cell(y + Math.max(height, 1) - 1);
+        int[] extent = extents.get(item);
+        if (extent != null) {
+            if (extent[0] == minCx && extent[1] == minCy && extent[2] == maxCx && extent[3] == maxCy) {
+                return; // Still covers the same cells, nothing to do
+            }
+            unlink(item, extent);
+        } else {
+            extent = new int[4];
+            extents.put(item, extent);
+        }
+        extent[0] = minCx;
+        extent[1] = minCy;
+        extent[2] = maxCx;
+        extent[3] = maxCy;
+        for (int cx = minCx; cx <= maxCx; cx++) {
+            for (int cy = minCy; cy <= maxCy; cy++) {
+                bucketFor(key(cx, cy)).add(item);
+            }
+        }
+    }
+
+    public void remove(T item) {
+        int[] extent = extents.remove(item);
+        if (extent != null) {
+            unlink(item, extent);
+        }
+    }
+
+    // Return the first item near the given area that passes the test, or null
+    public T findFirst(int x, int y, int width, int height, Predicate<? super T> test) {
+        int minCx = cell(x);
+        int minCy = cell(y);
+        int maxCx = cell(x + Math.max(width, 1) - 1);
+        int maxCy = cell(y + Math.max(height, 1) - 1);
+        for (int cx = minCx; cx <= maxCx; cx++) {
+            for (int cy = minCy; cy <= maxCy; cy++) {
+                ArrayList<T> bucket = bucket(key(cx, cy));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size(); i++) {
+                    T item = bucket.get(i);
+                    if (test.test(item)) {
+                        return item;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Return the first item other than exclude that passes the area test, or null
+    public T findFirst(int x, int y, int width, int height, T exclude, AreaTest<? super T> test) {
+        int minCx = cell(x);
+        int minCy = cell(y);
+        int maxCx = cell(x + Math.max(width, 1) - 1);
+        int maxCy = cell(y + Math.max(height, 1) - 1);
+        for (int cx = minCx; cx <= maxCx; cx++) {
+            for (int cy = minCy; cy <= maxCy; cy++) {
+                ArrayList<T> bucket = bucket(key(cx, cy));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size(); i++) {
+                    T item = bucket.get(i);
+                    if (item != exclude && test.test(item, x, y, width, height)) {
+                        return item;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Visit every item whose cells touch the given area exactly once
+    public void forEach(int x, int y, int width, int height, Consumer<? super T> visitor) {
+        int minCx = cell(x);
+        int minCy = cell(y);
+        int maxCx = cell(x + Math.max(width, 1) - 1);
+        int maxCy = cell(y + Math.max(height, 1) - 1);
+        for (int cx = minCx; cx <= maxCx; cx++) {
+            for (int cy = minCy; cy <= maxCy; cy++) {
+                ArrayList<T> bucket = bucket(key(cx, cy));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size(); i++) {
+                    T item = bucket.get(i);
+                    int[] extent = extents.get(item);
+                    // Only report an item from the first cell it shares with the query
+                    if (cx == Math.max(extent[0], minCx) && cy == Math.max(extent[1], minCy)) {
+                        visitor.accept(item);
+                    }
+                }
+            }
+        }
+    }
+
+    private void unlink(T item, int[] extent) {
+        for (int cx = extent[0]; cx <= extent[2]; cx++) {
+            for (int cy = extent[1]; cy <= extent[3]; cy++) {
+                long key = key(cx, cy);
+                int index = indexOf(key);
+                if (index < 0) {
+                    continue;
+                }
+                ArrayList<T> bucket = buckets.get(cellSlots[index]);
+                for (int i = bucket.size() - 1; i >= 0; i--) {
+                    if (bucket.get(i) == item) {
+                        // Order inside a cell does not matter, so swap with the last item
+                        int last = bucket.size() - 1;
+                        bucket.set(i, bucket.get(last));
+                        bucket.remove(last);
+                        break;
+                    }
+                }
+                if (bucket.isEmpty()) {
+                    freeCell(index);
+                }
+            }
+        }
+        // Shrink once the occupied cells fill less than an eighth of the table; growing happens at a
+        // half, so a grid hovering around one size does not rehash back and forth
+        if (cellKeys.length > MIN_TABLE && buckets.size() * 8 < cellKeys.length) {
+            resizeTable(cellKeys.length / 2);
+            bucketKeys = Arrays.copyOf(bucketKeys, cellKeys.length / 2);
+            buckets.trimToSize();
+        }
+    }
+
+    // Table index of a cell, or -1 if the cell holds no items
+    private int indexOf(long key) {
+        int mask = cellKeys.length - 1;
+        for (int index = mix(key) & mask; ; index = (index + 1) & mask) {
+            if (cellSlots[index] == EMPTY_SLOT) {
+                return -1;
+            }
+            if (cellKeys[index] == key) {
+                return index;
+            }
+        }
+    }
+
+    private ArrayList<T> bucket(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : buckets.get(cellSlots[index]);
+    }
+
+    private ArrayList<T> bucketFor(long key) {
+        ArrayList<T> bucket = bucket(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if ((buckets.size() + 1) * 2 > cellKeys.length) {
+            resizeTable(cellKeys.length * 2);
+        }
+        bucket = pool.isEmpty() ? new ArrayList<>(4) : pool.remove(pool.size() - 1);
+        int slot = buckets.size();
+        if (slot == bucketKeys.length) {
+            bucketKeys = Arrays.copyOf(bucketKeys, slot * 2);
+        }
+        bucketKeys[slot] = key;
+        insertSlot(key, slot);
+        buckets.add(bucket);
+        return bucket;
+    }
+
+    // Drop an emptied cell from the table and give its bucket back to the pool
+    private void freeCell(int index) {
+        int slot = cellSlots[index];
+        ArrayList<T> bucket = buckets.get(slot);
+        deleteIndex(index);
+        // Keep buckets dense: the last bucket takes over the freed slot
+        int last = buckets.size() - 1;
+        if (slot != last) {
+            buckets.set(slot, buckets.get(last));
+            bucketKeys[slot] = bucketKeys[last];
+            cellSlots[indexOf(bucketKeys[slot])] = slot;
+        }
+        buckets.remove(last);
+        if (pool.size() < POOL_LIMIT) {
+            pool.add(bucket);
+        }
+    }
+
+    // Remove a table entry without tombstones: later entries of the probe run move back into the hole
+    // unless that would put them before their home index
+    private void deleteIndex(int index) {
+        int mask = cellKeys.length - 1;
+        int hole = index;
+        for (int next = (hole + 1) & mask; cellSlots[next] != EMPTY_SLOT; next = (next + 1) & mask) {
+            int home = mix(cellKeys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                cellKeys[hole] = cellKeys[next];
+                cellSlots[hole] = cellSlots[next];
+                hole = next;
+            }
+        }
+        cellSlots[hole] = EMPTY_SLOT;
+    }
+
+    private void insertSlot(long key, int slot) {
+        int mask = cellKeys.length - 1;
+        int index = mix(key) & mask;
+        while (cellSlots[index] != EMPTY_SLOT) {
+            index = (index + 1) & mask;
+        }
+        cellKeys[index] = key;
+        cellSlots[index] = slot;
+    }
+
+    private void resizeTable(int capacity) {
+        long[] oldKeys = cellKeys;
+        int[] oldSlots = cellSlots;
+        cellKeys = new long[capacity];
+        cellSlots = new int[capacity];
+        Arrays.fill(cellSlots, EMPTY_SLOT);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] != EMPTY_SLOT) {
+                insertSlot(oldKeys[i], oldSlots[i]);
+            }
+        }
+    }
+
+    private int cell(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+// Client side of plan sync: sends this canvas's edits and hands everybody else's to a Listener on the EDT
+//
+// Edits are collected for SEND_DELAY_MS and sent as one batch, with repeated edits to an element merged,
+// so a burst of changes costs one small message. A reader thread receives and a writer thread encodes and
+// sends, so the Event Dispatch Thread never waits on the socket.
+//
+// Until the server acknowledges a batch, remote edits to the elements in it are ignored: the server applied
+// them before ours, so ours is the one every other client ends up with as well. Removals are the exception.
+// Once an element is gone the server drops every later edit to it, ours included, so a remote REMOVE is
+// always applied.
+final class SyncClient implements Closeable {
+    static final int SEND_DELAY_MS = 50;
+
+    // Called on the EDT, with the client so a listener can tell a session it already left from the current one
+    interface Listener {
+        // The plan held by the server, before any other batch
+        void joined(SyncClient client, SyncProtocol.Batch plan);
+
+        void received(SyncClient client, SyncProtocol.Batch batch);
+
+        // The connection failed or was closed by the server; not called after close()
+        void disconnected(SyncClient client, IOException cause);
+    }
+
+    private final SocketChannel channel;
+    private final InetSocketAddress server;
+    private final Listener listener;
+    private final Thread reader;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "plan-sync-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED); // Used by the writer thread only
+    private final Timer sendTimer = new Timer(SEND_DELAY_MS, e -> send());
+    private volatile int clientId;
+    private volatile boolean closed;
+    private boolean joined; // Set on the EDT once the plan has been handed to the listener
+
+    // The rest is only used on the EDT
+    private int counter; // Low half of the uids this client hands out
+    private long[] uidById = new long[64]; // Canvas id to uid, 0 when the element has none yet
+    private final HashMap<Long, Object> elementByUid = new HashMap<>();
+    private final HashMap<Long, Integer> pending = new HashMap<>(); // Uid to the batch that last sent it
+    private SyncProtocol.Batch open = new SyncProtocol.Batch();
+    private final HashMap<Long, Integer> openRecords = new HashMap<>(); // Uid to its record in the open batch
+    private int sequence;
+
+    private SyncClient(SocketChannel channel, InetSocketAddress server, Listener listener) {
+        this.channel = channel;
+        this.server = server;
+        this.listener = listener;
+        sendTimer.setRepeats(false);
+        reader = new Thread(this::read, "plan-sync-reader");
+        reader.setDaemon(true);
+    }
+
+    // Connect in the background; the listener hears about the plan or the failure
+    public static SyncClient start(String host, int port, Listener listener) throws IOException {
+        SyncClient client = new SyncClient(SocketChannel.open(), InetSocketAddress.createUnresolved(host, port), listener);
+        client.reader.start();
+        return client;
+    }
+
+    private void read() {
+        Inflater inflater = new Inflater();
+        try {
+            channel.connect(new InetSocketAddress(server.getHostString(), server.getPort()));
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            boolean received = false;
+            while (true) {
+                header.clear();
+                readFully(header);
+                int length = header.getInt(0);
+                if (length < 1 || length > SyncProtocol.MAX_FRAME_BYTES) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                readFully(frame);
+                frame.flip();
+                byte type = frame.get();
+                if (type == SyncProtocol.HELLO) {
+                    clientId = frame.getInt();
+                } else if (type == SyncProtocol.ACK) {
+                    int acked = frame.getInt();
+                    SwingUtilities.invokeLater(() -> acked(acked));
+                } else if (type == SyncProtocol.BATCH && clientId != 0) {
+                    frame.getInt();
+                    SyncProtocol.Batch batch = SyncProtocol.decode(frame, inflater);
+                    boolean first = !received;
+                    received = true;
+                    SwingUtilities.invokeLater(() -> {
+                        if (closed) {
+                            return;
+                        }
+                        if (first) {
+                            joined = true;
+                            listener.joined(this, batch);
+                        } else {
+                            listener.received(this, batch);
+                        }
+                    });
+                } else {
+                    throw new IOException("Unexpected message from the server");
+                }
+            }
+        } catch (IOException e) {
+            if (!closed && !(e instanceof AsynchronousCloseException)) {
+                SwingUtilities.invokeLater(() -> {
+                    if (!closed) {
+                        close();
+                        listener.disconnected(this, e);
+                    }
+                });
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The server closed the connection");
+            }
+        }
+    }
+
+    // Queue a local change for the next batch; op and id are as in PlanJournal, element is the Room or Furniture.
+    // Changes made before the plan arrives are not queued; the listener sends the whole plan when it does.
+    public void changed(byte op, int id, Object element) {
+        if (closed || !joined) {
+            return;
+        }
+        long uid = id < uidById.length ? uidById[id] : 0;
+        Integer record = openRecords.get(uid);
+        if (op == PlanJournal.REMOVE) {
+            if (uid == 0) {
+                return;
+            }
+            uidById[id] = 0;
+            elementByUid.remove(uid);
+            if (record != null && open.op(record) == PlanJournal.PUT) {
+                // Added and removed before it was ever sent
+                open.setOp(record, (byte) 0);
+                openRecords.remove(uid);
+            } else if (record != null) {
+                open.setOp(record, PlanJournal.REMOVE);
+            } else {
+                openRecords.put(uid, open.add(PlanJournal.REMOVE, uid, PlanStore.FREE, 0, 0, 0, 0, 0, 0));
+            }
+        } else {
+            if (uid == 0) {
+                uid = ((long) clientId << 32) | (++counter & 0xffffffffL);
+                bind(uid, id, element);
+                op = PlanJournal.PUT;
+            }
+            if (record == null) {
+                record = open.add(op, uid, PlanStore.FREE, 0, 0, 0, 0, 0, 0);
+                openRecords.put(uid, record);
+            }
+            if (element instanceof Room room) {
+                open.setState(record, PlanStore.ROOM, room.type.ordinal(), 0, room.x, room.y, room.width, room.height);
+            } else {
+                Furniture furniture = (Furniture) element;
+                open.setState(record, PlanStore.FURNITURE, Furniture.typeOrdinal(furniture.type), furniture.rotation,
+                        furniture.x, furniture.y, furniture.width, furniture.height);
+            }
+        }
+        pending.put(uid, sequence + 1);
+        if (!sendTimer.isRunning()) {
+            sendTimer.start();
+        }
+    }
+
+    // Send the open batch now rather than when the timer fires
+    public void send() {
+        sendTimer.stop();
+        if (open.size() == 0 || closed) {
+            return;
+        }
+        SyncProtocol.Batch batch = open;
+        int batchSequence = ++sequence;
+        open = new SyncProtocol.Batch();
+        openRecords.clear();
+        writer.execute(() -> {
+            try {
+                ByteBuffer frame = SyncProtocol.encode(batch, batchSequence, deflater);
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            } catch (IOException e) {
+                // The reader sees the broken connection and reports it
+            }
+        });
+    }
+
+    private void acked(int acked) {
+        pending.values().removeIf(batchSequence -> batchSequence <= acked);
+    }
+
+    // Whether the element already has a uid, i.e. the session knows about it
+    public boolean isShared(int id) {
+        return id < uidById.length && uidById[id] != 0;
+    }
+
+    // Whether a remote record should be applied: not while a local edit to the element is unacknowledged,
+    // as the server applied the remote one first and ours overrides it, except for a REMOVE, after which
+    // the server ignores our edit
+    public boolean accepts(byte op, long uid) {
+        return op == PlanJournal.REMOVE || !pending.containsKey(uid);
+    }
+
+    // Tie an element that came from the server, or was just created here, to its uid
+    public void bind(long uid, int id, Object element) {
+        if (id >= uidById.length) {
+            uidById = Arrays.copyOf(uidById, Math.max(id + 1, uidById.length * 2));
+        }
+        uidById[id] = uid;
+        elementByUid.put(uid, element);
+    }
+
+    public Object element(long uid) {
+        return elementByUid.get(uid);
+    }
+
+    // The element with this uid left the plan because of a remote edit; local edits to it not yet sent are
+    // dropped, and those in flight no longer hold back remote ones
+    public void forget(long uid, int id) {
+        elementByUid.remove(uid);
+        if (id >= 0 && id < uidById.length && uidById[id] == uid) {
+            uidById[id] = 0;
+        }
+        Integer record = openRecords.remove(uid);
+        if (record != null) {
+            open.setOp(record, (byte) 0);
+        }
+        pending.remove(uid);
+    }
+
+    // Send what is queued and disconnect
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        send();
+        closed = true;
+        writer.execute(() -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            deflater.end();
+        });
+        writer.shutdown();
+    }
+}
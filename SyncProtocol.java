@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Wire format shared by SyncServer and SyncClient
+//
+// Frame:  int length of the rest, byte type, body
+// HELLO:  (server to client, first frame) int clientId
+// BATCH:  int sequence, byte flags, int raw length, records; deflated when flags has DEFLATED
+// ACK:    (server to client) int sequence of the client's batch the server has applied
+// Record: byte op, long uid, then for PUT: byte kind, byte rotation, short type, int x, y, width, height
+//                                for SET: byte rotation, int x, y, width, height
+//                                for REMOVE: nothing
+//
+// Records use the journal's PUT, SET and REMOVE ops. Elements are named by a uid that is the same in every
+// process: the creating client's id in the high half and its own counter in the low half. Right after HELLO
+// the server sends everything in the plan as one batch of PUTs.
+final class SyncProtocol {
+    static final byte HELLO = 1;
+    static final byte BATCH = 2;
+    static final byte ACK = 3;
+    static final byte DEFLATED = 1;
+    static final int MAX_FRAME_BYTES = 64 << 20; // Larger frames are treated as a broken peer
+    static final int COMPRESS_THRESHOLD = 256; // Smaller batches are sent as they are
+    static final int STATE_INTS = 7; // kind, type, rotation, x, y, width, height
+    private static final int PUT_BYTES = 1 + 8 + 4 + 16;
+    private static final int SET_BYTES = 1 + 8 + 1 + 16;
+    private static final int REMOVE_BYTES = 1 + 8;
+
+    private SyncProtocol() {
+    }
+
+    // Delta records in arrays, like EditLog; a record whose op is 0 has been cancelled and is not sent
+    static final class Batch {
+        private byte[] ops = new byte[16];
+        private long[] uids = new long[16];
+        private int[] states = new int[16 * STATE_INTS];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        byte op(int record) {
+            return ops[record];
+        }
+
+        long uid(int record) {
+            return uids[record];
+        }
+
+        byte kind(int record) {
+            return (byte) states[record * STATE_INTS];
+        }
+
+        int type(int record) {
+            return states[record * STATE_INTS + 1];
+        }
+
+        int rotation(int record) {
+            return states[record * STATE_INTS + 2];
+        }
+
+        int x(int record) {
+            return states[record * STATE_INTS + 3];
+        }
+
+        int y(int record) {
+            return states[record * STATE_INTS + 4];
+        }
+
+        int width(int record) {
+            return states[record * STATE_INTS + 5];
+        }
+
+        int height(int record) {
+            return states[record * STATE_INTS + 6];
+        }
+
+        // Append a record; returns its index. Kind and type are ignored by SET, everything but the uid by REMOVE.
+        int add(byte op, long uid, byte kind, int type, int rotation, int x, int y, int width, int height) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                uids = Arrays.copyOf(uids, size * 2);
+                states = Arrays.copyOf(states, size * 2 * STATE_INTS);
+            }
+            ops[size] = op;
+            uids[size] = uid;
+            setState(size, kind, type, rotation, x, y, width, height);
+            return size++;
+        }
+
+        void setOp(int record, byte op) {
+            ops[record] = op;
+        }
+
+        void setState(int record, byte kind, int type, int rotation, int x, int y, int width, int height) {
+            int base = record * STATE_INTS;
+            states[base] = kind;
+            states[base + 1] = type;
+            states[base + 2] = rotation;
+            states[base + 3] = x;
+            states[base + 4] = y;
+            states[base + 5] = width;
+            states[base + 6] = height;
+        }
+
+        // Append a copy of another batch's record
+        void add(Batch from, int record) {
+            add(from.op(record), from.uid(record), from.kind(record), from.type(record), from.rotation(record),
+                    from.x(record), from.y(record), from.width(record), from.height(record));
+        }
+    }
+
+    static ByteBuffer hello(int clientId) {
+        return ByteBuffer.allocate(9).putInt(5).put(HELLO).putInt(clientId).flip();
+    }
+
+    static ByteBuffer ack(int sequence) {
+        return ByteBuffer.allocate(9).putInt(5).put(ACK).putInt(sequence).flip();
+    }
+
+    // Encode a batch as a whole BATCH frame, ready to write
+    static ByteBuffer encode(Batch batch, int sequence, Deflater deflater) {
+        int rawBytes = 0;
+        for (int i = 0; i < batch.size; i++) {
+            rawBytes += switch (batch.ops[i]) {
+                case PlanJournal.PUT -> PUT_BYTES;
+                case PlanJournal.SET -> SET_BYTES;
+                case PlanJournal.REMOVE -> REMOVE_BYTES;
+                default -> 0;
+            };
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawBytes);
+        for (int i = 0; i < batch.size; i++) {
+            byte op = batch.ops[i];
+            if (op == 0) {
+                continue;
+            }
+            raw.put(op).putLong(batch.uids[i]);
+            if (op == PlanJournal.PUT) {
+                raw.put(batch.kind(i)).put((byte) batch.rotation(i)).putShort((short) batch.type(i));
+            } else if (op == PlanJournal.SET) {
+                raw.put((byte) batch.rotation(i));
+            } else {
+                continue;
+            }
+            raw.putInt(batch.x(i)).putInt(batch.y(i)).putInt(batch.width(i)).putInt(batch.height(i));
+        }
+        byte[] body = raw.array();
+        int bodyLength = rawBytes;
+        byte flags = 0;
+        if (rawBytes >= COMPRESS_THRESHOLD) {
+            deflater.reset();
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] deflated = new byte[rawBytes + rawBytes / 1000 + 64];
+            int length = 0;
+            while (!deflater.finished() && length < deflated.length) {
+                length += deflater.deflate(deflated, length, deflated.length - length);
+            }
+            if (deflater.finished() && length < rawBytes) {
+                body = deflated;
+                bodyLength = length;
+                flags = DEFLATED;
+            }
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + 1 + 4 + 1 + 4 + bodyLength);
+        frame.putInt(frame.capacity() - 4).put(BATCH).putInt(sequence).put(flags).putInt(rawBytes)
+                .put(body, 0, bodyLength);
+        return frame.flip();
+    }
+
+    // Decode the records of a BATCH frame; the buffer is positioned at the flags, after the sequence
+    static Batch decode(ByteBuffer frame, Inflater inflater) throws IOException {
+        byte flags = frame.get();
+        int rawBytes = frame.getInt();
+        if (rawBytes < 0 || rawBytes > MAX_FRAME_BYTES) {
+            throw new IOException("Corrupt sync batch");
+        }
+        ByteBuffer raw;
+        if ((flags & DEFLATED) != 0) {
+            byte[] inflated = new byte[rawBytes];
+            inflater.reset();
+            inflater.setInput(frame);
+            try {
+                int length = 0;
+                while (length < rawBytes && !inflater.finished()) {
+                    int count = inflater.inflate(inflated, length, rawBytes - length);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += count;
+                }
+                if (length != rawBytes) {
+                    throw new IOException("Corrupt sync batch");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt sync batch", e);
+            }
+            raw = ByteBuffer.wrap(inflated);
+        } else {
+            if (frame.remaining() != rawBytes) {
+                throw new IOException("Corrupt sync batch");
+            }
+            raw = frame.slice();
+        }
+        Batch batch = new Batch();
+        try {
+            while (raw.hasRemaining()) {
+                byte op = raw.get();
+                long uid = raw.getLong();
+                if (op == PlanJournal.PUT) {
+                    byte kind = raw.get();
+                    int rotation = raw.get() & 3;
+                    int type = raw.getShort();
+                    if ((kind != PlanStore.ROOM && kind != PlanStore.FURNITURE)
+                            || (kind == PlanStore.ROOM && (type < 0 || type >= RoomType.values().length))) {
+                        throw new IOException("Corrupt sync record");
+                    }
+                    batch.add(op, uid, kind, type, rotation, raw.getInt(), raw.getInt(), raw.getInt(), raw.getInt());
+                } else if (op == PlanJournal.SET) {
+                    int rotation = raw.get() & 3;
+                    batch.add(op, uid, PlanStore.FREE, 0, rotation, raw.getInt(), raw.getInt(), raw.getInt(), raw.getInt());
+                } else if (op == PlanJournal.REMOVE) {
+                    batch.add(op, uid, PlanStore.FREE, 0, 0, 0, 0, 0, 0);
+                } else {
+                    throw new IOException("Unknown sync op " + op);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt sync batch", e);
+        }
+        return batch;
+    }
+}
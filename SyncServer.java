@@ -0,0 +1,288 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Plan sync server: holds the shared plan and relays each client's edits to all the others
+//
+// One thread runs a non-blocking NIO selector over every session, so a session costs a buffer or two
+// rather than a thread. Batches are applied in the order they arrive, and that is the order every client
+// ends up agreeing on: edits to elements that were already removed are dropped, the rest are encoded once
+// and queued to all other sessions, and the sender gets an ACK. See SyncProtocol for the messages.
+final class SyncServer implements Closeable {
+    static final int DEFAULT_PORT = 7420;
+    private static final int MAX_QUEUED_BYTES = 64 << 20; // A client this far behind is disconnected
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final ArrayList<Session> sessions = new ArrayList<>();
+    // The shared plan: uid to kind, type, rotation, x, y, width, height
+    private final LinkedHashMap<Long, int[]> elements = new LinkedHashMap<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private int nextClientId = 1;
+    private volatile int sessionCount;
+    private volatile int elementCount;
+    private volatile boolean closed;
+
+    private static final class Session {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(8192);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        long queuedBytes;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private SyncServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this::run, "plan-sync-server");
+        thread.setDaemon(true);
+    }
+
+    // Listen on a port, 0 for any free one
+    public static SyncServer start(int port) throws IOException {
+        SyncServer syncServer = new SyncServer(port);
+        syncServer.thread.start();
+        return syncServer;
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    public int sessionCount() {
+        return sessionCount;
+    }
+
+    public int elementCount() {
+        return elementCount;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(session);
+                        }
+                    } catch (IOException e) {
+                        drop(session);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            // The selector failed; every session is closed below
+        } finally {
+            for (Session session : new ArrayList<>(sessions)) {
+                drop(session);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    // A new session gets its client id and then the whole plan
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Session session = new Session(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+        sessionCount = sessions.size();
+        SyncProtocol.Batch plan = new SyncProtocol.Batch();
+        for (Map.Entry<Long, int[]> element : elements.entrySet()) {
+            int[] state = element.getValue();
+            plan.add(PlanJournal.PUT, element.getKey(), (byte) state[0], state[1], state[2], state[3], state[4],
+                    state[5], state[6]);
+        }
+        try {
+            enqueue(session, SyncProtocol.hello(nextClientId++));
+            enqueue(session, SyncProtocol.encode(plan, 0, deflater));
+        } catch (IOException e) {
+            drop(session);
+        }
+    }
+
+    private void read(Session session) throws IOException {
+        if (session.channel.read(session.in) < 0) {
+            drop(session);
+            return;
+        }
+        ByteBuffer in = session.in;
+        in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 1 || length > SyncProtocol.MAX_FRAME_BYTES) {
+                throw new IOException("Bad frame length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                if (in.capacity() < 4 + length) {
+                    // Room for the whole frame; the rest of it is read on the next pass
+                    ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(in);
+                    session.in = larger;
+                    return;
+                }
+                break;
+            }
+            ByteBuffer frame = in.slice(in.position() + 4, length);
+            in.position(in.position() + 4 + length);
+            handle(session, frame);
+            if (!session.channel.isOpen()) {
+                return;
+            }
+        }
+        in.compact();
+    }
+
+    private void handle(Session session, ByteBuffer frame) throws IOException {
+        if (frame.get() != SyncProtocol.BATCH) {
+            throw new IOException("Unexpected message from a client");
+        }
+        int sequence = frame.getInt();
+        SyncProtocol.Batch batch = SyncProtocol.decode(frame, inflater);
+        SyncProtocol.Batch accepted = new SyncProtocol.Batch();
+        for (int i = 0; i < batch.size(); i++) {
+            long uid = batch.uid(i);
+            switch (batch.op(i)) {
+                case PlanJournal.PUT -> {
+                    elements.put(uid, new int[]{batch.kind(i), batch.type(i), batch.rotation(i),
+                            batch.x(i), batch.y(i), batch.width(i), batch.height(i)});
+                    accepted.add(batch, i);
+                }
+                case PlanJournal.SET -> {
+                    int[] state = elements.get(uid);
+                    if (state != null) {
+                        state[2] = batch.rotation(i);
+                        state[3] = batch.x(i);
+                        state[4] = batch.y(i);
+                        state[5] = batch.width(i);
+                        state[6] = batch.height(i);
+                        accepted.add(batch, i);
+                    }
+                }
+                case PlanJournal.REMOVE -> {
+                    if (elements.remove(uid) != null) {
+                        accepted.add(batch, i);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        elementCount = elements.size();
+        if (accepted.size() > 0) {
+            ByteBuffer relay = SyncProtocol.encode(accepted, 0, deflater);
+            for (Session other : new ArrayList<>(sessions)) {
+                if (other != session) {
+                    try {
+                        enqueue(other, relay.duplicate());
+                    } catch (IOException e) {
+                        drop(other);
+                    }
+                }
+            }
+        }
+        enqueue(session, SyncProtocol.ack(sequence));
+    }
+
+    // Send right away as far as the socket takes it; the rest waits for the channel to become writable
+    private void enqueue(Session session, ByteBuffer message) throws IOException {
+        session.out.add(message);
+        session.queuedBytes += message.remaining();
+        if (session.queuedBytes > MAX_QUEUED_BYTES) {
+            throw new IOException("Client is not reading");
+        }
+        write(session);
+    }
+
+    private void write(Session session) throws IOException {
+        while (!session.out.isEmpty()) {
+            ByteBuffer message = session.out.peek();
+            session.queuedBytes -= session.channel.write(message);
+            if (message.hasRemaining()) {
+                break;
+            }
+            session.out.poll();
+        }
+        session.key.interestOps(session.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void drop(Session session) {
+        session.key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        sessions.remove(session);
+        sessionCount = sessions.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Run a server on its own, e.g. java -cp floorplanner.jar SyncServer 7420
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SyncServer syncServer = start(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        System.out.println("Plan sync server listening on port " + syncServer.port());
+        syncServer.thread.join();
+    }
+}
@@ -0,0 +1,120 @@
+import bench.PlanHarness;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+// Default-package bridge between the JMH benchmarks and the planner classes
+public class BenchmarkHarness implements PlanHarness {
+    private static final int PITCH = 50; // Distance between generated rooms
+    private static final int ROOM_SIZE = 40;
+    private static final int CANVAS_WIDTH = 1920;
+    private static final int CANVAS_HEIGHT = 1080;
+
+    private final CanvasPanel canvas = new CanvasPanel();
+    private ArrayList<Room> rooms;
+    private ArrayList<Furniture> furniture;
+    private SpatialGrid<Room> roomIndex;
+    private int planWidth, planHeight;
+    private final Point[] roomPoints = new Point[PROBES];
+    private final Point[] furniturePoints = new Point[PROBES];
+    private final Room[] probeRooms = new Room[PROBES];
+    private final Room[] candidateRooms = new Room[PROBES];
+    private final Furniture[] candidateFurniture = new Furniture[PROBES];
+
+    @Override
+    public void generate(int elements, long seed) {
+        Random random = new Random(seed);
+        int roomCount = Math.max(1, elements / 2);
+        int furnitureCount = Math.max(1, elements - roomCount);
+        int columns = (int) Math.ceil(Math.sqrt(roomCount));
+        rooms = new ArrayList<>(roomCount);
+        furniture = new ArrayList<>(furnitureCount);
+        RoomType[] types = RoomType.values();
+        for (int i = 0; i < roomCount; i++) {
+            rooms.add(new Room(10 + (i % columns) * PITCH, 10 + (i / columns) * PITCH, ROOM_SIZE, ROOM_SIZE,
+                    types[i % types.length]));
+        }
+        for (int i = 0; i < furnitureCount; i++) {
+            Room room = rooms.get(i % roomCount);
+            int offset = (i / roomCount) % 2 * 20; // A second piece per room sits below the first
+            furniture.add(Furniture.create(room.x + 5, room.y + 2 + offset, 20, 15, Furniture.TYPES[i % Furniture.TYPES.length]));
+        }
+        planWidth = 20 + columns * PITCH;
+        planHeight = 20 + ((roomCount + columns - 1) / columns) * PITCH;
+
+        canvas.setSize(CANVAS_WIDTH, CANVAS_HEIGHT);
+        canvas.setPlan(rooms, furniture);
+        roomIndex = new SpatialGrid<>(CanvasPanel.GRID_SIZE * 5);
+        for (Room room : rooms) {
+            roomIndex.update(room, room.x - Room.wallThickness, room.y - Room.wallThickness,
+                    room.width + 2 * Room.wallThickness, room.height + 2 * Room.wallThickness);
+        }
+        for (int i = 0; i < PROBES; i++) {
+            Room room = rooms.get(random.nextInt(roomCount));
+            Furniture piece = furniture.get(random.nextInt(furnitureCount));
+            roomPoints[i] = new Point(room.x + ROOM_SIZE - 2, room.y + ROOM_SIZE - 2);
+            furniturePoints[i] = new Point(piece.x + 1, piece.y + 1);
+            probeRooms[i] = room;
+            // Half of the candidates collide with an existing element, half sit in free space
+            boolean collide = i % 2 == 0;
+            int x = collide ? room.x + 10 : planWidth + random.nextInt(PITCH);
+            candidateRooms[i] = new Room(x, room.y, ROOM_SIZE, ROOM_SIZE, RoomType.BEDROOM);
+            candidateFurniture[i] = Furniture.create(collide ? piece.x + 5 : x, piece.y, 20, 15, "Chair");
+        }
+    }
+
+    @Override
+    public boolean roomOverlaps(int probe) {
+        return probeRooms[probe].overlaps(candidateRooms[probe]);
+    }
+
+    @Override
+    public void keepRoomWithinBounds(int probe) {
+        probeRooms[probe].keepWithinBounds(planWidth, planHeight, roomIndex);
+    }
+
+    @Override
+    public Object selectRoom(int probe) {
+        canvas.selectRoom(roomPoints[probe]);
+        return canvas.getSelectedRoom();
+    }
+
+    @Override
+    public Object selectFurniture(int probe) {
+        canvas.selectFurniture(furniturePoints[probe]);
+        return canvas.getSelectedFurniture();
+    }
+
+    @Override
+    public boolean canPlaceRoom(int probe) {
+        return canvas.canPlaceRoom(candidateRooms[probe]);
+    }
+
+    @Override
+    public boolean canPlaceFurniture(int probe) {
+        return canvas.canPlaceFurniture(candidateFurniture[probe]);
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        canvas.paint(g);
+    }
+
+    @Override
+    public void renderAll(Graphics g) {
+        PlanRenderer.drawPlan(g, rooms, furniture);
+    }
+
+    @Override
+    public void savePlan(File file) throws IOException {
+        canvas.writePlan(file);
+    }
+
+    @Override
+    public void loadPlan(File file) throws IOException {
+        canvas.readPlan(file);
+    }
+}
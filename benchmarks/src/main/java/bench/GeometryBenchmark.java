@@ -0,0 +1,28 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Room.overlaps and Room.keepWithinBounds. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GeometryBenchmark {
+    @Benchmark
+    public boolean roomOverlaps(PlanState state) {
+        return state.plan.roomOverlaps(state.nextProbe());
+    }
+
+    @Benchmark
+    public void keepWithinBounds(PlanState state) {
+        state.plan.keepRoomWithinBounds(state.nextProbe());
+    }
+}
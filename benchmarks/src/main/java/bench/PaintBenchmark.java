@@ -0,0 +1,56 @@
+package bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** CanvasPanel painting into an offscreen 1920x1080 image. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+    @State(Scope.Thread)
+    public static class Target {
+        BufferedImage image;
+        Graphics2D g2d;
+
+        @Setup(Level.Trial)
+        public void create() {
+            image = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_ARGB);
+            g2d = image.createGraphics();
+        }
+
+        @TearDown(Level.Trial)
+        public void dispose() {
+            g2d.dispose();
+        }
+    }
+
+    /** A repaint with the static layers already cached. */
+    @Benchmark
+    public BufferedImage paintComponent(PlanState state, Target target) {
+        state.plan.paint(target.g2d);
+        return target.image;
+    }
+
+    /** Drawing every element, as a repaint does after the layers are invalidated. */
+    @Benchmark
+    public BufferedImage renderAll(PlanState state, Target target) {
+        state.plan.renderAll(target.g2d);
+        return target.image;
+    }
+}
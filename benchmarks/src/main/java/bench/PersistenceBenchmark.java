@@ -0,0 +1,57 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** savePlan/loadPlan through the binary plan format. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PersistenceBenchmark {
+    @State(Scope.Thread)
+    public static class PlanFiles {
+        File saveTarget;
+        File loadSource;
+
+        @Setup(Level.Trial)
+        public void create(PlanState state) throws IOException {
+            saveTarget = Files.createTempFile("plan-save", ".fpl").toFile();
+            loadSource = Files.createTempFile("plan-load", ".fpl").toFile();
+            state.plan.savePlan(loadSource);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Files.deleteIfExists(saveTarget.toPath());
+            Files.deleteIfExists(loadSource.toPath());
+        }
+    }
+
+    @Benchmark
+    public File savePlan(PlanState state, PlanFiles files) throws IOException {
+        state.plan.savePlan(files.saveTarget);
+        return files.saveTarget;
+    }
+
+    @Benchmark
+    public PlanHarness loadPlan(PlanState state, PlanFiles files) throws IOException {
+        state.plan.loadPlan(files.loadSource);
+        return state.plan;
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.awt.Graphics;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Operations the benchmarks drive on a generated plan.
+ *
+ * <p>JMH cannot generate code for classes in the default package, and named packages cannot
+ * import the planner's default-package classes, so the benchmarks reach the planner through
+ * this interface. The implementation ({@code BenchmarkHarness}) lives in the default package and
+ * is looked up once per trial; the measured calls are plain interface calls.
+ */
+public interface PlanHarness {
+    int PROBES = 1024;
+
+    /** Build a plan of about {@code elements} rooms and furniture, half of each. */
+    void generate(int elements, long seed);
+
+    boolean roomOverlaps(int probe);
+
+    void keepRoomWithinBounds(int probe);
+
+    Object selectRoom(int probe);
+
+    Object selectFurniture(int probe);
+
+    boolean canPlaceRoom(int probe);
+
+    boolean canPlaceFurniture(int probe);
+
+    /** Paint the canvas component, including its cached layers. */
+    void paint(Graphics g);
+
+    /** Draw every room and furniture of the plan without any caching. */
+    void renderAll(Graphics g);
+
+    void savePlan(File file) throws IOException;
+
+    void loadPlan(File file) throws IOException;
+
+    static PlanHarness create() {
+        try {
+            return (PlanHarness) Class.forName("BenchmarkHarness").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkHarness is missing from the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** A generated plan shared by every benchmark in a trial, plus a rolling probe index. */
+@State(Scope.Benchmark)
+public class PlanState {
+    @Param({"100", "10000", "100000", "1000000"})
+    public int elements;
+
+    public PlanHarness plan;
+    private int probe;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        plan = PlanHarness.create();
+        plan.generate(elements, 42L);
+    }
+
+    /** Cycle through the pre-generated probes so no single cache line is measured. */
+    public int nextProbe() {
+        probe = (probe + 1) & (PlanHarness.PROBES - 1);
+        return probe;
+    }
+}
@@ -0,0 +1,38 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** CanvasPanel hit-testing and the overlap checks behind addRoom/addFurniture. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SelectionBenchmark {
+    @Benchmark
+    public Object selectRoom(PlanState state) {
+        return state.plan.selectRoom(state.nextProbe());
+    }
+
+    @Benchmark
+    public Object selectFurniture(PlanState state) {
+        return state.plan.selectFurniture(state.nextProbe());
+    }
+
+    @Benchmark
+    public boolean addRoomOverlapCheck(PlanState state) {
+        return state.plan.canPlaceRoom(state.nextProbe());
+    }
+
+    @Benchmark
+    public boolean addFurnitureOverlapCheck(PlanState state) {
+        return state.plan.canPlaceFurniture(state.nextProbe());
+    }
+}
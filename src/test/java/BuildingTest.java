@@ -0,0 +1,237 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BuildingTest {
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+
+    @TempDir
+    File dir;
+
+    // Every element of a store as text, sorted; a save groups records by tile, so ids are not kept
+    private static List<String> elements(PlanStore store) {
+        List<String> elements = new ArrayList<>();
+        for (int id = 0; id < store.idLimit(); id++) {
+            byte kind = store.kind(id);
+            if (kind != PlanStore.FREE) {
+                elements.add(kind + " " + store.x(id) + "," + store.y(id) + " " + store.width(id) + "x"
+                        + store.height(id) + " type " + store.type(id) + " rotation " + store.rotation(id));
+            }
+        }
+        elements.sort(null);
+        return elements;
+    }
+
+    private static PlanStore floorPlan(int seed) {
+        Random random = new Random(seed);
+        PlanStore store = new PlanStore();
+        for (int i = 0; i < 200; i++) {
+            store.addRoom(random.nextInt(5000), random.nextInt(5000), 1 + random.nextInt(300), 1 + random.nextInt(300),
+                    RoomType.values()[i % RoomType.values().length]);
+            store.addFurniture(random.nextInt(5000), random.nextInt(5000), 1 + random.nextInt(60), 1 + random.nextInt(60),
+                    i % Furniture.TYPES.length, i & 3);
+        }
+        return store;
+    }
+
+    // A building of the given plans, saved to a file and closed again
+    private File save(String name, PlanStore... plans) throws IOException {
+        File file = new File(dir, name);
+        try (Building building = new Building(plans[0], NO_LIMIT)) {
+            for (int i = 1; i < plans.length; i++) {
+                building.markChanged(building.addFloor(), plans[i]);
+            }
+            building.addShaft(new Building.Shaft(100, 100, 50, 50, Building.STAIRWELL, 0, plans.length - 1));
+            building.addShaft(new Building.Shaft(400, 100, 20, 20, Building.SHAFT, 1, 1));
+            Building.write(building.snapshot(), file, PlanFile.Progress.NONE);
+        }
+        return file;
+    }
+
+    // The plan image of one floor, read through the building's directory
+    private static byte[] floorImage(File file, int floor) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(Building.HEADER_BYTES + (long) floor * Building.FLOOR_ENTRY_BYTES);
+            long offset = in.readLong();
+            byte[] image = new byte[(int) in.readLong()];
+            in.seek(offset);
+            in.readFully(image);
+            return image;
+        }
+    }
+
+    @Test
+    void openingReadsTheDirectoryAndFloorsOnDemand() throws IOException {
+        PlanStore[] plans = {floorPlan(1), floorPlan(2), floorPlan(3)};
+        File file = save("tower.fplb", plans);
+
+        try (Building building = Building.open(file, NO_LIMIT)) {
+            assertEquals(3, building.floorCount());
+            assertEquals(0, building.loadedFloors());
+            assertEquals(1, building.shaftsOn(0).size());
+            assertEquals(2, building.shaftsOn(1).size());
+            assertEquals(Building.STAIRWELL, building.shaftsOn(2).get(0).kind());
+
+            assertEquals(elements(plans[2]), elements(building.floor(2)));
+            assertTrue(building.isLoaded(2));
+            assertFalse(building.isLoaded(0));
+            assertFalse(building.isLoaded(1));
+            assertEquals(elements(plans[0]), elements(building.floor(0)));
+            assertEquals(2, building.loadedFloors());
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedFloorsAreDroppedPastTheBudgetAndReadAgain() throws IOException {
+        PlanStore[] plans = {floorPlan(1), floorPlan(2), floorPlan(3), floorPlan(4)};
+        File file = save("tower.fplb", plans);
+        long floorBytes;
+        try (Building building = Building.open(file, NO_LIMIT)) {
+            floorBytes = building.floor(0).memoryBytes();
+        }
+
+        try (Building building = Building.open(file, 2 * floorBytes + floorBytes / 2)) {
+            building.floor(0);
+            building.floor(1);
+            building.floor(0);
+            building.floor(2);
+            assertEquals(2, building.loadedFloors());
+            assertFalse(building.isLoaded(1));
+            assertTrue(building.loadedBytes() <= 2 * floorBytes + floorBytes / 2);
+
+            assertEquals(elements(plans[1]), elements(building.floor(1)));
+            assertFalse(building.isLoaded(0));
+
+            // Unsaved edits are never dropped, whatever the budget
+            PlanStore edited = floorPlan(5);
+            building.markChanged(3, edited);
+            building.floor(0);
+            building.floor(1);
+            building.floor(2);
+            assertTrue(building.isLoaded(3));
+            assertEquals(elements(edited), elements(building.floor(3)));
+        }
+    }
+
+    @Test
+    void saveCopiesUnchangedFloorsWithoutDecodingThem() throws IOException {
+        PlanStore[] plans = {floorPlan(1), floorPlan(2), floorPlan(3)};
+        File file = save("tower.fplb", plans);
+        File saved = new File(dir, "tower-2.fplb");
+
+        try (Building building = Building.open(file, 0)) {
+            PlanStore edited = floorPlan(4);
+            building.markChanged(1, edited);
+            Building.Snapshot snapshot = building.snapshot();
+            // Edits after the snapshot are neither written nor counted as saved
+            PlanStore later = floorPlan(5);
+            building.markChanged(2, later);
+
+            Building.write(snapshot, saved, PlanFile.Progress.NONE);
+            building.saved(snapshot, saved);
+
+            assertFalse(building.isLoaded(0));
+            assertFalse(building.isLoaded(1)); // Saved now, so the budget of 0 drops it
+            assertTrue(building.isLoaded(2));
+            assertEquals(saved, building.file());
+            assertArrayEquals(floorImage(file, 0), floorImage(saved, 0));
+            assertEquals(elements(edited), elements(building.floor(1)));
+            assertEquals(elements(later), elements(building.floor(2)));
+        }
+
+        try (Building reopened = Building.open(saved, NO_LIMIT)) {
+            assertEquals(elements(plans[0]), elements(reopened.floor(0)));
+            assertEquals(elements(floorPlan(4)), elements(reopened.floor(1)));
+            assertEquals(elements(plans[2]), elements(reopened.floor(2)));
+            assertEquals(2, reopened.shaftsOn(1).size());
+        }
+    }
+
+    // An autosave is read whole, so later autosaves can overwrite its file
+    @Test
+    void readKeepsEveryFloorWithoutTheFile() throws IOException {
+        PlanStore[] plans = {floorPlan(1), floorPlan(2)};
+        File file = save("autosave.fplb", plans);
+
+        try (Building building = Building.read(file, 0)) {
+            assertTrue(file.delete());
+            assertEquals(2, building.loadedFloors());
+            assertNull(building.file());
+            assertEquals(elements(plans[0]), elements(building.floor(0)));
+            assertEquals(elements(plans[1]), elements(building.floor(1)));
+            assertEquals(2, building.shaftsOn(1).size());
+        }
+    }
+
+    @Test
+    void interruptedSaveKeepsTheOldFile() throws IOException {
+        File file = save("tower.fplb", floorPlan(1), floorPlan(2));
+        byte[] before = Files.readAllBytes(file.toPath());
+
+        try (Building building = Building.open(file, NO_LIMIT)) {
+            building.markChanged(0, floorPlan(3));
+            Building.Snapshot snapshot = building.snapshot();
+            Thread.currentThread().interrupt();
+            try {
+                assertThrows(IOException.class, () -> Building.write(snapshot, file, PlanFile.Progress.NONE));
+            } finally {
+                Thread.interrupted();
+            }
+        }
+
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+        assertArrayEquals(new String[] {"tower.fplb"}, dir.list());
+    }
+
+    @Test
+    void corruptFilesAreRejected() throws IOException {
+        byte[] good = Files.readAllBytes(save("tower.fplb", floorPlan(1), floorPlan(2)).toPath());
+        File file = new File(dir, "corrupt.fplb");
+
+        // Another file type
+        File plan = new File(dir, "plan.fpln");
+        PlanFile.write(plan, floorPlan(1));
+        assertThrows(IOException.class, () -> Building.open(plan, NO_LIMIT));
+
+        // A version this code does not know
+        byte[] bytes = good.clone();
+        ByteBuffer.wrap(bytes).putShort(4, (short) 99);
+        Files.write(file.toPath(), bytes);
+        assertThrows(IOException.class, () -> Building.open(file, NO_LIMIT));
+
+        // No floors, or a directory longer than the file
+        for (int floorCount : new int[] {0, -1, Integer.MAX_VALUE}) {
+            bytes = good.clone();
+            ByteBuffer.wrap(bytes).putInt(8, floorCount);
+            Files.write(file.toPath(), bytes);
+            assertThrows(IOException.class, () -> Building.open(file, NO_LIMIT), "floor count " + floorCount);
+        }
+
+        // A floor image running past the end of the file
+        bytes = good.clone();
+        ByteBuffer.wrap(bytes).putLong(Building.HEADER_BYTES + Building.FLOOR_ENTRY_BYTES + 8, good.length);
+        Files.write(file.toPath(), bytes);
+        assertThrows(IOException.class, () -> Building.open(file, NO_LIMIT));
+
+        // Cut off inside the header or a floor
+        for (int length : new int[] {0, Building.HEADER_BYTES - 1, good.length - 1}) {
+            Files.write(file.toPath(), Arrays.copyOf(good, length));
+            assertThrows(IOException.class, () -> Building.open(file, NO_LIMIT), length + " bytes");
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+import javax.swing.SwingUtilities;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CanvasPanelTest {
+    private static CanvasPanel canvas() {
+        CanvasPanel canvas = new CanvasPanel();
+        canvas.setSize(400, 300);
+        return canvas;
+    }
+
+    private static BufferedImage paint(CanvasPanel canvas) {
+        BufferedImage image = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        canvas.paint(g2d);
+        g2d.dispose();
+        return image;
+    }
+
+    // Drags are applied by a Swing timer, so the whole gesture runs on the event thread
+    private static void drag(CanvasPanel canvas, int fromX, int fromY, int toX, int toY) throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            mouse(canvas, MouseEvent.MOUSE_PRESSED, fromX, fromY);
+            mouse(canvas, MouseEvent.MOUSE_DRAGGED, (fromX + toX) / 2, (fromY + toY) / 2);
+            mouse(canvas, MouseEvent.MOUSE_DRAGGED, toX, toY);
+            mouse(canvas, MouseEvent.MOUSE_RELEASED, toX, toY);
+        });
+    }
+
+    private static void mouse(CanvasPanel canvas, int id, int x, int y) {
+        canvas.dispatchEvent(new MouseEvent(canvas, id, System.currentTimeMillis(),
+                id == MouseEvent.MOUSE_RELEASED ? 0 : InputEvent.BUTTON1_DOWN_MASK, x, y, 1, false, MouseEvent.BUTTON1));
+    }
+
+    private static int count(BufferedImage image, Color color) {
+        int count = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (image.getRGB(x, y) == color.getRGB()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Room borders are only drawn in the detailed view, so black pixels tell the two apart
+    @Test
+    void zoomingOutPastTheLodScaleSwitchesToTheOverview() {
+        CanvasPanel canvas = canvas();
+        canvas.addRoom(new Room(40, 40, 200, 150, RoomType.KITCHEN));
+        canvas.addFurniture(Furniture.create(80, 80, 40, 40, "Table"));
+
+        canvas.zoomAt(0, 0, PlanRenderer.LOD_SCALE);
+        assertEquals(PlanRenderer.LOD_SCALE, canvas.getZoom());
+        BufferedImage detailed = paint(canvas);
+        assertTrue(count(detailed, Color.BLACK) > 0);
+        assertTrue(count(detailed, Color.RED) > 0);
+
+        canvas.zoomOut();
+        assertTrue(canvas.getZoom() < PlanRenderer.LOD_SCALE);
+        BufferedImage overview = paint(canvas);
+        assertEquals(0, count(overview, Color.BLACK));
+        assertTrue(count(overview, Color.RED) > 0);
+        assertTrue(count(overview, PlanRenderer.FURNITURE_COLOR) > 0);
+
+        canvas.resetView();
+        assertTrue(count(paint(canvas), Color.BLACK) > 0);
+    }
+
+    @Test
+    void furnitureBelongsToTheRoomThatEnclosesIt() {
+        CanvasPanel canvas = canvas();
+        Room kitchen = new Room(40, 40, 200, 150, RoomType.KITCHEN);
+        canvas.addRoom(kitchen);
+        Furniture table = Furniture.create(80, 80, 40, 40, "Table");
+        Furniture chair = Furniture.create(300, 80, 20, 20, "Chair");
+        Furniture sofa = Furniture.create(220, 200, 40, 40, "Sofa"); // Straddles the wall
+        canvas.addFurniture(table);
+        canvas.addFurniture(chair);
+        canvas.addFurniture(sofa);
+
+        assertSame(kitchen, table.parent);
+        assertNull(chair.parent);
+        assertNull(sofa.parent);
+        assertEquals(List.of(table), kitchen.children);
+    }
+
+    @Test
+    void roomPlacedOverFreeFurnitureTakesItIn() {
+        CanvasPanel canvas = canvas();
+        Furniture table = Furniture.create(80, 80, 40, 40, "Table");
+        canvas.addFurniture(table);
+        assertNull(table.parent);
+
+        Room kitchen = new Room(40, 40, 200, 150, RoomType.KITCHEN);
+        canvas.addRoom(kitchen);
+
+        assertSame(kitchen, table.parent);
+        assertEquals(List.of(table), kitchen.children);
+    }
+
+    @Test
+    void furnitureMovedIntoARoomChangesParent() throws Exception {
+        CanvasPanel canvas = canvas();
+        Room kitchen = new Room(40, 40, 200, 150, RoomType.KITCHEN);
+        canvas.addRoom(kitchen);
+        Furniture chair = Furniture.create(300, 80, 20, 20, "Chair");
+        canvas.addFurniture(chair);
+
+        drag(canvas, 305, 85, 105, 85);
+        assertEquals(100, chair.x);
+        assertSame(kitchen, chair.parent);
+        assertEquals(List.of(chair), kitchen.children);
+
+        // Undo takes it back out of the room
+        canvas.undo();
+        assertEquals(300, chair.x);
+        assertNull(chair.parent);
+        assertTrue(kitchen.children.isEmpty());
+    }
+
+    @Test
+    void movingARoomCarriesItsFurniture() throws Exception {
+        CanvasPanel canvas = canvas();
+        Room kitchen = new Room(40, 40, 100, 100, RoomType.KITCHEN);
+        canvas.addRoom(kitchen);
+        Furniture table = Furniture.create(80, 80, 40, 40, "Table");
+        canvas.addFurniture(table);
+
+        drag(canvas, 50, 50, 250, 100);
+        assertEquals(240, kitchen.x);
+        assertEquals(90, kitchen.y);
+        assertEquals(280, table.x);
+        assertEquals(130, table.y);
+        assertSame(kitchen, table.parent);
+
+        canvas.undo();
+        assertEquals(40, kitchen.x);
+        assertEquals(80, table.x);
+        assertEquals(80, table.y);
+        assertSame(kitchen, table.parent);
+    }
+
+    @Test
+    void arrangingRoomsKeepsTheirFurnitureInside() {
+        CanvasPanel canvas = canvas();
+        Room kitchen = new Room(200, 150, 100, 100, RoomType.KITCHEN);
+        Room bedroom = new Room(40, 40, 100, 80, RoomType.BEDROOM);
+        canvas.addRoom(kitchen);
+        canvas.addRoom(bedroom);
+        Furniture table = Furniture.create(220, 170, 40, 40, "Table");
+        Furniture bed = Furniture.create(50, 50, 60, 40, "Bed");
+        canvas.addFurniture(table);
+        canvas.addFurniture(bed);
+
+        canvas.arrangeRooms();
+
+        assertEquals(20, table.x - kitchen.x);
+        assertEquals(20, table.y - kitchen.y);
+        assertEquals(10, bed.x - bedroom.x);
+        assertEquals(10, bed.y - bedroom.y);
+        assertSame(kitchen, table.parent);
+        assertSame(bedroom, bed.parent);
+    }
+
+    @Test
+    void undoingARoomDeleteBringsBackItsFurniture() {
+        CanvasPanel canvas = canvas();
+        Room kitchen = new Room(40, 40, 200, 150, RoomType.KITCHEN);
+        canvas.addRoom(kitchen);
+        Furniture table = Furniture.create(80, 80, 40, 40, "Table");
+        Furniture chair = Furniture.create(130, 80, 20, 20, "Chair");
+        Furniture commode = Furniture.create(300, 80, 20, 20, "Commode");
+        canvas.addFurniture(table);
+        canvas.addFurniture(chair);
+        canvas.addFurniture(commode);
+
+        canvas.selectRoom(new Point(50, 50));
+        canvas.deleteSelectedRoom();
+        assertEquals(-1, kitchen.storeId);
+        assertEquals(-1, table.storeId);
+        assertEquals(-1, chair.storeId);
+        assertTrue(commode.storeId >= 0);
+        assertEquals(1, canvas.snapshot().furnitureCount());
+
+        canvas.undo();
+        assertTrue(kitchen.storeId >= 0);
+        assertEquals(3, canvas.snapshot().furnitureCount());
+        assertSame(kitchen, table.parent);
+        assertSame(kitchen, chair.parent);
+        assertEquals(2, kitchen.children.size());
+        assertNull(commode.parent);
+
+        // Redo deletes them again, undo restores them again
+        canvas.redo();
+        assertEquals(1, canvas.snapshot().furnitureCount());
+        canvas.undo();
+        assertEquals(2, kitchen.children.size());
+        canvas.selectFurniture(new Point(85, 85));
+        assertSame(table, canvas.getSelectedFurniture());
+    }
+
+    // Tiles of a paged plan are read on the plan-io thread and show up on the event thread afterwards
+    @Test
+    void pagedTilesNearTheViewAreReadInTheBackground(@TempDir File dir) throws Exception {
+        File file = new File(dir, "plan.fpln");
+        Room near = new Room(50, 50, 100, 100, RoomType.KITCHEN);
+        Room far = new Room(100000, 100000, 100, 100, RoomType.BEDROOM);
+        PlanFile.write(file, List.of(near, far), List.of(Furniture.create(60, 60, 20, 20, "Chair")));
+        CanvasPanel canvas = canvas();
+        SwingUtilities.invokeAndWait(() -> canvas.openPagedPlan(file));
+
+        int[] counts = new int[2];
+        for (long deadline = System.currentTimeMillis() + 10_000; counts[0] == 0 && System.currentTimeMillis() < deadline; ) {
+            Thread.sleep(10);
+            SwingUtilities.invokeAndWait(() -> {
+                PlanStore shown = canvas.snapshot();
+                counts[0] = shown.roomCount();
+                counts[1] = shown.furnitureCount();
+            });
+        }
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertTrue(canvas.isPaged());
+    }
+}
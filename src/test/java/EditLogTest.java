@@ -0,0 +1,120 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EditLogTest {
+    // Writes applied states into the element, an int[] {present, x, y}, and remembers the order
+    private final List<int[]> applied = new ArrayList<>();
+    private final EditLog.Target target = (element, present, id, x, y, width, height, rotation) -> {
+        int[] state = (int[]) element;
+        state[0] = present ? 1 : 0;
+        state[1] = x;
+        state[2] = y;
+        applied.add(state);
+    };
+
+    private static void move(EditLog log, int[] element, int x, int y) {
+        log.record(EditLog.MOVE, element, 0, element[1], element[2], 10, 10, 0, 0, x, y, 10, 10, 0);
+        element[1] = x;
+        element[2] = y;
+    }
+
+    @Test
+    void gesturesAreUndoneAndRedoneTogether() {
+        EditLog log = new EditLog();
+        int[] room = {1, 0, 0};
+        int[] chair = {1, 5, 5};
+        move(log, room, 10, 10);
+        move(log, chair, 15, 15);
+        log.endGesture();
+        move(log, room, 20, 20);
+
+        assertTrue(log.undo(target));
+        assertEquals(10, room[1]);
+        assertEquals(15, chair[1]);
+
+        assertTrue(log.undo(target));
+        assertEquals(0, room[1]);
+        assertEquals(5, chair[1]);
+        assertEquals(List.of(room, chair, room), applied); // Newest record first
+        assertFalse(log.undo(target));
+
+        assertTrue(log.redo(target));
+        assertEquals(10, room[1]);
+        assertEquals(15, chair[1]);
+    }
+
+    @Test
+    void addsAndDeletesToggleWhetherTheElementIsOnThePlan() {
+        EditLog log = new EditLog();
+        int[] room = {1, 30, 40};
+        log.record(EditLog.DELETE_ROOM, room, 3, 30, 40, 10, 10, 0, -1, 0, 0, 0, 0, 0);
+
+        log.undo(target);
+        assertEquals(1, room[0]);
+        log.redo(target);
+        assertEquals(0, room[0]);
+    }
+
+    @Test
+    void aNewEditDiscardsWhatWasUndone() {
+        EditLog log = new EditLog();
+        int[] room = {1, 0, 0};
+        move(log, room, 10, 10);
+        log.endGesture();
+        move(log, room, 20, 20);
+        log.undo(target);
+        assertTrue(log.canRedo());
+
+        move(log, room, 30, 30);
+
+        assertFalse(log.canRedo());
+        assertEquals(2, log.size());
+    }
+
+    @Test
+    void fullHistoryDropsTheOldestGestures() {
+        EditLog log = new EditLog(8);
+        int[] room = {1, 0, 0};
+        for (int i = 1; i <= 20; i++) {
+            move(log, room, i, i);
+            log.endGesture();
+        }
+
+        assertTrue(log.size() <= 8);
+        int undone = 0;
+        while (log.undo(target)) {
+            undone++;
+        }
+        assertEquals(log.size(), undone);
+        assertEquals(20 - undone, room[1]);
+    }
+
+    // A bulk import records more than the cap in one gesture; it must stay undoable as a whole
+    @Test
+    void gestureLargerThanTheCapIsKeptWhole() {
+        EditLog log = new EditLog(8);
+        int[] room = {1, 0, 0};
+        move(log, room, 1, 1);
+        log.endGesture();
+        int[][] imported = new int[20][];
+        for (int i = 0; i < imported.length; i++) {
+            imported[i] = new int[] {1, i, i};
+            log.record(EditLog.ADD_ROOM, imported[i], -1, 0, 0, 0, 0, 0, i, i, i, 10, 10, 0);
+        }
+        log.endGesture();
+
+        assertTrue(log.undo(target));
+        for (int[] element : imported) {
+            assertEquals(0, element[0]);
+        }
+        assertTrue(log.redo(target));
+        // The next gesture needs the room, so the import is dropped as a whole
+        move(log, room, 2, 2);
+        assertTrue(log.size() <= 8);
+    }
+}
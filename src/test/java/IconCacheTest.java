@@ -0,0 +1,111 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class IconCacheTest {
+    private static String red;
+
+    // IconCache reads icons from the classpath; draw one and write it next to the test classes
+    @BeforeAll
+    static void drawIcon() throws IOException, URISyntaxException {
+        File classes = new File(IconCacheTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(Color.RED);
+        g2d.fillRect(0, 0, 64, 48);
+        g2d.dispose();
+        ImageIO.write(image, "png", new File(classes, "icon-cache-test.png"));
+        red = "/icon-cache-test.png";
+    }
+
+    @BeforeEach
+    void clear() {
+        IconCache.clear();
+    }
+
+    @Test
+    void iconsAreScaledToTheKeysSize() {
+        BufferedImage icon = IconCache.get(new IconCache.Key(red, 30, 20));
+        assertEquals(30, icon.getWidth());
+        assertEquals(20, icon.getHeight());
+        assertEquals(Color.RED.getRGB(), icon.getRGB(15, 10));
+    }
+
+    @Test
+    void equalKeysShareOneImage() {
+        BufferedImage icon = IconCache.get(new IconCache.Key(red, 30, 20));
+        assertSame(icon, IconCache.get(new IconCache.Key(red, 30, 20)));
+        assertNotSame(icon, IconCache.get(new IconCache.Key(red, 20, 30)));
+    }
+
+    @Test
+    void leastRecentlyUsedSizeIsEvictedAtTheBound() {
+        IconCache.Key first = new IconCache.Key(red, 1, 1);
+        IconCache.Key second = new IconCache.Key(red, 1, 2);
+        BufferedImage firstIcon = IconCache.get(first);
+        BufferedImage secondIcon = IconCache.get(second);
+        for (int i = 2; i < IconCache.MAX_SCALED_ENTRIES; i++) {
+            IconCache.get(new IconCache.Key(red, 2, i));
+        }
+        // The cache is full; using the first key makes the second the least recently used
+        assertSame(firstIcon, IconCache.get(first));
+
+        IconCache.get(new IconCache.Key(red, 3, 3));
+
+        assertSame(firstIcon, IconCache.get(first));
+        assertNotSame(secondIcon, IconCache.get(second));
+    }
+
+    @Test
+    void prefetchedIconsAreCachedWhenFirstDrawn() {
+        List<IconCache.Key> keys = List.of(new IconCache.Key(red, 30, 20), new IconCache.Key(red, 20, 30),
+                new IconCache.Key(red, 0, 0));
+        IconCache.prefetch(keys).join();
+
+        PlanMetrics.reset();
+        assertEquals(30, IconCache.get(keys.get(0)).getWidth());
+        assertEquals(30, IconCache.get(keys.get(1)).getHeight());
+        assertEquals(2, PlanMetrics.iconHits.sum());
+        assertEquals(0, PlanMetrics.iconMisses.sum());
+    }
+
+    // Repeated keys, overlapping prefetches and gets from other threads all share one load per key
+    @Test
+    void eachKeyIsScaledOnceHoweverOftenItIsRequested() {
+        List<IconCache.Key> keys = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            keys.add(new IconCache.Key(red, 10 + i % 8, 10));
+        }
+        PlanMetrics.reset();
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(IconCache.prefetch(keys));
+            requests.add(CompletableFuture.runAsync(() -> keys.forEach(IconCache::get)));
+        }
+        requests.forEach(CompletableFuture::join);
+
+        assertEquals(8, PlanMetrics.iconLoads.sum());
+        assertEquals(17, IconCache.get(keys.get(7)).getWidth());
+    }
+
+    @Test
+    void missingIconsAndEmptySizesDrawNothing() {
+        assertNull(IconCache.get(new IconCache.Key("/no-such-icon.png", 30, 20)));
+        assertNull(IconCache.get(new IconCache.Key(red, 0, 20)));
+    }
+}
@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedPlanTest {
+    @TempDir
+    File dir;
+
+    // Rooms spread over many tiles, with a few large enough to reach into neighbouring tiles
+    private File writePlan() throws IOException {
+        Random random = new Random(7);
+        List<Room> rooms = new ArrayList<>();
+        List<Furniture> furniture = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int size = i % 100 == 0 ? 1500 : 40;
+            rooms.add(new Room(random.nextInt(40000) - 20000, random.nextInt(40000) - 20000, size, size, RoomType.LIVINGROOM));
+            furniture.add(Furniture.create(random.nextInt(40000) - 20000, random.nextInt(40000) - 20000, 20, 20, "Chair"));
+        }
+        File file = new File(dir, "plan.fpln");
+        PlanFile.write(file, rooms, furniture);
+        return file;
+    }
+
+    // Overwrite one int of the tile directory
+    private static void patchDirectory(File file, int tile, int field, int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(PlanFile.TILED_HEADER_BYTES + (long) tile * PlanFile.TILE_ENTRY_BYTES + field * 4L);
+            raf.writeInt(value);
+        }
+    }
+
+    private static int directoryInt(File file, int tile, int field) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(PlanFile.TILED_HEADER_BYTES + (long) tile * PlanFile.TILE_ENTRY_BYTES + field * 4L);
+            return raf.readInt();
+        }
+    }
+
+    @Test
+    void everyRecordIsInOneTile() throws IOException {
+        try (MappedPlan plan = new MappedPlan(writePlan())) {
+            List<Room> rooms = new ArrayList<>();
+            List<Furniture> furniture = new ArrayList<>();
+            for (int tile = 0; tile < plan.tileCount(); tile++) {
+                plan.readTile(tile, rooms, furniture);
+            }
+            assertEquals(4000, plan.elementCount());
+            assertEquals(2000, rooms.size());
+            assertEquals(2000, furniture.size());
+        }
+    }
+
+    @Test
+    void tilesTouchingMatchesAScanOfEveryTile() throws IOException {
+        try (MappedPlan plan = new MappedPlan(writePlan())) {
+            Random random = new Random(11);
+            for (int i = 0; i < 200; i++) {
+                int extent = i % 10 == 0 ? 60000 : 200 + random.nextInt(3000);
+                Rectangle area = new Rectangle(random.nextInt(50000) - 25000, random.nextInt(50000) - 25000, extent, extent);
+                List<Integer> expected = new ArrayList<>();
+                for (int tile = 0; tile < plan.tileCount(); tile++) {
+                    if (plan.tileTouches(tile, area)) {
+                        expected.add(tile);
+                    }
+                }
+                int[] found = plan.tilesTouching(area);
+                Arrays.sort(found);
+                assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), found, area.toString());
+            }
+        }
+    }
+
+    // A tile that does not touch an area must not hold anything that reaches into it
+    @Test
+    void untouchedTilesHoldNothingInTheArea() throws IOException {
+        try (MappedPlan plan = new MappedPlan(writePlan())) {
+            Random random = new Random(11);
+            for (int i = 0; i < 100; i++) {
+                Rectangle area = new Rectangle(random.nextInt(50000) - 25000, random.nextInt(50000) - 25000,
+                        200 + random.nextInt(3000), 200 + random.nextInt(3000));
+                for (int tile = 0; tile < plan.tileCount(); tile++) {
+                    if (plan.tileTouches(tile, area)) {
+                        continue;
+                    }
+                    List<Room> rooms = new ArrayList<>();
+                    List<Furniture> furniture = new ArrayList<>();
+                    plan.readTile(tile, rooms, furniture);
+                    for (Room room : rooms) {
+                        assertFalse(area.intersects(room.x, room.y, room.width, room.height), area.toString());
+                    }
+                    for (Furniture piece : furniture) {
+                        assertFalse(area.intersects(piece.x, piece.y, piece.width, piece.height), area.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void rangesPastTheRecordsAreRejected() throws IOException {
+        File file = writePlan();
+        patchDirectory(file, 0, 3, 5000); // roomCount of the first tile
+        assertThrows(IOException.class, () -> new MappedPlan(file).close());
+
+        File other = writePlan();
+        patchDirectory(other, 1, 4, -1); // firstFurniture of the second tile
+        assertThrows(IOException.class, () -> new MappedPlan(other).close());
+    }
+
+    @Test
+    void countsThatDoNotAddUpAreRejected() throws IOException {
+        File file = writePlan();
+        // Still within the records, but the tiles no longer cover every room
+        patchDirectory(file, 0, 3, directoryInt(file, 0, 3) - 1);
+        assertThrows(IOException.class, () -> new MappedPlan(file).close());
+    }
+
+    @Test
+    void duplicateTilesAreRejected() throws IOException {
+        File file = writePlan();
+        patchDirectory(file, 1, 0, directoryInt(file, 0, 0));
+        patchDirectory(file, 1, 1, directoryInt(file, 0, 1));
+        assertThrows(IOException.class, () -> new MappedPlan(file).close());
+    }
+
+    @Test
+    void versionOneFilesCannotBePaged() throws IOException {
+        File file = new File(dir, "old.fpln");
+        ByteBuffer header = ByteBuffer.allocate(PlanFile.TILED_HEADER_BYTES);
+        header.putInt(PlanFile.MAGIC).putShort((short) 1);
+        Files.write(file.toPath(), header.array());
+        assertThrows(IOException.class, () -> new MappedPlan(file).close());
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PlanAnalyticsTest {
+    private static final double EPSILON = 1e-9;
+
+    // Smallest gap between two pieces with the same parent, the way PlanAnalytics measures it
+    private static double clearance(List<Furniture> pieces, Room parent, boolean anyParent) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < pieces.size(); i++) {
+            Furniture a = pieces.get(i);
+            if (!anyParent && a.parent != parent) {
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                Furniture b = pieces.get(j);
+                if (b.parent != a.parent) {
+                    continue;
+                }
+                long dx = Math.max(0, Math.max((long) b.x - (a.x + a.width), (long) a.x - (b.x + b.width)));
+                long dy = Math.max(0, Math.max((long) b.y - (a.y + a.height), (long) a.y - (b.y + b.height)));
+                best = Math.min(best, dx * dx + dy * dy);
+            }
+        }
+        long range = PlanAnalytics.CLEARANCE_RANGE;
+        return best < range * range ? Math.sqrt(best) : PlanAnalytics.CLEAR;
+    }
+
+    private static void moveTo(Furniture piece, Room parent) {
+        if (piece.parent != null) {
+            piece.parent.children.remove(piece);
+        }
+        piece.parent = parent;
+        if (parent != null) {
+            parent.children.add(piece);
+        }
+    }
+
+    @Test
+    void areasAndCountsFollowChanges() {
+        PlanAnalytics analytics = new PlanAnalytics();
+        Room kitchen = new Room(0, 0, 100, 50, RoomType.KITCHEN);
+        analytics.roomChanged(kitchen);
+        Furniture table = Furniture.create(10, 10, 20, 10, "Table");
+        moveTo(table, kitchen);
+        analytics.furnitureChanged(table);
+
+        assertEquals(5000, analytics.roomArea());
+        assertEquals(4800, analytics.freeArea(kitchen));
+        assertEquals(1, analytics.furnitureCount(kitchen));
+
+        kitchen.width = 200;
+        analytics.roomChanged(kitchen);
+        table.width = 40;
+        analytics.furnitureChanged(table);
+        assertEquals(10000, analytics.area(RoomType.KITCHEN));
+        assertEquals(9600, analytics.freeArea());
+
+        moveTo(table, null);
+        analytics.furnitureChanged(table);
+        assertEquals(10000, analytics.freeArea(kitchen));
+        assertEquals(0, analytics.furnitureCount(kitchen));
+
+        analytics.furnitureRemoved(table);
+        analytics.roomRemoved(kitchen);
+        assertEquals(0, analytics.roomArea());
+        assertEquals(0, analytics.furnitureCount());
+        assertEquals(0, analytics.rooms(RoomType.KITCHEN));
+    }
+
+    @Test
+    void clearanceIsMeasuredWithinOneRoom() {
+        PlanAnalytics analytics = new PlanAnalytics();
+        Room room = new Room(0, 0, 1000, 1000, RoomType.LIVINGROOM);
+        analytics.roomChanged(room);
+        Furniture sofa = Furniture.create(100, 100, 50, 50, "Sofa");
+        Furniture chair = Furniture.create(180, 140, 20, 20, "Chair");
+        Furniture loose = Furniture.create(160, 100, 10, 10, "Chair");
+        moveTo(sofa, room);
+        moveTo(chair, room);
+        analytics.furnitureChanged(sofa);
+        analytics.furnitureChanged(chair);
+        analytics.furnitureChanged(loose); // Outside any room, so not a neighbour of the others
+
+        assertEquals(30, analytics.minClearance(room), EPSILON);
+        assertEquals(30, analytics.minClearance(), EPSILON);
+
+        chair.x = 153;
+        chair.y = 154;
+        analytics.furnitureChanged(chair);
+        assertEquals(5, analytics.minClearance(room), EPSILON);
+
+        chair.x = 900;
+        analytics.furnitureChanged(chair);
+        assertEquals(PlanAnalytics.CLEAR, analytics.minClearance(room));
+    }
+
+    // Random moves, room changes and removals, checking after each that every room's clearance and the
+    // plan's agree with measuring all pairs; the neighbour bookkeeping must survive every kind of event
+    @Test
+    void randomEditsMatchMeasuringEveryPair() {
+        PlanAnalytics analytics = new PlanAnalytics();
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Room room = new Room(0, 0, 2000, 2000, RoomType.BEDROOM);
+            rooms.add(room);
+            analytics.roomChanged(room);
+        }
+        List<Furniture> placed = new ArrayList<>();
+        List<Furniture> all = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            all.add(Furniture.create(0, 0, 10, 10, "Chair"));
+        }
+        Random random = new Random(23);
+        for (int step = 0; step < 4000; step++) {
+            Furniture piece = all.get(random.nextInt(all.size()));
+            if (placed.contains(piece) && random.nextInt(6) == 0) {
+                analytics.furnitureRemoved(piece);
+                moveTo(piece, null);
+                placed.remove(piece);
+            } else {
+                piece.x = random.nextInt(1500);
+                piece.y = random.nextInt(1500);
+                piece.width = 5 + random.nextInt(60);
+                piece.height = 5 + random.nextInt(60);
+                int parent = random.nextInt(rooms.size() + 1);
+                moveTo(piece, parent < rooms.size() ? rooms.get(parent) : null);
+                analytics.furnitureChanged(piece);
+                if (!placed.contains(piece)) {
+                    placed.add(piece);
+                }
+            }
+            for (Room room : rooms) {
+                assertEquals(clearance(placed, room, false), analytics.minClearance(room), EPSILON, "step " + step);
+            }
+            assertEquals(clearance(placed, null, true), analytics.minClearance(), EPSILON, "step " + step);
+            assertEquals(placed.size(), analytics.furnitureCount());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlanFileTest {
+    @TempDir
+    File dir;
+
+    // Every element of a store as text, sorted; a save groups records by tile, so ids are not kept
+    private static List<String> elements(PlanStore store) {
+        List<String> elements = new ArrayList<>();
+        for (int id = 0; id < store.idLimit(); id++) {
+            byte kind = store.kind(id);
+            if (kind != PlanStore.FREE) {
+                elements.add(kind + " " + store.x(id) + "," + store.y(id) + " " + store.width(id) + "x"
+                        + store.height(id) + " type " + store.type(id) + " rotation " + store.rotation(id));
+            }
+        }
+        elements.sort(null);
+        return elements;
+    }
+
+    private static PlanStore randomPlan(int count) {
+        Random random = new Random(count);
+        PlanStore store = new PlanStore();
+        RoomType[] types = RoomType.values();
+        for (int i = 0; i < count; i++) {
+            store.addRoom(random.nextInt(20000) - 10000, random.nextInt(20000) - 10000, 1 + random.nextInt(500),
+                    1 + random.nextInt(500), types[i % types.length]);
+            store.addFurniture(random.nextInt(20000) - 10000, random.nextInt(20000) - 10000, 1 + random.nextInt(80),
+                    1 + random.nextInt(80), i % Furniture.TYPES.length, i & 3);
+        }
+        // Leave some free ids behind
+        for (int id = 0; id < store.idLimit(); id += 7) {
+            store.remove(id);
+        }
+        return store;
+    }
+
+    // More records than one write buffer holds
+    @Test
+    void versionTwoRoundTrip() throws IOException {
+        PlanStore plan = randomPlan(5000);
+        File file = new File(dir, "plan.fpln");
+
+        PlanFile.write(file, plan);
+
+        PlanStore read = PlanFile.readStore(file);
+        assertEquals(plan.roomCount(), read.roomCount());
+        assertEquals(plan.furnitureCount(), read.furnitureCount());
+        assertEquals(elements(plan), elements(read));
+    }
+
+    @Test
+    void roomAndFurnitureListsWriteTheSamePlan() throws IOException {
+        PlanStore plan = randomPlan(300);
+        File file = new File(dir, "plan.fpln");
+
+        PlanFile.write(file, plan.createRooms(), plan.createFurniture());
+
+        assertEquals(elements(plan), elements(PlanFile.readStore(file)));
+    }
+
+    @Test
+    void progressCountsUpToEveryRecord() throws IOException {
+        PlanStore plan = randomPlan(5000);
+        List<Long> done = new ArrayList<>();
+        long total = plan.roomCount() + plan.furnitureCount();
+
+        PlanFile.write(new File(dir, "plan.fpln"), plan, (written, of) -> {
+            assertEquals(total, of);
+            done.add(written);
+        });
+
+        assertTrue(done.size() > 1);
+        List<Long> sorted = new ArrayList<>(done);
+        sorted.sort(null);
+        assertEquals(sorted, done);
+        assertEquals(total, done.get(done.size() - 1));
+    }
+
+    @Test
+    void interruptedSaveKeepsTheOldFile() throws IOException {
+        File file = new File(dir, "plan.fpln");
+        PlanStore old = randomPlan(10);
+        PlanFile.write(file, old);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(IOException.class, () -> PlanFile.write(file, randomPlan(5000)));
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertEquals(elements(old), elements(PlanFile.readStore(file)));
+        assertArrayEquals(new String[] {"plan.fpln"}, dir.list());
+    }
+
+    @Test
+    void emptyPlanRoundTrip() throws IOException {
+        File file = new File(dir, "plan.fpln");
+        PlanFile.write(file, new PlanStore());
+        assertEquals(PlanFile.TILED_HEADER_BYTES, file.length());
+        assertEquals(0, PlanFile.readStore(file).idLimit());
+    }
+
+    @Test
+    void versionOneFilesStillRead() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PlanFile.HEADER_BYTES + 2 * PlanFile.RECORD_BYTES);
+        buffer.putInt(PlanFile.MAGIC).putShort((short) 1).putShort((short) 0).putInt(1).putInt(1);
+        buffer.putInt(-40).putInt(30).putInt(200).putInt(100).putShort((short) RoomType.KITCHEN.ordinal()).putShort((short) 0);
+        buffer.putInt(10).putInt(20).putInt(30).putInt(40).putShort((short) 2).putShort((short) 3);
+        File file = new File(dir, "old.fpln");
+        Files.write(file.toPath(), buffer.array());
+
+        PlanStore read = PlanFile.readStore(file);
+
+        assertEquals(List.of(PlanStore.ROOM + " -40,30 200x100 type " + RoomType.KITCHEN.ordinal() + " rotation 0",
+                PlanStore.FURNITURE + " 10,20 30x40 type 2 rotation 3"), elements(read));
+    }
+
+    @Test
+    void planEmbeddedAtAnOffsetReads() throws IOException {
+        PlanStore plan = randomPlan(300);
+        File file = new File(dir, "building.fpln");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ)) {
+            channel.write(ByteBuffer.allocate(1000));
+            PlanFile.write(channel, plan, PlanFile.Progress.NONE);
+            assertEquals(elements(plan), elements(PlanFile.readStore(channel, 1000)));
+        }
+    }
+
+    @Test
+    void truncatedFilesAreRejected() throws IOException {
+        File file = new File(dir, "plan.fpln");
+        PlanFile.write(file, randomPlan(100));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(file.length() - 3);
+        }
+        assertThrows(IOException.class, () -> PlanFile.readStore(file));
+    }
+
+    // Fails the test if a read gets as far as sizing a store
+    private static final PlanFile.RecordSink NO_BEGIN = new PlanFile.RecordSink() {
+        public void begin(int roomCount, int furnitureCount) {
+            throw new AssertionError("Began a plan of " + roomCount + " rooms and " + furnitureCount + " furniture");
+        }
+
+        public void room(int x, int y, int width, int height, RoomType type) {
+        }
+
+        public void furniture(int x, int y, int width, int height, int type, int rotation) {
+        }
+    };
+
+    // Counts that the file is too short to hold are rejected before a store is sized for them
+    @Test
+    void headerCountsPastTheEndOfTheFileAreRejected() throws IOException {
+        File file = new File(dir, "plan.fpln");
+        PlanFile.write(file, randomPlan(100));
+        byte[] good = Files.readAllBytes(file.toPath());
+        // roomCount, furnitureCount and, in version 2, tileCount
+        for (int field : new int[] {8, 12, 24}) {
+            for (int count : new int[] {Integer.MAX_VALUE, 1 << 24, 201, -1}) {
+                byte[] bytes = good.clone();
+                ByteBuffer.wrap(bytes).putInt(field, count);
+                Files.write(file.toPath(), bytes);
+                assertThrows(IOException.class, () -> PlanFile.read(file, NO_BEGIN), "field " + field + " = " + count);
+            }
+        }
+
+        File old = new File(dir, "old.fpln");
+        Files.write(old.toPath(), ByteBuffer.allocate(PlanFile.HEADER_BYTES + PlanFile.RECORD_BYTES)
+                .putInt(PlanFile.MAGIC).putShort((short) 1).putShort((short) 0).putInt(1).putInt(1).array());
+        assertThrows(IOException.class, () -> PlanFile.read(old, NO_BEGIN));
+    }
+
+    @Test
+    void unknownFilesAndVersionsAreRejected() throws IOException {
+        File garbage = new File(dir, "garbage.fpln");
+        Files.write(garbage.toPath(), new byte[64]);
+        assertThrows(IOException.class, () -> PlanFile.readStore(garbage));
+
+        File future = new File(dir, "future.fpln");
+        Files.write(future.toPath(), ByteBuffer.allocate(64).putInt(PlanFile.MAGIC).putShort((short) 9).array());
+        assertThrows(IOException.class, () -> PlanFile.readStore(future));
+
+        File badType = new File(dir, "type.fpln");
+        ByteBuffer buffer = ByteBuffer.allocate(PlanFile.HEADER_BYTES + PlanFile.RECORD_BYTES);
+        buffer.putInt(PlanFile.MAGIC).putShort((short) 1).putShort((short) 0).putInt(1).putInt(0);
+        buffer.putInt(0).putInt(0).putInt(10).putInt(10).putShort((short) RoomType.values().length).putShort((short) 0);
+        Files.write(badType.toPath(), buffer.array());
+        assertThrows(IOException.class, () -> PlanFile.readStore(badType));
+    }
+}
@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlanImporterTest {
+    @TempDir
+    File dir;
+
+    private File file(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    void sweepFindsTheSamePairsAsCheckingEveryPair() {
+        Random random = new Random(3);
+        int count = 3000;
+        int[] lefts = new int[count];
+        int[] tops = new int[count];
+        int[] rights = new int[count];
+        int[] bottoms = new int[count];
+        for (int i = 0; i < count; i++) {
+            lefts[i] = random.nextInt(20000) - 10000;
+            tops[i] = random.nextInt(20000) - 10000;
+            // Mostly small, some long and thin in either direction, on a coarse grid so edges often touch
+            rights[i] = lefts[i] + (i % 50 == 0 ? 5000 : 10 * (1 + random.nextInt(30)));
+            bottoms[i] = tops[i] + (i % 70 == 0 ? 5000 : 10 * (1 + random.nextInt(30)));
+            lefts[i] -= lefts[i] % 10;
+            tops[i] -= tops[i] % 10;
+        }
+
+        int[][] partners = PlanImporter.overlaps(lefts, tops, rights, bottoms);
+
+        int pairs = 0;
+        for (int i = 0; i < count; i++) {
+            int[] expected = new int[i];
+            int found = 0;
+            for (int j = 0; j < i; j++) {
+                if (lefts[i] < rights[j] && lefts[j] < rights[i] && tops[i] < bottoms[j] && tops[j] < bottoms[i]) {
+                    expected[found++] = j;
+                }
+            }
+            int[] actual = partners[i].clone();
+            Arrays.sort(actual);
+            assertArrayEquals(Arrays.copyOf(expected, found), actual, "rectangle " + i);
+            pairs += found;
+        }
+        assertTrue(pairs > 0);
+    }
+
+    @Test
+    void touchingEdgesDoNotOverlap() {
+        int[][] partners = PlanImporter.overlaps(new int[] {0, 100, 0}, new int[] {0, 0, 100},
+                new int[] {100, 200, 100}, new int[] {100, 100, 200});
+        assertEquals(0, partners[1].length + partners[2].length);
+    }
+
+    @Test
+    void overlappingElementsOfABatchAreRejected() throws IOException {
+        File csv = file("plan.csv", "kind,type,x,y,width,height\n"
+                + "room,BEDROOM,0,0,200,200\n"
+                + "room,KITCHEN,100,100,200,200\n"
+                + "room,BATHROOM,1000,0,100,100\n");
+
+        PlanImporter.Batch batch = PlanImporter.read(csv);
+        String report = batch.accept(room -> true, piece -> true);
+
+        assertEquals(2, batch.rooms.size());
+        assertEquals(RoomType.BATHROOM, batch.rooms.get(1).type);
+        assertTrue(report.contains("Line 3: room overlaps line 2"), report);
+    }
+
+    @Test
+    void jsonEscapesBecomeControlCharacters() throws IOException {
+        // The type names below are invalid, so each escape shows up in the report exactly as decoded
+        File json = file("plan.json", "[{\"kind\": \"room\", \"type\": \"a\\rb\\bc\\fd\\ne\\tf\\/g\\\"h\\\\i\\u0041\","
+                + " \"x\": 0, \"y\": 0, \"width\": 10, \"height\": 10}]");
+
+        String report = PlanImporter.read(json).accept(room -> true, piece -> true);
+
+        assertTrue(report.contains("'a\rb\bc\fd\ne\tf/g\"h\\iA'"), report);
+    }
+
+    @Test
+    void unknownEscapesAreRejected() throws IOException {
+        File json = file("plan.json", "[{\"kind\": \"ro\\qom\"}]");
+        assertThrows(IOException.class, () -> PlanImporter.read(json));
+    }
+}
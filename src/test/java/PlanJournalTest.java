@@ -0,0 +1,180 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlanJournalTest {
+    @TempDir
+    File dir;
+
+    private static Room room(int id, int x, int y) {
+        Room room = new Room(x, y, 100, 80, RoomType.KITCHEN);
+        room.storeId = id;
+        return room;
+    }
+
+    private static Furniture furniture(int id, int x, int y) {
+        Furniture furniture = Furniture.create(x, y, 20, 30, "Chair");
+        furniture.rotation = 1;
+        furniture.storeId = id;
+        return furniture;
+    }
+
+    private static PlanStore plan(Object... elements) {
+        PlanStore store = new PlanStore();
+        for (Object element : elements) {
+            if (element instanceof Room room) {
+                store.put(room);
+            } else {
+                store.put((Furniture) element);
+            }
+        }
+        return store;
+    }
+
+    private PlanJournal snapshotted(File file, PlanStore plan, int idLimit) throws IOException {
+        PlanJournal journal = new PlanJournal(file);
+        journal.writeSnapshot(plan, idLimit, journal.startSnapshot());
+        return journal;
+    }
+
+    @Test
+    void replayRebuildsSnapshotAndLaterChanges() throws IOException {
+        File file = new File(dir, "plan.journal");
+        Room kitchen = room(0, 10, 20);
+        Furniture chair = furniture(2, 30, 40);
+        try (PlanJournal journal = snapshotted(file, plan(kitchen, chair), 3)) {
+            kitchen.x = 50;
+            journal.append(PlanJournal.SET, 0, kitchen);
+            journal.append(PlanJournal.REMOVE, 2, chair);
+            journal.append(PlanJournal.PUT, 1, room(1, 300, 0));
+        }
+
+        PlanStore store = PlanJournal.replay(file);
+
+        assertEquals(2, store.roomCount());
+        assertEquals(0, store.furnitureCount());
+        assertEquals(50, store.x(0));
+        assertEquals(RoomType.KITCHEN, store.roomType(0));
+        assertEquals(300, store.x(1));
+        assertEquals(PlanStore.FREE, store.kind(2));
+    }
+
+    @Test
+    void recordsAppendedDuringASnapshotFollowIt() throws IOException {
+        File file = new File(dir, "plan.journal");
+        Room kitchen = room(0, 10, 20);
+        try (PlanJournal journal = snapshotted(file, plan(kitchen), 1)) {
+            int ticket = journal.startSnapshot();
+            Furniture chair = furniture(1, 30, 40);
+            journal.append(PlanJournal.PUT, 1, chair);
+            // Still the old file until the snapshot is written
+            assertEquals(PlanJournal.HEADER_BYTES + PlanJournal.RECORD_BYTES, file.length());
+            journal.writeSnapshot(plan(kitchen), 1, ticket);
+        }
+
+        PlanStore store = PlanJournal.replay(file);
+
+        assertEquals(1, store.roomCount());
+        assertEquals(1, store.furnitureCount());
+        assertEquals(1, store.rotation(1));
+        assertEquals("Chair", store.furnitureType(1));
+    }
+
+    @Test
+    void outdatedSnapshotIsDropped() throws IOException {
+        File file = new File(dir, "plan.journal");
+        PlanJournal journal = new PlanJournal(file);
+        int ticket = journal.startSnapshot();
+        journal.delete();
+        journal.writeSnapshot(plan(room(0, 0, 0)), 1, ticket);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    void tornRecordAtTheEndIsIgnored() throws IOException {
+        File file = new File(dir, "plan.journal");
+        try (PlanJournal journal = snapshotted(file, plan(room(0, 10, 20)), 1)) {
+            journal.append(PlanJournal.PUT, 1, room(1, 200, 0));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(file.length() - 5);
+        }
+
+        PlanStore store = PlanJournal.replay(file);
+
+        assertEquals(1, store.roomCount());
+        assertEquals(10, store.x(0));
+    }
+
+    @Test
+    void replayStopsAtAnIdPastTheBound() throws IOException {
+        File file = new File(dir, "plan.journal");
+        try (PlanJournal journal = snapshotted(file, plan(room(0, 10, 20)), 1)) {
+            journal.append(PlanJournal.PUT, 1, room(1, 200, 0));
+            // A corrupt id would otherwise size the store for a billion elements
+            journal.append(PlanJournal.PUT, 1 << 30, room(1 << 30, 400, 0));
+            journal.append(PlanJournal.PUT, 2, room(2, 600, 0));
+        }
+
+        PlanStore store = PlanJournal.replay(file);
+
+        assertEquals(2, store.roomCount());
+        assertEquals(2, store.idLimit());
+    }
+
+    @Test
+    void replayStopsAtAMalformedRecord() throws IOException {
+        File file = new File(dir, "plan.journal");
+        try (PlanJournal journal = snapshotted(file, plan(room(0, 10, 20)), 1)) {
+            journal.append(PlanJournal.PUT, 1, room(1, 200, 0));
+        }
+        Files.write(file.toPath(), new byte[PlanJournal.RECORD_BYTES * 2], StandardOpenOption.APPEND);
+
+        assertEquals(2, PlanJournal.replay(file).roomCount());
+    }
+
+    @Test
+    void sparseIdsWithinTheHeaderLimitReplay() throws IOException {
+        File file = new File(dir, "plan.journal");
+        try (PlanJournal journal = snapshotted(file, plan(room(0, 10, 20), room(5000, 30, 40)), 9000)) {
+            journal.append(PlanJournal.PUT, 8999, room(8999, 50, 60));
+        }
+
+        PlanStore store = PlanJournal.replay(file);
+
+        assertEquals(3, store.roomCount());
+        assertEquals(30, store.x(5000));
+        assertEquals(50, store.x(8999));
+    }
+
+    @Test
+    void versionOneJournalsStillReplay() throws IOException {
+        File file = new File(dir, "plan.journal");
+        ByteBuffer buffer = ByteBuffer.allocate(8 + PlanJournal.RECORD_BYTES);
+        buffer.putInt(PlanJournal.MAGIC).putShort((short) 1).putShort((short) 0);
+        buffer.put(PlanJournal.PUT).put(PlanStore.ROOM).put((byte) 0).put((byte) 0).putInt(0)
+                .putInt(10).putInt(20).putInt(100).putInt(80).putShort((short) RoomType.BATHROOM.ordinal()).putShort((short) 0);
+        Files.write(file.toPath(), buffer.array());
+
+        PlanStore store = PlanJournal.replay(file);
+
+        assertEquals(1, store.roomCount());
+        assertEquals(RoomType.BATHROOM, store.roomType(0));
+    }
+
+    @Test
+    void unknownFilesAreRejected() throws IOException {
+        File file = new File(dir, "plan.journal");
+        Files.write(file.toPath(), new byte[64]);
+        assertThrows(IOException.class, () -> PlanJournal.replay(file));
+    }
+}
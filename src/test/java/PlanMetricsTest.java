@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PlanMetricsTest {
+    // Upper end of a value's bucket: within 1/32 of it above the exact range, never below it
+    private static void assertWithinBucket(long value, long found) {
+        assertTrue(found >= value && found - value <= value / 32, value + " reported as " + found);
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        PlanMetrics.Histogram histogram = new PlanMetrics.Histogram();
+        for (long value = 0; value < 64; value++) {
+            histogram.record(value);
+        }
+        assertEquals(64, histogram.count());
+        assertEquals(63, histogram.max());
+        assertEquals(31, histogram.percentile(50));
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(63, histogram.percentile(100));
+    }
+
+    // Values on both sides of every power of two land in a bucket that reports them within the resolution
+    @Test
+    void bucketBoundariesKeepTheResolution() {
+        for (int bit = 5; bit < 62; bit++) {
+            for (long value : new long[] {(1L << bit) - 1, 1L << bit, (1L << bit) + 1, (3L << bit) / 2}) {
+                PlanMetrics.Histogram histogram = new PlanMetrics.Histogram();
+                histogram.record(value);
+                histogram.record(Long.MAX_VALUE); // Keeps max from capping the first bucket
+                assertWithinBucket(value, histogram.percentile(50));
+            }
+        }
+    }
+
+    @Test
+    void percentilesOfAUniformSpread() {
+        PlanMetrics.Histogram histogram = new PlanMetrics.Histogram();
+        Random random = new Random(1);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000 + random.nextInt(1_000_000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertWithinBucket(values[49_999], histogram.percentile(50));
+        assertWithinBucket(values[98_999], histogram.percentile(99));
+        assertEquals(values[values.length - 1], histogram.percentile(100));
+        assertEquals(values[values.length - 1], histogram.max());
+    }
+
+    @Test
+    void negativeDurationsCountAsZero() {
+        PlanMetrics.Histogram histogram = new PlanMetrics.Histogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.percentile(100));
+    }
+
+    @Test
+    void resetClearsHistogramsAndCounters() {
+        PlanMetrics.Histogram histogram = new PlanMetrics.Histogram();
+        histogram.record(1_000_000);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(99));
+
+        // The counters are process-wide, so start from a clean slate
+        PlanMetrics.reset();
+        PlanMetrics.PAINT.record(2_000_000);
+        PlanMetrics.iconHits.add(3);
+        PlanMetrics.iconMisses.increment();
+        assertEquals(0.75, PlanMetrics.iconHitRate());
+        PlanMetrics.reset();
+        assertEquals(0, PlanMetrics.PAINT.count());
+        assertEquals(0, PlanMetrics.iconHitRate());
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlanRendererTest {
+    @TempDir
+    File dir;
+
+    private final Room kitchen = new Room(20, 30, 100, 60, RoomType.KITCHEN);
+    private final Furniture table = Furniture.create(40, 40, 30, 20, "Table");
+
+    private static BufferedImage blank(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(PlanRenderer.BACKGROUND_COLOR);
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        return image;
+    }
+
+    @Test
+    void drawsRoomsAndFurnitureHeadless() {
+        BufferedImage image = blank(200, 200);
+        Graphics2D g2d = image.createGraphics();
+        PlanRenderer.drawPlan(g2d, List.of(kitchen), List.of(table));
+        g2d.dispose();
+
+        assertEquals(kitchen.color.getRGB(), image.getRGB(100, 80));
+        assertEquals(PlanRenderer.WALL_COLOR.getRGB(), image.getRGB(kitchen.x - 1, 60));
+        assertEquals(PlanRenderer.FURNITURE_COLOR.getRGB(), image.getRGB(50, 50));
+        assertEquals(PlanRenderer.BACKGROUND_COLOR.getRGB(), image.getRGB(150, 150));
+    }
+
+    @Test
+    void planBoundsCoverWallsAndFurniture() {
+        Furniture chair = Furniture.create(200, 10, 20, 20, "Chair");
+        Rectangle bounds = PlanRenderer.planBounds(PlanStore.of(List.of(kitchen), List.of(chair)));
+        assertEquals(new Rectangle(0, 0, 200 + 20 + (int) PlanRenderer.WINDOW_STROKE_WIDTH,
+                30 + 60 + Room.wallThickness + 1), bounds);
+    }
+
+    @Test
+    void overviewFillsBlocksWithoutBorders() {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        PlanRenderer.Overview overview = new PlanRenderer.Overview(image, 0.25, 0, 0);
+
+        overview.wall(40, 40, 200, 200);
+        overview.interior(40, 40, 200, 200, kitchen.color);
+        overview.furniture(300, 300, 40, 40, "Door");
+        overview.furniture(0, 0, 1, 1, "Chair"); // Under half a pixel, so left out
+
+        assertEquals(PlanRenderer.WALL_COLOR.getRGB(), image.getRGB(9, 30));
+        assertEquals(kitchen.color.getRGB(), image.getRGB(30, 30));
+        assertEquals(PlanRenderer.DOOR_COLOR.getRGB(), image.getRGB(80, 80));
+        assertEquals(0, image.getRGB(0, 0));
+        assertEquals(0, image.getRGB(70, 30));
+    }
+
+    // Tiles are drawn separately; stitched together they must match drawing the image in one piece
+    @Test
+    void tiledRenderingMatchesOneTile() {
+        Random random = new Random(3);
+        List<Room> rooms = new ArrayList<>();
+        List<Furniture> furniture = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            rooms.add(new Room(random.nextInt(1500), random.nextInt(1500), 20 + random.nextInt(200),
+                    20 + random.nextInt(200), RoomType.values()[i % RoomType.values().length]));
+            furniture.add(Furniture.create(random.nextInt(1500), random.nextInt(1500), 10 + random.nextInt(50),
+                    10 + random.nextInt(50), Furniture.TYPES[i % Furniture.TYPES.length]));
+        }
+        PlanStore store = PlanStore.of(rooms, furniture);
+        BufferedImage whole = new PlanExporter("png", 0.5, 100000, dir).renderImage(store);
+        BufferedImage tiled = new PlanExporter("png", 0.5, 64, dir).renderImage(store);
+
+        assertEquals(whole.getWidth(), tiled.getWidth());
+        assertEquals(whole.getHeight(), tiled.getHeight());
+        for (int y = 0; y < whole.getHeight(); y++) {
+            for (int x = 0; x < whole.getWidth(); x++) {
+                assertEquals(whole.getRGB(x, y), tiled.getRGB(x, y), "pixel " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void exportsScaledPng() throws IOException {
+        File plan = new File(dir, "kitchen.fpln");
+        PlanFile.write(plan, List.of(kitchen), List.of(table));
+        File out = new File(dir, "out");
+        out.mkdir();
+
+        new PlanExporter("png", 2, 64, out).export(plan);
+
+        BufferedImage image = ImageIO.read(new File(out, "kitchen.png"));
+        Rectangle bounds = PlanRenderer.planBounds(PlanStore.of(List.of(kitchen), List.of(table)));
+        assertEquals(bounds.width * 2, image.getWidth());
+        assertEquals(bounds.height * 2, image.getHeight());
+        assertEquals(kitchen.color.getRGB(), image.getRGB(200, 160));
+        assertEquals(PlanRenderer.FURNITURE_COLOR.getRGB(), image.getRGB(100, 100));
+    }
+
+    @Test
+    void exportsSvgShapes() throws IOException {
+        File plan = new File(dir, "kitchen.fpln");
+        PlanFile.write(plan, List.of(kitchen), List.of(table));
+
+        new PlanExporter("svg", 0.5, 64, dir).export(plan);
+
+        String svg = Files.readString(new File(dir, "kitchen.svg").toPath());
+        Rectangle bounds = PlanRenderer.planBounds(PlanStore.of(List.of(kitchen), List.of(table)));
+        assertTrue(svg.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\""
+                + Math.round(bounds.width * 0.5) + "\""), svg);
+        // Background, then a wall and an interior per room, then one shape per piece
+        assertEquals(4, svg.split("<rect", -1).length - 1);
+        assertTrue(svg.contains("x=\"40\" y=\"40\" width=\"30\" height=\"20\""), svg);
+        assertTrue(svg.endsWith("</svg>\n"));
+    }
+}
@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PlanStoreTest {
+    @Test
+    void removedIdsAreReused() {
+        PlanStore store = new PlanStore();
+        int kitchen = store.addRoom(0, 0, 100, 100, RoomType.KITCHEN);
+        int chair = store.addFurniture(10, 10, 20, 20, Furniture.typeOrdinal("Chair"), 1);
+        int bedroom = store.addRoom(200, 0, 100, 100, RoomType.BEDROOM);
+
+        store.remove(chair);
+        store.remove(chair); // Removing a free id changes nothing
+
+        assertEquals(PlanStore.FREE, store.kind(chair));
+        assertEquals(2, store.roomCount());
+        assertEquals(0, store.furnitureCount());
+        int table = store.addFurniture(30, 30, 40, 20, Furniture.typeOrdinal("Table"), 0);
+        assertEquals(chair, table);
+        assertEquals(3, store.idLimit());
+        assertNotEquals(kitchen, bedroom);
+        assertEquals("Table", store.furnitureType(table));
+    }
+
+    @Test
+    void putBringsElementsBackUnderTheirIds() {
+        PlanStore store = new PlanStore();
+        int kitchen = store.addRoom(0, 0, 100, 100, RoomType.KITCHEN);
+        store.addRoom(200, 0, 100, 100, RoomType.BEDROOM);
+        store.remove(kitchen);
+
+        assertEquals(kitchen, store.put(kitchen, PlanStore.ROOM, 5, 5, 50, 50, RoomType.BATHROOM.ordinal(), 0));
+        // Past the end: the skipped slots become free and are handed out before new ones
+        assertEquals(5, store.put(5, PlanStore.FURNITURE, 1, 2, 3, 4, 0, 2));
+        assertEquals(6, store.idLimit());
+        int next = store.addFurniture(0, 0, 10, 10, 0, 0);
+        assertTrue(next >= 2 && next <= 4);
+        // A taken id goes to a free slot instead
+        int moved = store.put(kitchen, PlanStore.ROOM, 0, 0, 10, 10, RoomType.KITCHEN.ordinal(), 0);
+        assertNotEquals(kitchen, moved);
+        assertEquals(RoomType.BATHROOM, store.roomType(kitchen));
+        assertEquals(3, store.roomCount());
+        assertEquals(2, store.furnitureCount());
+    }
+
+    // Ids put back by undo or replay leave the free set, so add never hands them out a second time
+    @Test
+    void idsTakenBackByPutAreNotHandedOutAgain() {
+        PlanStore store = new PlanStore();
+        for (int i = 0; i < 1000; i++) {
+            store.addRoom(i * 10, 0, 5, 5, RoomType.KITCHEN);
+        }
+        for (int id = 0; id < 1000; id++) {
+            store.remove(id);
+        }
+        for (int id = 1; id < 1000; id += 2) {
+            assertEquals(id, store.put(id, PlanStore.ROOM, 0, 0, 5, 5, RoomType.BEDROOM.ordinal(), 0));
+        }
+        store.put(5000, PlanStore.ROOM, 0, 0, 5, 5, RoomType.BEDROOM.ordinal(), 0);
+
+        // The even ids below 1000 come back lowest first, then the ones skipped by the put past the end
+        for (int id = 0; id < 1000; id += 2) {
+            assertEquals(id, store.addFurniture(0, 0, 5, 5, 0, 0));
+        }
+        assertEquals(1000, store.addFurniture(0, 0, 5, 5, 0, 0));
+        assertEquals(5001, store.idLimit());
+        assertEquals(500, store.roomCount() - 1);
+        assertEquals(501, store.furnitureCount());
+    }
+
+    @Test
+    void createdElementsCarryTheirIdAndPutBack() {
+        PlanStore store = PlanStore.of(List.of(new Room(5, 6, 70, 80, RoomType.BATHROOM)),
+                List.of(Furniture.create(10, 20, 30, 40, "Sofa")));
+        ArrayList<Room> rooms = store.createRooms();
+        ArrayList<Furniture> furniture = store.createFurniture();
+        assertEquals(1, rooms.size());
+        assertEquals(1, furniture.size());
+
+        Room room = rooms.get(0);
+        room.x = 50;
+        room.width = 90;
+        Furniture sofa = furniture.get(0);
+        sofa.y = 60;
+        sofa.rotation = 2;
+        assertEquals(5, store.x(room.storeId)); // Copies, not views
+
+        PlanStore copy = new PlanStore();
+        assertEquals(room.storeId, copy.put(room));
+        assertEquals(sofa.storeId, copy.put(sofa));
+        assertEquals(50, copy.x(room.storeId));
+        assertEquals(90, copy.width(room.storeId));
+        assertEquals(RoomType.BATHROOM, copy.roomType(room.storeId));
+        assertEquals(60, copy.y(sofa.storeId));
+        assertEquals(2, copy.rotation(sofa.storeId));
+        assertEquals("Sofa", copy.furnitureType(sofa.storeId));
+    }
+
+    @Test
+    void intersectionIncludesRoomWalls() {
+        PlanStore store = new PlanStore();
+        int room = store.addRoom(100, 100, 50, 50, RoomType.LIVINGROOM);
+        int piece = store.addFurniture(100, 100, 50, 50, 0, 0);
+
+        // Just left of the room, inside its wall but outside the furniture
+        assertEquals(room, store.findIntersecting(PlanStore.ROOM, 99, 120, 1, 1, -1));
+        assertEquals(-1, store.findIntersecting(PlanStore.FURNITURE, 99, 120, 1, 1, -1));
+        assertEquals(-1, store.findIntersecting(PlanStore.ROOM, 120, 120, 1, 1, room));
+        assertEquals(piece, store.findIntersecting(PlanStore.FURNITURE, 120, 120, 1, 1, -1));
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RoomPackerTest {
+    private static final int SPACING = 10;
+    private static final int WALL = 5;
+
+    // Outer bounds of each packed room, walls included
+    private static Rectangle[] outlines(RoomPacker.Layout layout, int[] widths, int[] heights) {
+        Rectangle[] outlines = new Rectangle[widths.length];
+        for (int i = 0; i < widths.length; i++) {
+            outlines[i] = new Rectangle(layout.xs()[i] - WALL, layout.ys()[i] - WALL, widths[i] + 2 * WALL, heights[i] + 2 * WALL);
+        }
+        return outlines;
+    }
+
+    // An outline grown by the spacing to the right and below; a neighbour at least SPACING away misses it
+    private static Rectangle spaced(Rectangle outline) {
+        return new Rectangle(outline.x, outline.y, outline.width + SPACING, outline.height + SPACING);
+    }
+
+    private static int[] sizes(Random random, int count) {
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = 40 + 10 * random.nextInt(20);
+        }
+        return sizes;
+    }
+
+    @Test
+    void roomsKeepSpacingAndStayInTheStrip() {
+        Random random = new Random(5);
+        int[] widths = sizes(random, 500);
+        int[] heights = sizes(random, 500);
+
+        RoomPacker.Layout layout = RoomPacker.pack(widths, heights, 2000, SPACING, WALL, List.of());
+        Rectangle[] outlines = outlines(layout, widths, heights);
+
+        for (int i = 0; i < outlines.length; i++) {
+            assertTrue(outlines[i].x >= 0 && outlines[i].y >= 0);
+            assertTrue(outlines[i].x + outlines[i].width <= 2000, outlines[i].toString());
+            assertTrue(outlines[i].y + outlines[i].height <= layout.height(), outlines[i].toString());
+            for (int j = 0; j < i; j++) {
+                assertFalse(spaced(outlines[i]).intersects(outlines[j]) || spaced(outlines[j]).intersects(outlines[i]),
+                        i + " is too close to " + j);
+            }
+        }
+    }
+
+    @Test
+    void roomWiderThanTheStripGetsARowOfItsOwn() {
+        int[] widths = {3000, 100, 100};
+        int[] heights = {100, 100, 100};
+
+        RoomPacker.Layout layout = RoomPacker.pack(widths, heights, 1000, SPACING, WALL, List.of());
+        Rectangle[] outlines = outlines(layout, widths, heights);
+
+        assertFalse(outlines[0].intersects(outlines[1]));
+        assertFalse(outlines[0].intersects(outlines[2]));
+        assertFalse(outlines[1].intersects(outlines[2]));
+        assertEquals(WALL, layout.xs()[0]);
+    }
+
+    @Test
+    void roomsKeepSpacingFromObstacles() {
+        Random random = new Random(9);
+        int[] widths = sizes(random, 300);
+        int[] heights = sizes(random, 300);
+        List<Rectangle> shafts = List.of(new Rectangle(0, 0, 120, 120), new Rectangle(700, 300, 60, 900),
+                new Rectangle(-50, 1500, 3000, 40));
+
+        Rectangle[] outlines = outlines(RoomPacker.pack(widths, heights, 2000, SPACING, WALL, shafts), widths, heights);
+
+        for (Rectangle outline : outlines) {
+            Rectangle spaced = new Rectangle(outline.x - SPACING, outline.y - SPACING,
+                    outline.width + 2 * SPACING, outline.height + 2 * SPACING);
+            for (Rectangle shaft : shafts) {
+                assertFalse(spaced.intersects(shaft), outline + " is too close to " + shaft);
+            }
+        }
+    }
+}
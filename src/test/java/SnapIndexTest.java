@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.Test;
+
+class SnapIndexTest {
+    private static final Predicate<Room> SKIP_NONE = room -> false;
+
+    // Distance from a position to the nearest edge or center within reach, the way nearest defines it, or -1
+    private static long nearestDistance(Map<Room, int[]> indexed, boolean vertical, int position, int reach,
+                                        Predicate<Room> skip) {
+        long best = -1;
+        for (Map.Entry<Room, int[]> entry : indexed.entrySet()) {
+            if (skip.test(entry.getKey())) {
+                continue;
+            }
+            int[] box = entry.getValue();
+            int start = vertical ? box[1] : box[0];
+            int size = vertical ? box[3] : box[2];
+            for (int edge : new int[] {start, start + size / 2, start + size}) {
+                long distance = Math.abs((long) edge - position);
+                if (distance <= reach && (best < 0 || distance < best)) {
+                    best = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static long distance(int found, int position) {
+        return found == SnapIndex.NONE ? -1 : Math.abs((long) found - position);
+    }
+
+    @Test
+    void nearestEdgesAndCenters() {
+        SnapIndex<Room> index = new SnapIndex<>();
+        Room room = new Room(100, 200, 60, 40, RoomType.BEDROOM);
+        index.update(room, room.x, room.y, room.width, room.height);
+
+        assertEquals(100, index.nearest(false, 95, 10, SKIP_NONE));
+        assertEquals(130, index.nearest(false, 128, 10, SKIP_NONE));
+        assertEquals(240, index.nearest(true, 245, 10, SKIP_NONE));
+        assertEquals(SnapIndex.NONE, index.nearest(false, 300, 10, SKIP_NONE));
+        assertEquals(SnapIndex.NONE, index.nearest(false, 95, 10, other -> other == room));
+    }
+
+    // Enough random edits to merge several times, with queries in between that must agree with a scan
+    @Test
+    void randomEditsMatchAScan() {
+        SnapIndex<Room> index = new SnapIndex<>();
+        Map<Room, int[]> indexed = new IdentityHashMap<>();
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            rooms.add(new Room(0, 0, 0, 0, RoomType.KITCHEN));
+        }
+        Random random = new Random(17);
+        for (int step = 0; step < 30000; step++) {
+            Room room = rooms.get(random.nextInt(rooms.size()));
+            if (random.nextInt(5) == 0) {
+                index.remove(room);
+                indexed.remove(room);
+            } else {
+                int[] box = {random.nextInt(100000) - 50000, random.nextInt(100000) - 50000,
+                        1 + random.nextInt(400), 1 + random.nextInt(400)};
+                index.update(room, box[0], box[1], box[2], box[3]);
+                indexed.put(room, box);
+            }
+            if (step % 100 == 0) {
+                assertEquals(indexed.size(), index.size());
+                boolean vertical = random.nextBoolean();
+                int position = random.nextInt(100000) - 50000;
+                int reach = random.nextInt(300);
+                // Skip about half the rooms, as snapping skips the dragged room and its furniture
+                Predicate<Room> skip = other -> (System.identityHashCode(other) & 1) == 0;
+                assertEquals(nearestDistance(indexed, vertical, position, reach, SKIP_NONE),
+                        distance(index.nearest(vertical, position, reach, SKIP_NONE), position));
+                assertEquals(nearestDistance(indexed, vertical, position, reach, skip),
+                        distance(index.nearest(vertical, position, reach, skip), position));
+            }
+        }
+    }
+
+    @Test
+    void removedAndReaddedItemsAreFound() {
+        SnapIndex<Room> index = new SnapIndex<>();
+        List<Room> rooms = new ArrayList<>();
+        // Past the merge threshold, so the rooms end up in the sorted arrays
+        for (int i = 0; i < 3000; i++) {
+            Room room = new Room(i * 1000, 0, 100, 100, RoomType.BATHROOM);
+            rooms.add(room);
+            index.update(room, room.x, room.y, room.width, room.height);
+        }
+        assertEquals(5000, index.nearest(false, 5003, 10, SKIP_NONE));
+        for (Room room : rooms) {
+            index.remove(room);
+        }
+        assertEquals(0, index.size());
+        assertEquals(SnapIndex.NONE, index.nearest(false, 5003, 10, SKIP_NONE));
+
+        Room back = rooms.get(5);
+        index.update(back, back.x, back.y, back.width, back.height);
+        assertEquals(1, index.size());
+        assertEquals(5000, index.nearest(false, 5003, 10, SKIP_NONE));
+    }
+
+    // Rooms removed and merged give their slots to new rooms, which must not inherit the old edges
+    @Test
+    void reusedSlotsDropTheEdgesOfTheirLastOwner() {
+        SnapIndex<Room> index = new SnapIndex<>();
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Room room = new Room(i * 1000, 0, 100, 100, RoomType.BATHROOM);
+            rooms.add(room);
+            index.update(room, room.x, room.y, room.width, room.height);
+        }
+        assertEquals(5000, index.nearest(false, 5003, 10, SKIP_NONE));
+        for (Room room : rooms) {
+            index.remove(room);
+        }
+        assertEquals(SnapIndex.NONE, index.nearest(false, 5003, 10, SKIP_NONE));
+
+        for (int i = 0; i < 200; i++) {
+            Room room = new Room(i * 1000 + 500, 0, 100, 100, RoomType.BATHROOM);
+            index.update(room, room.x, room.y, room.width, room.height);
+            // Moved before the next merge: only the latest edges count
+            index.update(room, room.x - 200, room.y, room.width, room.height);
+        }
+        assertEquals(200, index.size());
+        assertEquals(SnapIndex.NONE, index.nearest(false, 5003, 10, SKIP_NONE));
+        assertEquals(5300, index.nearest(false, 5303, 10, SKIP_NONE));
+        assertEquals(SnapIndex.NONE, index.nearest(false, 5503, 10, SKIP_NONE));
+    }
+}
@@ -0,0 +1,166 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class SpatialGridTest {
+    private static final int CELL = 100;
+
+    private static void index(SpatialGrid<Rectangle> grid, Rectangle item) {
+        grid.update(item, item.x, item.y, item.width, item.height);
+    }
+
+    private static Rectangle find(SpatialGrid<Rectangle> grid, int x, int y) {
+        Rectangle point = new Rectangle(x, y, 1, 1);
+        return grid.findFirst(x, y, 1, 1, item -> item.intersects(point));
+    }
+
+    // Rectangles are mutable and compare by value, so sets of them go by identity
+    private static Set<Rectangle> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static List<Rectangle> visit(SpatialGrid<Rectangle> grid, int x, int y, int width, int height) {
+        List<Rectangle> visited = new ArrayList<>();
+        grid.forEach(x, y, width, height, visited::add);
+        return visited;
+    }
+
+    @Test
+    void queriesFollowMovesAndRemovals() {
+        SpatialGrid<Rectangle> grid = new SpatialGrid<>(CELL);
+        Rectangle item = new Rectangle(10, 10, 50, 50);
+        index(grid, item);
+        assertSame(item, find(grid, 20, 20));
+
+        item.x = 1010;
+        index(grid, item);
+        assertNull(find(grid, 20, 20));
+        assertSame(item, find(grid, 1020, 20));
+
+        grid.remove(item);
+        assertEquals(0, grid.size());
+        assertNull(find(grid, 1020, 20));
+    }
+
+    @Test
+    void itemsSpanningCellsAreVisitedOnce() {
+        SpatialGrid<Rectangle> grid = new SpatialGrid<>(CELL);
+        Rectangle wide = new Rectangle(-150, -50, 400, 250);
+        Rectangle small = new Rectangle(120, 20, 10, 10);
+        index(grid, wide);
+        index(grid, small);
+
+        List<Rectangle> visited = visit(grid, -200, -200, 600, 600);
+
+        assertEquals(2, visited.size());
+        assertTrue(visited.contains(wide) && visited.contains(small));
+        assertEquals(List.of(wide), visit(grid, 200, 150, 10, 10));
+    }
+
+    @Test
+    void areaQueriesSkipTheExcludedItem() {
+        SpatialGrid<Rectangle> grid = new SpatialGrid<>(CELL);
+        Rectangle dragged = new Rectangle(0, 0, 50, 50);
+        Rectangle other = new Rectangle(40, 40, 50, 50);
+        index(grid, dragged);
+        index(grid, other);
+        SpatialGrid.AreaTest<Rectangle> overlaps = (item, x, y, width, height) -> item.intersects(x, y, width, height);
+
+        assertSame(other, grid.findFirst(dragged.x, dragged.y, dragged.width, dragged.height, dragged, overlaps));
+        assertNull(grid.findFirst(80, 80, 5, 5, other, overlaps));
+    }
+
+    @Test
+    void emptiedCellsAreFreed() {
+        SpatialGrid<Rectangle> grid = new SpatialGrid<>(CELL);
+        Rectangle item = new Rectangle(0, 0, 250, 50); // Three cells
+        index(grid, item);
+        assertEquals(3, grid.cellCount());
+
+        // Moving back and forth reuses cells without leaving empty ones behind
+        for (int i = 0; i < 100; i++) {
+            item.x = (i % 2) * 5000;
+            index(grid, item);
+            assertEquals(3, grid.cellCount());
+        }
+
+        grid.remove(item);
+        assertEquals(0, grid.cellCount());
+    }
+
+    @Test
+    void tableShrinksWhenCellsEmpty() {
+        SpatialGrid<Rectangle> grid = new SpatialGrid<>(CELL);
+        List<Rectangle> items = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            Rectangle item = new Rectangle((i % 100) * CELL, (i / 100) * CELL, 10, 10);
+            items.add(item);
+            index(grid, item);
+        }
+        assertTrue(grid.tableCapacity() >= 8000);
+
+        for (int i = 0; i < items.size() - 10; i++) {
+            grid.remove(items.get(i));
+        }
+
+        assertEquals(10, grid.cellCount());
+        assertTrue(grid.tableCapacity() <= 128, "Table still holds " + grid.tableCapacity() + " slots");
+        for (Rectangle item : items.subList(items.size() - 10, items.size())) {
+            assertSame(item, find(grid, item.x, item.y));
+        }
+    }
+
+    // Random updates and removals against a plain set: every query must agree with a linear scan
+    @Test
+    void randomEditsMatchALinearScan() {
+        SpatialGrid<Rectangle> grid = new SpatialGrid<>(CELL);
+        List<Rectangle> items = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            items.add(new Rectangle());
+        }
+        Set<Rectangle> indexed = identitySet();
+        Random random = new Random(42);
+        for (int step = 0; step < 20000; step++) {
+            Rectangle item = items.get(random.nextInt(items.size()));
+            if (random.nextInt(4) == 0) {
+                grid.remove(item);
+                indexed.remove(item);
+            } else {
+                item.setBounds(random.nextInt(4000) - 2000, random.nextInt(4000) - 2000,
+                        1 + random.nextInt(300), 1 + random.nextInt(300));
+                index(grid, item);
+                indexed.add(item);
+            }
+            if (step % 50 == 0) {
+                Rectangle query = new Rectangle(random.nextInt(4000) - 2000, random.nextInt(4000) - 2000, 400, 400);
+                Set<Rectangle> expected = identitySet();
+                for (Rectangle candidate : indexed) {
+                    if (candidate.intersects(query)) {
+                        expected.add(candidate);
+                    }
+                }
+                List<Rectangle> found = new ArrayList<>();
+                for (Rectangle candidate : visit(grid, query.x, query.y, query.width, query.height)) {
+                    if (candidate.intersects(query)) {
+                        found.add(candidate);
+                    }
+                }
+                Set<Rectangle> distinct = identitySet();
+                distinct.addAll(found);
+                assertEquals(found.size(), distinct.size(), "Visited an item twice");
+                assertEquals(expected, distinct);
+            }
+        }
+        assertEquals(indexed.size(), grid.size());
+    }
+}
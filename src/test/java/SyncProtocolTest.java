@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.Test;
+
+class SyncProtocolTest {
+    // Encode a batch and decode it the way both ends read a frame
+    private static SyncProtocol.Batch roundTrip(SyncProtocol.Batch batch) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer frame = SyncProtocol.encode(batch, 7, deflater);
+            assertEquals(frame.remaining() - 4, frame.getInt());
+            assertEquals(SyncProtocol.BATCH, frame.get());
+            assertEquals(7, frame.getInt());
+            return SyncProtocol.decode(frame, inflater);
+        } finally {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    @Test
+    void recordsSurviveARoundTrip() throws IOException {
+        SyncProtocol.Batch batch = new SyncProtocol.Batch();
+        batch.add(PlanJournal.PUT, 1L << 32 | 1, PlanStore.ROOM, RoomType.KITCHEN.ordinal(), 0, -10, 20, 300, 400);
+        batch.add(PlanJournal.PUT, 1L << 32 | 2, PlanStore.FURNITURE, 5, 3, 1, 2, 3, 4);
+        batch.add(PlanJournal.SET, 1L << 32 | 1, PlanStore.FREE, 0, 2, 5, 6, 7, 8);
+        batch.add(PlanJournal.REMOVE, 2L << 32 | 9, PlanStore.FREE, 0, 0, 0, 0, 0, 0);
+
+        SyncProtocol.Batch decoded = roundTrip(batch);
+
+        assertEquals(4, decoded.size());
+        assertEquals(PlanJournal.PUT, decoded.op(0));
+        assertEquals(PlanStore.ROOM, decoded.kind(0));
+        assertEquals(RoomType.KITCHEN.ordinal(), decoded.type(0));
+        assertEquals(-10, decoded.x(0));
+        assertEquals(400, decoded.height(0));
+        assertEquals(PlanStore.FURNITURE, decoded.kind(1));
+        assertEquals(5, decoded.type(1));
+        assertEquals(3, decoded.rotation(1));
+        assertEquals(PlanJournal.SET, decoded.op(2));
+        assertEquals(2, decoded.rotation(2));
+        assertEquals(8, decoded.height(2));
+        assertEquals(PlanJournal.REMOVE, decoded.op(3));
+        assertEquals(2L << 32 | 9, decoded.uid(3));
+    }
+
+    @Test
+    void cancelledRecordsAreNotSent() throws IOException {
+        SyncProtocol.Batch batch = new SyncProtocol.Batch();
+        int cancelled = batch.add(PlanJournal.PUT, 1, PlanStore.ROOM, 0, 0, 0, 0, 10, 10);
+        batch.add(PlanJournal.PUT, 2, PlanStore.ROOM, 0, 0, 20, 0, 10, 10);
+        batch.setOp(cancelled, (byte) 0);
+
+        SyncProtocol.Batch decoded = roundTrip(batch);
+
+        assertEquals(1, decoded.size());
+        assertEquals(2, decoded.uid(0));
+    }
+
+    @Test
+    void largeBatchesAreDeflated() throws IOException {
+        SyncProtocol.Batch batch = new SyncProtocol.Batch();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(PlanJournal.PUT, i + 1, PlanStore.FURNITURE, 1, 0, i * 10, 0, 10, 10);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteBuffer frame = SyncProtocol.encode(batch, 1, deflater);
+        deflater.end();
+        assertEquals(SyncProtocol.DEFLATED, frame.get(9));
+
+        SyncProtocol.Batch decoded = roundTrip(batch);
+
+        assertEquals(1000, decoded.size());
+        assertEquals(9990, decoded.x(999));
+    }
+
+    @Test
+    void corruptBatchesAreRejected() {
+        SyncProtocol.Batch batch = new SyncProtocol.Batch();
+        batch.add(PlanJournal.PUT, 1, PlanStore.ROOM, RoomType.values().length, 0, 0, 0, 10, 10);
+        assertThrows(IOException.class, () -> roundTrip(batch));
+
+        ByteBuffer truncated = ByteBuffer.allocate(1 + 4 + 3).put((byte) 0).putInt(3).put(PlanJournal.SET).putShort((short) 1).flip();
+        assertThrows(IOException.class, () -> SyncProtocol.decode(truncated, new Inflater()));
+    }
+}
@@ -0,0 +1,255 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Two clients and a server over loopback; every client must end up with the plan the server holds
+class SyncSessionTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private SyncServer server;
+    private Replica a;
+    private Replica b;
+
+    // A plan kept the way the canvas keeps it, applying remote batches like CanvasPanel.applyRemote
+    private static final class Replica implements SyncClient.Listener {
+        final PlanIds ids = new PlanIds();
+        SyncClient client;
+        volatile boolean joined;
+
+        public void joined(SyncClient client, SyncProtocol.Batch plan) {
+            apply(plan);
+            joined = true;
+        }
+
+        public void received(SyncClient client, SyncProtocol.Batch batch) {
+            apply(batch);
+        }
+
+        public void disconnected(SyncClient client, IOException cause) {
+        }
+
+        private void apply(SyncProtocol.Batch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                long uid = batch.uid(i);
+                byte op = batch.op(i);
+                if (!client.accepts(op, uid)) {
+                    continue;
+                }
+                Object element = client.element(uid);
+                if (op == PlanJournal.REMOVE) {
+                    if (element != null) {
+                        int id = ((Room) element).storeId;
+                        ids.remove(id);
+                        ((Room) element).storeId = -1;
+                        client.forget(uid, id);
+                    }
+                    continue;
+                }
+                if (element == null) {
+                    if (op != PlanJournal.PUT) {
+                        continue;
+                    }
+                    element = new Room(0, 0, 0, 0, RoomType.values()[batch.type(i)]);
+                }
+                Room room = (Room) element;
+                room.x = batch.x(i);
+                room.y = batch.y(i);
+                room.width = batch.width(i);
+                room.height = batch.height(i);
+                if (room.storeId < 0) {
+                    room.storeId = ids.add(room);
+                }
+                client.bind(uid, room.storeId, room);
+            }
+        }
+
+        Room add(int x, int y) {
+            Room room = new Room(x, y, 50, 50, RoomType.BEDROOM);
+            room.storeId = ids.add(room);
+            client.changed(PlanJournal.PUT, room.storeId, room);
+            return room;
+        }
+
+        void move(Room room, int x, int y) {
+            room.x = x;
+            room.y = y;
+            client.changed(PlanJournal.SET, room.storeId, room);
+        }
+
+        void remove(Room room) {
+            int id = room.storeId;
+            ids.remove(id);
+            room.storeId = -1;
+            client.changed(PlanJournal.REMOVE, id, room);
+        }
+
+        // The room at a position; ids differ between replicas
+        Room at(int x, int y) {
+            for (int id = 0; id < ids.limit(); id++) {
+                if (ids.get(id) instanceof Room room && room.x == x && room.y == y) {
+                    return room;
+                }
+            }
+            throw new AssertionError("No room at " + x + "," + y);
+        }
+
+        // Positions and sizes of the rooms, in a fixed order; called on the EDT
+        List<String> rooms() {
+            List<String> rooms = new ArrayList<>();
+            for (int id = 0; id < ids.limit(); id++) {
+                if (ids.get(id) instanceof Room room) {
+                    rooms.add(room.x + "," + room.y + " " + room.width + "x" + room.height);
+                }
+            }
+            rooms.sort(null);
+            return rooms;
+        }
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        server = SyncServer.start(0);
+        a = join();
+        b = join();
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        onEdt(() -> {
+            a.client.close();
+            b.client.close();
+            return null;
+        });
+        server.close();
+    }
+
+    private Replica join() throws Exception {
+        Replica replica = new Replica();
+        replica.client = SyncClient.start("localhost", server.port(), replica);
+        waitFor(() -> replica.joined);
+        return replica;
+    }
+
+    private static <T> T onEdt(Callable<T> task) throws Exception {
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result.set(task.call());
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return result.get();
+    }
+
+    private static void waitFor(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.call()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    // Wait until both replicas hold the same plan as each other and as many elements as the server
+    private List<String> converged() throws Exception {
+        waitFor(() -> onEdt(() -> a.rooms().equals(b.rooms()) && a.rooms().size() == server.elementCount()));
+        // Let any late batch arrive, then check again
+        Thread.sleep(2 * SyncClient.SEND_DELAY_MS);
+        return onEdt(() -> {
+            assertEquals(a.rooms(), b.rooms());
+            return a.rooms();
+        });
+    }
+
+    @Test
+    void concurrentPutsReachEveryClient() throws Exception {
+        onEdt(() -> {
+            a.add(0, 0);
+            b.add(100, 0);
+            a.client.send();
+            b.client.send();
+            return null;
+        });
+        assertEquals(List.of("0,0 50x50", "100,0 50x50"), converged());
+    }
+
+    @Test
+    void concurrentMovesAgreeOnTheServersOrder() throws Exception {
+        Room room = onEdt(() -> a.add(0, 0));
+        converged();
+        Room other = onEdt(() -> b.at(0, 0));
+        onEdt(() -> {
+            a.move(room, 100, 0);
+            b.move(other, 200, 0);
+            a.client.send();
+            b.client.send();
+            return null;
+        });
+        List<String> rooms = converged();
+        assertEquals(1, rooms.size());
+        assertTrue(rooms.get(0).equals("100,0 50x50") || rooms.get(0).equals("200,0 50x50"), rooms.toString());
+    }
+
+    @Test
+    void removeAndPutInOneBatch() throws Exception {
+        onEdt(() -> {
+            Room room = a.add(0, 0);
+            a.add(100, 0);
+            a.remove(room);
+            return null;
+        });
+        assertEquals(List.of("100,0 50x50"), converged());
+    }
+
+    // B removes a room while A's move of it is in flight: the server drops the move, so A must apply
+    // the REMOVE even though its own edit is not acknowledged yet
+    @Test
+    void removeWinsOverAMoveInFlight() throws Exception {
+        Room room = onEdt(() -> a.add(0, 0));
+        onEdt(() -> a.add(100, 0));
+        converged();
+        onEdt(() -> {
+            // Holding the EDT keeps A from seeing the removal before it moves the room
+            b.remove(b.at(0, 0));
+            b.client.send();
+            waitFor(() -> server.elementCount() == 1);
+            a.move(room, 300, 300);
+            a.client.send();
+            return null;
+        });
+        assertEquals(List.of("100,0 50x50"), converged());
+    }
+
+    @Test
+    void lateJoinerGetsThePlan() throws Exception {
+        onEdt(() -> {
+            Room room = a.add(0, 0);
+            a.move(room, 10, 20);
+            b.add(100, 0);
+            return null;
+        });
+        List<String> rooms = converged();
+        Replica late = join();
+        try {
+            assertEquals(rooms, onEdt(late::rooms));
+        } finally {
+            onEdt(() -> {
+                late.client.close();
+                return null;
+            });
+        }
+    }
+}